@@ -17,12 +17,15 @@
 package cern.c2mon.client.core.jms.impl;
 
 import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
+import javax.jms.BytesMessage;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageListener;
@@ -96,6 +99,23 @@ public abstract class AbstractQueuedWrapper<U> implements Lifecycle, MessageList
    * @throws JMSException if error in using the message
    */
   protected abstract U convertMessage(Message message) throws JMSException;
+
+  /**
+   * Converts the JMS message into the events it holds. By default, text
+   * messages hold a single event (see {@link #convertMessage(Message)}) and
+   * binary messages are not supported; wrappers receiving batches of events
+   * override this method.
+   * @param message the JMS message
+   * @return the events, in the order they should be notified
+   * @throws JMSException if error in using the message
+   */
+  protected Collection<U> convertMessages(Message message) throws JMSException {
+    if (message instanceof TextMessage) {
+      return Collections.singletonList(convertMessage(message));
+    }
+    LOGGER.warn("Non-text message received for " + this.getClass().getSimpleName() + " - ignoring event");
+    return Collections.emptyList();
+  }
   
   /**
    * Return some human-readable version of an event. Used for logging
@@ -149,21 +169,22 @@ public abstract class AbstractQueuedWrapper<U> implements Lifecycle, MessageList
   @Override
   public void onMessage(final Message message) {
     try {
-      if (message instanceof TextMessage) {        
-        if (LOGGER.isTraceEnabled())
+      if (message instanceof TextMessage || message instanceof BytesMessage) {        
+        if (LOGGER.isTraceEnabled() && message instanceof TextMessage)
            LOGGER.trace("AbstractQueuedWrapper received message for " + this.getClass().getSimpleName() + ": " + ((TextMessage)message).getText());
         
-        U event = convertMessage(message);
-        long lastNotificationTime = notificationTime.get();
-        if (lastNotificationTime != 0 && (System.currentTimeMillis() - lastNotificationTime) > notificationTimeBeforeWarning.get()) {
-          String warning = "Slow consumer warning: " + this.getClass().getSimpleName() + ". "
-                              + "C2MON client is not consuming updates correctly and should be restarted! " 
-                              + " Event type: " + getDescription(event);
-          LOGGER.warn(warning);
-          LOGGER.warn("No returning call from listener since " + new Timestamp(lastNotificationTime));
-          slowConsumerListener.onSlowConsumer(warning);
+        for (U event : convertMessages(message)) {
+          long lastNotificationTime = notificationTime.get();
+          if (lastNotificationTime != 0 && (System.currentTimeMillis() - lastNotificationTime) > notificationTimeBeforeWarning.get()) {
+            String warning = "Slow consumer warning: " + this.getClass().getSimpleName() + ". "
+                                + "C2MON client is not consuming updates correctly and should be restarted! " 
+                                + " Event type: " + getDescription(event);
+            LOGGER.warn(warning);
+            LOGGER.warn("No returning call from listener since " + new Timestamp(lastNotificationTime));
+            slowConsumerListener.onSlowConsumer(warning);
+          }
+          eventQueue.put(event);
         }
-        eventQueue.put(event);
       } else {
         LOGGER.warn("Non-text message received for " + this.getClass().getSimpleName() + " - ignoring event");
       }
@@ -18,11 +18,15 @@ package cern.c2mon.client.core.jms.impl;
 
 import static java.lang.String.format;
 
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 
+import javax.jms.BytesMessage;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.TextMessage;
@@ -43,6 +47,9 @@ import cern.c2mon.shared.client.tag.TransferTagValueImpl;
  * wrapper listens on a the given topic and notifies {@link TagUpdateListener}s when an update is received for the
  * corresponding Tag. Notice only one TagUpdateListener will be registered for a given id (the latest one added). In
  * other words, this wrapper also functions as a filter on the topic, with undesired messages being filtered out.
+ * <p>
+ * A message holds either a single update or, if the server publishes in batches, a json array of updates. Batches
+ * may also be sent as compressed binary messages. The updates of a batch are notified one by one, in order.
  *
  * @author Mark Brightwell
  */
@@ -113,6 +120,31 @@ class MessageListenerWrapper extends AbstractQueuedWrapper<TagValueUpdate> {
       return TransferTagSerializer.fromJson(((TextMessage) message).getText(), TransferTagValueImpl.class);
     }
 
+    @Override
+    protected Collection<TagValueUpdate> convertMessages(Message message) throws JMSException {
+      String json;
+      if (message instanceof BytesMessage) {
+        BytesMessage bytesMessage = (BytesMessage) message;
+        byte[] bytes = new byte[(int) bytesMessage.getBodyLength()];
+        bytesMessage.readBytes(bytes);
+        try {
+          json = TransferTagSerializer.decompress(bytes);
+        } catch (IOException e) {
+          JMSException jmsException = new JMSException("Unable to decompress tag update batch: " + e.getMessage());
+          jmsException.initCause(e);
+          throw jmsException;
+        }
+      } else {
+        json = ((TextMessage) message).getText();
+      }
+
+      if (!TransferTagSerializer.isJsonArray(json)) {
+        return Collections.<TagValueUpdate>singletonList(TransferTagSerializer.fromJson(json, TransferTagValueImpl.class));
+      }
+      Collection<TransferTagValueImpl> batch = TransferTagSerializer.fromJsonArray(json, TransferTagValueImpl.class);
+      return batch == null ? Collections.<TagValueUpdate>emptyList() : Collections.<TagValueUpdate>unmodifiableCollection(batch);
+    }
+
     @Override
     protected synchronized void notifyListeners(TagValueUpdate tagValueUpdate) {
 
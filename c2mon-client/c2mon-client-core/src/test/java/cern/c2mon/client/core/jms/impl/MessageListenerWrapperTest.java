@@ -0,0 +1,151 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ * 
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ * 
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.client.core.jms.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cern.c2mon.client.core.listener.TagUpdateListener;
+import cern.c2mon.shared.client.serializer.TransferTagSerializer;
+import cern.c2mon.shared.client.tag.TagMode;
+import cern.c2mon.shared.client.tag.TagValueUpdate;
+import cern.c2mon.shared.client.tag.TransferTagValueImpl;
+import cern.c2mon.shared.common.datatag.DataTagQualityImpl;
+
+/**
+ * Unit test of MessageListenerWrapper, checking that single updates and
+ * batches of updates (text and compressed) are unpacked.
+ */
+public class MessageListenerWrapperTest {
+
+  private static final Long TAG_ID = 1L;
+
+  private ExecutorService executor;
+
+  private MessageListenerWrapper wrapper;
+
+  private List<Object> receivedValues;
+
+  private CountDownLatch latch;
+
+  @Before
+  public void beforeTest() {
+    executor = Executors.newSingleThreadExecutor();
+    receivedValues = new ArrayList<>();
+    latch = new CountDownLatch(3);
+    TagUpdateListener listener = new TagUpdateListener() {
+      @Override
+      public boolean onUpdate(TagValueUpdate tagValueUpdate) {
+        receivedValues.add(tagValueUpdate.getValue());
+        latch.countDown();
+        return true;
+      }
+    };
+    wrapper = new MessageListenerWrapper(TAG_ID, listener, 10, EasyMock.createNiceMock(SlowConsumerListener.class), executor);
+    wrapper.start();
+  }
+
+  @After
+  public void afterTest() {
+    wrapper.stop();
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testSingleUpdate() throws Exception {
+    ActiveMQTextMessage message = new ActiveMQTextMessage();
+    message.setText(TransferTagSerializer.toJson(createUpdate(TAG_ID, 1L, 1000)));
+
+    wrapper.onMessage(message);
+
+    assertTrue(waitForCount(1));
+    assertEquals(1L, receivedValues.get(0));
+  }
+
+  @Test
+  public void testJsonBatch() throws Exception {
+    ActiveMQTextMessage message = new ActiveMQTextMessage();
+    message.setText(createBatch());
+
+    wrapper.onMessage(message);
+
+    assertTrue(latch.await(2, TimeUnit.SECONDS));
+    assertBatchReceived();
+  }
+
+  @Test
+  public void testCompressedBatch() throws Exception {
+    ActiveMQBytesMessage message = new ActiveMQBytesMessage();
+    message.writeBytes(TransferTagSerializer.compress(createBatch()));
+    message.reset();
+
+    wrapper.onMessage(message);
+
+    assertTrue(latch.await(2, TimeUnit.SECONDS));
+    assertBatchReceived();
+  }
+
+  /**
+   * A batch with three updates of the registered tag and one of another tag,
+   * which must be filtered out.
+   */
+  private static String createBatch() {
+    List<String> updates = new ArrayList<>();
+    updates.add(TransferTagSerializer.toJson(createUpdate(TAG_ID, 1L, 1000)));
+    updates.add(TransferTagSerializer.toJson(createUpdate(2L, 100L, 1000)));
+    updates.add(TransferTagSerializer.toJson(createUpdate(TAG_ID, 2L, 2000)));
+    updates.add(TransferTagSerializer.toJson(createUpdate(TAG_ID, 3L, 3000)));
+    return TransferTagSerializer.toJsonArray(updates);
+  }
+
+  private void assertBatchReceived() {
+    assertEquals(3, receivedValues.size());
+    assertEquals(1L, receivedValues.get(0));
+    assertEquals(2L, receivedValues.get(1));
+    assertEquals(3L, receivedValues.get(2));
+  }
+
+  private boolean waitForCount(final int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 2000;
+    while (receivedValues.size() < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    return receivedValues.size() >= count;
+  }
+
+  private static TransferTagValueImpl createUpdate(final Long tagId, final Long value, final long serverTime) {
+    TransferTagValueImpl update = new TransferTagValueImpl(tagId, value, "value description", new DataTagQualityImpl(), TagMode.OPERATIONAL,
+        new Timestamp(serverTime), new Timestamp(serverTime), new Timestamp(serverTime), "description");
+    update.setValueClassName(Long.class.getName());
+    return update;
+  }
+}
@@ -56,6 +56,34 @@ public interface IEquipmentMessageSender {
    */
   boolean update(String tagName, ValueUpdate update);
 
+  /**
+   * Sends the value updates of several tags in one call. Each value is
+   * checked and filtered as with {@link #update(Long, ValueUpdate)}. The
+   * values of unknown tags are skipped.
+   *
+   * @param tagIds The ids of the tags to update
+   * @param values The new tag values, at the index of their tag id
+   * @param sourceTimestamps The source timestamps of the values in milliseconds
+   * @return The number of values sent to the server, i.e. not invalidated or
+   *         filtered out
+   * @throws IllegalArgumentException if the arrays have different lengths
+   */
+  int update(long[] tagIds, Object[] values, long[] sourceTimestamps);
+
+  /**
+   * Sends the value updates of several tags in one call. Each value is
+   * checked and filtered as with {@link #update(String, ValueUpdate)}. The
+   * values of unknown tags are skipped.
+   *
+   * @param tagNames The unique names of the tags to update
+   * @param values The new tag values, at the index of their tag name
+   * @param sourceTimestamps The source timestamps of the values in milliseconds
+   * @return The number of values sent to the server, i.e. not invalidated or
+   *         filtered out
+   * @throws IllegalArgumentException if the arrays have different lengths
+   */
+  int update(String[] tagNames, Object[] values, long[] sourceTimestamps);
+
   /**
    * Invalidates the given tag and sends a quality update to the server, if not yet done.
    * The value remains the same.
@@ -151,6 +151,9 @@ public class EquipmentMessageSender implements ICoreDataTagChanger, IEquipmentMe
 
     // Valid Sender
     this.equipmentSenderValid = new EquipmentSenderValid(this.equipmentSenderFilterModule, this.processMessageSender, this, this.equipmentTimeDeadband, this);
+    for (SourceDataTag sourceDataTag : this.equipmentConfiguration.getDataTags().values()) {
+      this.equipmentSenderValid.compileValuePipeline(sourceDataTag);
+    }
 
     // Alive Sender
     this.equipmentAliveSender = new EquipmentAliveSender(this.processMessageSender, this.equipmentConfiguration.getAliveTagId());
@@ -246,9 +249,48 @@ public class EquipmentMessageSender implements ICoreDataTagChanger, IEquipmentMe
     freshnessMonitor.reset(sdt);
 
     if (isAliveTag(tagId)) {
-      return this.equipmentAliveSender.sendEquipmentAlive(getTag(tagId), update);
+      return this.equipmentAliveSender.sendEquipmentAlive(sdt, update);
     } else {
-      return this.equipmentSenderValid.update(getTag(tagId), update);
+      return this.equipmentSenderValid.update(sdt, update);
+    }
+  }
+
+  @Override
+  public int update(long[] tagIds, Object[] values, long[] sourceTimestamps) {
+    checkBulkLengths(tagIds.length, values, sourceTimestamps);
+    int sent = 0;
+    for (int i = 0; i < tagIds.length; i++) {
+      try {
+        if (update(tagIds[i], new ValueUpdate(values[i], sourceTimestamps[i]))) {
+          sent++;
+        }
+      } catch (InvalidParameterException e) {
+        log.warn("update - skipping the value of tag #{}: {}", tagIds[i], e.getMessage());
+      }
+    }
+    return sent;
+  }
+
+  @Override
+  public int update(String[] tagNames, Object[] values, long[] sourceTimestamps) {
+    checkBulkLengths(tagNames.length, values, sourceTimestamps);
+    int sent = 0;
+    for (int i = 0; i < tagNames.length; i++) {
+      try {
+        if (update(equipmentConfiguration.getSourceDataTagIdByName(tagNames[i]), new ValueUpdate(values[i], sourceTimestamps[i]))) {
+          sent++;
+        }
+      } catch (IllegalArgumentException e) {
+        log.warn("update - skipping the value of tag {}: {}", tagNames[i], e.getMessage());
+      }
+    }
+    return sent;
+  }
+
+  private static void checkBulkLengths(final int tags, final Object[] values, final long[] sourceTimestamps) {
+    if (values.length != tags || sourceTimestamps.length != tags) {
+      throw new IllegalArgumentException("Got " + tags + " tags for " + values.length + " values and "
+          + sourceTimestamps.length + " source timestamps");
     }
   }
 
@@ -482,6 +524,8 @@ public class EquipmentMessageSender implements ICoreDataTagChanger, IEquipmentMe
    */
   @Override
   public void onAddDataTag(final SourceDataTag sourceDataTag, final ChangeReport changeReport) {
+    this.equipmentConfiguration.indexSourceDataTagName(sourceDataTag, null);
+    this.equipmentSenderValid.compileValuePipeline(sourceDataTag);
     DataTagAddress address = sourceDataTag.getAddress();
     if (!address.isStaticTimedeadband() && this.equipmentConfiguration.isDynamicTimeDeadbandEnabled()) {
       switch (address.getPriority()) {
@@ -508,6 +552,8 @@ public class EquipmentMessageSender implements ICoreDataTagChanger, IEquipmentMe
    */
   @Override
   public void onRemoveDataTag(final SourceDataTag sourceDataTag, final ChangeReport changeReport) {
+    this.equipmentConfiguration.removeSourceDataTagName(sourceDataTag);
+    this.equipmentSenderValid.removeValuePipeline(sourceDataTag.getId());
     this.medDynamicTimeDeadbandFilterActivator.removeDataTag(sourceDataTag);
     this.lowDynamicTimeDeadbandFilterActivator.removeDataTag(sourceDataTag);
     changeReport.appendInfo("Data tag " + sourceDataTag.getId() + " removed from any filters.");
@@ -526,6 +572,9 @@ public class EquipmentMessageSender implements ICoreDataTagChanger, IEquipmentMe
     if (!sourceDataTag.getAddress().isStaticTimedeadband() && sourceDataTag.getAddress().getPriority() != oldSourceDataTag.getAddress().getPriority()) {
       onRemoveDataTag(sourceDataTag, changeReport);
       onAddDataTag(sourceDataTag, changeReport);
+    } else {
+      this.equipmentSenderValid.compileValuePipeline(sourceDataTag);
     }
+    this.equipmentConfiguration.indexSourceDataTagName(sourceDataTag, oldSourceDataTag.getName());
   }
 }
@@ -29,8 +29,9 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-import static cern.c2mon.shared.common.type.TypeConverter.*;
 import static java.lang.String.format;
 
 /**
@@ -83,6 +84,10 @@ class EquipmentSenderValid {
    */
   private final EquipmentTimeDeadband equipmentTimeDeadband;
 
+  /**
+   * The compiled value checks of the tags, by tag id
+   */
+  private final Map<Long, ValuePipeline> valuePipelines = new ConcurrentHashMap<>();
 
   /**
    * Creates a new EquipmentValidSender.
@@ -146,17 +151,11 @@ class EquipmentSenderValid {
    * False if the tag has been invalidated or filtered out.
    */
   private boolean doUpdate(final SourceDataTag currentSourceDataTag, final ValueUpdate update) {
-    // do a validation check on the new value:
-    if (!checkValidation(currentSourceDataTag, update)) {
-      return false; //TODO Check, if that case is correctly treated by upper logic
-    }
+    ValuePipeline pipeline = getValuePipeline(currentSourceDataTag);
 
-    // cast the value to the defined dataType if the type is not 'ArbitraryObject':
-    if (isKnownClass(currentSourceDataTag.getDataType())) {
-      Object newValueCasted = cast(update.getValue(), currentSourceDataTag.getDataType());
-      if (newValueCasted != null) {
-        update.setValue(newValueCasted);
-      }
+    // do a validation check on the new value, casting it to the defined dataType if the type is not 'ArbitraryObject':
+    if (!checkValidation(currentSourceDataTag, pipeline, update)) {
+      return false; //TODO Check, if that case is correctly treated by upper logic
     }
 
     // do a filtering on the new value:
@@ -182,11 +181,40 @@ class EquipmentSenderValid {
 
 
   /**
-   * Helper method which validates the new tag value and triggers an invalidation in case of a problem
+   * Compiles the value checks of a tag, replacing the previous ones. Called at
+   * configuration time, the checks are otherwise compiled on the first update.
+   *
+   * @param sourceDataTag the configured tag
+   */
+  void compileValuePipeline(final SourceDataTag sourceDataTag) {
+    synchronized (sourceDataTag) {
+      valuePipelines.put(sourceDataTag.getId(), ValuePipeline.compile(sourceDataTag));
+    }
+  }
+
+  /**
+   * @param tagId the id of a removed tag
+   */
+  void removeValuePipeline(final Long tagId) {
+    valuePipelines.remove(tagId);
+  }
+
+  private ValuePipeline getValuePipeline(final SourceDataTag currentSourceDataTag) {
+    ValuePipeline pipeline = valuePipelines.get(currentSourceDataTag.getId());
+    if (pipeline == null || !pipeline.isCompiledFrom(currentSourceDataTag)) {
+      compileValuePipeline(currentSourceDataTag);
+      pipeline = valuePipelines.get(currentSourceDataTag.getId());
+    }
+    return pipeline;
+  }
+
+  /**
+   * Helper method which validates the new tag value and triggers an invalidation in case of a problem.
+   * The value of a valid update is casted to the data type of the tag, if known.
    *
    * @return false, if validation was unsuccessful
    */
-  private boolean checkValidation(final SourceDataTag currentSourceDataTag, final ValueUpdate update) {
+  private boolean checkValidation(final SourceDataTag currentSourceDataTag, final ValuePipeline pipeline, final ValueUpdate update) {
 
     // check if the timestamp is valid.
     if (!isTimestampValid(currentSourceDataTag, update)) {
@@ -194,16 +222,19 @@ class EquipmentSenderValid {
     }
 
     // If the DataType is not an arbitrary object check if the Type if the value is convertible.
-    if (!isConvertible(currentSourceDataTag, update)) {
+    Object newValueCasted = pipeline.convert(update.getValue());
+    if (!isConvertible(currentSourceDataTag, pipeline, update, newValueCasted)) {
       return false;
     }
 
-    // if the dataType is a number check if the value is convertible and in the defined range.
-    if (isNumber(currentSourceDataTag.getDataType())
-        && !isInRange(currentSourceDataTag, update)) {
+    // if the dataType is a number check if the value is in the defined range.
+    if (pipeline.isNumber() && !isInRange(currentSourceDataTag, pipeline, update, newValueCasted)) {
       return false;
     }
 
+    if (newValueCasted != null) {
+      update.setValue(newValueCasted);
+    }
     return true;
   }
 
@@ -337,16 +368,16 @@ class EquipmentSenderValid {
    * If both fail, the value is invalid and the method returns false.
    *
    * @param currentSourceDataTag The current {@link SourceDataTag} known by the daq.
-   * @param newTagValue          the new tag value.
-   * @param sourceTimestamp      actual sourceTimeStamp.
+   * @param pipeline             The compiled value checks of the tag.
+   * @param update               the new tag value.
+   * @param newValueCasted       the new value casted by the {@link ValuePipeline}, null if not possible.
    * @return True if the new value is Convertible.
    */
-  private boolean isConvertible(final SourceDataTag currentSourceDataTag, final ValueUpdate update) {
+  private boolean isConvertible(final SourceDataTag currentSourceDataTag, final ValuePipeline pipeline, final ValueUpdate update,
+                                final Object newValueCasted) {
     boolean result = false;
 
-    if ((isKnownClass(currentSourceDataTag.getDataType())
-        && !(this.dataTagValueValidator.isConvertible(currentSourceDataTag, update.getValue())
-        || isInstantiable(update.getValue(), getType(currentSourceDataTag.getDataType()))))) {
+    if (pipeline.isKnownType() && newValueCasted == null && !isInstantiable(update.getValue(), pipeline.getType())) {
       String description = format(
           "\tconvertible : The value (%s) received for tag[%d] and the tag's type (" + currentSourceDataTag.getDataType() + ") are not compatible.",
           update.getValue(), currentSourceDataTag.getId());
@@ -369,10 +400,11 @@ class EquipmentSenderValid {
    *
    * @return If its in range return true.
    */
-  private boolean isInRange(final SourceDataTag currentSourceDataTag, final ValueUpdate update) {
+  private boolean isInRange(final SourceDataTag currentSourceDataTag, final ValuePipeline pipeline, final ValueUpdate update,
+                            final Object newValueCasted) {
     boolean result = false;
 
-    if (!this.dataTagValueValidator.isInRange(currentSourceDataTag, update.getValue())) {
+    if (!pipeline.isInRange(newValueCasted)) {
       log.warn(format(
           "\tin range : the value of tag[%d] was out of range and will only be propagated the first time to the server",
           currentSourceDataTag.getId()));
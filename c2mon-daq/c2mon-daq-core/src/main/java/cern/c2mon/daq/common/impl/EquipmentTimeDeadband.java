@@ -25,13 +25,18 @@ import cern.c2mon.shared.common.datatag.ValueUpdate;
 import cern.c2mon.shared.common.filter.FilteredDataTagValue.FilterType;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.Hashtable;
-import java.util.Timer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import static java.lang.String.format;
 
 /**
  * This class has all methods related with the Equipment Time Deadband (filter, scheduled, ...)
+ * <p>
+ * The schedulers of the tags are run by a {@link TimeDeadbandWheel}, which
+ * groups them by time deadband on a timer thread shared by all equipments.
  *
  * @author vilches
  */
@@ -41,7 +46,7 @@ class EquipmentTimeDeadband {
   /**
    * The timedeadband schedulers hold tags which have time deadband scheduling activated.
    */
-  private Hashtable<Long, SDTTimeDeadbandScheduler> sdtTimeDeadbandSchedulers = new Hashtable<>();
+  private Map<Long, SDTTimeDeadbandScheduler> sdtTimeDeadbandSchedulers = new ConcurrentHashMap<>();
 
   /**
    * Filters for Data Tag outgoing Values
@@ -54,9 +59,18 @@ class EquipmentTimeDeadband {
   private IProcessMessageSender processMessageSender;
 
   /**
-   * This is the time deadband scheduler timer where all schedulers are scheduled on.
+   * This is the time deadband timer where the wheels of all equipments run on.
    */
-  private static Timer timeDeadbandTimer = new Timer("Time deadband timer", true);
+  private static final ScheduledExecutorService timeDeadbandTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "Time deadband timer");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /**
+   * The wheel grouping the schedulers of this equipment by time deadband
+   */
+  private final TimeDeadbandWheel timeDeadbandWheel;
 
   /**
    * The dynamic time dead band filterer for recording the current source data tag
@@ -83,6 +97,7 @@ class EquipmentTimeDeadband {
     this.equipmentSenderFilterModule = equipmentSenderFilterModule;
 
     this.dataTagValueFilter = new DataTagValueFilter();
+    this.timeDeadbandWheel = new TimeDeadbandWheel(processMessageSender, timeDeadbandTimer);
   }
 
   /**
@@ -95,7 +110,7 @@ class EquipmentTimeDeadband {
       if (currentTag.getAddress().getTimeDeadband() > 0) {
         log.debug("createSDTtimeDeadbandScheduler - creating time-deadband scheduler for tag " + currentTag.getId());
         this.sdtTimeDeadbandSchedulers.put(currentTag.getId(), new SDTTimeDeadbandScheduler(currentTag, this.processMessageSender,
-            this.equipmentSenderFilterModule, timeDeadbandTimer, this.dataTagValueFilter, this.dynamicTimeDeadbandFilterer));
+            this.equipmentSenderFilterModule, this.timeDeadbandWheel, this.dataTagValueFilter, this.dynamicTimeDeadbandFilterer));
       }
     }
   }
@@ -226,17 +241,13 @@ class EquipmentTimeDeadband {
   public void sendDelayedTimeDeadbandValues() {
     log.trace("sendDelayedTimeDeadbandValues - Sending all time deadband delayed values to the server");
 
-    for (SDTTimeDeadbandScheduler tagScheduler : this.sdtTimeDeadbandSchedulers.values()) {
-      if (tagScheduler.isScheduledForSending()) {
-        tagScheduler.run();
-      }
-    }
+    this.timeDeadbandWheel.flush(this.sdtTimeDeadbandSchedulers.values());
   }
 
   /**
    * @return sdtTimeDeadbandSchedulers
    */
-  public Hashtable<Long, SDTTimeDeadbandScheduler> getSdtTimeDeadbandSchedulers() {
+  public Map<Long, SDTTimeDeadbandScheduler> getSdtTimeDeadbandSchedulers() {
     return this.sdtTimeDeadbandSchedulers;
   }
 }
@@ -27,15 +27,18 @@ import cern.c2mon.shared.common.filter.FilteredDataTagValue.FilterType;
 import cern.c2mon.shared.common.type.TypeConverter;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * The SourceDataTagTimeDeadbandScheduler class models threads responsible for
- * handling source time deadband filtering. It will work with the Static TimeDeadband
+ * The SourceDataTagTimeDeadbandScheduler class is responsible for handling
+ * source time deadband filtering. It will work with the Static TimeDeadband.
+ * Once started, it is run by the {@link TimeDeadbandWheel} bucket of its time
+ * deadband, after each new value. The first value after the start is sent
+ * right away, and the next one at least one time deadband later.
  */
 @Slf4j
-public class SDTTimeDeadbandScheduler extends TimerTask {
+public class SDTTimeDeadbandScheduler implements Runnable {
 
   /**
    * The process message sender takes the messages actually send to the server.
@@ -50,7 +53,33 @@ public class SDTTimeDeadbandScheduler extends TimerTask {
   /**
    * True if the current value should be send in the next run cycle.
    */
-  private volatile boolean sendValue = false;
+  private final AtomicBoolean sendValue = new AtomicBoolean(false);
+
+  /**
+   * True between {@link #start()} and {@link #cancel()}
+   */
+  private final AtomicBoolean registered = new AtomicBoolean(false);
+
+  /**
+   * True from {@link #start()} until the first value is scheduled for sending
+   */
+  private final AtomicBoolean firstValue = new AtomicBoolean(false);
+
+  /**
+   * The time deadband (in ms) the scheduler is registered with
+   */
+  private volatile int period;
+
+  /**
+   * True if the next bucket run must wait for {@link #bucketRunNotBefore}
+   */
+  private volatile boolean bucketRunDeferred;
+
+  /**
+   * The {@link System#nanoTime()} before which the bucket does not run the
+   * scheduler, one time deadband after its immediate run
+   */
+  private volatile long bucketRunNotBefore;
 
   /**
    * Last source Data Tag Value sent to the server
@@ -68,9 +97,9 @@ public class SDTTimeDeadbandScheduler extends TimerTask {
   private DataTagValueFilter dataTagValueFilter;
 
   /**
-   * The timer to schedule this task on
+   * The wheel to schedule this task on
    */
-  private Timer timeDeadbandTimer;
+  private TimeDeadbandWheel timeDeadbandWheel;
 
   /**
    * The dynamic time dead band filterer for recording the current source data tag
@@ -84,7 +113,14 @@ public class SDTTimeDeadbandScheduler extends TimerTask {
    * false.
    */
   public boolean isScheduledForSending() {
-    return sendValue;
+    return sendValue.get();
+  }
+
+  /**
+   * @return True if the scheduler is started and not cancelled
+   */
+  boolean isRegistered() {
+    return registered.get();
   }
 
   /**
@@ -93,14 +129,14 @@ public class SDTTimeDeadbandScheduler extends TimerTask {
    * @param sourceDataTag               The source data tag controlled by this object.
    * @param processMessageSender        Takes the messages sent to the server
    * @param equipmentSenderValid        Used to send messages to the server.
-   * @param timeDeadbandTimer           The timer to schedule this task on.
+   * @param timeDeadbandWheel           The wheel to schedule this task on.
    * @param valueChecker                Value checker object to avoid repeated values.
    * @param dynamicTimeDeadbandFilterer The dynamic time dead band filterer for recording the current source data tag
    */
   public SDTTimeDeadbandScheduler(final SourceDataTag sourceDataTag,
                                   final IProcessMessageSender processMessageSender,
                                   final EquipmentSenderFilterModule equipmentSenderFilterModule,
-                                  final Timer timeDeadbandTimer,
+                                  final TimeDeadbandWheel timeDeadbandWheel,
                                   final DataTagValueFilter dataTagValueFilter,
                                   final IDynamicTimeDeadbandFilterer dynamicTimeDeadbandFilterer) {
     this.dataTagValueFilter = dataTagValueFilter;
@@ -108,7 +144,7 @@ public class SDTTimeDeadbandScheduler extends TimerTask {
     this.equipmentSenderFilterModule = equipmentSenderFilterModule;
     this.dynamicTimeDeadbandFilterer = dynamicTimeDeadbandFilterer;
 
-    this.timeDeadbandTimer = timeDeadbandTimer;
+    this.timeDeadbandWheel = timeDeadbandWheel;
 
     log.debug("creating time-deadband scheduler for tag : " + sourceDataTag.getId());
 
@@ -116,22 +152,34 @@ public class SDTTimeDeadbandScheduler extends TimerTask {
   }
 
   /**
-   * Starts the timer task with the scheduled fixed rate defined for the given {@link SourceDataTag}
+   * Registers the task in the wheel bucket of the time deadband defined for the given {@link SourceDataTag}
    */
   public void start() {
-    // create timers
-    if (sourceDataTag.getAddress().isTimeDeadbandEnabled()) {
-      if (sourceDataTag.getAddress().getTimeDeadband() > 0) {
-        log.debug("\tscheduler[" + this.sourceDataTag.getId() + "] : setting scheduling interval to : "
-              + this.sourceDataTag.getAddress().getTimeDeadband() + " miliseconds");
+    if (sourceDataTag.getAddress().isTimeDeadbandEnabled() && sourceDataTag.getAddress().getTimeDeadband() > 0
+        && this.registered.compareAndSet(false, true)) {
+      this.period = this.sourceDataTag.getAddress().getTimeDeadband();
+      log.debug("\tscheduler[" + this.sourceDataTag.getId() + "] : setting scheduling interval to : "
+            + this.period + " miliseconds");
+
+      this.timeDeadbandWheel.register(this, this.period);
+      this.firstValue.set(true);
+      if (isScheduledForSending()) {
+        scheduleOnWheel();
       }
 
-      this.timeDeadbandTimer.scheduleAtFixedRate(this, 0, this.sourceDataTag.getAddress().getTimeDeadband());
-
       log.debug("\tscheduler[" + this.sourceDataTag.getId() + "] : setting scheduled");
     }
   }
 
+  /**
+   * Removes the task from the wheel. A value scheduled for sending is not sent.
+   */
+  public void cancel() {
+    if (this.registered.compareAndSet(true, false)) {
+      this.timeDeadbandWheel.unregister(this, this.period);
+    }
+  }
+
   /**
    * flushes and resets the scheduler
    */
@@ -151,16 +199,75 @@ public class SDTTimeDeadbandScheduler extends TimerTask {
    * of the source data tag
    */
   public void scheduleValueForSending() {
-    this.sendValue = true;
+    if (this.sendValue.compareAndSet(false, true) && isRegistered()) {
+      scheduleOnWheel();
+    }
+  }
+
+  /**
+   * Sends the first value after the start right away, and the next ones with
+   * the bucket of the time deadband.
+   */
+  private void scheduleOnWheel() {
+    if (this.firstValue.compareAndSet(true, false)) {
+      this.timeDeadbandWheel.scheduleNow(this);
+    } else {
+      this.timeDeadbandWheel.schedule(this, this.period);
+    }
+  }
+
+  /**
+   * Called by the wheel when the scheduler runs out of its bucket, so that its
+   * bucket does not run it again before one time deadband.
+   *
+   * @param now the {@link System#nanoTime()} of the run
+   */
+  void deferBucketRun(final long now) {
+    this.bucketRunNotBefore = now + TimeUnit.MILLISECONDS.toNanos(this.period);
+    this.bucketRunDeferred = true;
+  }
+
+  /**
+   * @param now the {@link System#nanoTime()} of the bucket run
+   * @return false if the scheduler ran out of its bucket less than one time
+   *         deadband ago
+   */
+  boolean isBucketRunDue(final long now) {
+    if (this.bucketRunDeferred) {
+      if (now - this.bucketRunNotBefore < 0) {
+        return false;
+      }
+      this.bucketRunDeferred = false;
+    }
+    return true;
   }
 
   /**
-   * The run method called from the timer.
+   * Runs the scheduler now, out of the wheel, and sends its value on its own.
    */
   @Override
   public void run() {
-    log.debug("scheduler[" + this.sourceDataTag.getId() + "] : entering run()..");
+    SourceDataTagValue value = flush();
+    if (value != null) {
+      try {
+        this.processMessageSender.addValue(value);
+      } catch (Exception exception) {
+        log.error("Critical error in scheduler for tag " + this.sourceDataTag.getId(), exception);
+      }
+    }
+  }
+
+  /**
+   * Checks the value scheduled for sending against the last value sent. A
+   * filtered out value is passed on to the filter module.
+   *
+   * @return the value to send to the server, or null if there is no value to
+   *         send
+   */
+  SourceDataTagValue flush() {
+    log.debug("scheduler[" + this.sourceDataTag.getId() + "] : entering flush()..");
 
+    SourceDataTagValue valueToSend = null;
     try {
       synchronized (this.sourceDataTag) {
         if (isScheduledForSending()) {
@@ -192,7 +299,7 @@ public class SDTTimeDeadbandScheduler extends TimerTask {
 
             currentSDValue.setValueDescription("Time-deadband filtering enabled. " + currentSDValue.getValueDescription());
             // Add the value sent
-            this.processMessageSender.addValue(currentSDValue);
+            valueToSend = currentSDValue;
 
             log.debug("\tscheduler[" + this.sourceDataTag.getId() + "] : sending value: " + currentSDValue.getValue());
           }
@@ -215,7 +322,7 @@ public class SDTTimeDeadbandScheduler extends TimerTask {
           }
 
           // Reset the sendValue variable
-          this.sendValue = false;
+          this.sendValue.set(false);
         } else {
           log.debug("\tscheduler[" + this.sourceDataTag.getId() + "] : no new value to be sent");
         }
@@ -223,7 +330,8 @@ public class SDTTimeDeadbandScheduler extends TimerTask {
     } catch (Exception exception) {
       log.error("Critical error in scheduler for tag " + this.sourceDataTag.getId(), exception);
     }
-    log.debug("scheduler[" + this.sourceDataTag.getId() + "] : leaving run()");
+    log.debug("scheduler[" + this.sourceDataTag.getId() + "] : leaving flush()");
+    return valueToSend;
   }
 
   /**
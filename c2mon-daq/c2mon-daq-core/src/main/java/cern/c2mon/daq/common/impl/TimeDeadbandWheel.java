@@ -0,0 +1,259 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.daq.common.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import lombok.extern.slf4j.Slf4j;
+
+import cern.c2mon.daq.common.messaging.IProcessMessageSender;
+import cern.c2mon.shared.common.datatag.SourceDataTagValue;
+
+/**
+ * Schedules the time deadband schedulers of an equipment. The schedulers are
+ * grouped in buckets by time deadband period, and each bucket runs once per
+ * period on the shared timer thread, whatever the number of tags in it.
+ *
+ * <p>A bucket only runs the schedulers which have a value to send since its
+ * last run, and passes the resulting values to the
+ * {@link IProcessMessageSender} in one batch. The first value of a scheduler
+ * after its start does not wait for its bucket: it is sent right away, with
+ * the other first values due at the same time, and the bucket runs the
+ * scheduler again at least one period later.
+ *
+ * <p>A bucket left without schedulers is only stopped at its next run, so
+ * that a scheduler replaced by a new one of the same period (e.g. on a
+ * quality change) does not restart the timer of its bucket.
+ *
+ * @see SDTTimeDeadbandScheduler
+ */
+@Slf4j
+class TimeDeadbandWheel {
+
+  /**
+   * The process message sender takes the messages actually send to the server.
+   */
+  private final IProcessMessageSender processMessageSender;
+
+  /**
+   * The timer the buckets run on
+   */
+  private final ScheduledExecutorService timer;
+
+  /**
+   * The buckets by time deadband period (in ms)
+   */
+  private final Map<Integer, Bucket> buckets = new ConcurrentHashMap<>();
+
+  /**
+   * The schedulers to run as soon as possible, out of their bucket
+   */
+  private final Queue<SDTTimeDeadbandScheduler> immediate = new ConcurrentLinkedQueue<>();
+
+  /**
+   * True while a run of the immediate schedulers is submitted to the timer
+   */
+  private final AtomicBoolean immediateRunPending = new AtomicBoolean(false);
+
+  /**
+   * @param processMessageSender Takes the messages sent to the server
+   * @param timer                The timer to run the buckets on
+   */
+  TimeDeadbandWheel(final IProcessMessageSender processMessageSender, final ScheduledExecutorService timer) {
+    this.processMessageSender = processMessageSender;
+    this.timer = timer;
+  }
+
+  /**
+   * Adds the scheduler to the bucket of its period, which is created and
+   * started if there is none.
+   *
+   * @param scheduler the scheduler to add
+   * @param period    the time deadband (in ms) of the tag
+   */
+  void register(final SDTTimeDeadbandScheduler scheduler, final int period) {
+    buckets.compute(period, (key, bucket) -> {
+      Bucket result = bucket == null ? new Bucket(period) : bucket;
+      result.members++;
+      return result;
+    });
+  }
+
+  /**
+   * Removes the scheduler from the bucket of its period. A bucket without
+   * schedulers is stopped at its next run.
+   *
+   * @param scheduler the scheduler to remove
+   * @param period    the period the scheduler was registered with
+   */
+  void unregister(final SDTTimeDeadbandScheduler scheduler, final int period) {
+    buckets.computeIfPresent(period, (key, bucket) -> {
+      bucket.members--;
+      return bucket;
+    });
+  }
+
+  /**
+   * Runs the scheduler with the next run of the bucket of its period.
+   *
+   * @param scheduler a scheduler with a value to send
+   * @param period    the period the scheduler was registered with
+   */
+  void schedule(final SDTTimeDeadbandScheduler scheduler, final int period) {
+    Bucket bucket = buckets.get(period);
+    if (bucket != null) {
+      bucket.due.add(scheduler);
+    }
+  }
+
+  /**
+   * Runs the scheduler as soon as possible on the timer thread, without
+   * waiting for the next run of its bucket. The bucket does not run the
+   * scheduler again until one period later.
+   *
+   * @param scheduler a scheduler with a value to send
+   */
+  void scheduleNow(final SDTTimeDeadbandScheduler scheduler) {
+    immediate.add(scheduler);
+    if (immediateRunPending.compareAndSet(false, true)) {
+      timer.execute(() -> {
+        immediateRunPending.set(false);
+        send(flushDue(immediate, true));
+      });
+    }
+  }
+
+  /**
+   * Runs the given schedulers now, and sends their values in one batch.
+   *
+   * @param schedulers the schedulers to run
+   */
+  void flush(final Collection<SDTTimeDeadbandScheduler> schedulers) {
+    List<SourceDataTagValue> batch = new ArrayList<>();
+    for (SDTTimeDeadbandScheduler scheduler : schedulers) {
+      SourceDataTagValue value = scheduler.flush();
+      if (value != null) {
+        batch.add(value);
+      }
+    }
+    send(batch);
+  }
+
+  /**
+   * @return the number of running buckets, including the ones left without
+   *         schedulers since their last run
+   */
+  int getBucketCount() {
+    return buckets.size();
+  }
+
+  /**
+   * Runs the registered schedulers of the queue. The schedulers due again
+   * while running are left for the next run, as are the schedulers of a
+   * bucket run coming less than one period after their immediate run.
+   *
+   * @param due       the schedulers to run
+   * @param immediate true for a run out of the buckets
+   * @return the values to send
+   */
+  private static List<SourceDataTagValue> flushDue(final Queue<SDTTimeDeadbandScheduler> due, final boolean immediate) {
+    long now = System.nanoTime();
+    List<SourceDataTagValue> batch = new ArrayList<>();
+    List<SDTTimeDeadbandScheduler> deferred = new ArrayList<>();
+    for (int size = due.size(); size > 0; size--) {
+      SDTTimeDeadbandScheduler scheduler = due.poll();
+      if (scheduler == null) {
+        break;
+      }
+      if (scheduler.isRegistered()) {
+        if (immediate) {
+          scheduler.deferBucketRun(now);
+        } else if (!scheduler.isBucketRunDue(now)) {
+          deferred.add(scheduler);
+          continue;
+        }
+        SourceDataTagValue value = scheduler.flush();
+        if (value != null) {
+          batch.add(value);
+        }
+      }
+    }
+    due.addAll(deferred);
+    return batch;
+  }
+
+  private void send(final List<SourceDataTagValue> batch) {
+    if (!batch.isEmpty()) {
+      log.debug("Sending {} time deadband filtered values", batch.size());
+      try {
+        processMessageSender.addValues(batch);
+      } catch (RuntimeException e) {
+        log.error("Error sending {} time deadband filtered values", batch.size(), e);
+      }
+    }
+  }
+
+  /**
+   * The schedulers of one time deadband period
+   */
+  private final class Bucket implements Runnable {
+
+    /**
+     * The schedulers with a value to send at the next run
+     */
+    private final Queue<SDTTimeDeadbandScheduler> due = new ConcurrentLinkedQueue<>();
+
+    private final int period;
+
+    private final ScheduledFuture<?> future;
+
+    /**
+     * Number of schedulers registered in the bucket, only read and changed in
+     * the compute methods of the bucket map
+     */
+    private int members;
+
+    private Bucket(final int period) {
+      log.debug("Starting time deadband bucket of {} ms", period);
+      this.period = period;
+      this.future = timer.scheduleAtFixedRate(this, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void run() {
+      send(flushDue(due, false));
+      buckets.computeIfPresent(period, (key, bucket) -> {
+        if (bucket == this && members == 0) {
+          log.debug("Stopping time deadband bucket of {} ms", period);
+          future.cancel(false);
+          return null;
+        }
+        return bucket;
+      });
+    }
+  }
+}
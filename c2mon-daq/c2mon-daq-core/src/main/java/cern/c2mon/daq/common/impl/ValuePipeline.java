@@ -0,0 +1,168 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.daq.common.impl;
+
+import lombok.extern.slf4j.Slf4j;
+
+import cern.c2mon.shared.common.datatag.SourceDataTag;
+import cern.c2mon.shared.common.type.TypeConverter;
+
+/**
+ * The value checks of a {@link SourceDataTag}, resolved once from its
+ * configuration: the class of the data type, the conversion of the incoming
+ * values and the range limits already converted to the data type.
+ *
+ * <p>A pipeline is only valid for the tag instance, data type and range it
+ * was compiled from (see {@link #isCompiledFrom(SourceDataTag)}), which are
+ * compared by reference.
+ *
+ * @see EquipmentSenderValid
+ */
+@Slf4j
+final class ValuePipeline {
+
+  private final SourceDataTag tag;
+
+  private final String dataType;
+
+  private final Number minValue;
+
+  private final Number maxValue;
+
+  /**
+   * The class of the data type, null if unknown (values are passed on as they are)
+   */
+  private final Class<?> type;
+
+  private final boolean number;
+
+  private final Comparable<Object> min;
+
+  private final Comparable<Object> max;
+
+  private ValuePipeline(final SourceDataTag tag, final Class<?> type) {
+    this.tag = tag;
+    this.dataType = tag.getDataType();
+    this.type = type;
+    this.number = type != null && Number.class.isAssignableFrom(type);
+    this.minValue = tag.getMinValue();
+    this.maxValue = tag.getMaxValue();
+    this.min = number ? convertLimit(minValue) : null;
+    this.max = number ? convertLimit(maxValue) : null;
+  }
+
+  /**
+   * Compiles the pipeline of a tag. The range limits of a numeric tag are
+   * converted to its data type and kept in the pipeline, the tag itself is
+   * left unchanged.
+   *
+   * @param tag the tag to compile
+   * @return the pipeline of the tag
+   */
+  static ValuePipeline compile(final SourceDataTag tag) {
+    return new ValuePipeline(tag, TypeConverter.getType(tag.getDataType()));
+  }
+
+  /**
+   * @param sourceDataTag the tag the pipeline is used for
+   * @return false if the tag was replaced or reconfigured since the compilation
+   */
+  boolean isCompiledFrom(final SourceDataTag sourceDataTag) {
+    return tag == sourceDataTag
+        && dataType == sourceDataTag.getDataType()
+        && minValue == sourceDataTag.getMinValue()
+        && maxValue == sourceDataTag.getMaxValue();
+  }
+
+  /**
+   * @return true if the data type is a known class
+   */
+  boolean isKnownType() {
+    return type != null;
+  }
+
+  Class<?> getType() {
+    return type;
+  }
+
+  boolean isNumber() {
+    return number;
+  }
+
+  /**
+   * Converts a value to the data type. Values already of the data type are
+   * returned as they are.
+   *
+   * @param value the received value
+   * @return the converted value, or null if the data type is unknown or the
+   *         value cannot be converted
+   */
+  Object convert(final Object value) {
+    if (type == null || value == null) {
+      return null;
+    }
+    if (type.isInstance(value)) {
+      return value;
+    }
+    if (type == String.class) {
+      return value.toString();
+    }
+    try {
+      return TypeConverter.castToType(value, type);
+    } catch (ClassCastException e) {
+      log.debug("Conversion error for tag #{}: {}", tag.getId(), e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * @param convertedValue a value returned by {@link #convert(Object)}
+   * @return false if the value is outside of the configured range
+   */
+  boolean isInRange(final Object convertedValue) {
+    if (convertedValue == null) {
+      return true;
+    }
+    if (min != null && min.compareTo(convertedValue) > 0) {
+      return false;
+    }
+    return max == null || max.compareTo(convertedValue) >= 0;
+  }
+
+  /**
+   * @param limit a range limit of the tag
+   * @return the limit converted to the data type, or null (no check of this
+   *         limit) if it is not set or cannot be converted
+   */
+  @SuppressWarnings("unchecked")
+  private Comparable<Object> convertLimit(final Number limit) {
+    if (limit == null) {
+      return null;
+    }
+    Object converted;
+    try {
+      converted = type.isInstance(limit) ? limit : TypeConverter.castToType(limit, type);
+    } catch (ClassCastException e) {
+      converted = null;
+    }
+    if (!type.isInstance(converted) || !(converted instanceof Comparable)) {
+      log.warn("Range limit {} of tag #{} cannot be converted to {}, it is not checked", limit, tag.getId(), type.getName());
+      return null;
+    }
+    return (Comparable<Object>) converted;
+  }
+}
@@ -16,6 +16,8 @@
  *****************************************************************************/
 package cern.c2mon.daq.common.messaging;
 
+import java.util.Collection;
+
 import cern.c2mon.shared.common.datatag.SourceDataTagValue;
 
 /**
@@ -39,6 +41,20 @@ public interface IProcessMessageSender {
      */
     void addValue(SourceDataTagValue dataTagValue);
 
+    /**
+     * Adds several SourceDataTagValue objects at once, as with
+     * {@link #addValue(SourceDataTagValue)}. Implementations buffering the
+     * values should override it to buffer them in one go.
+     *
+     * @param dataTagValues
+     *            the SourceDataTagValue objects
+     */
+    default void addValues(Collection<SourceDataTagValue> dataTagValues) {
+      for (SourceDataTagValue dataTagValue : dataTagValues) {
+        addValue(dataTagValue);
+      }
+    }
+
     /**
      * Sends a communication fault tag message.
      * @param tagId The tag ID to use.
@@ -16,8 +16,10 @@
  *****************************************************************************/
 package cern.c2mon.daq.common.messaging.impl;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 
 import javax.jms.JMSException;
 
@@ -85,9 +87,11 @@ public class ProcessMessageSender implements IProcessMessageSender {
     ProcessConfiguration processConfiguration = ProcessConfigurationHolder.getInstance();
     // TODO move the min window size to properties or database
     // create and initialize dataTagsBuffer for non-persistent tags
-    dataTagsBuffer = new SynchroBuffer(200, processConfiguration.getMaxMessageDelay(), 100, SynchroBuffer.DUPLICATE_OK);
+    dataTagsBuffer = SynchroBuffer.create("", 200, processConfiguration.getMaxMessageDelay(), 100, SynchroBuffer.DUPLICATE_OK,
+        SynchroBuffer.INFINITE_CAPACITY, false);
     // create and initialize dataTagsBuffer for persistent tags
-    persistentTagsBuffer = new SynchroBuffer(200, processConfiguration.getMaxMessageDelay(), 100, SynchroBuffer.DUPLICATE_OK);
+    persistentTagsBuffer = SynchroBuffer.create("", 200, processConfiguration.getMaxMessageDelay(), 100, SynchroBuffer.DUPLICATE_OK,
+        SynchroBuffer.INFINITE_CAPACITY, false);
 
     dataTagsBuffer.setSynchroBufferListener(new SynchroBufferEventsListener());
     persistentTagsBuffer.setSynchroBufferListener(new SynchroBufferEventsListener());
@@ -224,6 +228,41 @@ public class ProcessMessageSender implements IProcessMessageSender {
     LOGGER.debug("leaving addValue()");
   }
 
+  /**
+   * Sends the HIGH priority values directly, and pushes the LOW priority ones
+   * to their buffer with one push per buffer.
+   *
+   * @param dataTagValues the SourceDataTagValue objects
+   */
+  @Override
+  public void addValues(final Collection<SourceDataTagValue> dataTagValues) {
+    LOGGER.debug("adding " + dataTagValues.size() + " data tags to the sending buffers");
+    List<SourceDataTagValue> persistentValues = new ArrayList<>();
+    List<SourceDataTagValue> values = new ArrayList<>();
+    for (SourceDataTagValue dataTagValue : dataTagValues) {
+      if (dataTagValue.getPriority() == DataTagAddress.PRIORITY_HIGH) {
+        try {
+          this.distributeValue(dataTagValue);
+        }
+        catch (JMSException ex) {
+          LOGGER.error("addValues : JMSException caught :" + ex.getMessage());
+        }
+      }
+      else if (dataTagValue.isGuaranteedDelivery()) {
+        persistentValues.add(dataTagValue);
+      }
+      else {
+        values.add(dataTagValue);
+      }
+    }
+    if (!persistentValues.isEmpty()) {
+      this.persistentTagsBuffer.push(persistentValues);
+    }
+    if (!values.isEmpty()) {
+      this.dataTagsBuffer.push(values);
+    }
+  }
+
   /**
    * Connects to all the registered brokers (individual JMSSenders should
    * implement this on separate threads if the connection is unessential).
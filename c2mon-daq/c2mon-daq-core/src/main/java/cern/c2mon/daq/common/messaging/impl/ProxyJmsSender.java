@@ -78,11 +78,11 @@ public class ProxyJmsSender implements JmsSender {
    */
   private void init() {
     //initialize high priority buffer
-    highPriorityBuffer = new SynchroBuffer(100, 200, 100, SynchroBuffer.DUPLICATE_OK, 10000);
+    highPriorityBuffer = SynchroBuffer.create("", 100, 200, 100, SynchroBuffer.DUPLICATE_OK, 10000, false);
     highPriorityBuffer.setSynchroBufferListener(new HighPriorityListener());
     highPriorityBuffer.enable();
 
-    lowPriorityBuffer = new SynchroBuffer(100, 500, 100, SynchroBuffer.DUPLICATE_OK, 10000);
+    lowPriorityBuffer = SynchroBuffer.create("", 100, 500, 100, SynchroBuffer.DUPLICATE_OK, 10000, false);
     lowPriorityBuffer.setSynchroBufferListener(new LowPriorityListener());
     lowPriorityBuffer.enable();
   }
@@ -1,10 +1,17 @@
 package cern.c2mon.daq.common.timer;
 
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -17,20 +24,59 @@ import cern.c2mon.shared.common.datatag.SourceDataTagQuality;
 import cern.c2mon.shared.common.datatag.SourceDataTagQualityCode;
 
 /**
+ * Invalidates the tags with a freshness interval which are not updated in
+ * time, with the STALE quality.
+ *
+ * <p>The freshness deadlines are kept in a hashed timing wheel: a reset only
+ * writes the new deadline of the tag. Once per tick, the tags of the current
+ * wheel slot are checked in one batch. The ones updated in the meantime are
+ * moved to the slot of their new deadline, the others are invalidated and
+ * leave the wheel until their next update.
+ *
  * @author Franz Ritter
  */
 @Component
 @Slf4j
 public class FreshnessMonitor {
 
+  /** Number of slots of the timing wheel (a power of 2) */
+  private static final int WHEEL_SIZE = 512;
+
   private final DaqProperties properties;
-  private final Map<Long, Runnable> freshnessTasks = new HashMap<>();
-  private IEquipmentMessageSender equipmentMessageSender;
-  private final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(2);
+
+  /** Duration (in ms) of a wheel slot */
+  private final long tickMillis;
+
+  private final Map<Long, FreshnessEntry> freshnessEntries = new ConcurrentHashMap<>();
+
+  private final Queue<FreshnessEntry>[] wheel;
+
+  /** The last tick whose slot was checked */
+  private long lastTick;
+
+  private volatile IEquipmentMessageSender equipmentMessageSender;
+
+  private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "FreshnessMonitor");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final AtomicLong expiredCount = new AtomicLong();
+
+  private volatile int lastExpiredBatchSize;
 
   @Autowired
+  @SuppressWarnings("unchecked")
   public FreshnessMonitor(DaqProperties properties) {
     this.properties = properties;
+    this.tickMillis = Math.max(1, properties.getFreshnessCheckInterval());
+    this.wheel = new Queue[WHEEL_SIZE];
+    for (int i = 0; i < WHEEL_SIZE; i++) {
+      wheel[i] = new ConcurrentLinkedQueue<>();
+    }
+    this.lastTick = currentTick();
+    timer.scheduleAtFixedRate(this::checkFreshness, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
   }
 
   public void setIEquipmentMessageSender(IEquipmentMessageSender equipmentMessageSender) {
@@ -44,21 +90,13 @@ public class FreshnessMonitor {
         && sourceDataTag.getAddress().getFreshnessInterval() != 0L) {
 
       log.trace("Checking freshness for tag {}", sourceDataTag.getName());
-      Long tagId = sourceDataTag.getId();
-      Runnable task;
+      FreshnessEntry entry = freshnessEntries.computeIfAbsent(sourceDataTag.getId(), FreshnessEntry::new);
+      long timeout = (long) (sourceDataTag.getAddress().getFreshnessInterval() * properties.getFreshnessTolerance() * 1000);
+      entry.deadline = System.currentTimeMillis() + timeout;
 
-      if (freshnessTasks.containsKey(tagId)) {
-        task = freshnessTasks.get(tagId);
-        timer.remove(task);
-        timer.purge();
-
-      } else {
-        task = new FreshnessTask(tagId);
-        freshnessTasks.put(tagId, task);
+      if (entry.scheduled.compareAndSet(false, true)) {
+        schedule(entry, currentTick());
       }
-
-      Double freshnessTolerance = properties.getFreshnessTolerance();
-      timer.schedule(task, (long) (sourceDataTag.getAddress().getFreshnessInterval() * freshnessTolerance), TimeUnit.SECONDS);
     }
   }
 
@@ -67,28 +105,140 @@ public class FreshnessMonitor {
         && sourceDataTag.getAddress().getFreshnessInterval() != null
         && sourceDataTag.getAddress().getFreshnessInterval() != 0L) {
 
-      Long tagId = sourceDataTag.getId();
-      if (freshnessTasks.containsKey(tagId)) {
+      // the wheel slot drops the entry once it is no longer in the map
+      if (freshnessEntries.remove(sourceDataTag.getId()) != null) {
         log.trace("Removing freshness check for tag {}", sourceDataTag.getName());
-        timer.remove(freshnessTasks.get(tagId));
-        freshnessTasks.remove(tagId);
       }
     }
   }
 
-  class FreshnessTask implements Runnable {
+  /**
+   * @return the number of tags whose freshness is checked
+   */
+  public int getMonitoredTagCount() {
+    return freshnessEntries.size();
+  }
+
+  /**
+   * @return the number of stale tag invalidations since the start
+   */
+  public long getExpiredCount() {
+    return expiredCount.get();
+  }
+
+  /**
+   * @return the number of tags found stale by the last check with stale tags
+   */
+  public int getLastExpiredBatchSize() {
+    return lastExpiredBatchSize;
+  }
+
+  /**
+   * Checks the slots of the ticks elapsed since the last check, and
+   * invalidates the stale tags in one batch. Only called by the timer thread.
+   */
+  void checkFreshness() {
+    try {
+      long now = System.currentTimeMillis();
+      long tick = now / tickMillis;
+      List<FreshnessEntry> expired = new ArrayList<>();
+
+      // after a long pause, each slot is only checked once
+      for (long t = Math.max(lastTick + 1, tick - WHEEL_SIZE + 1); t <= tick; t++) {
+        Queue<FreshnessEntry> slot = wheel[(int) (t & (WHEEL_SIZE - 1))];
+        for (int size = slot.size(); size > 0; size--) {
+          FreshnessEntry entry = slot.poll();
+          if (entry == null) {
+            break;
+          }
+          if (freshnessEntries.get(entry.tagId) == entry && expire(entry, now, tick)) {
+            expired.add(entry);
+          }
+        }
+      }
+      lastTick = tick;
+
+      if (!expired.isEmpty()) {
+        invalidate(expired);
+      }
+    } catch (RuntimeException e) {
+      log.error("Unexpected exception while checking the freshness of the tags", e);
+    }
+  }
 
-    private Long id;
+  /**
+   * Moves an entry taken from the wheel to the slot of its deadline, unless
+   * it expired: expired entries leave the wheel until their next reset.
+   *
+   * @return true if the entry expired
+   */
+  boolean expire(final FreshnessEntry entry, final long now, final long tick) {
+    if (entry.getDeadline() > now) {
+      schedule(entry, tick);
+      return false;
+    }
+    entry.scheduled.set(false);
+    if (entry.getDeadline() <= now) {
+      return true;
+    }
+    // a reset after the set above reschedules the entry itself, but one
+    // between the two checks could not
+    if (entry.scheduled.compareAndSet(false, true)) {
+      schedule(entry, tick);
+    }
+    return false;
+  }
 
-    public FreshnessTask(Long id) {
-      this.id = id;
+  private void invalidate(final List<FreshnessEntry> expired) {
+    IEquipmentMessageSender sender = equipmentMessageSender;
+    log.debug("Invalidating {} stale tags", expired.size());
+    lastExpiredBatchSize = expired.size();
+    expiredCount.addAndGet(expired.size());
+    if (sender == null) {
+      log.warn("No equipment message sender to invalidate {} stale tags", expired.size());
+      return;
     }
+    for (FreshnessEntry entry : expired) {
+      try {
+        sender.update(entry.tagId, new SourceDataTagQuality(SourceDataTagQualityCode.STALE));
+      } catch (RuntimeException e) {
+        log.warn("Could not invalidate stale tag #{}: {}", entry.tagId, e.getMessage());
+      }
+    }
+  }
 
-    @Override
-    public void run() {
-      SourceDataTagQuality tagQuality = new SourceDataTagQuality(SourceDataTagQualityCode.STALE);
-      equipmentMessageSender.update(id, tagQuality);
+  /**
+   * Puts the entry in the slot of its deadline, at the earliest the next tick.
+   */
+  private void schedule(final FreshnessEntry entry, final long currentTick) {
+    long tick = Math.max(entry.deadline / tickMillis, currentTick + 1);
+    if (tick - currentTick >= WHEEL_SIZE) {
+      // beyond a wheel turn: checked again (and moved on) one turn later
+      tick = currentTick + WHEEL_SIZE - 1;
     }
+    wheel[(int) (tick & (WHEEL_SIZE - 1))].add(entry);
   }
 
+  private long currentTick() {
+    return System.currentTimeMillis() / tickMillis;
+  }
+
+  static class FreshnessEntry {
+
+    private final Long tagId;
+
+    /** Time (in ms) after which the tag is stale */
+    private volatile long deadline;
+
+    /** Whether the entry is in a wheel slot */
+    final AtomicBoolean scheduled = new AtomicBoolean();
+
+    FreshnessEntry(final Long tagId) {
+      this.tagId = tagId;
+    }
+
+    long getDeadline() {
+      return deadline;
+    }
+  }
 }
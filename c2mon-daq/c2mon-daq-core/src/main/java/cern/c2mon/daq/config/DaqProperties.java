@@ -28,6 +28,12 @@ public class DaqProperties {
    */
   private double freshnessTolerance = 1.5;
 
+  /**
+   * Interval (in ms) at which the freshness monitor checks for stale tags.
+   * A stale tag is invalidated at most one interval after its deadline
+   */
+  private long freshnessCheckInterval = 1000;
+
   /**
    * Path to a local configuration file. If set, the DAQ will load its
    * configuration from this file rather than retrieving it from the server.
@@ -96,8 +96,8 @@ public abstract class FilterMessageSender implements IFilterMessageSender {
     // set up and enable the synchrobuffer for storing the tags
     log.debug("initializing filtering synchrobuffer with max delay :" + MAX_MESSAGE_DELAY + " and capacity : " + bufferCapacity);
 
-    tagBuffer = new SynchroBuffer(MIN_WINDOW_SIZE, MAX_MESSAGE_DELAY, WINDOW_GROWTH_FACTOR, SynchroBuffer.DUPLICATE_OK, bufferCapacity,
-        true);
+    tagBuffer = SynchroBuffer.create("", MIN_WINDOW_SIZE, MAX_MESSAGE_DELAY, WINDOW_GROWTH_FACTOR, SynchroBuffer.DUPLICATE_OK,
+        bufferCapacity, true);
     tagBuffer.setSynchroBufferListener(new SynchroBufferEventsListener());
     tagBuffer.enable();
   }
@@ -0,0 +1,177 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.daq.common.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import cern.c2mon.daq.common.messaging.IProcessMessageSender;
+import cern.c2mon.daq.common.timer.FreshnessMonitor;
+import cern.c2mon.daq.config.DaqProperties;
+import cern.c2mon.daq.filter.IFilterMessageSender;
+import cern.c2mon.daq.filter.dynamic.IDynamicTimeDeadbandFilterActivator;
+import cern.c2mon.shared.common.datatag.DataTagAddress;
+import cern.c2mon.shared.common.datatag.DataTagConstants;
+import cern.c2mon.shared.common.datatag.DataTagDeadband;
+import cern.c2mon.shared.common.datatag.SourceDataTag;
+import cern.c2mon.shared.common.datatag.SourceDataTagValue;
+import cern.c2mon.shared.common.datatag.ValueUpdate;
+import cern.c2mon.shared.common.filter.FilteredDataTagValue;
+import cern.c2mon.shared.common.process.EquipmentConfiguration;
+import cern.c2mon.shared.util.BenchmarkRunner;
+
+/**
+ * Throughput benchmark of {@link EquipmentMessageSender#update(Long, ValueUpdate)},
+ * with tags of the usual data types and no-op message senders. Not run as part
+ * of the unit tests, start it with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=cern.c2mon.daq.common.impl.EquipmentMessageSenderBenchmark [-Dexec.args="threads"]
+ * </pre>
+ */
+public final class EquipmentMessageSenderBenchmark {
+
+  private static final int NB_TAGS = 1000;
+
+  private static final String[] DATA_TYPES = {"Float", "Double", "Integer", "Long", "Boolean", "String"};
+
+  private static final LongAdder sentValues = new LongAdder();
+
+  private static volatile boolean running = true;
+
+  private EquipmentMessageSenderBenchmark() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+    EquipmentMessageSender sender = createSender();
+    LongAdder updates = new LongAdder();
+
+    List<Thread> workers = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      final long firstTag = t;
+      final int step = threads;
+      Thread worker = new Thread(() -> {
+        // each thread updates its own tags, with a new value on every round
+        long round = 0;
+        while (running) {
+          round++;
+          for (long id = firstTag; id < NB_TAGS; id += step) {
+            Object value = DATA_TYPES[(int) (id % DATA_TYPES.length)].equals("Boolean") ? round % 2 == 0 : (round + id) % 1000;
+            sender.update(id, new ValueUpdate(value, System.currentTimeMillis()));
+          }
+          updates.add((NB_TAGS - firstTag + step - 1) / step);
+        }
+      }, "Benchmark-" + t);
+      workers.add(worker);
+      worker.start();
+    }
+
+    // the workers run during all iterations, which only sample their progress
+    double rate = BenchmarkRunner.averageRate(() -> {
+      long before = updates.sum();
+      long start = System.nanoTime();
+      Thread.sleep(BenchmarkRunner.ITERATION_MILLIS);
+      return (updates.sum() - before) * 1e9 / (System.nanoTime() - start);
+    });
+    running = false;
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    System.out.printf("%d thread(s), %d tags: %.0f updates/s on average, %d values sent%n",
+        threads, NB_TAGS, rate, sentValues.sum());
+    System.exit(0);
+  }
+
+  private static EquipmentMessageSender createSender() {
+    IProcessMessageSender processMessageSender = new IProcessMessageSender() {
+      @Override
+      public void addValue(SourceDataTagValue dataTagValue) {
+        sentValues.increment();
+      }
+
+      @Override
+      public void sendCommfaultTag(long tagId, String tagName, boolean commOK, String description) {
+      }
+
+      @Override
+      public void sendAlive() {
+      }
+    };
+
+    IFilterMessageSender filterMessageSender = new IFilterMessageSender() {
+      @Override
+      public void addValue(FilteredDataTagValue dataTagValue) {
+      }
+
+      @Override
+      public void connect() {
+      }
+
+      @Override
+      public void shutdown() {
+      }
+    };
+
+    EquipmentMessageSender sender = new EquipmentMessageSender(filterMessageSender, processMessageSender,
+        new NoFilterActivator(), new NoFilterActivator(), new FreshnessMonitor(new DaqProperties()));
+
+    EquipmentConfiguration configuration = new EquipmentConfiguration();
+    configuration.setId(1L);
+    configuration.setName("BENCHMARK");
+    configuration.setAliveTagId(-1L);
+    for (long id = 0; id < NB_TAGS; id++) {
+      DataTagAddress address = new DataTagAddress(null, 100, DataTagDeadband.DEADBAND_NONE, 0f, 0, DataTagConstants.PRIORITY_LOW, false);
+      String dataType = DATA_TYPES[(int) (id % DATA_TYPES.length)];
+      SourceDataTag tag = new SourceDataTag(id, "tag" + id, false, DataTagConstants.MODE_OPERATIONAL, dataType, address);
+      if (!dataType.equals("Boolean") && !dataType.equals("String")) {
+        tag.setMinValue(0);
+        tag.setMaxValue(1000);
+      }
+      configuration.getDataTags().put(id, tag);
+    }
+    sender.init(configuration);
+    return sender;
+  }
+
+  private static final class NoFilterActivator implements IDynamicTimeDeadbandFilterActivator {
+
+    @Override
+    public void newTagValueSent(long tagID) {
+    }
+
+    @Override
+    public Map<Long, SourceDataTag> getDataTagMap() {
+      return null;
+    }
+
+    @Override
+    public void addDataTag(SourceDataTag sourceDataTag) {
+    }
+
+    @Override
+    public void removeDataTag(SourceDataTag sourceDataTag) {
+    }
+
+    @Override
+    public void clearDataTags() {
+    }
+  }
+}
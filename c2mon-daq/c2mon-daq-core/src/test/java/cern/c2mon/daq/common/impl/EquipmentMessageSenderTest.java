@@ -65,6 +65,8 @@ public class EquipmentMessageSenderTest {
   private SourceDataTag sdt6;
   private SourceDataTag alive;
 
+  private EquipmentConfiguration equipmentConfiguration;
+
   private EquipmentMessageSender equipmentMessageSender;
 
   @Before
@@ -74,13 +76,13 @@ public class EquipmentMessageSenderTest {
     medDynamicTimeDeadbandFilterActivatorMock = createStrictMock(IDynamicTimeDeadbandFilterActivator.class);
     lowDynamicTimeDeadbandFilterActivatorMock = createStrictMock(IDynamicTimeDeadbandFilterActivator.class);
     freshnessMonitorMock = createMock(FreshnessMonitor.class);
-    equipmentMessageSender = new EquipmentMessageSender(filterMessageSenderMock, processMessageSenderMock, medDynamicTimeDeadbandFilterActivatorMock,
+    equipmentMessageSender = new EquipmentMessageSender(filterMessageSenderMock, valueByValue(processMessageSenderMock), medDynamicTimeDeadbandFilterActivatorMock,
         lowDynamicTimeDeadbandFilterActivatorMock, freshnessMonitorMock);
 
     freshnessMonitorMock.setIEquipmentMessageSender(equipmentMessageSender);
     EasyMock.expectLastCall();
 
-    EquipmentConfiguration equipmentConfiguration = new EquipmentConfiguration();
+    equipmentConfiguration = new EquipmentConfiguration();
     equipmentConfiguration.setId(EQUIPMENT_ID);
     equipmentConfiguration.setCommFaultTagId(EQ_COMFAULT_ID);
     equipmentConfiguration.setCommFaultTagValue(false);
@@ -1374,6 +1376,56 @@ public class EquipmentMessageSenderTest {
     verify(filterMessageSenderMock, processMessageSenderMock);
   }
 
+  @Test
+  public void testBulkUpdate() {
+    long sourceTS = System.currentTimeMillis();
+    this.processMessageSenderMock.addValue(isA(SourceDataTagValue.class));
+    expectLastCall().times(4);
+
+    replay(this.processMessageSenderMock);
+
+    assertEquals(2, this.equipmentMessageSender.update(new long[] {1L, 2L}, new Object[] {true, 10.0f}, new long[] {sourceTS, sourceTS}));
+    // the unknown tag is skipped
+    assertEquals(2, this.equipmentMessageSender.update(new String[] {"sdt1", "unknown", "sdt3"}, new Object[] {false, 1, 5},
+        new long[] {sourceTS + 1, sourceTS + 1, sourceTS + 1}));
+    assertEquals(10.0f, this.sdt2.getCurrentValue().getValue());
+    assertEquals(5, this.sdt3.getCurrentValue().getValue());
+
+    verify(this.processMessageSenderMock);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBulkUpdateWithDifferentLengths() {
+    this.equipmentMessageSender.update(new long[] {1L, 2L}, new Object[] {true}, new long[] {0L, 0L});
+  }
+
+  @Test
+  public void testRenamedTagIsFoundByNewName() {
+    assertEquals(this.sdt3.getId(), this.equipmentConfiguration.getSourceDataTagIdByName("sdt3"));
+    SourceDataTag sdt3Clone = this.sdt3.clone();
+    this.sdt3.setName("sdt3.renamed");
+
+    this.equipmentMessageSender.onUpdateDataTag(this.sdt3, sdt3Clone, new ChangeReport(1L));
+
+    assertEquals(this.sdt3.getId(), this.equipmentConfiguration.getSourceDataTagIdByName("sdt3.renamed"));
+    try {
+      this.equipmentConfiguration.getSourceDataTagIdByName("sdt3");
+      fail("The old name should not be found");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testTagAddedToLiveMapIsFoundByName() {
+    assertEquals(this.sdt3.getId(), this.equipmentConfiguration.getSourceDataTagIdByName("sdt3"));
+    SourceDataTag sdt7 = createSourceDataTag(7L, "sdt7", "Integer", DataTagDeadband.DEADBAND_NONE, DataTagConstants.PRIORITY_LOW, false);
+    this.equipmentConfiguration.getDataTags().put(7L, sdt7);
+
+    assertEquals(sdt7.getId(), this.equipmentConfiguration.getSourceDataTagIdByName("sdt7"));
+    assertEquals(this.sdt3.getId(), this.equipmentConfiguration.getSourceDataTagIdByName("sdt3"));
+  }
+
   @Test
   public void testSendTagFilteredSameSourceTS() {
     // Timestamps to use
@@ -1524,4 +1576,26 @@ public class EquipmentMessageSenderTest {
 
   }
 
+  /**
+   * @return a sender passing the batches of the time deadband to the mock
+   *         value by value, so that the values can be counted the same way
+   */
+  private static IProcessMessageSender valueByValue(final IProcessMessageSender processMessageSender) {
+    return new IProcessMessageSender() {
+      @Override
+      public void addValue(SourceDataTagValue dataTagValue) {
+        processMessageSender.addValue(dataTagValue);
+      }
+
+      @Override
+      public void sendCommfaultTag(long tagId, String tagName, boolean commOK, String description) {
+        processMessageSender.sendCommfaultTag(tagId, tagName, commOK, description);
+      }
+
+      @Override
+      public void sendAlive() {
+        processMessageSender.sendAlive();
+      }
+    };
+  }
 }
@@ -0,0 +1,220 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.daq.common.impl;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cern.c2mon.daq.common.IDynamicTimeDeadbandFilterer;
+import cern.c2mon.daq.common.messaging.IProcessMessageSender;
+import cern.c2mon.daq.tools.DataTagValueFilter;
+import cern.c2mon.shared.common.datatag.DataTagAddress;
+import cern.c2mon.shared.common.datatag.DataTagConstants;
+import cern.c2mon.shared.common.datatag.DataTagDeadband;
+import cern.c2mon.shared.common.datatag.SourceDataTag;
+import cern.c2mon.shared.common.datatag.SourceDataTagValue;
+import cern.c2mon.shared.common.datatag.ValueUpdate;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimeDeadbandWheelTest {
+
+  private ScheduledExecutorService timer;
+
+  /**
+   * The number of buckets started on the timer
+   */
+  private final AtomicInteger startedBuckets = new AtomicInteger();
+
+  private IProcessMessageSender processMessageSenderMock;
+
+  private TimeDeadbandWheel timeDeadbandWheel;
+
+  @Before
+  public void setUp() {
+    this.timer = new ScheduledThreadPoolExecutor(1) {
+      @Override
+      public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        startedBuckets.incrementAndGet();
+        return super.scheduleAtFixedRate(command, initialDelay, period, unit);
+      }
+    };
+    this.processMessageSenderMock = createMock(IProcessMessageSender.class);
+    this.timeDeadbandWheel = new TimeDeadbandWheel(this.processMessageSenderMock, this.timer);
+  }
+
+  @After
+  public void tearDown() {
+    this.timer.shutdownNow();
+  }
+
+  @Test
+  public void testDueValuesAreSentInOneBatch() throws InterruptedException {
+    Capture<Collection<SourceDataTagValue>> batches = EasyMock.newCapture(CaptureType.ALL);
+    this.processMessageSenderMock.addValues(capture(batches));
+    expectLastCall().atLeastOnce();
+    replay(this.processMessageSenderMock);
+
+    SourceDataTag tag1 = createSourceDataTag(1L, 50);
+    SourceDataTag tag2 = createSourceDataTag(2L, 50);
+    SourceDataTag tag3 = createSourceDataTag(3L, 60000);
+    SDTTimeDeadbandScheduler scheduler1 = createScheduler(tag1);
+    SDTTimeDeadbandScheduler scheduler2 = createScheduler(tag2);
+    SDTTimeDeadbandScheduler scheduler3 = createScheduler(tag3);
+    scheduler1.start();
+    scheduler2.start();
+    scheduler3.start();
+    assertEquals(2, this.timeDeadbandWheel.getBucketCount());
+
+    // the first values do not wait for their bucket
+    scheduler1.scheduleValueForSending();
+    scheduler2.scheduleValueForSending();
+    scheduler3.scheduleValueForSending();
+    waitForSentValues(batches, 3);
+    assertEquals(3, countValues(batches));
+
+    for (SourceDataTag tag : new SourceDataTag[] {tag1, tag2, tag3}) {
+      tag.update(new ValueUpdate(tag.getId().intValue() + 10, System.currentTimeMillis()));
+    }
+    int nbBatches = batches.getValues().size();
+    scheduler1.scheduleValueForSending();
+    scheduler2.scheduleValueForSending();
+    scheduler3.scheduleValueForSending();
+    waitForSentValues(batches, 5);
+    // nothing new to send for the next runs
+    Thread.sleep(150);
+
+    verify(this.processMessageSenderMock);
+    assertEquals(5, countValues(batches));
+    assertEquals(nbBatches + 1, batches.getValues().size());
+    assertEquals(true, scheduler3.isScheduledForSending());
+  }
+
+  @Test
+  public void testBucketRunIsOnePeriodAfterTheFirstValue() throws InterruptedException {
+    List<Long> sendTimes = new CopyOnWriteArrayList<>();
+    this.processMessageSenderMock.addValues(anyObject());
+    expectLastCall().andAnswer(() -> {
+      sendTimes.add(System.nanoTime());
+      return null;
+    }).times(2);
+    replay(this.processMessageSenderMock);
+
+    SourceDataTag tag = createSourceDataTag(1L, 200);
+    SDTTimeDeadbandScheduler scheduler = createScheduler(tag);
+    scheduler.start();
+    scheduler.scheduleValueForSending();
+    for (int i = 0; i < 100 && sendTimes.isEmpty(); i++) {
+      Thread.sleep(1);
+    }
+    tag.update(new ValueUpdate(11, System.currentTimeMillis()));
+    scheduler.scheduleValueForSending();
+    for (int i = 0; i < 100 && sendTimes.size() < 2; i++) {
+      Thread.sleep(10);
+    }
+
+    verify(this.processMessageSenderMock);
+    assertTrue(sendTimes.get(1) - sendTimes.get(0) >= TimeUnit.MILLISECONDS.toNanos(200));
+  }
+
+  @Test
+  public void testReplacedSchedulerKeepsItsBucket() {
+    replay(this.processMessageSenderMock);
+
+    SDTTimeDeadbandScheduler scheduler1 = createScheduler(createSourceDataTag(1L, 60000));
+    scheduler1.start();
+    scheduler1.cancel();
+    SDTTimeDeadbandScheduler scheduler2 = createScheduler(createSourceDataTag(1L, 60000));
+    scheduler2.start();
+
+    assertEquals(1, this.timeDeadbandWheel.getBucketCount());
+    assertEquals(1, this.startedBuckets.get());
+    verify(this.processMessageSenderMock);
+  }
+
+  @Test
+  public void testBucketIsRemovedAfterItsLastScheduler() throws InterruptedException {
+    replay(this.processMessageSenderMock);
+
+    SDTTimeDeadbandScheduler scheduler1 = createScheduler(createSourceDataTag(1L, 50));
+    SDTTimeDeadbandScheduler scheduler2 = createScheduler(createSourceDataTag(2L, 50));
+    scheduler1.start();
+    scheduler2.start();
+    assertEquals(1, this.timeDeadbandWheel.getBucketCount());
+
+    scheduler1.cancel();
+    // cancelling twice has no effect
+    scheduler1.cancel();
+    assertEquals(1, this.timeDeadbandWheel.getBucketCount());
+    scheduler2.cancel();
+    // the bucket is stopped at its next run
+    for (int i = 0; i < 100 && this.timeDeadbandWheel.getBucketCount() > 0; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, this.timeDeadbandWheel.getBucketCount());
+
+    verify(this.processMessageSenderMock);
+  }
+
+  private static void waitForSentValues(final Capture<Collection<SourceDataTagValue>> batches, final int expected)
+      throws InterruptedException {
+    for (int i = 0; i < 100 && countValues(batches) < expected; i++) {
+      Thread.sleep(10);
+    }
+  }
+
+  private static int countValues(final Capture<Collection<SourceDataTagValue>> batches) {
+    int count = 0;
+    for (Collection<SourceDataTagValue> batch : batches.getValues()) {
+      count += batch.size();
+    }
+    return count;
+  }
+
+  private SDTTimeDeadbandScheduler createScheduler(final SourceDataTag tag) {
+    return new SDTTimeDeadbandScheduler(tag, this.processMessageSenderMock, null, this.timeDeadbandWheel,
+        new DataTagValueFilter(), createMock(IDynamicTimeDeadbandFilterer.class));
+  }
+
+  private static SourceDataTag createSourceDataTag(final long id, final int timeDeadband) {
+    DataTagAddress address = new DataTagAddress(null, 100, DataTagDeadband.DEADBAND_NONE, 0f, timeDeadband,
+        DataTagConstants.PRIORITY_LOW, false);
+    SourceDataTag tag = new SourceDataTag(id, "sdt" + id, false, DataTagConstants.MODE_OPERATIONAL, "Integer", address);
+    tag.update(new ValueUpdate((int) id, System.currentTimeMillis()));
+    return tag;
+  }
+}
@@ -0,0 +1,101 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.daq.common.impl;
+
+import org.junit.Test;
+
+import cern.c2mon.shared.common.datatag.DataTagAddress;
+import cern.c2mon.shared.common.datatag.DataTagConstants;
+import cern.c2mon.shared.common.datatag.SourceDataTag;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ValuePipelineTest {
+
+  @Test
+  public void testConvert() {
+    ValuePipeline pipeline = ValuePipeline.compile(createSourceDataTag("Float"));
+    assertTrue(pipeline.isKnownType());
+    assertTrue(pipeline.isNumber());
+
+    Float value = 1.5f;
+    assertSame(value, pipeline.convert(value));
+    assertEquals(2.0f, pipeline.convert(2));
+    assertNull(pipeline.convert("not a number"));
+
+    pipeline = ValuePipeline.compile(createSourceDataTag("String"));
+    assertFalse(pipeline.isNumber());
+    assertEquals("3", pipeline.convert(3));
+
+    pipeline = ValuePipeline.compile(createSourceDataTag("my.unknown.Type"));
+    assertFalse(pipeline.isKnownType());
+    assertNull(pipeline.convert(3));
+  }
+
+  @Test
+  public void testRangeIsConvertedOnCompilation() {
+    SourceDataTag tag = createSourceDataTag("Integer");
+    tag.setMinValue(10.0f);
+    tag.setMaxValue(20L);
+    ValuePipeline pipeline = ValuePipeline.compile(tag);
+
+    // the configuration of the tag is left unchanged
+    assertEquals(Float.valueOf(10.0f), tag.getMinValue());
+    assertEquals(Long.valueOf(20L), tag.getMaxValue());
+    assertTrue(pipeline.isInRange(10));
+    assertTrue(pipeline.isInRange(20));
+    assertFalse(pipeline.isInRange(9));
+    assertFalse(pipeline.isInRange(21));
+    assertTrue(pipeline.isCompiledFrom(tag));
+  }
+
+  @Test
+  public void testUnconvertibleLimitIsNotChecked() {
+    SourceDataTag tag = createSourceDataTag("Short");
+    tag.setMinValue(0);
+    tag.setMaxValue(Long.MAX_VALUE);
+    ValuePipeline pipeline = ValuePipeline.compile(tag);
+
+    assertTrue(pipeline.isInRange((short) 0));
+    assertTrue(pipeline.isInRange(Short.MAX_VALUE));
+    assertFalse(pipeline.isInRange((short) -1));
+  }
+
+  @Test
+  public void testReconfigurationIsDetected() {
+    SourceDataTag tag = createSourceDataTag("Integer");
+    ValuePipeline pipeline = ValuePipeline.compile(tag);
+    assertTrue(pipeline.isCompiledFrom(tag));
+
+    tag.setMaxValue(5);
+    assertFalse(pipeline.isCompiledFrom(tag));
+
+    pipeline = ValuePipeline.compile(tag);
+    tag.setDataType("Long");
+    assertFalse(pipeline.isCompiledFrom(tag));
+    assertFalse(pipeline.isCompiledFrom(tag.clone()));
+  }
+
+  private static SourceDataTag createSourceDataTag(String dataType) {
+    DataTagAddress address = new DataTagAddress(null, 100, (short) 0, 0f, 0, DataTagConstants.PRIORITY_LOW, false);
+    return new SourceDataTag(1L, "tag", false, DataTagConstants.MODE_OPERATIONAL, dataType, address);
+  }
+}
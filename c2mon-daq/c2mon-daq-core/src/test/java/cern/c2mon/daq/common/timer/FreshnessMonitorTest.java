@@ -0,0 +1,145 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.daq.common.timer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cern.c2mon.daq.common.IEquipmentMessageSender;
+import cern.c2mon.daq.config.DaqProperties;
+import cern.c2mon.shared.common.datatag.DataTagAddress;
+import cern.c2mon.shared.common.datatag.DataTagConstants;
+import cern.c2mon.shared.common.datatag.SourceDataTag;
+import cern.c2mon.shared.common.datatag.SourceDataTagQuality;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FreshnessMonitorTest {
+
+  private FreshnessMonitor freshnessMonitor;
+
+  private IEquipmentMessageSender equipmentMessageSender;
+
+  @Before
+  public void setUp() {
+    DaqProperties properties = new DaqProperties();
+    // a freshness interval of 1s becomes a timeout of 100ms
+    properties.setFreshnessTolerance(0.1);
+    properties.setFreshnessCheckInterval(10);
+    freshnessMonitor = new FreshnessMonitor(properties);
+    equipmentMessageSender = createMock(IEquipmentMessageSender.class);
+    freshnessMonitor.setIEquipmentMessageSender(equipmentMessageSender);
+  }
+
+  @Test
+  public void testTagNotUpdatedIsInvalidated() throws InterruptedException {
+    equipmentMessageSender.update(eq(1L), anyObject(SourceDataTagQuality.class));
+    expectLastCall().once();
+    replay(equipmentMessageSender);
+
+    freshnessMonitor.reset(createSourceDataTag(1L, 1));
+    assertEquals(1, freshnessMonitor.getMonitoredTagCount());
+    waitForExpiredCount(1);
+    // once stale, the tag is only checked again after its next update
+    Thread.sleep(300);
+
+    verify(equipmentMessageSender);
+    assertEquals(1, freshnessMonitor.getExpiredCount());
+    assertEquals(1, freshnessMonitor.getLastExpiredBatchSize());
+  }
+
+  @Test
+  public void testResetTagIsNotInvalidated() throws InterruptedException {
+    equipmentMessageSender.update(eq(2L), anyObject(SourceDataTagQuality.class));
+    expectLastCall().once();
+    replay(equipmentMessageSender);
+
+    SourceDataTag updatedTag = createSourceDataTag(1L, 1);
+    SourceDataTag staleTag = createSourceDataTag(2L, 1);
+    freshnessMonitor.reset(updatedTag);
+    freshnessMonitor.reset(staleTag);
+    for (int i = 0; i < 30; i++) {
+      Thread.sleep(10);
+      freshnessMonitor.reset(updatedTag);
+    }
+
+    verify(equipmentMessageSender);
+    assertEquals(1, freshnessMonitor.getExpiredCount());
+  }
+
+  @Test
+  public void testRemovedTagIsNotInvalidated() throws InterruptedException {
+    replay(equipmentMessageSender);
+
+    SourceDataTag tag = createSourceDataTag(1L, 1);
+    freshnessMonitor.reset(tag);
+    freshnessMonitor.removeDataTag(tag);
+    // tags without freshness interval are not monitored
+    freshnessMonitor.reset(createSourceDataTag(2L, 0));
+    freshnessMonitor.reset(createSourceDataTag(3L, null));
+    assertEquals(0, freshnessMonitor.getMonitoredTagCount());
+    Thread.sleep(300);
+
+    verify(equipmentMessageSender);
+    assertEquals(0, freshnessMonitor.getExpiredCount());
+  }
+
+  /**
+   * A reset between the two deadline checks of the timer thread cannot
+   * reschedule the entry itself, since it is still marked as scheduled.
+   */
+  @Test
+  public void testResetBetweenChecksReschedulesTag() {
+    replay(equipmentMessageSender);
+
+    final long now = System.currentTimeMillis();
+    FreshnessMonitor.FreshnessEntry entry = new FreshnessMonitor.FreshnessEntry(1L) {
+      private int reads = 0;
+
+      @Override
+      long getDeadline() {
+        // the reset renews the deadline after the first check
+        return reads++ == 0 ? now - 1 : now + 100;
+      }
+    };
+    entry.scheduled.set(true);
+
+    assertFalse(freshnessMonitor.expire(entry, now, now / 10));
+    assertTrue(entry.scheduled.get());
+    verify(equipmentMessageSender);
+  }
+
+  private void waitForExpiredCount(final long expected) throws InterruptedException {
+    for (int i = 0; i < 100 && freshnessMonitor.getExpiredCount() < expected; i++) {
+      Thread.sleep(20);
+    }
+  }
+
+  private static SourceDataTag createSourceDataTag(final Long id, final Integer freshnessInterval) {
+    DataTagAddress address = new DataTagAddress(null, 100, (short) 0, 0f, 0, DataTagConstants.PRIORITY_LOW, false);
+    address.setFreshnessInterval(freshnessInterval);
+    return new SourceDataTag(id, "tag" + id, false, DataTagConstants.MODE_OPERATIONAL, "Integer", address);
+  }
+}
@@ -124,17 +124,14 @@ public class AlarmAggregatorImpl implements AlarmAggregator, C2monCacheListener<
 
   /**
    * Notify the listeners of a tag update with associated alarms.
+   * The tag is the snapshot received from the cache, which is
+   * shared by all listeners and must not be modified by them.
    * @param tag the Tag that has been updated
    * @param alarmList the associated list of evaluated alarms
    */
   private void notifyListeners(final Tag tag, final List<Alarm> alarmList) {
     for (AlarmAggregatorListener listener : listeners) {
-      try {
-        listener.notifyOnUpdate((Tag) tag.clone(), alarmList);
-      } catch (CloneNotSupportedException e) {
-        log.error("Unexpected exception caught: clone should be implemented for this class! "
-            + "Alarm & tag listener was not notified: " + listener.getClass().getSimpleName());
-      }
+      listener.notifyOnUpdate(tag, alarmList);
     }
   }
 
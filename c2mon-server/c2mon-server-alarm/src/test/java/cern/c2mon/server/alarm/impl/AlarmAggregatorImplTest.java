@@ -19,6 +19,7 @@ package cern.c2mon.server.alarm.impl;
 import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.same;
 import static org.easymock.EasyMock.verify;
 
 import java.sql.Timestamp;
@@ -120,4 +121,31 @@ public class AlarmAggregatorImplTest {
     verify(listener2);
   }
   
+  /**
+   * The listeners all receive the tag snapshot passed on by the cache,
+   * without any further copy.
+   */
+  @Test
+  public void testListenersShareTagSnapshot() {
+    DataTag tag = new DataTagCacheObject(6L, "test tag", "Float", DataTagConstants.MODE_OPERATIONAL);
+    List<Long> alarmIds = new ArrayList<Long>();
+    alarmIds.add(30L);
+    ((DataTagCacheObject) tag).setAlarmIds(alarmIds);
+    List<Alarm> alarmList = new ArrayList<Alarm>();
+    alarmList.add(new AlarmCacheObject(30L));
+    expect(tagFacadeGateway.evaluateAlarms(tag)).andReturn(alarmList);
+    listener1.notifyOnUpdate(same(tag), same(alarmList));
+    listener2.notifyOnUpdate(same(tag), same(alarmList));
+
+    replay(tagFacadeGateway);
+    replay(listener1);
+    replay(listener2);
+
+    alarmAggregator.notifyElementUpdated(tag);
+
+    verify(tagFacadeGateway);
+    verify(listener1);
+    verify(listener2);
+  }
+
 }
@@ -19,62 +19,55 @@ package cern.c2mon.server.benchmark;
 import javax.annotation.PostConstruct;
 
 import lombok.extern.slf4j.Slf4j;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.SmartLifecycle;
 import org.springframework.stereotype.Service;
 
 import cern.c2mon.server.cache.C2monCacheListener;
 import cern.c2mon.server.cache.CacheRegistrationService;
+import cern.c2mon.server.cache.latency.LatencyRecorder;
+import cern.c2mon.server.cache.latency.LatencyRecorder.Category;
+import cern.c2mon.server.cache.latency.LatencyRecorder.Stage;
+import cern.c2mon.server.common.alarm.Alarm;
 import cern.c2mon.server.common.component.Lifecycle;
 import cern.c2mon.server.common.config.ServerConstants;
 import cern.c2mon.server.common.datatag.DataTag;
-import cern.c2mon.server.common.datatag.DataTagCacheObject;
+import cern.c2mon.server.common.rule.RuleTag;
 import cern.c2mon.server.common.tag.Tag;
-import cern.c2mon.shared.common.datatag.DataTagAddress;
 
+/**
+ * Measures the latencies of the tag and alarm updates reaching the cache
+ * listeners and records them in the {@link LatencyRecorder}, where they
+ * are available as percentiles over JMX. A summary is logged on shutdown.
+ */
 @Slf4j
 @Service
 public class BenchmarkListener implements C2monCacheListener<Tag>, SmartLifecycle {
 
-  private Logger dataTagLogger = LoggerFactory.getLogger("BenchmarkDataTag");
-
-  private Logger priorityLogger = LoggerFactory.getLogger("BenchmarkPriority");
-
   private CacheRegistrationService cacheRegistrationService;
 
-  private static final long BENCHMARK_TIME = 1000; //1s
-  private static final long MIDDLE_BENCHMARK_TIME = 2000; //1s
-  private static final long HIGH_BENCHMARK_TIME = 5000; //1s
-
-  private long maxTagToServer = 0;
-  private long maxTagToListener = 0;
-  private long maxPriorityToServer = 0;
-  private long maxPriorityToListener = 0;
-
-  private long nbAboveBenchmark;
-  private long nbAboveMiddleBenchmark;
-  private long nbAboveHighBenchmark;
-
-  private long nbAboveBenchmarkPriority;
-  private long nbAboveMiddleBenchmarkPriority;
-  private long nbAboveHighBenchmarkPriority;
+  private final LatencyRecorder latencyRecorder;
 
   /**
    * Listener container lifecycle hook.
    */
   private Lifecycle listenerContainer;
 
+  /**
+   * Alarm listener container lifecycle hook.
+   */
+  private Lifecycle alarmListenerContainer;
+
   /**
    * Lifecycle flag.
    */
   private volatile boolean running = false;
 
   @Autowired
-  public BenchmarkListener(CacheRegistrationService cacheRegistrationService) {
+  public BenchmarkListener(CacheRegistrationService cacheRegistrationService, LatencyRecorder latencyRecorder) {
     super();
     this.cacheRegistrationService = cacheRegistrationService;
+    this.latencyRecorder = latencyRecorder;
   }
 
   @Override
@@ -82,61 +75,41 @@ public class BenchmarkListener implements C2monCacheListener<Tag>, SmartLifecycl
     if (!running){
       log.warn("Received notification while component not running - will process anyway");
     }
+    long currentTime = System.currentTimeMillis();
     if (tag instanceof DataTag) {
-      DataTagCacheObject dataTag = (DataTagCacheObject) tag;
+      DataTag dataTag = (DataTag) tag;
+      Category category = LatencyRecorder.categoryOf(dataTag);
+      Long processId = dataTag.getProcessId();
       //TODO can remove this once all DAQ updates have DAQ t.s. set
       long daqTime = dataTag.getDaqTimestamp() == null ? dataTag.getTimestamp().getTime() : dataTag.getDaqTimestamp().getTime();
       long serverTime = dataTag.getCacheTimestamp().getTime();
-      long currentTime = System.currentTimeMillis();
-      long toServer = (serverTime - daqTime);
-      long toListener = (currentTime - daqTime);
-      if (dataTag.getAddress() != null && dataTag.getAddress().getPriority() == DataTagAddress.PRIORITY_HIGH) {
-        priorityLogger.debug("DAQ to server(ms): " + toServer + "; DAQ to listener: " +  toListener + " (Id: " + tag.getId() + ")");
-        if (toServer > maxPriorityToServer) {
-          maxPriorityToServer = toServer;
-          priorityLogger.warn("max DAQ to server: " + maxPriorityToServer);
-        }
-        if (toListener > maxPriorityToListener) {
-          maxPriorityToListener = toListener;
-          priorityLogger.warn("max DAQ to listener: " + maxPriorityToListener);
-        }
-        if (toListener > HIGH_BENCHMARK_TIME) {
-          nbAboveHighBenchmarkPriority++;
-          priorityLogger.info("Number of update above " + HIGH_BENCHMARK_TIME + ": " + nbAboveHighBenchmarkPriority);
-        } else if (toListener > MIDDLE_BENCHMARK_TIME) {
-          nbAboveMiddleBenchmarkPriority++;
-          priorityLogger.info("Number of update above " + MIDDLE_BENCHMARK_TIME + ": " + nbAboveMiddleBenchmarkPriority);
-        } else if (toListener > BENCHMARK_TIME) {
-          nbAboveBenchmarkPriority++;
-          priorityLogger.info("Number of update above " + BENCHMARK_TIME + ": " + nbAboveBenchmarkPriority);
-        }
-      } else {
-        dataTagLogger.debug("DAQ to server(ms): " + toServer + "; DAQ to listener: " +  toListener + " (Id: " + tag.getId() + ")");
-        if (toServer > maxTagToServer) {
-          maxTagToServer = toServer;
-          dataTagLogger.warn("max DAQ to server: " + maxTagToServer);
-        }
-        if (toListener > maxTagToListener) {
-          maxTagToListener = toListener;
-          dataTagLogger.warn("max DAQ to listener: " + maxTagToListener);
-        }
-        if (toListener > HIGH_BENCHMARK_TIME) {
-          nbAboveHighBenchmark++;
-          dataTagLogger.info("Number of update above " + HIGH_BENCHMARK_TIME + ": " + nbAboveHighBenchmark);
-        } else if (toListener > MIDDLE_BENCHMARK_TIME) {
-          nbAboveMiddleBenchmark++;
-          dataTagLogger.info("Number of update above " + MIDDLE_BENCHMARK_TIME + ": " + nbAboveMiddleBenchmark);
-        } else if (toListener > BENCHMARK_TIME) {
-          nbAboveBenchmark++;
-          dataTagLogger.info("Number of update above " + BENCHMARK_TIME + ": " + nbAboveBenchmark);
-        }
+      if (dataTag.getSourceTimestamp() != null && dataTag.getDaqTimestamp() != null) {
+        latencyRecorder.record(Stage.SOURCE_TO_DAQ, category, processId, daqTime - dataTag.getSourceTimestamp().getTime());
       }
+      latencyRecorder.record(Stage.DAQ_TO_CACHE, category, processId, serverTime - daqTime);
+      latencyRecorder.record(Stage.CACHE_TO_LISTENER, category, processId, currentTime - serverTime);
+      latencyRecorder.record(Stage.DAQ_TO_LISTENER, category, processId, currentTime - daqTime);
+    } else if (tag instanceof RuleTag && tag.getCacheTimestamp() != null) {
+      latencyRecorder.record(Stage.CACHE_TO_LISTENER, Category.RULE, null, currentTime - tag.getCacheTimestamp().getTime());
     }
   }
 
   @PostConstruct
   void init() {
     listenerContainer = cacheRegistrationService.registerToAllTags(this,1);
+    alarmListenerContainer = cacheRegistrationService.registerToAlarms(new C2monCacheListener<Alarm>() {
+      @Override
+      public void notifyElementUpdated(Alarm alarm) {
+        if (alarm.getTimestamp() != null) {
+          latencyRecorder.record(Stage.CACHE_TO_LISTENER, Category.ALARM, null, System.currentTimeMillis() - alarm.getTimestamp().getTime());
+        }
+      }
+
+      @Override
+      public void confirmStatus(Alarm alarm) {
+        // nothing to measure
+      }
+    });
   }
 
   @Override
@@ -167,12 +140,17 @@ public class BenchmarkListener implements C2monCacheListener<Tag>, SmartLifecycl
     log.debug("Starting Benchmark listener");
     running = true;
     listenerContainer.start();
+    alarmListenerContainer.start();
   }
 
   @Override
   public void stop() {
     listenerContainer.stop();
+    alarmListenerContainer.stop();
     running = false;
+    for (String line : latencyRecorder.getLatencySummary()) {
+      log.info("Latency (ms) {}", line);
+    }
   }
 
   @Override
@@ -76,6 +76,22 @@ public interface CacheRegistrationService {
    *          and the stop() at the beginning of its own stop method
    */
   Lifecycle registerToAllTags(C2monCacheListener<Tag> tagCacheListener, int nbThreads);
+
+  /**
+   * Register for all updates to data tags, control tags and rules on several threads.
+   * The updates are passed to the threads through pre-allocated ring buffers, all
+   * updates of a given tag being passed on the same thread in the order they occurred.
+   *
+   * @param tagCacheListener the listener to notify of the updates
+   * @param nbThreads the number of threads used to call the listener
+   * @param coalesce if true, only the newest of the updates of a tag waiting to be
+   *          passed to the listener is passed; to use for listeners only interested
+   *          in the current tag values
+   * @return a Lifecycle object to allow the registered listener to stop/start its thread as required;
+   *          in general, the start() method should be called at the end of its own lifecycle start method,
+   *          and the stop() at the beginning of its own stop method
+   */
+  Lifecycle registerPartitionedToAllTags(C2monCacheListener<Tag> tagCacheListener, int nbThreads, boolean coalesce);
   
   /**
    * Register to be notified of updates to the DataTag cache only.
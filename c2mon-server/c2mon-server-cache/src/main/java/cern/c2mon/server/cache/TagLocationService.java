@@ -17,6 +17,7 @@
 package cern.c2mon.server.cache;
 
 import java.util.Collection;
+import java.util.Map;
 
 import cern.c2mon.server.common.tag.Tag;
 
@@ -62,6 +63,16 @@ public interface TagLocationService {
    * @return a reference to the Tag object in the cache 
    */
   Tag get(Long id);
+
+  /**
+   * Bulk version of {@link #get(Long)}, which locates all the given tags
+   * with a single registry look-up per id. Ids that cannot be located in
+   * any of the tag caches are not contained in the returned map.
+   *
+   * @param ids the Tag ids
+   * @return map of the located ids to the references of the Tag objects in the cache
+   */
+  Map<Long, Tag> get(Collection<Long> ids);
   
   /**
    * A {@link Tag} can also be retrieved with its unique name
@@ -16,13 +16,10 @@
  *****************************************************************************/
 package cern.c2mon.server.cache.common;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.function.Function;
 
 import cern.c2mon.server.cache.config.CacheProperties;
 import cern.c2mon.server.cache.loading.common.C2monCacheLoader;
@@ -39,6 +36,7 @@ import cern.c2mon.server.cache.C2monBufferedCacheListener;
 import cern.c2mon.server.cache.C2monCacheListener;
 import cern.c2mon.server.cache.ClusterCache;
 import cern.c2mon.server.cache.exception.CacheElementNotFoundException;
+import cern.c2mon.server.cache.listener.AbstractBufferedCacheListener;
 import cern.c2mon.server.cache.listener.BufferedKeyCacheListener;
 import cern.c2mon.server.cache.listener.CacheListener;
 import cern.c2mon.server.cache.listener.DefaultBufferedCacheListener;
@@ -46,6 +44,7 @@ import cern.c2mon.server.cache.listener.MultiThreadedCacheListener;
 import cern.c2mon.server.cache.loading.SimpleCacheLoaderDAO;
 import cern.c2mon.server.common.component.Lifecycle;
 import cern.c2mon.server.common.config.C2monCacheName;
+import cern.c2mon.server.common.util.CacheObjectCopier;
 import cern.c2mon.shared.common.Cacheable;
 
 /**
@@ -184,7 +183,8 @@ public abstract class AbstractCache<K, T extends Cacheable> extends BasicCache<K
 
   /**
    * Find an object in the cache given the object id and create a deep copy.
-   * The copy is relealized through serialization and NOT by cloning.
+   * The copy is realized by the {@link CacheObjectCopier}, which falls back to
+   * serialization for objects whose clone is not a complete deep copy.
    *
    * @param id the unique id of the cache object (should not be NULL)
    * @return Copy to the {@link Cacheable} object
@@ -193,20 +193,12 @@ public abstract class AbstractCache<K, T extends Cacheable> extends BasicCache<K
    * @throws UnsupportedOperationException If something goes wrong whilst creating a deep clone
    *         through serialization
    */
-  @SuppressWarnings("unchecked")
   public final T getCopy(final K id) {
     if (id != null) {
       cache.acquireReadLockOnKey(id);
 
       try {
-        T reference = get(id);
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ObjectOutputStream oos = new ObjectOutputStream(baos);
-        oos.writeObject(reference);
-
-        ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
-        ObjectInputStream ois = new ObjectInputStream(bais);
-        return (T) ois.readObject();
+        return CacheObjectCopier.copy(get(id));
       } catch (CacheElementNotFoundException cenfe) {
         throw cenfe;
       }
@@ -244,8 +236,26 @@ public abstract class AbstractCache<K, T extends Cacheable> extends BasicCache<K
     notifyListenersOfUpdate(value);
   }
 
+  /**
+   * Notifies the listeners of an update of the given cache object. A single
+   * snapshot of the object is taken under a read lock and shared by all
+   * listeners.
+   *
+   * @param id the id of the updated cache object
+   * @throws CacheElementNotFoundException if the element is not found in the cache
+   */
   public void notifyListenersOfUpdate(final K id) {
-    notifyListenersOfUpdate(this.getCopy(id));
+    T snapshot;
+    cache.acquireReadLockOnKey(id);
+    try {
+      snapshot = snapshot(get(id));
+    } finally {
+      cache.releaseReadLockOnKey(id);
+    }
+    registeredEventListeners.notifyElementUpdated(new Element(id, null), false);
+    for (C2monCacheListener< ? super T> listener : cacheListeners) {
+      listener.notifyElementUpdated(snapshot);
+    }
   }
 
   /**
@@ -256,29 +266,37 @@ public abstract class AbstractCache<K, T extends Cacheable> extends BasicCache<K
    * be called *within a lock on the cache object* so the object is not modified
    * before being passed to the listeners (using a clone).
    *
+   * <p>The object is cloned only once and the same snapshot is passed to all
+   * listeners, which must therefore treat it as read-only.
+   *
    * @param cacheable the cache object that has been updated
    */
   public void notifyListenersOfUpdate(final T cacheable) {
     registeredEventListeners.notifyElementUpdated(new Element(cacheable.getId(), null), false); //only for monitoring via Ehcache: not using Ehcache listeners o.w.
-    try {
-      @SuppressWarnings("unchecked")
-      T cloned = (T) cacheable.clone();
-      for (C2monCacheListener< ? super T> listener : cacheListeners) {
-        listener.notifyElementUpdated(cloned);
-      }
-    } catch (CloneNotSupportedException e) {
-      log.error("CloneNotSupportedException caught while cloning a cache element - this should never happen!", e);
-      throw new RuntimeException("CloneNotSupportedException caught while cloning a cache element - this should never happen!", e);
+    T snapshot = snapshot(cacheable);
+    for (C2monCacheListener< ? super T> listener : cacheListeners) {
+      listener.notifyElementUpdated(snapshot);
     }
   }
 
   public void notifyListenerStatusConfirmation(final T cacheable, final long timestamp) {
+    T snapshot = snapshot(cacheable);
+    for (C2monCacheListener< ? super T> listener : cacheListeners) {
+      listener.confirmStatus(snapshot);
+    }
+  }
+
+  /**
+   * Creates the copy of a cache object that is shared by all listeners of one
+   * notification. Should be called within a lock on the cache object.
+   *
+   * @param cacheable the cache object to copy
+   * @return a clone of the object, no longer residing in the cache
+   */
+  @SuppressWarnings("unchecked")
+  private T snapshot(final T cacheable) {
     try {
-      @SuppressWarnings("unchecked")
-      T cloned = (T) cacheable.clone();
-      for (C2monCacheListener< ? super T> listener : cacheListeners) {
-        listener.confirmStatus(cloned);
-      }
+      return (T) cacheable.clone();
     } catch (CloneNotSupportedException e) {
       log.error("CloneNotSupportedException caught while cloning a cache element - this should never happen!", e);
       throw new RuntimeException("CloneNotSupportedException caught while cloning a cache element - this should never happen!", e);
@@ -302,13 +320,17 @@ public abstract class AbstractCache<K, T extends Cacheable> extends BasicCache<K
   }
 
   public Lifecycle registerBufferedListener(final C2monBufferedCacheListener c2monBufferedCacheListener, int frequency) {
-    DefaultBufferedCacheListener bufferedCacheListener = new DefaultBufferedCacheListener(c2monBufferedCacheListener, frequency);
+    CacheProperties.BufferedListener settings = properties.getBufferedListener();
+    DefaultBufferedCacheListener bufferedCacheListener = new DefaultBufferedCacheListener(c2monBufferedCacheListener, frequency,
+        settings.getCapacity(), settings.getBatchSize(), settings.getThreads(), settings.getOverflowPolicy(), settings.isCoalesce());
     cacheListeners.add(bufferedCacheListener);
     return bufferedCacheListener;
   }
 
   public Lifecycle registerKeyBufferedListener(final C2monBufferedCacheListener<Long> bufferedCacheListener, int frequency) {
-    BufferedKeyCacheListener<T> bufferedKeyCacheListener = new BufferedKeyCacheListener<T>(bufferedCacheListener, frequency);
+    CacheProperties.BufferedListener settings = properties.getBufferedListener();
+    BufferedKeyCacheListener<T> bufferedKeyCacheListener = new BufferedKeyCacheListener<T>(bufferedCacheListener, frequency,
+        settings.getCapacity(), settings.getBatchSize(), settings.getThreads(), settings.getOverflowPolicy());
     cacheListeners.add(bufferedKeyCacheListener);
     return bufferedKeyCacheListener;
   }
@@ -322,6 +344,14 @@ public abstract class AbstractCache<K, T extends Cacheable> extends BasicCache<K
     return cacheLoader;
   }
 
+  /**
+   * @return the Ehcache event notification service of this cache, or
+   *         <code>null</code> before the cache is initialised
+   */
+  protected RegisteredEventListeners getCacheEventNotificationService() {
+    return registeredEventListeners;
+  }
+
   /**
    * @return The C2MON cache loader instance
    */
@@ -433,5 +463,42 @@ public abstract class AbstractCache<K, T extends Cacheable> extends BasicCache<K
     return threadPoolSizes;
   }
 
+  /**
+   * For management purposes.
+   * @return the number of notifications dropped by each buffered listener, because its buffers were full
+   */
+  @ManagedOperation(description="Get buffered listener dropped notification numbers.")
+  public List<Long> getBufferedListenerDroppedCounts() {
+    return getBufferedListenerStatistics(AbstractBufferedCacheListener::getDroppedCount);
+  }
+
+  /**
+   * For management purposes.
+   * @return the number of notifications which replaced one still waiting in the buffers, for each buffered listener
+   */
+  @ManagedOperation(description="Get buffered listener coalesced notification numbers.")
+  public List<Long> getBufferedListenerCoalescedCounts() {
+    return getBufferedListenerStatistics(AbstractBufferedCacheListener::getCoalescedCount);
+  }
+
+  /**
+   * For management purposes.
+   * @return the time (in ms) the oldest update of the last batch waited in the buffer, for each buffered listener
+   */
+  @ManagedOperation(description="Get buffered listener last drain latencies (in ms).")
+  public List<Long> getBufferedListenerLastDrainLatencies() {
+    return getBufferedListenerStatistics(AbstractBufferedCacheListener::getLastDrainLatency);
+  }
+
+  private List<Long> getBufferedListenerStatistics(Function<AbstractBufferedCacheListener<?, ?>, Long> statistic) {
+    ArrayList<Long> statistics = new ArrayList<Long>();
+    for (C2monCacheListener listener : cacheListeners) {
+      if (listener instanceof AbstractBufferedCacheListener) {
+        statistics.add(statistic.apply((AbstractBufferedCacheListener<?, ?>) listener));
+      }
+    }
+    return statistics;
+  }
+
 
 }
@@ -16,10 +16,6 @@
  *****************************************************************************/
 package cern.c2mon.server.cache.common;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
 import javax.annotation.PostConstruct;
@@ -33,6 +29,7 @@ import org.slf4j.LoggerFactory;
 
 import cern.c2mon.server.cache.C2monCache;
 import cern.c2mon.server.cache.ClusterCache;
+import cern.c2mon.server.common.util.CacheObjectCopier;
 
 /**
  * This is a default implementation of the {@link C2monCache} interface which is based
@@ -92,20 +89,13 @@ public class DefaultCacheImpl<K, V extends Serializable> extends BasicCache<K, V
   }
 
   /**
-   * Returns a deep copy through serialization
+   * Returns a deep copy, see {@link CacheObjectCopier}
    * @param reference The reference object
    * @return Copy of the reference
    */
-  @SuppressWarnings("unchecked")
   private V deepClone(final K id, final V reference) {
     try {
-      ByteArrayOutputStream baos = new ByteArrayOutputStream();
-      ObjectOutputStream oos = new ObjectOutputStream(baos);
-      oos.writeObject(reference);
-
-      ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
-      ObjectInputStream ois = new ObjectInputStream(bais);
-      return (V) ois.readObject();
+      return CacheObjectCopier.copy(reference);
     } catch (Exception ex) {
       log.error("deepClone() - Caught exception whilst trying to make a serialization copy of object with id " + id, ex);
       throw new RuntimeException("An error occured whilst trying to make a serialization copy of object with id " + id, ex);
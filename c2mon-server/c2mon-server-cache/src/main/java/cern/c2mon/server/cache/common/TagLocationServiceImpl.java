@@ -18,6 +18,8 @@ package cern.c2mon.server.cache.common;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,6 +32,8 @@ import cern.c2mon.server.cache.DataTagCache;
 import cern.c2mon.server.cache.RuleTagCache;
 import cern.c2mon.server.cache.TagLocationService;
 import cern.c2mon.server.cache.exception.CacheElementNotFoundException;
+import cern.c2mon.server.cache.tag.TagLocationRegistry;
+import cern.c2mon.server.common.config.C2monCacheName;
 import cern.c2mon.server.common.tag.Tag;
 
 /**
@@ -60,34 +64,74 @@ public class TagLocationServiceImpl implements TagLocationService {
    * Reference to rule tag cache.
    */
   private RuleTagCache ruleTagCache;
+
+  /**
+   * Registry of the cache in which each tag is located.
+   */
+  private TagLocationRegistry tagLocationRegistry;
   
   /**
    * 
    * @param dataTagCache
    * @param controlTagCache
    * @param ruleTagCache
-   * @param dataTagFacade
-   * @param controlTagFacade
-   * @param ruleTagFacade
+   * @param tagLocationRegistry
    */
   @Autowired
-  public TagLocationServiceImpl(DataTagCache dataTagCache, ControlTagCache controlTagCache, RuleTagCache ruleTagCache) {
+  public TagLocationServiceImpl(DataTagCache dataTagCache, ControlTagCache controlTagCache, RuleTagCache ruleTagCache,
+                                TagLocationRegistry tagLocationRegistry) {
     super();
     this.dataTagCache = dataTagCache;
     this.controlTagCache = controlTagCache;
     this.ruleTagCache = ruleTagCache;
+    this.tagLocationRegistry = tagLocationRegistry;
   }
   
   @SuppressWarnings("unchecked")
   private <T extends Tag> C2monCache<Long, T> getCache(final Long id) {
-    if (dataTagCache.hasKey(id)) {       
+    C2monCache<Long, T> cache = findCache(id);
+    if (cache == null) {
+      throw new CacheElementNotFoundException("TagLocationService failed to locate tag with id " + id + " in any of the rule, control or datatag caches.");
+    }
+    return cache;
+  }
+
+  /**
+   * Resolves the cache of the tag through the {@link TagLocationRegistry}.
+   * Ids unknown to the registry are searched in all tag caches and registered
+   * if found, so that the next look-up succeeds with a single probe.
+   *
+   * @param id the tag id
+   * @return the cache containing the tag, or <code>null</code> if it is not
+   *         located in any tag cache
+   */
+  @SuppressWarnings("unchecked")
+  private <T extends Tag> C2monCache<Long, T> findCache(final Long id) {
+    C2monCacheName cacheName = tagLocationRegistry.get(id);
+    if (cacheName != null) {
+      switch (cacheName) {
+        case DATATAG:
+          return (C2monCache<Long, T>) dataTagCache;
+        case RULETAG:
+          return (C2monCache<Long, T>) ruleTagCache;
+        case CONTROLTAG:
+          return (C2monCache<Long, T>) controlTagCache;
+        default:
+          break;
+      }
+    }
+
+    if (dataTagCache.hasKey(id)) {
+      tagLocationRegistry.put(id, C2monCacheName.DATATAG);
       return (C2monCache<Long, T>) dataTagCache;
     } else if (ruleTagCache.hasKey(id)) {
+      tagLocationRegistry.put(id, C2monCacheName.RULETAG);
       return (C2monCache<Long, T>) ruleTagCache;
     } else if (controlTagCache.hasKey(id)) {
+      tagLocationRegistry.put(id, C2monCacheName.CONTROLTAG);
       return (C2monCache<Long, T>) controlTagCache;
     } else {
-      throw new CacheElementNotFoundException("TagLocationService failed to locate tag with id " + id + " in any of the rule, control or datatag caches.");
+      return null;
     }
   }
   
@@ -101,6 +145,22 @@ public class TagLocationServiceImpl implements TagLocationService {
     return getCache(id).get(id);
   }
   
+  @Override
+  public Map<Long, Tag> get(final Collection<Long> ids) {
+    Map<Long, Tag> tags = new HashMap<>(ids.size() * 2);
+    for (Long id : ids) {
+      C2monCache<Long, Tag> cache = findCache(id);
+      if (cache != null) {
+        try {
+          tags.put(id, cache.get(id));
+        } catch (CacheElementNotFoundException e) {
+          LOGGER.debug("get() - Tag #{} was removed from its cache while being located", id);
+        }
+      }
+    }
+    return tags;
+  }
+
   @Override
   public Tag get(final String tagName) {
     if (dataTagCache.hasTagWithName(tagName)) {       
@@ -137,7 +197,8 @@ public class TagLocationServiceImpl implements TagLocationService {
   
   @Override
   public Boolean isInTagCache(Long id) {
-    return ruleTagCache.hasKey(id) || controlTagCache.hasKey(id) || dataTagCache.hasKey(id); 
+    C2monCache<Long, Tag> cache = findCache(id);
+    return cache != null && cache.hasKey(id);
   }
   
   @Override
@@ -3,6 +3,9 @@ package cern.c2mon.server.cache.config;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import cern.c2mon.server.cache.listener.AbstractBufferedCacheListener.OverflowPolicy;
+import cern.c2mon.server.cache.listener.RingBufferCacheListener.WaitStrategy;
+
 /**
  * @author Justin Lewis Salmon
  */
@@ -39,4 +42,66 @@ public class CacheProperties {
    * How long (in ms) the buffered cache listener should sleep between pulls
    */
   private int bufferedListenerPullFrequency = 5000;
+
+  /**
+   * Settings of the buffered listeners (see
+   * CacheRegistrationService#registerBufferedListenerToTags)
+   */
+  private BufferedListener bufferedListener = new BufferedListener();
+
+  /**
+   * Settings of the listeners registered on ring buffers (see
+   * CacheRegistrationService#registerPartitionedToAllTags)
+   */
+  private RingBufferListener ringBufferListener = new RingBufferListener();
+
+  @Data
+  public static class RingBufferListener {
+
+    /**
+     * Number of updates each listener thread can buffer (rounded up to the
+     * next power of 2). The cache waits when the buffer is full
+     */
+    private int bufferSize = 16384;
+
+    /**
+     * How the listener threads wait for updates: BLOCKING, SLEEPING,
+     * YIELDING or BUSY_SPIN
+     */
+    private WaitStrategy waitStrategy = WaitStrategy.BLOCKING;
+  }
+
+  @Data
+  public static class BufferedListener {
+
+    /**
+     * Max number of updates (and of status confirmations) each buffered
+     * listener keeps before applying the overflow policy
+     */
+    private int capacity = 500000;
+
+    /**
+     * Max number of objects passed at once to the listener. The buffer is
+     * drained as soon as it holds this number, without waiting for the pull
+     * frequency
+     */
+    private int batchSize = 20000;
+
+    /**
+     * Number of threads passing the batches to each buffered listener
+     */
+    private int threads = 1;
+
+    /**
+     * Only pass the latest buffered update of each tag to the listener. The
+     * listeners of key updates (cache persistence) always coalesce
+     */
+    private boolean coalesce = false;
+
+    /**
+     * What happens when the buffer is full: BLOCK (the cache waits),
+     * DROP_OLDEST or DROP_NEWEST
+     */
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+  }
 }
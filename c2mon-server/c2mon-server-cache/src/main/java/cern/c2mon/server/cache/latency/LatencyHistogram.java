@@ -0,0 +1,139 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.server.cache.latency;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe histogram of latencies in milliseconds, with a bounded
+ * relative error of about 3%.
+ * <p>
+ * Values below 64 are counted exactly. Above, each power of two is split
+ * into 32 buckets of equal width (log-linear bucketing as used by
+ * HdrHistogram), so recording a value is a few bit operations and an atomic
+ * increment, without any allocation or locking.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+
+  private static final int SUB_BUCKET_HALF_COUNT = 1 << SUB_BUCKET_BITS;
+
+  private static final int LINEAR_LIMIT = SUB_BUCKET_HALF_COUNT << 1;
+
+  private static final int BUCKET_COUNT = LINEAR_LIMIT + (Long.SIZE - SUB_BUCKET_BITS - 2) * SUB_BUCKET_HALF_COUNT;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+  private final AtomicLong totalCount = new AtomicLong();
+
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Records a latency. Negative values (clock differences between hosts)
+   * are counted as 0.
+   *
+   * @param latency the latency in milliseconds
+   */
+  public void record(final long latency) {
+    long value = Math.max(0, latency);
+    counts.incrementAndGet(indexOf(value));
+    totalCount.incrementAndGet();
+    long currentMax = max.get();
+    while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+      currentMax = max.get();
+    }
+  }
+
+  /**
+   * @return the number of recorded latencies
+   */
+  public long getCount() {
+    return totalCount.get();
+  }
+
+  /**
+   * @return the highest recorded latency
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Returns the latency below which the given percentage of the recorded
+   * values fall, rounded up to the upper bound of its bucket.
+   *
+   * @param percentile between 0 and 100
+   * @return the latency in milliseconds, or 0 if nothing was recorded
+   */
+  public long getValueAtPercentile(final double percentile) {
+    long count = totalCount.get();
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(highestValueOf(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  /**
+   * Clears all recorded values. Values recorded concurrently may be lost.
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts.set(i, 0);
+    }
+    totalCount.set(0);
+    max.set(0);
+  }
+
+  /**
+   * @return a one-line summary of the count and main percentiles
+   */
+  public String getSummary() {
+    return "count=" + getCount()
+        + " p50=" + getValueAtPercentile(50)
+        + " p90=" + getValueAtPercentile(90)
+        + " p99=" + getValueAtPercentile(99)
+        + " p99.9=" + getValueAtPercentile(99.9)
+        + " max=" + getMax();
+  }
+
+  static int indexOf(final long value) {
+    if (value < LINEAR_LIMIT) {
+      return (int) value;
+    }
+    int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return LINEAR_LIMIT + (shift - 1) * SUB_BUCKET_HALF_COUNT + (int) (value >>> shift) - SUB_BUCKET_HALF_COUNT;
+  }
+
+  static long highestValueOf(final int index) {
+    if (index < LINEAR_LIMIT) {
+      return index;
+    }
+    int shift = (index - LINEAR_LIMIT) / SUB_BUCKET_HALF_COUNT + 1;
+    long subBucket = (index - LINEAR_LIMIT) % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
@@ -0,0 +1,211 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.server.cache.latency;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiFunction;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Service;
+
+import cern.c2mon.server.common.datatag.DataTag;
+import cern.c2mon.server.common.rule.RuleTag;
+import cern.c2mon.server.common.tag.Tag;
+import cern.c2mon.shared.common.datatag.DataTagAddress;
+
+/**
+ * Keeps the latency histograms of the updates passing through the server,
+ * per {@link Stage} and {@link Category}, and per process for the data tags.
+ * The percentiles are exposed over JMX.
+ * <p>
+ * The stages are recorded by the components handling the updates: the DAQ
+ * update reception, the rule evaluation, the client publication and the
+ * history and Elasticsearch persistence. The benchmark module records the
+ * latencies of the cache listener notification.
+ */
+@Service
+@ManagedResource(objectName = "cern.c2mon:name=latencyRecorder")
+public class LatencyRecorder {
+
+  /**
+   * The measured stage of an update, computed from the timestamps it carries.
+   */
+  public enum Stage {
+    /** From the source timestamp to the DAQ timestamp */
+    SOURCE_TO_DAQ,
+    /** From the DAQ timestamp to the cache write (incl. JMS transfer) */
+    DAQ_TO_CACHE,
+    /** From the cache write (or rule/alarm evaluation) to the listener notification */
+    CACHE_TO_LISTENER,
+    /** From the DAQ timestamp to the listener notification */
+    DAQ_TO_LISTENER,
+    /** From the DAQ timestamp to the reception of the JMS message by the server */
+    DAQ_TO_SERVER,
+    /** Duration of a rule evaluation */
+    RULE_EVALUATION,
+    /** From the cache write to the publication to the clients */
+    CACHE_TO_CLIENT,
+    /** From the cache write to the history database write */
+    CACHE_TO_HISTORY,
+    /** From the cache write to the hand-over to the Elasticsearch indexer */
+    CACHE_TO_ELASTICSEARCH
+  }
+
+  /**
+   * The kind of update.
+   */
+  public enum Category {
+    HIGH_PRIORITY,
+    LOW_PRIORITY,
+    RULE,
+    ALARM
+  }
+
+  private final LatencyHistogram[][] histograms = createHistograms();
+
+  /**
+   * The data tag histograms per process id. Only few stages are recorded per
+   * process, so the histograms of a process are created on their first record.
+   */
+  private final ConcurrentMap<Long, AtomicReferenceArray<LatencyHistogram>> processHistograms = new ConcurrentHashMap<>();
+
+  /**
+   * Records a latency.
+   *
+   * @param stage the measured stage
+   * @param category the kind of update
+   * @param processId the process of the updated tag, or null if not applicable
+   * @param latency the latency in milliseconds
+   */
+  public void record(final Stage stage, final Category category, final Long processId, final long latency) {
+    histograms[stage.ordinal()][category.ordinal()].record(latency);
+    if (processId != null) {
+      AtomicReferenceArray<LatencyHistogram> perProcess = processHistograms.get(processId);
+      if (perProcess == null) {
+        perProcess = processHistograms.computeIfAbsent(processId,
+            id -> new AtomicReferenceArray<>(Stage.values().length * Category.values().length));
+      }
+      int index = indexOf(stage, category);
+      LatencyHistogram histogram = perProcess.get(index);
+      if (histogram == null) {
+        perProcess.compareAndSet(index, null, new LatencyHistogram());
+        histogram = perProcess.get(index);
+      }
+      histogram.record(latency);
+    }
+  }
+
+  /**
+   * Records the time elapsed since the cache write of the tag.
+   *
+   * @param stage the measured stage
+   * @param tag the tag, taken from the cache
+   * @param now the current time in milliseconds
+   */
+  public void recordSinceCacheWrite(final Stage stage, final Tag tag, final long now) {
+    if (tag.getCacheTimestamp() != null) {
+      Long processId = tag instanceof DataTag ? ((DataTag) tag).getProcessId() : null;
+      record(stage, categoryOf(tag), processId, now - tag.getCacheTimestamp().getTime());
+    }
+  }
+
+  /**
+   * @param tag a tag
+   * @return the category of the tag: rule, or high or low priority data tag
+   */
+  public static Category categoryOf(final Tag tag) {
+    if (tag instanceof RuleTag) {
+      return Category.RULE;
+    }
+    if (tag instanceof DataTag) {
+      DataTagAddress address = ((DataTag) tag).getAddress();
+      if (address != null && address.getPriority() == DataTagAddress.PRIORITY_HIGH) {
+        return Category.HIGH_PRIORITY;
+      }
+    }
+    return Category.LOW_PRIORITY;
+  }
+
+  /**
+   * @return the histogram of the given stage and category
+   */
+  public LatencyHistogram getHistogram(final Stage stage, final Category category) {
+    return histograms[stage.ordinal()][category.ordinal()];
+  }
+
+  @ManagedAttribute(description = "Latency percentiles (ms) per stage and category")
+  public String[] getLatencySummary() {
+    return summarize(this::getHistogram);
+  }
+
+  @ManagedOperation(description = "Latency percentiles (ms) per stage and category of the data tags of a process")
+  public String[] getProcessLatencySummary(final long processId) {
+    AtomicReferenceArray<LatencyHistogram> perProcess = processHistograms.get(processId);
+    return perProcess == null ? new String[0] : summarize((stage, category) -> perProcess.get(indexOf(stage, category)));
+  }
+
+  @ManagedOperation(description = "Latency (ms) at the given percentile for a stage and category, e.g. DAQ_TO_LISTENER, HIGH_PRIORITY, 99.9")
+  public long getLatencyAtPercentile(final String stage, final String category, final double percentile) {
+    return getHistogram(Stage.valueOf(stage), Category.valueOf(category)).getValueAtPercentile(percentile);
+  }
+
+  @ManagedOperation(description = "Clears all latency histograms")
+  public void reset() {
+    for (LatencyHistogram[] stageHistograms : histograms) {
+      for (LatencyHistogram histogram : stageHistograms) {
+        histogram.reset();
+      }
+    }
+    processHistograms.clear();
+  }
+
+  private static int indexOf(final Stage stage, final Category category) {
+    return stage.ordinal() * Category.values().length + category.ordinal();
+  }
+
+  /**
+   * @param histograms gives the histogram of a stage and category, or null if there is none
+   */
+  private static String[] summarize(final BiFunction<Stage, Category, LatencyHistogram> histograms) {
+    List<String> lines = new ArrayList<>();
+    for (Stage stage : Stage.values()) {
+      for (Category category : Category.values()) {
+        LatencyHistogram histogram = histograms.apply(stage, category);
+        if (histogram != null && histogram.getCount() > 0) {
+          lines.add(stage + " " + category + ": " + histogram.getSummary());
+        }
+      }
+    }
+    return lines.toArray(new String[lines.size()]);
+  }
+
+  private static LatencyHistogram[][] createHistograms() {
+    LatencyHistogram[][] stageHistograms = new LatencyHistogram[Stage.values().length][Category.values().length];
+    for (LatencyHistogram[] categoryHistograms : stageHistograms) {
+      for (int i = 0; i < categoryHistograms.length; i++) {
+        categoryHistograms[i] = new LatencyHistogram();
+      }
+    }
+    return stageHistograms;
+  }
+}
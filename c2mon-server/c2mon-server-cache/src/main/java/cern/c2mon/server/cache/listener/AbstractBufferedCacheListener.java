@@ -16,9 +16,9 @@
  *****************************************************************************/
 package cern.c2mon.server.cache.listener;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.List;
 
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
@@ -30,7 +30,12 @@ import cern.c2mon.shared.common.Cacheable;
 
 /**
  * Abstract listener implementation that batches the notifications before
- * calling the BufferedListener
+ * calling the BufferedListener.
+ *
+ * <p>The notifications are kept in bounded buffers, which are drained as soon
+ * as a full batch is available or at the latest after the pull frequency, on
+ * one or more listener threads. With several threads, the batches may be
+ * passed to the listener concurrently and out of order.
  *
  * @author Mark Brightwell
  * @param <T> the type of cache object received
@@ -41,11 +46,21 @@ import cern.c2mon.shared.common.Cacheable;
 public abstract class AbstractBufferedCacheListener<T extends Cacheable, S> implements C2monCacheListener<T>, Lifecycle {
 
   /**
-   * Max number of objects passed to the listener.
+   * What happens to a notification received while the buffer is full.
    */
-  private static final int MAX_TO_LISTENER = 20000;
+  public enum OverflowPolicy {
+    /** The cache waits for free space in the buffer: no update is lost */
+    BLOCK,
+    /** The oldest buffered notification is dropped */
+    DROP_OLDEST,
+    /** The received notification is dropped */
+    DROP_NEWEST
+  }
 
-  private static final long CHECK_FREQUENCY = 500L;
+  /**
+   * Max time (in ms) the stop() method waits for the buffers to be emptied.
+   */
+  private static final long SHUTDOWN_TIMEOUT = 30000L;
 
   /**
    * Max sleep time between pulls (could be longer if previous task is longer)
@@ -53,10 +68,17 @@ public abstract class AbstractBufferedCacheListener<T extends Cacheable, S> impl
   private int frequency;
 
   /**
-   * Queues keeping the keys for supported methods.
+   * Number of threads passing the batches to the listener.
    */
-  private final LinkedBlockingQueue<S> onUpdateQueue = new LinkedBlockingQueue<>();
-  private final LinkedBlockingQueue<S> statusConfirmationQueue = new LinkedBlockingQueue<>();
+  private final int threads;
+
+  /**
+   * Buffers keeping the objects for supported methods.
+   */
+  private final ListenerBuffer<S> onUpdateBuffer;
+  private final ListenerBuffer<S> statusConfirmationBuffer;
+
+  private final List<Thread> listenerThreads = new ArrayList<>();
 
   /**
    * Wrapped listener.
@@ -70,14 +92,25 @@ public abstract class AbstractBufferedCacheListener<T extends Cacheable, S> impl
   private volatile boolean enabled;
 
   /**
-   * Notice that duplicate policy is ignored if finite capacity is set (duplicate.OK is set) - TODO rewrite/adapt SynchroBuffer for this...
-
    * @param bufferedCacheListener listener expecting collections of cache objects
-   * @param frequency the frequency (in ms) at which the buffer should be emptied
+   * @param frequency the max time (in ms) an object waits in the buffer before being passed on
+   * @param capacity the max number of updates (and of status confirmations) kept in the buffers
+   * @param batchSize the max number of objects passed to the listener at once; the buffer
+   *                  is drained as soon as this number is reached
+   * @param threads the number of threads calling the listener
+   * @param overflowPolicy what happens to notifications received while the buffer is full
+   * @param coalesce if true, a notification replaces the one of the same cache object still
+   *                 waiting in the buffer
    */
-  public AbstractBufferedCacheListener(C2monBufferedCacheListener<S> bufferedCacheListener, int frequency) {
+  public AbstractBufferedCacheListener(C2monBufferedCacheListener<S> bufferedCacheListener, int frequency, int capacity,
+                                       int batchSize, int threads, OverflowPolicy overflowPolicy, boolean coalesce) {
     this.bufferedCacheListener = bufferedCacheListener;
     this.frequency = frequency;
+    this.threads = Math.max(1, threads);
+    String name = bufferedCacheListener.getThreadName();
+    this.onUpdateBuffer = new ListenerBuffer<>(name, capacity, batchSize, coalesce, overflowPolicy);
+    // the confirmations wake up the same threads as the updates
+    this.statusConfirmationBuffer = new ListenerBuffer<>(name, onUpdateBuffer, coalesce);
     enabled = false;
   }
 
@@ -87,7 +120,7 @@ public abstract class AbstractBufferedCacheListener<T extends Cacheable, S> impl
   public void confirmStatus(T cacheable) {
     if (enabled) {
       try {
-        statusConfirmationQueue.put(getDerivedObject(cacheable));
+        statusConfirmationBuffer.put(cacheable.getId(), getDerivedObject(cacheable));
       } catch (InterruptedException e) {
         log.error("Interrupted while waiting to insert into queue", e);
       }
@@ -102,7 +135,7 @@ public abstract class AbstractBufferedCacheListener<T extends Cacheable, S> impl
   public void notifyElementUpdated(T cacheable) {
     if (enabled) {
       try {
-        onUpdateQueue.put(getDerivedObject(cacheable));
+        onUpdateBuffer.put(cacheable.getId(), getDerivedObject(cacheable));
       } catch (InterruptedException e) {
         log.error("Interrupted while waiting to insert key into queue", e);
       }
@@ -135,60 +168,106 @@ public abstract class AbstractBufferedCacheListener<T extends Cacheable, S> impl
   public synchronized void start() {
     if (!enabled) {
       log.info("Starting BufferedCacheListener for {}", bufferedCacheListener.getThreadName());
-
-      Runnable task = () -> {
-        while (enabled || !onUpdateQueue.isEmpty() || !statusConfirmationQueue.isEmpty()) {
-          long millisStart = System.currentTimeMillis();
-          flush();
-          while (System.currentTimeMillis() - millisStart < frequency) {
-            try {
-              Thread.sleep(CHECK_FREQUENCY);
-            } catch (InterruptedException e) {
-              log.error("Sleep interrupted in BufferedCacheListener thread");
-            }
-          }
-        }
-      };
-
-      new Thread(task, bufferedCacheListener.getThreadName()).start();
+      onUpdateBuffer.open();
+      statusConfirmationBuffer.open();
       enabled = true;
+
+      listenerThreads.clear();
+      for (int i = 0; i < threads; i++) {
+        String threadName = bufferedCacheListener.getThreadName() + (threads > 1 ? "-" + i : "");
+        Thread thread = new Thread(this::drainBuffers, threadName);
+        listenerThreads.add(thread);
+        thread.start();
+      }
     }
   }
 
+  /**
+   * Waits (up to 30s) for the listener threads to pass on the buffered objects.
+   */
   @Override
   public synchronized void stop() {
     if (enabled) {
       log.info("Shutting down BufferedKeyCacheListener for {}", bufferedCacheListener.getThreadName());
       enabled = false;
-      flush();
+      onUpdateBuffer.close();
+      statusConfirmationBuffer.close();
+      long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT;
+      try {
+        for (Thread thread : listenerThreads) {
+          thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+        }
+      } catch (InterruptedException e) {
+        log.error("Interrupted while waiting for the threads of {} to finish", bufferedCacheListener.getThreadName());
+        Thread.currentThread().interrupt();
+      }
+      if (getQueueSize() > 0) {
+        log.warn("{} objects left in the buffers of {} on shutdown", getQueueSize(), bufferedCacheListener.getThreadName());
+      }
     }
   }
 
-  private synchronized void flush() {
-    if (!onUpdateQueue.isEmpty()) {
-      LinkedList<S> updateKeys = new LinkedList<>();
-      onUpdateQueue.drainTo(updateKeys, MAX_TO_LISTENER);
-      if (!updateKeys.isEmpty()) {
-        try {
-          bufferedCacheListener.notifyElementUpdated(updateKeys);
-        } catch (Exception e) {
-          log.error("Uncaught exception occured in {} whilst notifying for update of {} elements!",  bufferedCacheListener.getThreadName(), updateKeys.size(), e);
+  /**
+   * For management purposes.
+   * @return the number of updates and status confirmations waiting to be passed to the listener
+   */
+  public int getQueueSize() {
+    return onUpdateBuffer.size() + statusConfirmationBuffer.size();
+  }
+
+  /**
+   * For management purposes.
+   * @return the number of notifications dropped because the buffers were full
+   */
+  public long getDroppedCount() {
+    return onUpdateBuffer.getDroppedCount() + statusConfirmationBuffer.getDroppedCount();
+  }
+
+  /**
+   * For management purposes.
+   * @return the number of notifications that replaced one still waiting in the buffers
+   */
+  public long getCoalescedCount() {
+    return onUpdateBuffer.getCoalescedCount() + statusConfirmationBuffer.getCoalescedCount();
+  }
+
+  /**
+   * For management purposes.
+   * @return the time (in ms) the oldest update of the last batch waited in the buffer
+   */
+  public long getLastDrainLatency() {
+    return onUpdateBuffer.getLastDrainLatency();
+  }
+
+  /**
+   * Run by the listener threads until the listener is stopped and the
+   * buffers are empty.
+   */
+  private void drainBuffers() {
+    while (enabled || !onUpdateBuffer.isEmpty() || !statusConfirmationBuffer.isEmpty()) {
+      try {
+        ListenerBuffer.awaitBatch(frequency, onUpdateBuffer, statusConfirmationBuffer);
+
+        List<S> updates = onUpdateBuffer.drain();
+        if (!updates.isEmpty()) {
+          try {
+            bufferedCacheListener.notifyElementUpdated(updates);
+          } catch (Exception e) {
+            log.error("Uncaught exception occured in {} whilst notifying for update of {} elements!",  bufferedCacheListener.getThreadName(), updates.size(), e);
+          }
         }
-      }
-    }
 
-    if (!statusConfirmationQueue.isEmpty()) {
-      LinkedList<S> confirmationKeys = new LinkedList<>();
-      statusConfirmationQueue.drainTo(confirmationKeys, MAX_TO_LISTENER);
-      if (!confirmationKeys.isEmpty()) {
-        try {
-          bufferedCacheListener.confirmStatus(confirmationKeys);
-        } catch (Exception e) {
-          log.error("Uncaught exception occured in {} whilst confirming status of {} cache objects!", bufferedCacheListener.getThreadName(), confirmationKeys.size(), e);
+        List<S> confirmations = statusConfirmationBuffer.drain();
+        if (!confirmations.isEmpty()) {
+          try {
+            bufferedCacheListener.confirmStatus(confirmations);
+          } catch (Exception e) {
+            log.error("Uncaught exception occured in {} whilst confirming status of {} cache objects!", bufferedCacheListener.getThreadName(), confirmations.size(), e);
+          }
         }
+      } catch (InterruptedException e) {
+        log.error("Wait interrupted in BufferedCacheListener thread");
       }
     }
   }
-
-
 }
@@ -33,9 +33,15 @@ public class BufferedKeyCacheListener<T extends Cacheable> extends AbstractBuffe
    *
    * @param bufferedKeyTimCacheListener the listener to register.
    * @param frequency                   the frequency (in ms) at which the buffer should be emptied
+   * @param capacity                    the max number of buffered keys
+   * @param batchSize                   the max number of keys passed to the listener at once
+   * @param threads                     the number of threads calling the listener
+   * @param overflowPolicy              what happens to keys received while the buffer is full
    */
-  public BufferedKeyCacheListener(final C2monBufferedCacheListener<Long> bufferedKeyTimCacheListener, int frequency) {
-    super(bufferedKeyTimCacheListener, frequency);
+  public BufferedKeyCacheListener(final C2monBufferedCacheListener<Long> bufferedKeyTimCacheListener, int frequency, int capacity,
+                                  int batchSize, int threads, OverflowPolicy overflowPolicy) {
+    // a key waiting in the buffer is never passed twice
+    super(bufferedKeyTimCacheListener, frequency, capacity, batchSize, threads, overflowPolicy, true);
   }
 
   /**
@@ -42,7 +42,8 @@ import cern.c2mon.shared.util.threadhandler.ThreadHandler;
  * <p>Internally, registration on a single thread uses the
  * {@link ThreadHandler} implementation while registrations
  * on several threads use the {@link MultiThreadedCacheListener}
- * and the Java concurrency library.
+ * and the Java concurrency library, or the {@link RingBufferCacheListener}
+ * if the updates of a tag must be handled in order.
  *
  * @author Mark Brightwell
  *
@@ -116,6 +117,14 @@ public class CacheRegistrationServiceImpl implements CacheRegistrationService {
     }
   }
 
+  @Override
+  public Lifecycle registerPartitionedToAllTags(final C2monCacheListener<Tag> tagCacheListener, final int threads,
+                                                final boolean coalesce) {
+    RingBufferCacheListener<Tag> ringBufferListener = createRingBufferListener(tagCacheListener, threads, coalesce);
+    registerListenerToTags(ringBufferListener);
+    return ringBufferListener;
+  }
+
   @Override
   public void registerForSupervisionChanges(CacheSupervisionListener<Tag> cacheSupervisionListener) {
     dataTagCache.registerListenerWithSupervision(cacheSupervisionListener);
@@ -169,7 +178,9 @@ public class CacheRegistrationServiceImpl implements CacheRegistrationService {
   @Override
   public Lifecycle registerBufferedListenerToTags(final C2monBufferedCacheListener<Tag> bufferListener) {
     int frequency = properties.getBufferedListenerPullFrequency();
-    DefaultBufferedCacheListener<Tag> bufferedCacheListener = new DefaultBufferedCacheListener<>(bufferListener, frequency);
+    CacheProperties.BufferedListener settings = properties.getBufferedListener();
+    DefaultBufferedCacheListener<Tag> bufferedCacheListener = new DefaultBufferedCacheListener<>(bufferListener, frequency,
+        settings.getCapacity(), settings.getBatchSize(), settings.getThreads(), settings.getOverflowPolicy(), settings.isCoalesce());
     registerListenerToTags(bufferedCacheListener);
     return bufferedCacheListener;
   }
@@ -179,6 +190,12 @@ public class CacheRegistrationServiceImpl implements CacheRegistrationService {
     return alarmCache.registerListener(cacheListener);
   }
 
+  private <T extends Tag> RingBufferCacheListener<T> createRingBufferListener(final C2monCacheListener<T> cacheListener,
+                                                                            final int threads, final boolean coalesce) {
+    CacheProperties.RingBufferListener settings = properties.getRingBufferListener();
+    return new RingBufferCacheListener<>(cacheListener, threads, settings.getBufferSize(), settings.getWaitStrategy(), coalesce);
+  }
+
   private void registerListenerToTags(C2monCacheListener<Tag> cacheListener) {
     dataTagCache.registerSynchronousListener(cacheListener);
     controlTagCache.registerSynchronousListener(cacheListener);
@@ -32,10 +32,16 @@ public class DefaultBufferedCacheListener<T extends Cacheable> extends AbstractB
    * Constructor.
    *
    * @param bufferedCacheListener listener expecting collections of cache objects
-   * @param frequency the frequency (in seconds) at which the buffer should be emptied
+   * @param frequency the frequency (in ms) at which the buffer should be emptied
+   * @param capacity the max number of buffered updates
+   * @param batchSize the max number of objects passed to the listener at once
+   * @param threads the number of threads calling the listener
+   * @param overflowPolicy what happens to updates received while the buffer is full
+   * @param coalesce if true, only the latest buffered update of each cache object is passed on
    */
-  public DefaultBufferedCacheListener(final C2monBufferedCacheListener<T> bufferedCacheListener, int frequency) {
-    super(bufferedCacheListener, frequency);
+  public DefaultBufferedCacheListener(final C2monBufferedCacheListener<T> bufferedCacheListener, int frequency, int capacity,
+                                      int batchSize, int threads, OverflowPolicy overflowPolicy, boolean coalesce) {
+    super(bufferedCacheListener, frequency, capacity, batchSize, threads, overflowPolicy, coalesce);
   }
 
   /**
@@ -0,0 +1,303 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.server.cache.listener;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.extern.slf4j.Slf4j;
+
+import cern.c2mon.server.cache.listener.AbstractBufferedCacheListener.OverflowPolicy;
+
+/**
+ * Bounded FIFO buffer of an {@link AbstractBufferedCacheListener}, drained in
+ * batches by the listener threads.
+ *
+ * <p>In coalescing mode an object replaces the one with the same key still
+ * waiting in the buffer, keeping its position.
+ *
+ * <p>The buffers drained by the same threads share their lock and batch
+ * condition, so that a thread waiting for a batch is woken up by any of them.
+ *
+ * @param <S> the type of buffered object
+ */
+@Slf4j
+final class ListenerBuffer<S> {
+
+  /** Number of drops between two warnings */
+  private static final long DROP_LOG_INTERVAL = 10000;
+
+  private final String name;
+
+  private final int capacity;
+
+  /** Number of objects triggering a drain without waiting for the timeout */
+  private final int batchSize;
+
+  private final boolean coalesce;
+
+  private final OverflowPolicy overflowPolicy;
+
+  private final ReentrantLock lock;
+
+  private final Condition notFull;
+
+  /** Signalled when a full batch is available, shared by the buffers of the same lock */
+  private final Condition batchReady;
+
+  /**
+   * Insertion ordered entries, keyed by the object key in coalescing mode
+   * or by a sequence number otherwise.
+   */
+  private final LinkedHashMap<Long, Entry<S>> entries = new LinkedHashMap<>();
+
+  private long sequence = 0;
+
+  private boolean closed = false;
+
+  private long droppedCount = 0;
+
+  private long coalescedCount = 0;
+
+  /** Age (in ms) of the oldest object of the last drained batch */
+  private long lastDrainLatency = 0;
+
+  ListenerBuffer(final String name, final int capacity, final int batchSize, final boolean coalesce,
+                 final OverflowPolicy overflowPolicy) {
+    this(name, capacity, batchSize, coalesce, overflowPolicy, new ReentrantLock(), null);
+  }
+
+  /**
+   * Creates a buffer sharing the lock and batch condition of the given one.
+   */
+  ListenerBuffer(final String name, final ListenerBuffer<?> sibling, final boolean coalesce) {
+    this(name, sibling.capacity, sibling.batchSize, coalesce, sibling.overflowPolicy, sibling.lock, sibling.batchReady);
+  }
+
+  private ListenerBuffer(final String name, final int capacity, final int batchSize, final boolean coalesce,
+                         final OverflowPolicy overflowPolicy, final ReentrantLock lock, final Condition batchReady) {
+    if (capacity < 1 || batchSize < 1) {
+      throw new IllegalArgumentException("Buffer capacity and batch size must be positive");
+    }
+    this.name = name;
+    this.capacity = capacity;
+    this.batchSize = batchSize;
+    this.coalesce = coalesce;
+    this.overflowPolicy = overflowPolicy;
+    this.lock = lock;
+    this.notFull = lock.newCondition();
+    this.batchReady = batchReady != null ? batchReady : lock.newCondition();
+  }
+
+  /**
+   * Adds an object to the buffer, applying the overflow policy if it is full.
+   *
+   * @param key the key of the object, used for coalescing
+   * @param object the object to buffer
+   * @throws InterruptedException if interrupted while waiting for space (BLOCK policy)
+   */
+  void put(final Long key, final S object) throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      while (true) {
+        if (coalesce) {
+          Entry<S> entry = entries.get(key);
+          if (entry != null) {
+            entry.object = object;
+            coalescedCount++;
+            return;
+          }
+        }
+        if (entries.size() < capacity) {
+          break;
+        }
+        switch (overflowPolicy) {
+          case DROP_OLDEST:
+            Iterator<Entry<S>> oldest = entries.values().iterator();
+            oldest.next();
+            oldest.remove();
+            dropped();
+            break;
+          case DROP_NEWEST:
+            dropped();
+            return;
+          default:
+            notFull.await();
+        }
+      }
+      entries.put(coalesce ? key : sequence++, new Entry<>(object));
+      if (entries.size() >= batchSize) {
+        batchReady.signal();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Waits until one of the buffers has a full batch, the timeout elapses or
+   * a buffer is closed. The buffers must share the same lock.
+   *
+   * @param timeout the max time to wait (in ms)
+   * @param buffers the buffers drained by the calling thread
+   * @throws InterruptedException if interrupted while waiting
+   */
+  static void awaitBatch(final long timeout, final ListenerBuffer<?>... buffers) throws InterruptedException {
+    ListenerBuffer<?> first = buffers[0];
+    first.lock.lockInterruptibly();
+    try {
+      long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+      while (nanos > 0 && !isBatchReady(buffers)) {
+        nanos = first.batchReady.awaitNanos(nanos);
+      }
+    } finally {
+      first.lock.unlock();
+    }
+  }
+
+  private static boolean isBatchReady(final ListenerBuffer<?>... buffers) {
+    for (ListenerBuffer<?> buffer : buffers) {
+      if (buffer.closed || buffer.entries.size() >= buffer.batchSize) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return at most batch size objects, without waiting
+   */
+  List<S> drain() {
+    lock.lock();
+    try {
+      return drainLocked();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private List<S> drainLocked() {
+    List<S> batch = new ArrayList<>(Math.min(entries.size(), batchSize));
+    Iterator<Entry<S>> iterator = entries.values().iterator();
+    while (iterator.hasNext() && batch.size() < batchSize) {
+      Entry<S> entry = iterator.next();
+      if (batch.isEmpty()) {
+        lastDrainLatency = System.currentTimeMillis() - entry.timestamp;
+      }
+      batch.add(entry.object);
+      iterator.remove();
+    }
+    if (!batch.isEmpty()) {
+      notFull.signalAll();
+      if (entries.size() >= batchSize) {
+        // another full batch for the next listener thread
+        batchReady.signal();
+      }
+    }
+    return batch;
+  }
+
+  private void dropped() {
+    droppedCount++;
+    if (droppedCount % DROP_LOG_INTERVAL == 1) {
+      log.warn("Buffer of {} is full (capacity {}): {} objects dropped so far", name, capacity, droppedCount);
+    }
+  }
+
+  /**
+   * Opens the buffer again after {@link #close()}.
+   */
+  void open() {
+    lock.lock();
+    try {
+      closed = false;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Wakes up the waiting listener threads: the remaining objects are drained
+   * without waiting for full batches.
+   */
+  void close() {
+    lock.lock();
+    try {
+      closed = true;
+      batchReady.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  boolean isEmpty() {
+    return size() == 0;
+  }
+
+  int size() {
+    lock.lock();
+    try {
+      return entries.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  long getDroppedCount() {
+    lock.lock();
+    try {
+      return droppedCount;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  long getCoalescedCount() {
+    lock.lock();
+    try {
+      return coalescedCount;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  long getLastDrainLatency() {
+    lock.lock();
+    try {
+      return lastDrainLatency;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static final class Entry<S> {
+
+    private S object;
+
+    /** When the entry was added to the buffer (replacements keep it) */
+    private final long timestamp = System.currentTimeMillis();
+
+    private Entry(final S object) {
+      this.object = object;
+    }
+  }
+}
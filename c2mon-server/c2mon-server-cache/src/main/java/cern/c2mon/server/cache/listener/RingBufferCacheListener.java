@@ -0,0 +1,404 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.server.cache.listener;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import cern.c2mon.server.cache.C2monCacheListener;
+import cern.c2mon.server.cache.CacheRegistrationService;
+import cern.c2mon.server.common.component.Lifecycle;
+import cern.c2mon.shared.common.Cacheable;
+
+/**
+ * Cache listener container passing the updates to the wrapped
+ * {@link C2monCacheListener} on a fixed number of threads, as an
+ * alternative to the {@link MultiThreadedCacheListener}.
+ *
+ * <p>Each thread has its own pre-allocated ring buffer and the updates
+ * are assigned to the threads by the id of the cache object. All updates
+ * of a given object are therefore passed to the listener in the order in
+ * which they occurred, and no object is allocated per update.
+ *
+ * <p>If the ring buffer of a thread is full, the cache notification thread
+ * waits for a free slot. In coalescing mode, an object that already has an
+ * update waiting in the buffer does not take a new slot: the waiting update
+ * is replaced, so the listener only receives the newest value. Status
+ * confirmations are never coalesced.
+ *
+ * <p>This class is used internally in the server core to wrap a module
+ * listener. The module should preferably register by using the
+ * {@link CacheRegistrationService} bean.
+ *
+ * @param <T> type of cache object expected by listener
+ */
+@Slf4j
+public class RingBufferCacheListener<T extends Cacheable> implements C2monCacheListener<T>, Lifecycle {
+
+  /**
+   * How the listener threads wait for new updates, and the cache
+   * notification threads for a free slot in a full ring buffer.
+   */
+  public enum WaitStrategy {
+    /** Waits on a lock condition: lowest CPU usage, highest latency */
+    BLOCKING,
+    /** Spins, then yields, then sleeps for short periods */
+    SLEEPING,
+    /** Spins, then yields the CPU */
+    YIELDING,
+    /** Spins without ever releasing the CPU: lowest latency, uses a full core per thread */
+    BUSY_SPIN
+  }
+
+  /** The number of milliseconds a blocked thread waits before checking again */
+  private static final long BLOCKING_TIMEOUT = 100;
+
+  private static final int SPIN_TRIES = 100;
+
+  private static final int YIELD_TRIES = 200;
+
+  private static final long SLEEP_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+  private enum Method { ON_UPDATE, COALESCED_UPDATE, STATUS_CONFIRMATION }
+
+  /**
+   * The wrapped listener.
+   */
+  private final C2monCacheListener<T> c2monCacheListener;
+
+  private final WaitStrategy waitStrategy;
+
+  private final boolean coalesce;
+
+  private final Partition[] partitions;
+
+  private final ExecutorService executor;
+
+  /**
+   * Shutdown request made.
+   */
+  private volatile boolean shutdownRequestMade = false;
+
+  /**
+   * The listener can only be started and stopped once.
+   */
+  private volatile boolean running = false;
+
+  /**
+   * Constructor.
+   * @param c2monCacheListener the listener wrapped by this class (the module listener)
+   * @param threadPoolSize the number of threads on which the listener is called
+   * @param bufferSize the number of slots of the ring buffer of each thread
+   *        (rounded up to the next power of 2)
+   * @param waitStrategy how the threads wait for updates or free slots
+   * @param coalesce if true, only the newest waiting update of an object is passed to the listener
+   */
+  @SuppressWarnings("unchecked")
+  public RingBufferCacheListener(final C2monCacheListener<T> c2monCacheListener, final int threadPoolSize,
+                                 final int bufferSize, final WaitStrategy waitStrategy, final boolean coalesce) {
+    this.c2monCacheListener = c2monCacheListener;
+    this.waitStrategy = waitStrategy;
+    this.coalesce = coalesce;
+
+    int size = Integer.highestOneBit(Math.max(2, bufferSize) - 1) << 1;
+    int nbThreads = Math.max(1, threadPoolSize);
+    partitions = new RingBufferCacheListener.Partition[nbThreads];
+    executor = Executors.newFixedThreadPool(nbThreads, new CustomizableThreadFactory("RingBufferListener-"));
+    for (int i = 0; i < nbThreads; i++) {
+      partitions[i] = new Partition(size);
+      executor.submit(partitions[i]);
+    }
+  }
+
+  @Override
+  public void notifyElementUpdated(final T cacheable) {
+    if (shutdownRequestMade) {
+      log.warn("Attempt at notifying of element update after shutdown started "
+          + "- should not happen and indicates incorrect shutdown sequence!");
+      return;
+    }
+    Partition partition = partitionOf(cacheable);
+    if (coalesce) {
+      if (partition.latest.put(cacheable.getId(), cacheable) == null) {
+        partition.publish(cacheable, Method.COALESCED_UPDATE);
+      } else {
+        partition.coalescedCount.incrementAndGet();
+      }
+    } else {
+      partition.publish(cacheable, Method.ON_UPDATE);
+    }
+  }
+
+  @Override
+  public void confirmStatus(final T cacheable) {
+    if (shutdownRequestMade) {
+      log.warn("Attempt at notifying of element update after shutdown started "
+          + "- should not happen and indicates incorrect shutdown sequence!");
+      return;
+    }
+    partitionOf(cacheable).publish(cacheable, Method.STATUS_CONFIRMATION);
+  }
+
+  private Partition partitionOf(final T cacheable) {
+    Long id = cacheable.getId();
+    int hash = id == null ? 0 : id.hashCode();
+    hash ^= hash >>> 16;
+    return partitions[(hash & Integer.MAX_VALUE) % partitions.length];
+  }
+
+  /**
+   * Is running until a shutdown request is made.
+   */
+  @Override
+  public boolean isRunning() {
+    return running;
+  }
+
+  /**
+   * Can only be started once at server start-up.
+   */
+  @Override
+  public void start() {
+    running = true;
+  }
+
+  /**
+   * Waits for all buffered updates to be passed to the listener, then stops
+   * the threads. Will have no effect if called a second time.
+   */
+  @Override
+  public synchronized void stop() {
+    if (!shutdownRequestMade) {
+      log.debug("Shutting down ring buffer cache listener.");
+      running = false;
+      shutdownRequestMade = true;
+      for (Partition partition : partitions) {
+        partition.signalConsumer();
+      }
+      executor.shutdown();
+      try {
+        executor.awaitTermination(BLOCKING_TIMEOUT * 50, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException ex) {
+        log.error("Interrupted while waiting for shutdown to complete", ex);
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * For management purposes.
+   * @return the number of updates waiting to be passed to the listener
+   */
+  public long getTaskQueueSize() {
+    long size = 0;
+    for (Partition partition : partitions) {
+      size += partition.size();
+    }
+    return size;
+  }
+
+  /**
+   * For management purposes.
+   * @return the number of updates that replaced an update still waiting in the buffer
+   */
+  public long getCoalescedCount() {
+    long count = 0;
+    for (Partition partition : partitions) {
+      count += partition.coalescedCount.get();
+    }
+    return count;
+  }
+
+  /**
+   * A slot of a ring buffer. The slots are allocated once and reused.
+   */
+  private final class Slot {
+    private T cacheable;
+    private Method method;
+  }
+
+  /**
+   * A ring buffer with several producers (the cache notification threads)
+   * and a single consumer thread, calling the listener.
+   */
+  private final class Partition implements Runnable {
+
+    private final Slot[] slots;
+
+    private final int mask;
+
+    /** For each slot, the sequence number of the update it currently holds */
+    private final AtomicLongArray published;
+
+    /** The last sequence number claimed by a producer */
+    private final AtomicLong claimed = new AtomicLong(-1);
+
+    /** The last sequence number handled by the consumer */
+    private volatile long consumed = -1;
+
+    /** Object id -> newest waiting update, in coalescing mode */
+    private final ConcurrentHashMap<Long, T> latest = new ConcurrentHashMap<>();
+
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition updateAvailable = lock.newCondition();
+
+    private volatile boolean consumerWaiting = false;
+
+    Partition(final int size) {
+      slots = (Slot[]) new RingBufferCacheListener.Slot[size];
+      for (int i = 0; i < size; i++) {
+        slots[i] = new Slot();
+      }
+      mask = size - 1;
+      published = new AtomicLongArray(size);
+      for (int i = 0; i < size; i++) {
+        published.set(i, -1);
+      }
+    }
+
+    void publish(final T cacheable, final Method method) {
+      long sequence = claimed.incrementAndGet();
+      int tries = 0;
+      while (sequence - slots.length > consumed) {
+        tries = waitForSpace(tries);
+      }
+      int index = (int) sequence & mask;
+      Slot slot = slots[index];
+      slot.cacheable = cacheable;
+      slot.method = method;
+      published.set(index, sequence);
+      if (consumerWaiting) {
+        signalConsumer();
+      }
+    }
+
+    @Override
+    public void run() {
+      long next = consumed + 1;
+      int tries = 0;
+      while (true) {
+        int index = (int) next & mask;
+        if (published.get(index) == next) {
+          Slot slot = slots[index];
+          T cacheable = slot.cacheable;
+          Method method = slot.method;
+          slot.cacheable = null;
+          consumed = next++;
+          tries = 0;
+          notifyListener(cacheable, method);
+        } else if (shutdownRequestMade && next > claimed.get()) {
+          return;
+        } else {
+          tries = waitForUpdate(next, tries);
+        }
+      }
+    }
+
+    private void notifyListener(final T cacheable, final Method method) {
+      try {
+        switch (method) {
+          case COALESCED_UPDATE:
+            T newest = latest.remove(cacheable.getId());
+            if (newest != null) {
+              c2monCacheListener.notifyElementUpdated(newest);
+            }
+            break;
+          case STATUS_CONFIRMATION:
+            c2monCacheListener.confirmStatus(cacheable);
+            break;
+          default:
+            c2monCacheListener.notifyElementUpdated(cacheable);
+        }
+      } catch (Exception e) {
+        log.error("Exception caught when notifying listener: the update could not be processed.", e);
+      }
+    }
+
+    private int waitForUpdate(final long sequence, final int tries) {
+      switch (waitStrategy) {
+        case BLOCKING:
+          lock.lock();
+          try {
+            consumerWaiting = true;
+            if (published.get((int) sequence & mask) != sequence && !shutdownRequestMade) {
+              updateAvailable.await(BLOCKING_TIMEOUT, TimeUnit.MILLISECONDS);
+            }
+          } catch (InterruptedException e) {
+            log.warn("Cache Listener thread interrupted in RingBufferCacheListener.", e);
+          } finally {
+            consumerWaiting = false;
+            lock.unlock();
+          }
+          return 0;
+        default:
+          return waitForSpace(tries);
+      }
+    }
+
+    /**
+     * Used by producers waiting for a free slot and by non-blocking consumers.
+     * @return the number of tries, to pass to the next call
+     */
+    private int waitForSpace(final int tries) {
+      switch (waitStrategy) {
+        case BUSY_SPIN:
+          break;
+        case YIELDING:
+          if (tries >= SPIN_TRIES) {
+            Thread.yield();
+          }
+          break;
+        case SLEEPING:
+          if (tries >= SPIN_TRIES + YIELD_TRIES) {
+            LockSupport.parkNanos(SLEEP_NANOS);
+          } else if (tries >= SPIN_TRIES) {
+            Thread.yield();
+          }
+          break;
+        default:
+          LockSupport.parkNanos(SLEEP_NANOS);
+      }
+      return tries < Integer.MAX_VALUE ? tries + 1 : tries;
+    }
+
+    void signalConsumer() {
+      lock.lock();
+      try {
+        updateAvailable.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    long size() {
+      return Math.max(0, claimed.get() - consumed);
+    }
+  }
+}
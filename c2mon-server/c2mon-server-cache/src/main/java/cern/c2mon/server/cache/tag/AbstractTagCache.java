@@ -30,16 +30,19 @@ import cern.c2mon.server.cache.C2monCacheWithSupervision;
 import cern.c2mon.server.cache.CacheSupervisionListener;
 import cern.c2mon.server.cache.ClusterCache;
 import cern.c2mon.server.cache.common.AbstractCache;
+import cern.c2mon.server.cache.exception.CacheElementNotFoundException;
 import cern.c2mon.server.cache.loading.common.C2monCacheLoader;
 import cern.c2mon.server.cache.loading.SimpleCacheLoaderDAO;
 import cern.c2mon.server.common.tag.AbstractTagCacheObject;
 import cern.c2mon.server.common.tag.Tag;
 import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
+import net.sf.ehcache.event.NotificationScope;
+import net.sf.ehcache.event.RegisteredEventListeners;
 import net.sf.ehcache.loader.CacheLoader;
-import net.sf.ehcache.search.Attribute;
-import net.sf.ehcache.search.Query;
-import net.sf.ehcache.search.Result;
-import net.sf.ehcache.search.Results;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedOperation;
 
 /**
  * Common methods used by all tag caches (data, control and rule tags).
@@ -65,6 +68,18 @@ public abstract class AbstractTagCache<T extends Tag> extends AbstractCache<Long
   private final List<CacheSupervisionListener< ? super T>> listenersWithSupervision;
   private final ReentrantReadWriteLock listenerLock;
 
+  /**
+   * Name index used for all look-ups by tag name, kept up to date on
+   * every put and remove.
+   */
+  private final TagNameIndex nameIndex = new TagNameIndex();
+
+  /**
+   * Registry of the cache location of all tags, shared by the tag caches.
+   * Replaced by the Spring bean in the server context.
+   */
+  private TagLocationRegistry tagLocationRegistry = new TagLocationRegistry();
+
   /**
    * Constructor.
    */
@@ -79,6 +94,112 @@ public abstract class AbstractTagCache<T extends Tag> extends AbstractCache<Long
     listenerLock = new ReentrantReadWriteLock();
   }
 
+  @Autowired
+  public void setTagLocationRegistry(final TagLocationRegistry tagLocationRegistry) {
+    this.tagLocationRegistry = tagLocationRegistry;
+  }
+
+  /**
+   * Builds the name index and registers the tag locations once the cache
+   * has been loaded, since the cache loaders write to the underlying
+   * Ehcache directly. In a server cluster, the name index follows the puts
+   * and removes of the other servers through the remote Ehcache events.
+   */
+  @Override
+  protected void commonInit() {
+    super.commonInit();
+    RegisteredEventListeners eventListeners = getCacheEventNotificationService();
+    if (eventListeners != null) {
+      eventListeners.registerListener(new RemoteNameIndexListener(), NotificationScope.REMOTE);
+    }
+    rebuildNameIndex();
+  }
+
+  @Override
+  public void put(final Long key, final T value) {
+    index(key, value);
+    super.put(key, value);
+  }
+
+  @Override
+  public void putQuiet(final T value) {
+    index(value.getId(), value);
+    super.putQuiet(value);
+  }
+
+  @Override
+  public boolean remove(final Long id) {
+    boolean removed = super.remove(id);
+    nameIndex.remove(id);
+    tagLocationRegistry.remove(id, getCacheName());
+    return removed;
+  }
+
+  /**
+   * Re-creates the tag name index from the current cache content and
+   * registers all tags of this cache in the {@link TagLocationRegistry}.
+   */
+  @ManagedOperation(description = "Rebuilds the tag name index from the cache content")
+  public void rebuildNameIndex() {
+    nameIndex.clear();
+    for (Long key : getKeys()) {
+      Element element = getCache().getQuiet(key);
+      if (element != null && element.getObjectValue() != null) {
+        index(key, (Tag) element.getObjectValue());
+      }
+    }
+    log.debug(String.format("rebuildNameIndex() - Indexed %d tag names of cache %s", nameIndex.size(), getCacheName()));
+  }
+
+  private void index(final Long key, final Tag tag) {
+    nameIndex.put(key, tag.getName());
+    tagLocationRegistry.put(key, getCacheName());
+  }
+
+  /**
+   * Keeps the name index up to date with the changes done to the cache by
+   * the other servers of the cluster. Local changes are indexed directly
+   * by the put and remove methods.
+   */
+  private class RemoteNameIndexListener extends CacheEventListenerAdapter {
+
+    @Override
+    public void notifyElementPut(final Ehcache cache, final Element element) {
+      indexRemote(element);
+    }
+
+    @Override
+    public void notifyElementUpdated(final Ehcache cache, final Element element) {
+      indexRemote(element);
+    }
+
+    @Override
+    public void notifyElementRemoved(final Ehcache cache, final Element element) {
+      if (element != null && element.getObjectKey() instanceof Long) {
+        nameIndex.remove((Long) element.getObjectKey());
+        tagLocationRegistry.remove((Long) element.getObjectKey(), getCacheName());
+      }
+    }
+
+    @Override
+    public void notifyRemoveAll(final Ehcache cache) {
+      nameIndex.clear();
+      tagLocationRegistry.removeAll(getCacheName());
+    }
+
+    private void indexRemote(final Element element) {
+      if (element == null || !(element.getObjectKey() instanceof Long)) {
+        return;
+      }
+      Long key = (Long) element.getObjectKey();
+      // remote events do not necessarily carry the value
+      Element current = element.getObjectValue() != null ? element : getCache().getQuiet(key);
+      if (current != null && current.getObjectValue() instanceof Tag) {
+        index(key, (Tag) current.getObjectValue());
+      }
+    }
+  }
+
 
   @Override
   public void notifyListenersOfSupervisionChange(final T tag) {
@@ -123,32 +244,8 @@ public abstract class AbstractTagCache<T extends Tag> extends AbstractCache<Long
       throw new IllegalArgumentException("Attempting to retrieve a Tag from the cache with a NULL or empty name parameter.");
     }
 
-    // This will prevent wildcard searches
-    if (name.contains("*")) {
-      name = name.replace("*", "\\*");
-    }
-    if (name.contains("?")) {
-      name = name.replace("?", "\\?");
-    }
-
-    Results results = null;
-
-    try {
-      Ehcache ehcache = getCache();
-      Attribute<String> tagName = ehcache.getSearchAttribute("tagName");
-
-      Query query = ehcache.createQuery();
-      results = query.includeKeys().addCriteria(tagName.ilike(name)).maxResults(1).execute();
-
-      return results.hasKeys();
-    }
-    finally {
-      if (results != null) {
-        // Discard the results when done to free up cache resources.
-        results.discard();
-      }
-    }
-
+    Long key = nameIndex.get(name);
+    return key != null && hasKey(key);
   }
 
   @Override
@@ -157,20 +254,17 @@ public abstract class AbstractTagCache<T extends Tag> extends AbstractCache<Long
       throw new IllegalArgumentException("Attempting to retrieve a Tag from the cache with a NULL or empty name parameter.");
     }
 
-    // This will prevent wildcard searches
-    if (name.contains("*")) {
-      name = name.replace("*", "\\*");
-    }
-    if (name.contains("?")) {
-      name = name.replace("?", "\\?");
+    Long key = nameIndex.get(name);
+    if (key == null) {
+      return null;
     }
 
-    Collection<T> results = findByNameWildcard(name, 1);
-    for (T tag : results) {
-      return tag;
+    try {
+      return get(key);
+    } catch (CacheElementNotFoundException e) {
+      log.warn(String.format("get() - Tag name \"%s\" is indexed with id %d, which is no longer in cache %s", name, key, getCacheName()));
+      return null;
     }
-
-    return null;
   }
 
   @Override
@@ -186,18 +280,17 @@ public abstract class AbstractTagCache<T extends Tag> extends AbstractCache<Long
    * A regular expression matcher. '?' and '*' may be used.
    * The search is always case insensitive.
    * <p>
-   * WARN: Expressions starting with a leading wildcard character are
-   * potentially very expensive (ie. full scan) for indexed caches
+   * WARN: Expressions starting with a leading wildcard character have to
+   * go through all names of the {@link TagNameIndex}
    *
    * @param regex The regular expression including '?' and '*'
    * @param maxResults the maximum amount of results that shall be returned
    * @return All tags where the tag name is matching the regular expression.
    * Please note, that the result is limited by {@code maxResults}
-   * @see net.sf.ehcache.search.expression.ILike
+   * @see TagNameIndex#findByWildcard(String, int)
    * @see #get(String)
    */
   private Collection<T> findByNameWildcard(String regex, int maxResults) {
-    Results results = null;
     Collection<T> resultList = new ArrayList<>();
 
     if (regex == null || regex.equalsIgnoreCase("")) {
@@ -217,30 +310,14 @@ public abstract class AbstractTagCache<T extends Tag> extends AbstractCache<Long
       }
     }
     else {
-      try {
-        Ehcache ehcache = getCache();
-        Attribute<String> tagName = ehcache.getSearchAttribute("tagName");
-
-        Query query = ehcache.createQuery();
-        results = query.includeKeys().addCriteria(tagName.ilike(regex)).maxResults(maxResults).execute();
-
-        log.debug(String.format("findByNameWildcard() - Got %d results for regex \"%s\"", results.size(), regex));
-
-        Long key;
-        for (Result result : results.all()) {
-          key = (Long) result.getKey();
-          if (key != null) {
-            resultList.add(get(key));
-          }
-          else {
-            log.warn(String.format("findByNameWildcard() - Regex \"%s\" returned a null key for cache %s", regex, getCacheName()));
-          }
-        }
-      }
-      finally {
-        if (results != null) {
-          // Discard the results when done to free up cache resources.
-          results.discard();
+      List<Long> keys = nameIndex.findByWildcard(regex, maxResults);
+      log.debug(String.format("findByNameWildcard() - Got %d results for regex \"%s\"", keys.size(), regex));
+
+      for (Long key : keys) {
+        try {
+          resultList.add(get(key));
+        } catch (CacheElementNotFoundException e) {
+          log.warn(String.format("findByNameWildcard() - Regex \"%s\" returned key %d which is no longer in cache %s", regex, key, getCacheName()));
         }
       }
     }
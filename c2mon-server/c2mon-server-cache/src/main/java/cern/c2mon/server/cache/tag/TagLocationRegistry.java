@@ -0,0 +1,251 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.server.cache.tag;
+
+import java.util.concurrent.locks.StampedLock;
+
+import org.springframework.stereotype.Component;
+
+import cern.c2mon.server.common.config.C2monCacheName;
+
+/**
+ * Registry recording in which tag cache (data, rule or control tag
+ * cache) a given tag id is located. It allows the
+ * {@link cern.c2mon.server.cache.TagLocationService} to find the cache of a
+ * tag with a single look-up, instead of probing all tag caches in turn.
+ * <p>
+ * The registry is filled by the {@link AbstractTagCache} implementations
+ * after the initial cache loading and on every put and remove, so it stays
+ * in sync with the configuration changes applied to the tag caches.
+ * <p>
+ * Internally the ids are stored in an open addressing hash table of primitive
+ * longs. Look-ups are lock-free (optimistic reads), whereas modifications,
+ * which only happen on (re)configuration, are serialized.
+ */
+@Component
+public class TagLocationRegistry {
+
+  private static final C2monCacheName[] CACHE_NAMES = C2monCacheName.values();
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  /** Marks a slot that was never used */
+  private static final byte FREE = 0;
+
+  /** Marks a slot whose entry has been removed */
+  private static final byte REMOVED = -1;
+
+  private final StampedLock lock = new StampedLock();
+
+  /**
+   * Current hash table. Replaced as a whole on resizing, so that lock-free
+   * readers always see a consistent pair of key and value arrays.
+   */
+  private Table table = new Table(INITIAL_CAPACITY);
+
+  /** Number of registered ids */
+  private int size;
+
+  /** Number of slots that are not {@link #FREE} (entries and tombstones) */
+  private int usedSlots;
+
+  /**
+   * @param id the tag id
+   * @return the cache in which the tag is located, or <code>null</code>
+   *         if the id is not registered
+   */
+  public C2monCacheName get(final long id) {
+    long stamp = lock.tryOptimisticRead();
+    byte value = table.get(id);
+    if (!lock.validate(stamp)) {
+      stamp = lock.readLock();
+      try {
+        value = table.get(id);
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+    return value > 0 ? CACHE_NAMES[value - 1] : null;
+  }
+
+  /**
+   * Registers the tag id for the given cache. This is a cheap no-op if the id
+   * is already registered for that cache.
+   *
+   * @param id the tag id
+   * @param cacheName the tag cache containing the tag
+   */
+  public void put(final long id, final C2monCacheName cacheName) {
+    if (get(id) == cacheName) {
+      return;
+    }
+
+    long stamp = lock.writeLock();
+    try {
+      if ((usedSlots + 1) * 2 > table.keys.length) {
+        rehash(Math.max(size * 4, INITIAL_CAPACITY));
+      }
+      int slot = table.slotOf(id);
+      if (slot < 0) {
+        slot = table.freeSlotFor(id);
+        if (table.values[slot] == FREE) {
+          usedSlots++;
+        }
+        table.keys[slot] = id;
+        size++;
+      }
+      table.values[slot] = (byte) (cacheName.ordinal() + 1);
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Removes the tag id, provided it is registered for the given cache.
+   *
+   * @param id the tag id
+   * @param cacheName the cache the tag is removed from
+   */
+  public void remove(final long id, final C2monCacheName cacheName) {
+    if (get(id) != cacheName) {
+      return;
+    }
+
+    long stamp = lock.writeLock();
+    try {
+      int slot = table.slotOf(id);
+      if (slot >= 0 && table.values[slot] == cacheName.ordinal() + 1) {
+        table.values[slot] = REMOVED;
+        size--;
+      }
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Removes all tag ids registered for the given cache.
+   *
+   * @param cacheName the cache that has been emptied
+   */
+  public void removeAll(final C2monCacheName cacheName) {
+    long stamp = lock.writeLock();
+    try {
+      byte value = (byte) (cacheName.ordinal() + 1);
+      for (int i = 0; i < table.values.length; i++) {
+        if (table.values[i] == value) {
+          table.values[i] = REMOVED;
+          size--;
+        }
+      }
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * @return the number of registered tag ids
+   */
+  public int size() {
+    long stamp = lock.readLock();
+    try {
+      return size;
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Copies all entries into a new table, dropping the tombstones.
+   * Must be called with the write lock held.
+   */
+  private void rehash(final int minCapacity) {
+    int capacity = Integer.highestOneBit(minCapacity - 1) << 1;
+    Table newTable = new Table(capacity);
+    for (int i = 0; i < table.keys.length; i++) {
+      if (table.values[i] > 0) {
+        int slot = newTable.freeSlotFor(table.keys[i]);
+        newTable.keys[slot] = table.keys[i];
+        newTable.values[slot] = table.values[i];
+      }
+    }
+    table = newTable;
+    usedSlots = size;
+  }
+
+  /**
+   * Linear probing hash table with primitive keys and byte values.
+   */
+  private static final class Table {
+
+    private final long[] keys;
+
+    private final byte[] values;
+
+    private final int mask;
+
+    private Table(final int capacity) {
+      keys = new long[capacity];
+      values = new byte[capacity];
+      mask = capacity - 1;
+    }
+
+    private static int hash(final long id) {
+      int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+      return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the value stored for the id or {@link #FREE}; the number of
+     *         probes is bounded so that concurrent modifications seen by an
+     *         optimistic reader can never cause an endless loop
+     */
+    private byte get(final long id) {
+      int slot = slotOf(id);
+      return slot < 0 ? FREE : values[slot];
+    }
+
+    /**
+     * @return the slot holding the given id, or -1 if it is not in the table
+     */
+    private int slotOf(final long id) {
+      int slot = hash(id) & mask;
+      for (int probes = 0; probes <= mask; probes++) {
+        byte value = values[slot];
+        if (value == FREE) {
+          return -1;
+        }
+        if (value != REMOVED && keys[slot] == id) {
+          return slot;
+        }
+        slot = (slot + 1) & mask;
+      }
+      return -1;
+    }
+
+    /**
+     * @return the first free or removed slot on the probe sequence of the id
+     */
+    private int freeSlotFor(final long id) {
+      int slot = hash(id) & mask;
+      while (values[slot] > 0) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+  }
+}
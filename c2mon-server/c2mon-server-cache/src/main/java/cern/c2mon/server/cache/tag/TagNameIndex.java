@@ -0,0 +1,255 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.server.cache.tag;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory index of the tag names of a single tag cache.
+ * <p>
+ * Exact look-ups are resolved with a hash map, wildcard look-ups with
+ * a sorted map restricted to the literal prefix of the expression.
+ * Names are compared case insensitive, as it is the case for the
+ * Ehcache <code>ilike</code> search criteria the index replaces.
+ * <p>
+ * The index is maintained by the {@link AbstractTagCache} on every put and
+ * remove of this server, and on the put and remove events the other servers
+ * of a cluster send through the Ehcache event notification service. Several
+ * tags can share the same name, all of them are kept in the index.
+ */
+public class TagNameIndex {
+
+  /** Lower case tag name -> ids of the tags with this name, for exact look-ups */
+  private final Map<String, NavigableSet<Long>> exactIndex = new ConcurrentHashMap<>();
+
+  /** Lower case tag name -> ids of the tags with this name, for prefix and wildcard look-ups */
+  private final ConcurrentNavigableMap<String, NavigableSet<Long>> sortedIndex = new ConcurrentSkipListMap<>();
+
+  /** Tag id -> tag name as it was indexed, needed to detect renaming and removal */
+  private final Map<Long, String> indexedNames = new ConcurrentHashMap<>();
+
+  /**
+   * Adds the tag to the index, or updates its entry if the name has changed.
+   * This is a cheap no-op if the tag is already indexed with the given name.
+   *
+   * @param id the tag id
+   * @param name the current name of the tag
+   */
+  public void put(final Long id, final String name) {
+    if (id == null || name == null) {
+      return;
+    }
+    if (name.equals(indexedNames.get(id))) {
+      return;
+    }
+
+    synchronized (this) {
+      String oldName = indexedNames.put(id, name);
+      if (oldName != null) {
+        removeName(toKey(oldName), id);
+      }
+      String key = toKey(name);
+      NavigableSet<Long> ids = exactIndex.get(key);
+      if (ids == null) {
+        ids = new ConcurrentSkipListSet<>();
+        exactIndex.put(key, ids);
+        sortedIndex.put(key, ids);
+      }
+      ids.add(id);
+    }
+  }
+
+  /**
+   * Removes the tag with the given id from the index.
+   *
+   * @param id the tag id
+   */
+  public void remove(final Long id) {
+    if (id == null) {
+      return;
+    }
+
+    synchronized (this) {
+      String oldName = indexedNames.remove(id);
+      if (oldName != null) {
+        removeName(toKey(oldName), id);
+      }
+    }
+  }
+
+  /**
+   * Removes all entries from the index.
+   */
+  public synchronized void clear() {
+    indexedNames.clear();
+    exactIndex.clear();
+    sortedIndex.clear();
+  }
+
+  /**
+   * @param name the tag name (case insensitive, no wildcards)
+   * @return the id of the tag with the given name, or <code>null</code> if
+   *         no such tag is indexed. If several tags share the name, the
+   *         lowest id is returned.
+   */
+  public Long get(final String name) {
+    if (name == null) {
+      return null;
+    }
+    NavigableSet<Long> ids = exactIndex.get(toKey(name));
+    return ids == null ? null : ids.ceiling(Long.MIN_VALUE);
+  }
+
+  /**
+   * @param name the tag name (case insensitive, no wildcards)
+   * @return the ids of all tags with the given name, in ascending order
+   */
+  public Set<Long> getAll(final String name) {
+    if (name == null) {
+      return Collections.emptySet();
+    }
+    NavigableSet<Long> ids = exactIndex.get(toKey(name));
+    return ids == null ? Collections.<Long>emptySet() : Collections.unmodifiableSet(ids);
+  }
+
+  /**
+   * Searches the index for all tags whose name matches the given expression.
+   * '*' matches any sequence of characters and '?' any single character. Both
+   * can be escaped with a backslash. The search is case insensitive.
+   * <p>
+   * Only the part of the index starting with the literal prefix of the
+   * expression is scanned, so expressions with a leading wildcard will
+   * still go through all names.
+   *
+   * @param expression the wildcard expression
+   * @param maxResults the maximum number of ids to return
+   * @return the ids of the matching tags, limited to <code>maxResults</code>
+   */
+  public List<Long> findByWildcard(final String expression, final int maxResults) {
+    List<Long> result = new ArrayList<>();
+    int wildcard = firstWildcard(expression);
+
+    if (wildcard < 0) {
+      addIds(getAll(unescape(expression)), result, maxResults);
+      return result;
+    }
+
+    String prefix = toKey(unescape(expression.substring(0, wildcard)));
+    Pattern pattern = toPattern(expression);
+    for (Map.Entry<String, NavigableSet<Long>> entry : sortedIndex.tailMap(prefix).entrySet()) {
+      if (result.size() >= maxResults || !entry.getKey().startsWith(prefix)) {
+        break;
+      }
+      if (pattern.matcher(entry.getKey()).matches()) {
+        addIds(entry.getValue(), result, maxResults);
+      }
+    }
+    return result;
+  }
+
+  private static void addIds(final Set<Long> ids, final List<Long> result, final int maxResults) {
+    for (Long id : ids) {
+      if (result.size() >= maxResults) {
+        return;
+      }
+      result.add(id);
+    }
+  }
+
+  /**
+   * @return the number of indexed tags
+   */
+  public int size() {
+    return indexedNames.size();
+  }
+
+  /**
+   * Removes the id from the name mapping, and the name once no tag has it
+   * any more. Only called while holding the index lock.
+   */
+  private void removeName(final String key, final Long id) {
+    NavigableSet<Long> ids = exactIndex.get(key);
+    if (ids != null && ids.remove(id) && ids.isEmpty()) {
+      exactIndex.remove(key);
+      sortedIndex.remove(key);
+    }
+  }
+
+  private static String toKey(final String name) {
+    return name.toLowerCase(Locale.ENGLISH);
+  }
+
+  /**
+   * @return the position of the first unescaped wildcard in the expression,
+   *         or -1 if there is none
+   */
+  private static int firstWildcard(final String expression) {
+    for (int i = 0; i < expression.length(); i++) {
+      char c = expression.charAt(i);
+      if (c == '\\') {
+        i++;
+      } else if (c == '*' || c == '?') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static String unescape(final String expression) {
+    StringBuilder literal = new StringBuilder(expression.length());
+    for (int i = 0; i < expression.length(); i++) {
+      char c = expression.charAt(i);
+      if (c == '\\' && i + 1 < expression.length()) {
+        c = expression.charAt(++i);
+      }
+      literal.append(c);
+    }
+    return literal.toString();
+  }
+
+  /**
+   * Converts the wildcard expression into a regular expression matching the
+   * lower case index keys.
+   */
+  private static Pattern toPattern(final String expression) {
+    StringBuilder regex = new StringBuilder(expression.length() + 16);
+    for (int i = 0; i < expression.length(); i++) {
+      char c = expression.charAt(i);
+      if (c == '\\' && i + 1 < expression.length()) {
+        regex.append(Pattern.quote(String.valueOf(expression.charAt(++i))));
+      } else if (c == '*') {
+        regex.append(".*");
+      } else if (c == '?') {
+        regex.append('.');
+      } else {
+        regex.append(Pattern.quote(String.valueOf(c)));
+      }
+    }
+    return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+  }
+}
@@ -0,0 +1,196 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.server.cache.common;
+
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import cern.c2mon.server.common.alarm.AlarmCacheObject;
+import cern.c2mon.server.common.alive.AliveTimerCacheObject;
+import cern.c2mon.server.common.commfault.CommFaultTagCacheObject;
+import cern.c2mon.server.common.datatag.DataTagCacheObject;
+import cern.c2mon.server.common.equipment.EquipmentCacheObject;
+import cern.c2mon.server.common.process.ProcessCacheObject;
+import cern.c2mon.server.common.rule.RuleTagCacheObject;
+import cern.c2mon.server.common.util.CacheObjectCopier;
+import cern.c2mon.server.test.CacheObjectCreation;
+import cern.c2mon.shared.common.datatag.TagQualityStatus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the copies made by the {@link CacheObjectCopier} hold the same
+ * state as the serialization copies previously returned by <code>getCopy()</code>.
+ */
+public class CacheObjectCopierTest {
+
+  @Test
+  public void testDataTagCopy() throws Exception {
+    DataTagCacheObject tag = CacheObjectCreation.createTestDataTag();
+    tag.getMetadata().addMetadata("responsible", "somebody");
+    tag.getDataTagQuality().addInvalidStatus(TagQualityStatus.VALUE_OUT_OF_BOUNDS, "out of bounds");
+    tag.setAlarmIds(new ArrayList<>(Arrays.asList(1L, 2L)));
+
+    DataTagCacheObject copy = assertSameStateAsSerializationCopy(tag);
+
+    copy.getMetadata().addMetadata("responsible", "nobody");
+    copy.getDataTagQuality().validate();
+    copy.getAddress().getAddressParameters().put("address", "copy");
+    copy.getDaqTimestamp().setTime(0);
+    assertEquals("somebody", tag.getMetadata().getMetadata().get("responsible"));
+    assertFalse(tag.getDataTagQuality().isValid());
+    assertTrue(tag.getAddress().getAddressParameters().isEmpty());
+    assertTrue(tag.getDaqTimestamp().getTime() != 0);
+  }
+
+  @Test
+  public void testControlTagCopy() throws Exception {
+    assertSameStateAsSerializationCopy(CacheObjectCreation.createTestProcessAlive());
+  }
+
+  @Test
+  public void testRuleTagCopy() throws Exception {
+    RuleTagCacheObject rule = CacheObjectCreation.createTestRuleTag();
+    rule.setEquipmentIds(new HashSet<>(Arrays.asList(10L, 20L)));
+
+    RuleTagCacheObject copy = assertSameStateAsSerializationCopy(rule);
+
+    copy.getEquipmentIds().clear();
+    assertEquals(2, rule.getEquipmentIds().size());
+    assertEquals(rule.getRuleInputTagIds(), copy.getRuleInputTagIds());
+  }
+
+  @Test
+  public void testAlarmCopy() throws Exception {
+    AlarmCacheObject alarm = CacheObjectCreation.createTestAlarm1();
+    alarm.getMetadata().addMetadata("priority", 1);
+
+    AlarmCacheObject copy = assertSameStateAsSerializationCopy(alarm);
+
+    copy.getMetadata().removeMetadata("priority");
+    assertEquals(1, alarm.getMetadata().getMetadata().get("priority"));
+  }
+
+  @Test
+  public void testSupervisedObjectCopies() throws Exception {
+    ProcessCacheObject process = CacheObjectCreation.createTestProcess1();
+    process.setEquipmentIds(new ArrayList<>(Arrays.asList(10L, 11L)));
+    assertSameStateAsSerializationCopy(process);
+
+    EquipmentCacheObject equipment = CacheObjectCreation.createTestEquipment();
+    equipment.setSubEquipmentIds(new LinkedList<>(Arrays.asList(100L)));
+    assertSameStateAsSerializationCopy(equipment);
+
+    assertSameStateAsSerializationCopy(CacheObjectCreation.createTestSubEquipment());
+  }
+
+  @Test
+  public void testAliveTimerAndCommFaultCopies() throws Exception {
+    AliveTimerCacheObject aliveTimer = new AliveTimerCacheObject(1L, 2L, "P_TEST", 3L, "PROC", 60000);
+    assertSameStateAsSerializationCopy(aliveTimer);
+
+    assertSameStateAsSerializationCopy(new CommFaultTagCacheObject(4L, 5L, "E_TEST", 6L, 7L));
+  }
+
+  @Test
+  public void testImmutableValuesAreNotCopied() throws Exception {
+    Long value = 123456789L;
+    assertSame(value, CacheObjectCopier.copy(value));
+    assertSame(Boolean.TRUE, CacheObjectCopier.copy(Boolean.TRUE));
+  }
+
+  @Test
+  public void testOtherObjectsAreSerialized() throws Exception {
+    HashMap<String, Timestamp> map = new HashMap<>();
+    map.put("key", new Timestamp(1000));
+
+    HashMap<String, Timestamp> copy = CacheObjectCopier.copy(map);
+
+    assertNotSame(map, copy);
+    assertNotSame(map.get("key"), copy.get("key"));
+    assertEquals(map, copy);
+  }
+
+  /**
+   * Compares the copy field by field with a serialization copy.
+   */
+  private static <T extends Serializable> T assertSameStateAsSerializationCopy(final T object) throws Exception {
+    T copy = CacheObjectCopier.copy(object);
+    T serializationCopy = CacheObjectCopier.serializationCopy(object);
+
+    assertNotSame(object, copy);
+    assertDeepEquals(object.getClass().getSimpleName(), serializationCopy, copy);
+    return copy;
+  }
+
+  private static void assertDeepEquals(final String path, final Object expected, final Object actual) throws IllegalAccessException {
+    if (expected == null || actual == null) {
+      assertEquals(path, expected, actual);
+      return;
+    }
+    assertEquals(path, expected.getClass(), actual.getClass());
+    Class<?> type = expected.getClass();
+    if (type.getName().startsWith("java.util.concurrent.locks.")) {
+      return;
+    }
+    if (type.getName().startsWith("java.lang.") || type.isEnum() || expected instanceof Date) {
+      assertEquals(path, expected, actual);
+    } else if (expected instanceof List) {
+      List<?> expectedList = (List<?>) expected;
+      List<?> actualList = (List<?>) actual;
+      assertEquals(path, expectedList.size(), actualList.size());
+      for (int i = 0; i < expectedList.size(); i++) {
+        assertDeepEquals(path + "[" + i + "]", expectedList.get(i), actualList.get(i));
+      }
+    } else if (expected instanceof Set) {
+      assertEquals(path, expected, actual);
+    } else if (expected instanceof Map) {
+      Map<?, ?> expectedMap = (Map<?, ?>) expected;
+      Map<?, ?> actualMap = (Map<?, ?>) actual;
+      assertEquals(path, expectedMap.keySet(), actualMap.keySet());
+      for (Map.Entry<?, ?> entry : expectedMap.entrySet()) {
+        assertDeepEquals(path + "[" + entry.getKey() + "]", entry.getValue(), actualMap.get(entry.getKey()));
+      }
+    } else {
+      for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+        for (Field field : c.getDeclaredFields()) {
+          if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isTransient(field.getModifiers())) {
+            field.setAccessible(true);
+            assertDeepEquals(path + "." + field.getName(), field.get(expected), field.get(actual));
+          }
+        }
+      }
+    }
+  }
+}
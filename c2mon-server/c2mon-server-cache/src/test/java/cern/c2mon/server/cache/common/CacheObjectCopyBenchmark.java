@@ -0,0 +1,120 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.server.cache.common;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import cern.c2mon.server.common.alarm.AlarmCacheObject;
+import cern.c2mon.server.common.alive.AliveTimerCacheObject;
+import cern.c2mon.server.common.commfault.CommFaultTagCacheObject;
+import cern.c2mon.server.common.datatag.DataTagCacheObject;
+import cern.c2mon.server.common.equipment.EquipmentCacheObject;
+import cern.c2mon.server.common.process.ProcessCacheObject;
+import cern.c2mon.server.common.rule.RuleTagCacheObject;
+import cern.c2mon.server.common.util.CacheObjectCopier;
+import cern.c2mon.server.test.CacheObjectCreation;
+import cern.c2mon.shared.common.datatag.TagQualityStatus;
+import cern.c2mon.shared.util.BenchmarkRunner;
+
+/**
+ * Compares, for every cache object type copied by cloning, the copies made
+ * by {@link CacheObjectCopier#copy(Serializable)} with the serialization
+ * copies they replace. Not run as part of the unit tests, start it with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=cern.c2mon.server.cache.common.CacheObjectCopyBenchmark
+ * </pre>
+ */
+public final class CacheObjectCopyBenchmark {
+
+  private static int copies;
+
+  private CacheObjectCopyBenchmark() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.out.printf("%-24s %14s %14s%n", "", "clone/s", "serialize/s");
+    for (Map.Entry<String, Serializable> entry : createObjects().entrySet()) {
+      Serializable object = entry.getValue();
+      double cloned = run(() -> CacheObjectCopier.copy(object));
+      double serialized = run(() -> CacheObjectCopier.serializationCopy(object));
+      System.out.printf("%-24s %14.0f %14.0f%n", entry.getKey(), cloned, serialized);
+    }
+    System.out.printf("%d copies%n", copies);
+    System.exit(0);
+  }
+
+  /**
+   * @return the mean number of copies per second over the measured iterations
+   */
+  private static double run(Copy copy) throws Exception {
+    return BenchmarkRunner.measure(() -> {
+      if (copy.run() != null) {
+        copies++;
+      }
+    }).getOpsPerSecond();
+  }
+
+  /**
+   * @return one object of each type copied by cloning, filled as in
+   *         {@link CacheObjectCopierTest}
+   */
+  private static Map<String, Serializable> createObjects() {
+    Map<String, Serializable> objects = new LinkedHashMap<>();
+
+    DataTagCacheObject tag = CacheObjectCreation.createTestDataTag();
+    tag.getMetadata().addMetadata("responsible", "somebody");
+    tag.getDataTagQuality().addInvalidStatus(TagQualityStatus.VALUE_OUT_OF_BOUNDS, "out of bounds");
+    tag.setAlarmIds(new ArrayList<>(Arrays.asList(1L, 2L)));
+    objects.put("DataTagCacheObject", tag);
+
+    objects.put("ControlTagCacheObject", CacheObjectCreation.createTestProcessAlive());
+
+    RuleTagCacheObject rule = CacheObjectCreation.createTestRuleTag();
+    rule.setEquipmentIds(new HashSet<>(Arrays.asList(10L, 20L)));
+    objects.put("RuleTagCacheObject", rule);
+
+    AlarmCacheObject alarm = CacheObjectCreation.createTestAlarm1();
+    alarm.getMetadata().addMetadata("priority", 1);
+    objects.put("AlarmCacheObject", alarm);
+
+    ProcessCacheObject process = CacheObjectCreation.createTestProcess1();
+    process.setEquipmentIds(new ArrayList<>(Arrays.asList(10L, 11L)));
+    objects.put("ProcessCacheObject", process);
+
+    EquipmentCacheObject equipment = CacheObjectCreation.createTestEquipment();
+    equipment.setSubEquipmentIds(new LinkedList<>(Arrays.asList(100L)));
+    objects.put("EquipmentCacheObject", equipment);
+
+    objects.put("SubEquipmentCacheObject", CacheObjectCreation.createTestSubEquipment());
+    objects.put("AliveTimerCacheObject", new AliveTimerCacheObject(1L, 2L, "P_TEST", 3L, "PROC", 60000));
+    objects.put("CommFaultTagCacheObject", new CommFaultTagCacheObject(4L, 5L, "E_TEST", 6L, 7L));
+    return objects;
+  }
+
+  @FunctionalInterface
+  private interface Copy {
+    Object run() throws Exception;
+  }
+}
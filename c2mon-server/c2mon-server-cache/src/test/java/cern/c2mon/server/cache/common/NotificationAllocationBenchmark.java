@@ -0,0 +1,153 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.server.cache.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.loader.CacheLoader;
+import org.easymock.EasyMock;
+
+import cern.c2mon.server.cache.C2monCacheListener;
+import cern.c2mon.server.cache.ClusterCache;
+import cern.c2mon.server.cache.config.CacheProperties;
+import cern.c2mon.server.cache.datatag.DataTagCacheImpl;
+import cern.c2mon.server.cache.loading.SimpleCacheLoaderDAO;
+import cern.c2mon.server.cache.loading.common.C2monCacheLoader;
+import cern.c2mon.server.common.datatag.DataTag;
+import cern.c2mon.server.common.datatag.DataTagCacheObject;
+import cern.c2mon.server.common.rule.RuleTagCacheObject;
+import cern.c2mon.shared.common.datatag.DataTagConstants;
+import cern.c2mon.shared.util.BenchmarkRunner;
+
+/**
+ * Measures the bytes allocated per cache update notification, comparing the
+ * shared snapshot of {@link AbstractCache#notifyListenersOfUpdate(Object)}
+ * with the serialized copy followed by a clone it replaces. The copies of
+ * rule tags are measured separately, with and without parsing the rule text
+ * again. The allocations are those of the benchmark thread, as measured by
+ * {@link BenchmarkRunner}. Not run as part of the unit tests, start it with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=cern.c2mon.server.cache.common.NotificationAllocationBenchmark
+ * </pre>
+ */
+public final class NotificationAllocationBenchmark {
+
+  private static final int NB_TAGS = 1000;
+
+  private static final int NB_LISTENERS = 5;
+
+  private static final String RULE_TEXT = "(#100 = true) | (#101 > 2.5) & (#102 < 10)[2], true[3]";
+
+  private static long received;
+
+  private NotificationAllocationBenchmark() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    DataTagCacheImpl cache = createCache();
+    RuleTagCacheObject rule = new RuleTagCacheObject(1L, "RULE.BENCHMARK", "Integer", DataTagConstants.MODE_OPERATIONAL, RULE_TEXT);
+
+    long[] next = {0};
+    BenchmarkRunner.run("Data tag, serialized copy and clone", () -> {
+      Long id = next[0]++ % NB_TAGS;
+      DataTag copy;
+      cache.acquireReadLockOnKey(id);
+      try {
+        copy = serializedCopy(cache.get(id));
+      } finally {
+        cache.releaseReadLockOnKey(id);
+      }
+      DataTag snapshot = (DataTag) copy.clone();
+      for (C2monCacheListener<? super DataTag> listener : cache.getCacheListeners()) {
+        listener.notifyElementUpdated(snapshot);
+      }
+    });
+    BenchmarkRunner.run("Data tag, shared snapshot", () -> cache.notifyListenersOfUpdate(next[0]++ % NB_TAGS));
+
+    BenchmarkRunner.run("Rule tag, clone and parse", () -> {
+      RuleTagCacheObject copy = rule.clone();
+      copy.setRuleText(copy.getRuleText());
+    });
+    BenchmarkRunner.run("Rule tag, clone", rule::clone);
+
+    CacheManager.getInstance().shutdown();
+    System.out.printf("%d notifications received%n", received);
+    System.exit(0);
+  }
+
+  /**
+   * The copy done by {@link AbstractCache#getCopy(Object)} before it was
+   * replaced by {@link cern.c2mon.server.common.util.CacheObjectCopier}.
+   */
+  @SuppressWarnings("unchecked")
+  private static <T> T serializedCopy(T object) {
+    try {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      ObjectOutputStream oos = new ObjectOutputStream(baos);
+      oos.writeObject(object);
+      ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()));
+      return (T) ois.readObject();
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @return a data tag cache on an in-memory Ehcache holding {@link #NB_TAGS}
+   *         tags, with {@link #NB_LISTENERS} synchronous listeners
+   */
+  @SuppressWarnings("unchecked")
+  private static DataTagCacheImpl createCache() {
+    Cache ehcache = new Cache(new CacheConfiguration("benchmarkDataTagCache", 0).eternal(true));
+    CacheManager.getInstance().addCache(ehcache);
+
+    ClusterCache clusterCache = EasyMock.createNiceMock(ClusterCache.class);
+    CacheLoader cacheLoader = EasyMock.createNiceMock(CacheLoader.class);
+    C2monCacheLoader c2monCacheLoader = EasyMock.createNiceMock(C2monCacheLoader.class);
+    SimpleCacheLoaderDAO<DataTag> cacheLoaderDAO = EasyMock.createNiceMock(SimpleCacheLoaderDAO.class);
+    EasyMock.replay(clusterCache, cacheLoader, c2monCacheLoader, cacheLoaderDAO);
+
+    DataTagCacheImpl cache = new DataTagCacheImpl(clusterCache, ehcache, cacheLoader, c2monCacheLoader, cacheLoaderDAO, new CacheProperties());
+    cache.init();
+    for (int i = 0; i < NB_TAGS; i++) {
+      DataTagCacheObject tag = new DataTagCacheObject((long) i, "TAG.BENCHMARK." + i, "Float", DataTagConstants.MODE_OPERATIONAL);
+      tag.setValue(i * 1.5f);
+      cache.putQuiet(tag);
+    }
+    for (int i = 0; i < NB_LISTENERS; i++) {
+      cache.registerSynchronousListener(new C2monCacheListener<DataTag>() {
+        @Override
+        public void notifyElementUpdated(DataTag cacheable) {
+          received++;
+        }
+
+        @Override
+        public void confirmStatus(DataTag cacheable) {
+        }
+      });
+    }
+    return cache;
+  }
+}
@@ -0,0 +1,77 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.server.cache.latency;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test of the LatencyHistogram class.
+ */
+public class LatencyHistogramTest {
+
+  @Test
+  public void testSmallValuesAreExact() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 50; i++) {
+      histogram.record(i);
+    }
+    assertEquals(50, histogram.getCount());
+    assertEquals(25, histogram.getValueAtPercentile(50));
+    assertEquals(50, histogram.getValueAtPercentile(100));
+    assertEquals(50, histogram.getMax());
+  }
+
+  @Test
+  public void testPercentilesWithinRelativeError() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 100000; i++) {
+      histogram.record(i);
+    }
+    assertWithinError(50000, histogram.getValueAtPercentile(50));
+    assertWithinError(99000, histogram.getValueAtPercentile(99));
+    assertWithinError(99900, histogram.getValueAtPercentile(99.9));
+    assertEquals(100000, histogram.getValueAtPercentile(100));
+  }
+
+  @Test
+  public void testBucketBoundaries() {
+    for (long value : new long[] {63, 64, 65, 127, 128, 1000, 123456789L, Long.MAX_VALUE}) {
+      int index = LatencyHistogram.indexOf(value);
+      assertTrue(value + " above its bucket", value <= LatencyHistogram.highestValueOf(index));
+      if (index > 0) {
+        assertTrue(value + " in the previous bucket", value > LatencyHistogram.highestValueOf(index - 1));
+      }
+    }
+  }
+
+  @Test
+  public void testNegativeValuesAndReset() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-10);
+    assertEquals(0, histogram.getValueAtPercentile(100));
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getValueAtPercentile(50));
+  }
+
+  private static void assertWithinError(final long expected, final long actual) {
+    assertTrue("expected ~" + expected + " but was " + actual, Math.abs(actual - expected) <= expected * 0.04);
+  }
+}
@@ -0,0 +1,49 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.server.cache.latency;
+
+import org.junit.Test;
+
+import cern.c2mon.server.cache.latency.LatencyRecorder.Category;
+import cern.c2mon.server.cache.latency.LatencyRecorder.Stage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test of the LatencyRecorder class.
+ */
+public class LatencyRecorderTest {
+
+  @Test
+  public void testProcessHistograms() {
+    LatencyRecorder recorder = new LatencyRecorder();
+    recorder.record(Stage.DAQ_TO_SERVER, Category.HIGH_PRIORITY, 1L, 10);
+    recorder.record(Stage.DAQ_TO_SERVER, Category.HIGH_PRIORITY, 1L, 20);
+    recorder.record(Stage.RULE_EVALUATION, Category.RULE, null, 5);
+
+    String[] processSummary = recorder.getProcessLatencySummary(1L);
+    assertEquals(1, processSummary.length);
+    assertTrue(processSummary[0].startsWith("DAQ_TO_SERVER HIGH_PRIORITY"));
+    assertEquals(0, recorder.getProcessLatencySummary(2L).length);
+    assertEquals(2, recorder.getLatencySummary().length);
+    assertEquals(2, recorder.getHistogram(Stage.DAQ_TO_SERVER, Category.HIGH_PRIORITY).getCount());
+
+    recorder.reset();
+    assertEquals(0, recorder.getProcessLatencySummary(1L).length);
+  }
+}
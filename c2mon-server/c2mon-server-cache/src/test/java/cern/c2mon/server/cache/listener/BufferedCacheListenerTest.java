@@ -0,0 +1,191 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.server.cache.listener;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+
+import cern.c2mon.server.cache.C2monBufferedCacheListener;
+import cern.c2mon.server.cache.listener.AbstractBufferedCacheListener.OverflowPolicy;
+import cern.c2mon.server.common.datatag.DataTag;
+import cern.c2mon.server.common.datatag.DataTagCacheObject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test of the buffered cache listeners (so no Spring context).
+ */
+public class BufferedCacheListenerTest {
+
+  /** Longer than the tests, so that only full batches or stop() drain the buffers */
+  private static final int FREQUENCY = 60000;
+
+  @Test
+  public void testFullBatchIsPassedWithoutWaiting() throws InterruptedException {
+    RecordingListener listener = new RecordingListener();
+    DefaultBufferedCacheListener<DataTag> bufferedListener =
+        new DefaultBufferedCacheListener<>(listener, FREQUENCY, 100, 10, 2, OverflowPolicy.BLOCK, false);
+    bufferedListener.start();
+
+    for (int i = 0; i < 25; i++) {
+      bufferedListener.notifyElementUpdated(createTag((long) i, i));
+    }
+    for (int i = 0; i < 100 && listener.updates.size() < 20; i++) {
+      Thread.sleep(20);
+    }
+    assertEquals(20, listener.updates.size());
+    for (Integer size : listener.batchSizes) {
+      assertEquals(Integer.valueOf(10), size);
+    }
+
+    bufferedListener.stop();
+    assertEquals(25, listener.updates.size());
+    assertEquals(0, bufferedListener.getQueueSize());
+  }
+
+  @Test
+  public void testFullConfirmationBatchIsPassedWithoutWaiting() throws InterruptedException {
+    RecordingListener listener = new RecordingListener();
+    DefaultBufferedCacheListener<DataTag> bufferedListener =
+        new DefaultBufferedCacheListener<>(listener, FREQUENCY, 100, 10, 1, OverflowPolicy.BLOCK, false);
+    bufferedListener.start();
+
+    for (int i = 0; i < 10; i++) {
+      bufferedListener.confirmStatus(createTag((long) i, i));
+    }
+    for (int i = 0; i < 100 && listener.confirmations.size() < 10; i++) {
+      Thread.sleep(20);
+    }
+    assertEquals(10, listener.confirmations.size());
+
+    bufferedListener.stop();
+  }
+
+  @Test
+  public void testCoalesceLatestPerTag() {
+    RecordingListener listener = new RecordingListener();
+    DefaultBufferedCacheListener<DataTag> bufferedListener =
+        new DefaultBufferedCacheListener<>(listener, FREQUENCY, 100, 100, 1, OverflowPolicy.BLOCK, true);
+    bufferedListener.start();
+
+    for (int i = 0; i <= 50; i++) {
+      bufferedListener.notifyElementUpdated(createTag(1L, i));
+      bufferedListener.notifyElementUpdated(createTag(2L, i));
+    }
+    assertEquals(2, bufferedListener.getQueueSize());
+    assertEquals(100, bufferedListener.getCoalescedCount());
+
+    bufferedListener.stop();
+    assertEquals(2, listener.updates.size());
+    // the tags keep the position of their first update
+    assertEquals(Long.valueOf(1L), listener.updates.get(0).getId());
+    assertEquals(50, listener.updates.get(0).getValue());
+    assertEquals(50, listener.updates.get(1).getValue());
+  }
+
+  @Test
+  public void testOverflowPolicies() {
+    RecordingListener listener = new RecordingListener();
+    DefaultBufferedCacheListener<DataTag> bufferedListener =
+        new DefaultBufferedCacheListener<>(listener, FREQUENCY, 5, 100, 1, OverflowPolicy.DROP_OLDEST, false);
+    bufferedListener.start();
+    for (int i = 0; i < 8; i++) {
+      bufferedListener.notifyElementUpdated(createTag((long) i, i));
+    }
+    assertEquals(5, bufferedListener.getQueueSize());
+    assertEquals(3, bufferedListener.getDroppedCount());
+    bufferedListener.stop();
+    assertEquals(3, listener.updates.get(0).getValue());
+
+    listener = new RecordingListener();
+    bufferedListener = new DefaultBufferedCacheListener<>(listener, FREQUENCY, 5, 100, 1, OverflowPolicy.DROP_NEWEST, false);
+    bufferedListener.start();
+    for (int i = 0; i < 8; i++) {
+      bufferedListener.notifyElementUpdated(createTag((long) i, i));
+    }
+    assertEquals(3, bufferedListener.getDroppedCount());
+    bufferedListener.stop();
+    assertEquals(5, listener.updates.size());
+    assertEquals(4, listener.updates.get(4).getValue());
+  }
+
+  @Test
+  public void testKeyListenerPassesEachKeyOnce() {
+    List<Long> keys = new CopyOnWriteArrayList<>();
+    C2monBufferedCacheListener<Long> keyListener = new C2monBufferedCacheListener<Long>() {
+      @Override
+      public void notifyElementUpdated(Collection<Long> collection) {
+        keys.addAll(collection);
+      }
+
+      @Override
+      public void confirmStatus(Collection<Long> eventCollection) {
+      }
+
+      @Override
+      public String getThreadName() {
+        return "KeyTest";
+      }
+    };
+    BufferedKeyCacheListener<DataTag> bufferedListener =
+        new BufferedKeyCacheListener<>(keyListener, FREQUENCY, 100, 100, 1, OverflowPolicy.BLOCK);
+    bufferedListener.start();
+    for (int i = 0; i < 10; i++) {
+      bufferedListener.notifyElementUpdated(createTag((long) (i % 3), i));
+    }
+
+    bufferedListener.stop();
+    assertEquals(3, keys.size());
+    assertTrue(bufferedListener.getLastDrainLatency() >= 0);
+  }
+
+  private static DataTag createTag(final Long id, final int value) {
+    DataTagCacheObject tag = new DataTagCacheObject(id);
+    tag.setValue(value);
+    return tag;
+  }
+
+  private static final class RecordingListener implements C2monBufferedCacheListener<DataTag> {
+
+    private final List<DataTag> updates = new CopyOnWriteArrayList<>();
+
+    private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+
+    private final List<DataTag> confirmations = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void notifyElementUpdated(Collection<DataTag> collection) {
+      batchSizes.add(collection.size());
+      updates.addAll(new ArrayList<>(collection));
+    }
+
+    @Override
+    public void confirmStatus(Collection<DataTag> eventCollection) {
+      confirmations.addAll(new ArrayList<>(eventCollection));
+    }
+
+    @Override
+    public String getThreadName() {
+      return "BufferTest";
+    }
+  }
+}
@@ -0,0 +1,148 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.server.cache.listener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import cern.c2mon.server.cache.C2monCacheListener;
+import cern.c2mon.server.cache.listener.RingBufferCacheListener.WaitStrategy;
+import cern.c2mon.server.common.datatag.DataTag;
+import cern.c2mon.server.common.datatag.DataTagCacheObject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test of the RingBufferCacheListener class (so no Spring context).
+ */
+public class RingBufferCacheListenerTest {
+
+  private static final int NB_TAGS = 20;
+
+  private static final int NB_UPDATES = 500;
+
+  @Test
+  public void testUpdatesOfATagStayOrdered() throws InterruptedException {
+    for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+      RecordingListener listener = new RecordingListener(NB_TAGS * NB_UPDATES);
+      // small buffer, so that the producer also has to wait for free slots
+      RingBufferCacheListener<DataTag> ringBufferListener = new RingBufferCacheListener<>(listener, 4, 16, waitStrategy, false);
+
+      for (int i = 0; i < NB_UPDATES; i++) {
+        for (long id = 0; id < NB_TAGS; id++) {
+          ringBufferListener.notifyElementUpdated(createTag(id, i));
+        }
+      }
+
+      assertTrue(waitStrategy.name(), listener.latch.await(10, TimeUnit.SECONDS));
+      for (List<Integer> values : listener.values.values()) {
+        assertEquals(NB_UPDATES, values.size());
+        for (int i = 0; i < NB_UPDATES; i++) {
+          assertEquals(waitStrategy.name(), Integer.valueOf(i), values.get(i));
+        }
+      }
+      ringBufferListener.stop();
+    }
+  }
+
+  @Test
+  public void testCoalesceLatestPerTag() throws InterruptedException {
+    final CountDownLatch firstUpdate = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Map<Long, Integer> newestValues = new ConcurrentHashMap<>();
+    C2monCacheListener<DataTag> slowListener = new C2monCacheListener<DataTag>() {
+      @Override
+      public void notifyElementUpdated(DataTag tag) {
+        firstUpdate.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        newestValues.put(tag.getId(), (Integer) tag.getValue());
+      }
+
+      @Override
+      public void confirmStatus(DataTag tag) {
+      }
+    };
+    RingBufferCacheListener<DataTag> ringBufferListener = new RingBufferCacheListener<>(slowListener, 1, 16, WaitStrategy.BLOCKING, true);
+
+    ringBufferListener.notifyElementUpdated(createTag(1L, 0));
+    assertTrue(firstUpdate.await(1, TimeUnit.SECONDS));
+    for (int i = 1; i <= 100; i++) {
+      ringBufferListener.notifyElementUpdated(createTag(1L, i));
+      ringBufferListener.notifyElementUpdated(createTag(2L, i));
+    }
+    // only one waiting update per tag
+    assertEquals(2, ringBufferListener.getTaskQueueSize());
+    assertEquals(198, ringBufferListener.getCoalescedCount());
+
+    release.countDown();
+    ringBufferListener.stop();
+
+    assertEquals(Integer.valueOf(100), newestValues.get(1L));
+    assertEquals(Integer.valueOf(100), newestValues.get(2L));
+  }
+
+  @Test
+  public void testStopPassesBufferedUpdates() {
+    RecordingListener listener = new RecordingListener(NB_TAGS);
+    RingBufferCacheListener<DataTag> ringBufferListener = new RingBufferCacheListener<>(listener, 2, 64, WaitStrategy.BLOCKING, false);
+    for (long id = 0; id < NB_TAGS; id++) {
+      ringBufferListener.notifyElementUpdated(createTag(id, 0));
+    }
+
+    ringBufferListener.stop();
+
+    assertEquals(0, listener.latch.getCount());
+  }
+
+  private static DataTag createTag(final Long id, final int value) {
+    DataTagCacheObject tag = new DataTagCacheObject(id);
+    tag.setValue(value);
+    return tag;
+  }
+
+  private static final class RecordingListener implements C2monCacheListener<DataTag> {
+
+    private final Map<Long, List<Integer>> values = new ConcurrentHashMap<>();
+
+    private final CountDownLatch latch;
+
+    RecordingListener(final int expectedUpdates) {
+      latch = new CountDownLatch(expectedUpdates);
+    }
+
+    @Override
+    public void notifyElementUpdated(DataTag tag) {
+      values.computeIfAbsent(tag.getId(), id -> new ArrayList<>()).add((Integer) tag.getValue());
+      latch.countDown();
+    }
+
+    @Override
+    public void confirmStatus(DataTag tag) {
+    }
+  }
+}
@@ -0,0 +1,96 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.server.cache.tag;
+
+import org.junit.Test;
+
+import cern.c2mon.server.common.config.C2monCacheName;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TagLocationRegistryTest {
+
+  private TagLocationRegistry registry = new TagLocationRegistry();
+
+  @Test
+  public void testPutAndGet() {
+    registry.put(1L, C2monCacheName.DATATAG);
+    registry.put(2L, C2monCacheName.RULETAG);
+    registry.put(-3L, C2monCacheName.CONTROLTAG);
+
+    assertEquals(C2monCacheName.DATATAG, registry.get(1L));
+    assertEquals(C2monCacheName.RULETAG, registry.get(2L));
+    assertEquals(C2monCacheName.CONTROLTAG, registry.get(-3L));
+    assertNull(registry.get(0L));
+    assertEquals(3, registry.size());
+  }
+
+  @Test
+  public void testMoveToOtherCache() {
+    registry.put(1L, C2monCacheName.DATATAG);
+    registry.put(1L, C2monCacheName.RULETAG);
+
+    assertEquals(C2monCacheName.RULETAG, registry.get(1L));
+    assertEquals(1, registry.size());
+  }
+
+  @Test
+  public void testRemoveOnlyFromRegisteredCache() {
+    registry.put(1L, C2monCacheName.RULETAG);
+
+    registry.remove(1L, C2monCacheName.DATATAG);
+    assertEquals(C2monCacheName.RULETAG, registry.get(1L));
+
+    registry.remove(1L, C2monCacheName.RULETAG);
+    assertNull(registry.get(1L));
+    assertEquals(0, registry.size());
+  }
+
+  @Test
+  public void testRemoveAllOfOneCache() {
+    registry.put(1L, C2monCacheName.DATATAG);
+    registry.put(2L, C2monCacheName.RULETAG);
+    registry.put(3L, C2monCacheName.DATATAG);
+
+    registry.removeAll(C2monCacheName.DATATAG);
+
+    assertNull(registry.get(1L));
+    assertNull(registry.get(3L));
+    assertEquals(C2monCacheName.RULETAG, registry.get(2L));
+    assertEquals(1, registry.size());
+  }
+
+  @Test
+  public void testGrowAndReuseRemovedSlots() {
+    for (long id = 0; id < 100000; id++) {
+      registry.put(id * 31, C2monCacheName.DATATAG);
+    }
+    for (long id = 0; id < 100000; id += 2) {
+      registry.remove(id * 31, C2monCacheName.DATATAG);
+    }
+    for (long id = 0; id < 100000; id += 4) {
+      registry.put(id * 31, C2monCacheName.CONTROLTAG);
+    }
+
+    assertEquals(75000, registry.size());
+    for (long id = 0; id < 100000; id++) {
+      C2monCacheName expected = id % 4 == 0 ? C2monCacheName.CONTROLTAG : id % 2 == 0 ? null : C2monCacheName.DATATAG;
+      assertEquals(expected, registry.get(id * 31));
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.server.cache.tag;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.SearchAttribute;
+import net.sf.ehcache.config.Searchable;
+import net.sf.ehcache.search.Attribute;
+import net.sf.ehcache.search.Results;
+import net.sf.ehcache.loader.CacheLoader;
+import org.easymock.EasyMock;
+
+import cern.c2mon.server.cache.ClusterCache;
+import cern.c2mon.server.cache.config.CacheProperties;
+import cern.c2mon.server.cache.datatag.DataTagCacheImpl;
+import cern.c2mon.server.cache.loading.SimpleCacheLoaderDAO;
+import cern.c2mon.server.cache.loading.common.C2monCacheLoader;
+import cern.c2mon.server.common.datatag.DataTag;
+import cern.c2mon.server.common.datatag.DataTagCacheObject;
+import cern.c2mon.shared.common.datatag.DataTagConstants;
+import cern.c2mon.shared.util.BenchmarkRunner;
+
+/**
+ * Compares the tag name look-ups through the {@link TagNameIndex} with the
+ * Ehcache Search <code>ilike</code> queries they replace, on a data tag
+ * cache filled with generated tags. Not run as part of the unit tests,
+ * start it with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=cern.c2mon.server.cache.tag.TagNameIndexBenchmark [-Dexec.args="tags"]
+ * </pre>
+ */
+public final class TagNameIndexBenchmark {
+
+  /** Number of tags found by the look-ups */
+  private static long found;
+
+  private TagNameIndexBenchmark() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    int nbTags = args.length > 0 ? Integer.parseInt(args[0]) : 300000;
+    DataTagCacheImpl cache = createCache(nbTags);
+    Attribute<String> tagName = cache.getCache().getSearchAttribute("tagName");
+
+    int[] next = {0};
+    BenchmarkRunner.run("Exact name, Ehcache search", () -> {
+      String name = nameOf(next[0]++ % nbTags);
+      Results results = cache.getCache().createQuery().includeKeys().addCriteria(tagName.ilike(name)).maxResults(1).execute();
+      found += results.size();
+      results.discard();
+    });
+    BenchmarkRunner.run("Exact name, name index", () -> found += cache.get(nameOf(next[0]++ % nbTags)) == null ? 0 : 1);
+
+    // a prefix matching 10 tags
+    BenchmarkRunner.run("Wildcard, Ehcache search", () -> {
+      String expression = "TAG.BENCHMARK." + (next[0]++ % (nbTags / 10)) + "?";
+      Results results = cache.getCache().createQuery().includeKeys().addCriteria(tagName.ilike(expression)).maxResults(100000).execute();
+      found += results.size();
+      results.discard();
+    });
+    BenchmarkRunner.run("Wildcard, name index", () -> found += cache.findByNameWildcard("TAG.BENCHMARK." + (next[0]++ % (nbTags / 10)) + "?").size());
+
+    CacheManager.getInstance().shutdown();
+    System.out.printf("%d tags found%n", found);
+    System.exit(0);
+  }
+
+  private static String nameOf(int i) {
+    return "TAG.BENCHMARK." + i;
+  }
+
+  /**
+   * @return a data tag cache on a searchable in-memory Ehcache, as configured
+   *         in the single server mode, holding the given number of tags
+   */
+  @SuppressWarnings("unchecked")
+  private static DataTagCacheImpl createCache(int nbTags) {
+    CacheConfiguration configuration = new CacheConfiguration("benchmarkDataTagCache", 0)
+        .eternal(true)
+        .searchable(new Searchable().searchAttribute(new SearchAttribute().name("tagName").expression("value.getName()")));
+    Cache ehcache = new Cache(configuration);
+    CacheManager.getInstance().addCache(ehcache);
+
+    ClusterCache clusterCache = EasyMock.createNiceMock(ClusterCache.class);
+    CacheLoader cacheLoader = EasyMock.createNiceMock(CacheLoader.class);
+    C2monCacheLoader c2monCacheLoader = EasyMock.createNiceMock(C2monCacheLoader.class);
+    SimpleCacheLoaderDAO<DataTag> cacheLoaderDAO = EasyMock.createNiceMock(SimpleCacheLoaderDAO.class);
+    EasyMock.replay(clusterCache, cacheLoader, c2monCacheLoader, cacheLoaderDAO);
+
+    DataTagCacheImpl cache = new DataTagCacheImpl(clusterCache, ehcache, cacheLoader, c2monCacheLoader, cacheLoaderDAO, new CacheProperties());
+    cache.init();
+    for (int i = 0; i < nbTags; i++) {
+      cache.putQuiet(new DataTagCacheObject((long) i, nameOf(i), "Float", DataTagConstants.MODE_OPERATIONAL));
+    }
+    return cache;
+  }
+}
@@ -0,0 +1,132 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.server.cache.tag;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TagNameIndexTest {
+
+  private TagNameIndex index;
+
+  @Before
+  public void setUp() {
+    index = new TagNameIndex();
+    index.put(1L, "CPU.LOAD.1");
+    index.put(2L, "cpu.load.2");
+    index.put(3L, "MEMORY.FREE");
+    index.put(4L, "weird*name?");
+  }
+
+  @Test
+  public void testExactLookupIsCaseInsensitive() {
+    assertEquals(Long.valueOf(1L), index.get("cpu.load.1"));
+    assertEquals(Long.valueOf(2L), index.get("CPU.LOAD.2"));
+    assertNull(index.get("cpu.load"));
+  }
+
+  @Test
+  public void testExactLookupIgnoresWildcards() {
+    assertEquals(Long.valueOf(4L), index.get("WEIRD*NAME?"));
+    assertNull(index.get("weird*"));
+  }
+
+  @Test
+  public void testRename() {
+    index.put(1L, "CPU.LOAD.NEW");
+
+    assertNull(index.get("CPU.LOAD.1"));
+    assertEquals(Long.valueOf(1L), index.get("cpu.load.new"));
+    assertEquals(4, index.size());
+  }
+
+  @Test
+  public void testRemove() {
+    index.remove(3L);
+
+    assertNull(index.get("MEMORY.FREE"));
+    assertEquals(3, index.size());
+    assertTrue(index.findByWildcard("mem*", 10).isEmpty());
+  }
+
+  @Test
+  public void testRemoveDoesNotDropDuplicateNameOfOtherTag() {
+    index.put(5L, "MEMORY.FREE");
+    index.remove(3L);
+
+    assertEquals(Long.valueOf(5L), index.get("MEMORY.FREE"));
+  }
+
+  @Test
+  public void testDuplicateNames() {
+    index.put(5L, "memory.free");
+
+    assertEquals(Long.valueOf(3L), index.get("MEMORY.FREE"));
+    assertEquals(2, index.getAll("Memory.Free").size());
+    assertEquals(2, index.findByWildcard("MEMORY.FREE", 10).size());
+
+    List<Long> result = index.findByWildcard("mem*", 10);
+    assertEquals(2, result.size());
+    assertTrue(result.contains(3L));
+    assertTrue(result.contains(5L));
+    assertEquals(1, index.findByWildcard("mem*", 1).size());
+  }
+
+  @Test
+  public void testPrefixWildcard() {
+    List<Long> result = index.findByWildcard("cpu.*", 10);
+
+    assertEquals(2, result.size());
+    assertTrue(result.contains(1L));
+    assertTrue(result.contains(2L));
+  }
+
+  @Test
+  public void testSingleCharacterWildcard() {
+    List<Long> result = index.findByWildcard("CPU.LOAD.?", 10);
+    assertEquals(2, result.size());
+
+    assertTrue(index.findByWildcard("CPU.LOA?", 10).isEmpty());
+  }
+
+  @Test
+  public void testLeadingWildcard() {
+    List<Long> result = index.findByWildcard("*.free", 10);
+
+    assertEquals(1, result.size());
+    assertEquals(Long.valueOf(3L), result.get(0));
+  }
+
+  @Test
+  public void testEscapedWildcard() {
+    assertEquals(1, index.findByWildcard("weird\\*name\\?", 10).size());
+    assertEquals(1, index.findByWildcard("weird\\**", 10).size());
+    assertTrue(index.findByWildcard("weird\\*x*", 10).isEmpty());
+  }
+
+  @Test
+  public void testMaxResults() {
+    assertEquals(1, index.findByWildcard("*", 1).size());
+    assertEquals(4, index.findByWildcard("*", 10).size());
+  }
+}
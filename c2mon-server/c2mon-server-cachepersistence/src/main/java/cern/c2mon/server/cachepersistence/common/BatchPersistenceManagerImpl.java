@@ -18,12 +18,14 @@ package cern.c2mon.server.cachepersistence.common;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.ibatis.exceptions.PersistenceException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.SmartLifecycle;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
 import org.springframework.jmx.export.annotation.ManagedOperation;
 import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
@@ -57,11 +59,40 @@ public class BatchPersistenceManagerImpl<T extends Cacheable> implements BatchPe
   private static final Logger LOGGER = LoggerFactory.getLogger(BatchPersistenceManagerImpl.class);
 
   /**
-   * Size of the batches between database commits. Also corresponds
+   * Initial size of the batches between database commits. Also corresponds
    * to the size of the tasks executed by the ExecutorService.
    */
   private static final int RECORDS_PER_BATCH = 500;
 
+  /**
+   * Current size of the batches, adapted to the time the database
+   * takes to persist a batch (see {@link #adaptBatchSize(int, long)}).
+   */
+  private volatile int recordsPerBatch = RECORDS_PER_BATCH;
+
+  private int minRecordsPerBatch = 50;
+
+  private int maxRecordsPerBatch = 5000;
+
+  /**
+   * Time in milliseconds a batch should take to persist. The batch size
+   * is halved when a batch takes longer, and increased when a batch
+   * takes less than half of it.
+   */
+  private int targetBatchDuration = 1000;
+
+  /** Duration in milliseconds of the last persisted batch */
+  private volatile long lastBatchDuration;
+
+  /** Number of cache objects submitted to the executor and not persisted yet */
+  private final AtomicInteger inProgressCount = new AtomicInteger();
+
+  /**
+   * Start time of the last persistence run that persisted all cache
+   * objects handed to it (and the ones waiting from previous runs).
+   */
+  private volatile long lastCompletePersistenceTime = System.currentTimeMillis();
+
   /**
    * Timeout in milliseconds for a single batch to persist.
    */
@@ -127,6 +158,7 @@ public class BatchPersistenceManagerImpl<T extends Cacheable> implements BatchPe
   @Override
   public void persistList(final Collection<Long> keyCollection) {
     clusterCache.acquireWriteLockOnKey(cachePersistenceLock);
+    long runStartTime = System.currentTimeMillis();
     try {
       LOGGER.debug("Submitting new persistence task (currently " + cachePersistenceThreadPoolTaskExecutor.getThreadPoolExecutor().getQueue().size() + " tasks in queue)");
 
@@ -148,17 +180,19 @@ public class BatchPersistenceManagerImpl<T extends Cacheable> implements BatchPe
       LinkedList<Future< ? >> taskResults = new LinkedList<>();
       Map<Future< ? >, Collection<Long>> submittedSets = new HashMap<>();
 
+      int batchSize = recordsPerBatch;
       Iterator<Long> it = localToBePersisted.iterator();
       while (it.hasNext()) {
-        PersistenceTask task = new PersistenceTask();
+        PersistenceTask task = new PersistenceTask(batchSize);
         LinkedList<Long> persistedIds = new LinkedList<>();
         int counter = 0;
-        while (it.hasNext() && counter < RECORDS_PER_BATCH) {
+        while (it.hasNext() && counter < batchSize) {
           Long currentId = it.next();
           task.put(currentId);
           counter++;
           persistedIds.push(currentId);
         }
+        inProgressCount.addAndGet(counter);
         Future< ? > result = cachePersistenceThreadPoolTaskExecutor.submit(task);
         taskResults.offerLast(result);
         submittedSets.put(result, persistedIds);
@@ -184,11 +218,13 @@ public class BatchPersistenceManagerImpl<T extends Cacheable> implements BatchPe
           exceptionCaught = true;
         } catch (TimeoutException e) {
           LOGGER.warn("Timeout while waiting for persistence task " + count + " to "
-              + "complete (timeout per batch of " + RECORDS_PER_BATCH + " is set at " + timeoutPerBatch + " milliseconds; cancelling batch)"
+              + "complete (timeout per batch of " + batchSize + " is set at " + timeoutPerBatch + " milliseconds; cancelling batch)"
               + "Cache elements will be persisted during next persistence task.", e);
           result.cancel(true);
           exceptionCaught = true;
+          adaptBatchSize(batchSize, timeoutPerBatch);
         } finally {
+          inProgressCount.addAndGet(-submittedSets.get(result).size());
           if (exceptionCaught) {
             exceptionCount++;
             toBePersistedLock.writeLock().lock();
@@ -201,6 +237,7 @@ public class BatchPersistenceManagerImpl<T extends Cacheable> implements BatchPe
         }
       }
       if (exceptionCount == 0) {
+        lastCompletePersistenceTime = runStartTime;
         LOGGER.debug("Completed persistence of all " + count + " batches");
       } else {
         LOGGER.debug(exceptionCount + " out of " + count + " persistence batches failed and will be resubmitted.");
@@ -225,6 +262,72 @@ public class BatchPersistenceManagerImpl<T extends Cacheable> implements BatchPe
     persistList(cache.getKeys());
   }
 
+  /**
+   * Adapts the size of the next batches to the time the database took
+   * to persist a batch: halves it if the batch took longer than the
+   * target duration, increases it by a quarter if the batch took less
+   * than half of it. Batches smaller than the current size (e.g. the
+   * last batch of a run) do not increase it.
+   *
+   * @param batchSize the number of cache objects in the batch
+   * @param duration the time in milliseconds the batch took to persist
+   */
+  void adaptBatchSize(final int batchSize, final long duration) {
+    lastBatchDuration = duration;
+    int current = recordsPerBatch;
+    if (duration > targetBatchDuration) {
+      recordsPerBatch = Math.max(minRecordsPerBatch, Math.min(current, batchSize) / 2);
+    } else if (duration < targetBatchDuration / 2 && batchSize >= current) {
+      recordsPerBatch = Math.min(maxRecordsPerBatch, current + Math.max(1, current / 4));
+    }
+    if (recordsPerBatch != current) {
+      LOGGER.debug("Persistence batch of " + batchSize + " records took " + duration + "ms: batch size changed from "
+          + current + " to " + recordsPerBatch + " (" + cache.getClass().getSimpleName() + ")");
+    }
+  }
+
+  @ManagedAttribute(description = "Number of cache objects waiting to be persisted")
+  public int getDirtySetSize() {
+    toBePersistedLock.readLock().lock();
+    try {
+      return toBePersisted.size() + inProgressCount.get();
+    } finally {
+      toBePersistedLock.readLock().unlock();
+    }
+  }
+
+  @ManagedAttribute(description = "Time in milliseconds since the cache objects waiting to be persisted may have been updated (0 if none are waiting)")
+  public long getPersistenceLag() {
+    if (getDirtySetSize() == 0) {
+      return 0;
+    }
+    return System.currentTimeMillis() - lastCompletePersistenceTime;
+  }
+
+  @ManagedAttribute(description = "Current number of cache objects persisted per batch")
+  public int getRecordsPerBatch() {
+    return recordsPerBatch;
+  }
+
+  @ManagedAttribute(description = "Time in milliseconds the last batch took to persist")
+  public long getLastBatchDuration() {
+    return lastBatchDuration;
+  }
+
+  /**
+   * Sets the bounds and target duration used to adapt the batch size.
+   *
+   * @param minRecordsPerBatch the smallest batch size
+   * @param maxRecordsPerBatch the largest batch size
+   * @param targetBatchDuration the time in milliseconds a batch should take to persist
+   */
+  public void setBatchSizing(final int minRecordsPerBatch, final int maxRecordsPerBatch, final int targetBatchDuration) {
+    this.minRecordsPerBatch = Math.max(1, minRecordsPerBatch);
+    this.maxRecordsPerBatch = Math.max(this.minRecordsPerBatch, maxRecordsPerBatch);
+    this.targetBatchDuration = targetBatchDuration;
+    this.recordsPerBatch = Math.max(this.minRecordsPerBatch, Math.min(this.maxRecordsPerBatch, recordsPerBatch));
+  }
+
   /**
    * Sets the timeout in milliseconds for a single batch to persist.
    * Default is 8s.
@@ -236,7 +339,7 @@ public class BatchPersistenceManagerImpl<T extends Cacheable> implements BatchPe
   }
 
   /**
-   * Task persisting a collection of RECORDS_PER_BATCH cache
+   * Task persisting a batch of cache
    * objects to the database, by calling a CachePersistenceDAO.
    *
    * <p>Exceptions are caught by the ExecutorService, and wrapped and thrown
@@ -250,7 +353,11 @@ public class BatchPersistenceManagerImpl<T extends Cacheable> implements BatchPe
     /**
      * Keys of cache elements to persist.
      */
-    private ArrayList<Long> keyList = new ArrayList<>(RECORDS_PER_BATCH);
+    private final ArrayList<Long> keyList;
+
+    PersistenceTask(final int batchSize) {
+      keyList = new ArrayList<>(batchSize);
+    }
 
     /**
      * Add the key to the task, prior to execution.
@@ -266,7 +373,9 @@ public class BatchPersistenceManagerImpl<T extends Cacheable> implements BatchPe
      */
     @Override
     public Object call() {
+      long start = System.currentTimeMillis();
       cachePersistenceDAO.persistBatch(keyList);
+      adaptBatchSize(keyList.size(), System.currentTimeMillis() - start);
       return null;
     }
 
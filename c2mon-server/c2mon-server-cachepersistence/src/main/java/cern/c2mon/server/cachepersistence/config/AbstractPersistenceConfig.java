@@ -1,10 +1,19 @@
 package cern.c2mon.server.cachepersistence.config;
 
-import cern.c2mon.server.cache.ClusterCache;
-import cern.c2mon.server.cache.config.CacheProperties;
+import org.apache.ibatis.session.SqlSessionFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
+import cern.c2mon.server.cache.C2monCache;
+import cern.c2mon.server.cache.ClusterCache;
+import cern.c2mon.server.cache.config.CacheProperties;
+import cern.c2mon.server.cache.dbaccess.PersistenceMapper;
+import cern.c2mon.server.cachepersistence.CachePersistenceDAO;
+import cern.c2mon.server.cachepersistence.common.BatchPersistenceManagerImpl;
+import cern.c2mon.server.cachepersistence.impl.CachePersistenceDAOImpl;
+import cern.c2mon.shared.common.Cacheable;
+
 /**
  * @author Justin Lewis Salmon
  */
@@ -21,4 +30,29 @@ public abstract class AbstractPersistenceConfig {
 
   @Autowired
   protected ThreadPoolTaskExecutor cachePersistenceThreadPoolTaskExecutor;
+
+  @Autowired
+  @Qualifier("cacheSqlSessionFactory")
+  protected SqlSessionFactory cacheSqlSessionFactory;
+
+  /**
+   * Creates the DAO persisting the given cache, using JDBC batches if
+   * enabled.
+   */
+  protected <T extends Cacheable> CachePersistenceDAO<T> persistenceDAO(final PersistenceMapper<T> mapper,
+                                                                       final Class<? extends PersistenceMapper<T>> mapperInterface,
+                                                                       final C2monCache<Long, T> cache) {
+    if (properties.isJdbcBatching()) {
+      return new CachePersistenceDAOImpl<>(mapper, mapperInterface, cache, cacheSqlSessionFactory);
+    }
+    return new CachePersistenceDAOImpl<>(mapper, cache);
+  }
+
+  /**
+   * Applies the batch sizing properties to the manager.
+   */
+  protected <T extends Cacheable> BatchPersistenceManagerImpl<T> configureBatchSizing(final BatchPersistenceManagerImpl<T> manager) {
+    manager.setBatchSizing(properties.getMinRecordsPerBatch(), properties.getMaxRecordsPerBatch(), properties.getTargetBatchDuration());
+    return manager;
+  }
 }
@@ -23,4 +23,22 @@ public class CachePersistenceProperties {
 
   /** Set the capacity for the ThreadPoolExecutor's BlockingQueue */
   private int queueCapacity = 1000;
+
+  /**
+   * Send the updates of a batch as a single JDBC batch, binding them under
+   * the cache object read lock instead of copying the cache objects
+   */
+  private boolean jdbcBatching = true;
+
+  /** Smallest number of cache objects persisted in a batch */
+  private int minRecordsPerBatch = 50;
+
+  /** Largest number of cache objects persisted in a batch */
+  private int maxRecordsPerBatch = 5000;
+
+  /**
+   * Time (in milliseconds) a batch should take to persist. The batch size
+   * is adapted between the min and max to stay close to it
+   */
+  private int targetBatchDuration = 1000;
 }
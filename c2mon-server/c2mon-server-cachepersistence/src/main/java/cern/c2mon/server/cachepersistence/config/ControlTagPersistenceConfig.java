@@ -5,7 +5,6 @@ import cern.c2mon.server.cache.dbaccess.ControlTagMapper;
 import cern.c2mon.server.cachepersistence.CachePersistenceDAO;
 import cern.c2mon.server.cachepersistence.common.BatchPersistenceManager;
 import cern.c2mon.server.cachepersistence.common.BatchPersistenceManagerImpl;
-import cern.c2mon.server.cachepersistence.impl.CachePersistenceDAOImpl;
 import cern.c2mon.server.cachepersistence.listener.PersistenceSynchroListener;
 import cern.c2mon.server.common.control.ControlTag;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -26,12 +25,13 @@ public class ControlTagPersistenceConfig extends AbstractPersistenceConfig {
 
   @Bean
   public CachePersistenceDAO<ControlTag> controlTagPersistenceDAO() {
-    return new CachePersistenceDAOImpl<>(controlTagMapper, controlTagCache);
+    return persistenceDAO(controlTagMapper, ControlTagMapper.class, controlTagCache);
   }
 
   @Bean
   public BatchPersistenceManager controlTagPersistenceManager() {
-    return new BatchPersistenceManagerImpl<>(controlTagPersistenceDAO(), controlTagCache, clusterCache, cachePersistenceThreadPoolTaskExecutor);
+    return configureBatchSizing(new BatchPersistenceManagerImpl<>(controlTagPersistenceDAO(), controlTagCache, clusterCache,
+        cachePersistenceThreadPoolTaskExecutor));
   }
 
   @Bean
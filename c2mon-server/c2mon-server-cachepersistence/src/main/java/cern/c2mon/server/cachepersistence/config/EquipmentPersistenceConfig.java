@@ -5,7 +5,6 @@ import cern.c2mon.server.cache.dbaccess.EquipmentMapper;
 import cern.c2mon.server.cachepersistence.CachePersistenceDAO;
 import cern.c2mon.server.cachepersistence.common.BatchPersistenceManager;
 import cern.c2mon.server.cachepersistence.common.BatchPersistenceManagerImpl;
-import cern.c2mon.server.cachepersistence.impl.CachePersistenceDAOImpl;
 import cern.c2mon.server.cachepersistence.listener.PersistenceSynchroListener;
 import cern.c2mon.server.common.equipment.Equipment;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -26,7 +25,7 @@ public class EquipmentPersistenceConfig extends AbstractPersistenceConfig {
 
   @Bean
   public CachePersistenceDAO<Equipment> equipmentPersistenceDAO() {
-    return new CachePersistenceDAOImpl<>(equipmentMapper, equipmentCache);
+    return persistenceDAO(equipmentMapper, EquipmentMapper.class, equipmentCache);
   }
 
   @Bean
@@ -34,6 +33,7 @@ public class EquipmentPersistenceConfig extends AbstractPersistenceConfig {
     BatchPersistenceManagerImpl manager = new BatchPersistenceManagerImpl<>(equipmentPersistenceDAO(), equipmentCache,
         clusterCache, cachePersistenceThreadPoolTaskExecutor);
     manager.setTimeoutPerBatch(properties.getTimeoutPerBatch());
+    configureBatchSizing(manager);
     return manager;
   }
 
@@ -5,7 +5,6 @@ import cern.c2mon.server.cache.dbaccess.RuleTagMapper;
 import cern.c2mon.server.cachepersistence.CachePersistenceDAO;
 import cern.c2mon.server.cachepersistence.common.BatchPersistenceManager;
 import cern.c2mon.server.cachepersistence.common.BatchPersistenceManagerImpl;
-import cern.c2mon.server.cachepersistence.impl.CachePersistenceDAOImpl;
 import cern.c2mon.server.cachepersistence.listener.PersistenceSynchroListener;
 import cern.c2mon.server.common.rule.RuleTag;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -26,12 +25,13 @@ public class RuleTagPersistenceConfig extends AbstractPersistenceConfig {
 
   @Bean
   public CachePersistenceDAO<RuleTag> ruleTagPersistenceDAO() {
-    return new CachePersistenceDAOImpl<>(ruleTagMapper, ruleTagCache);
+    return persistenceDAO(ruleTagMapper, RuleTagMapper.class, ruleTagCache);
   }
 
   @Bean
   public BatchPersistenceManager ruleTagPersistenceManager() {
-    return new BatchPersistenceManagerImpl<>(ruleTagPersistenceDAO(), ruleTagCache, clusterCache, cachePersistenceThreadPoolTaskExecutor);
+    return configureBatchSizing(new BatchPersistenceManagerImpl<>(ruleTagPersistenceDAO(), ruleTagCache, clusterCache,
+        cachePersistenceThreadPoolTaskExecutor));
   }
 
   @Bean
@@ -5,7 +5,6 @@ import cern.c2mon.server.cache.dbaccess.SubEquipmentMapper;
 import cern.c2mon.server.cachepersistence.CachePersistenceDAO;
 import cern.c2mon.server.cachepersistence.common.BatchPersistenceManager;
 import cern.c2mon.server.cachepersistence.common.BatchPersistenceManagerImpl;
-import cern.c2mon.server.cachepersistence.impl.CachePersistenceDAOImpl;
 import cern.c2mon.server.cachepersistence.listener.PersistenceSynchroListener;
 import cern.c2mon.server.common.subequipment.SubEquipment;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -26,7 +25,7 @@ public class SubEquipmentPersistenceConfig extends AbstractPersistenceConfig {
 
   @Bean
   public CachePersistenceDAO<SubEquipment> subEquipmentPersistenceDAO() {
-    return new CachePersistenceDAOImpl<>(subEquipmentMapper, subEquipmentCache);
+    return persistenceDAO(subEquipmentMapper, SubEquipmentMapper.class, subEquipmentCache);
   }
 
   @Bean
@@ -34,6 +33,7 @@ public class SubEquipmentPersistenceConfig extends AbstractPersistenceConfig {
     BatchPersistenceManagerImpl manager = new BatchPersistenceManagerImpl<>(subEquipmentPersistenceDAO(), subEquipmentCache,
         clusterCache, cachePersistenceThreadPoolTaskExecutor);
     manager.setTimeoutPerBatch(properties.getTimeoutPerBatch());
+    configureBatchSizing(manager);
     return manager;
   }
 
@@ -19,8 +19,9 @@ package cern.c2mon.server.cachepersistence.impl;
 import java.util.List;
 
 import lombok.extern.slf4j.Slf4j;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.spring.SqlSessionTemplate;
 import org.springframework.transaction.annotation.Transactional;
 
 import cern.c2mon.server.cache.C2monCache;
@@ -35,6 +36,12 @@ import cern.c2mon.shared.common.Cacheable;
  * to the database. The cache object needs to have a corresponding
  * {@link PersistenceMapper}.
  *
+ * <p>If created with a {@link SqlSessionFactory}, the batches are written
+ * as JDBC batches: the <code>updateCacheable</code> parameters of each cache
+ * object are bound while holding its read lock, so no copy of the object is
+ * made and the statements are sent to the database in one round trip when
+ * the transaction commits.
+ *
  * @author Mark Brightwell
  *
  * @param <T> the type of the cache object
@@ -55,6 +62,12 @@ public class CachePersistenceDAOImpl<T extends Cacheable> implements CachePersis
    */
   private C2monCache<Long, T> cache;
 
+  /**
+   * Mapper executing the updates as a JDBC batch; null if the batches are
+   * persisted statement by statement.
+   */
+  private PersistenceMapper<T> batchPersistenceMapper;
+
   /**
    * Constructor required cache and the persistence bean for this cache.
    *
@@ -67,6 +80,20 @@ public class CachePersistenceDAOImpl<T extends Cacheable> implements CachePersis
     this.cache = cache;
   }
 
+  /**
+   * Constructor for persisting the batches as JDBC batches.
+   *
+   * @param persistenceMapper the mapper bean for this cache
+   * @param mapperInterface the mapper interface, used to obtain a batch mapper
+   * @param cache the cache that is being persisted
+   * @param sqlSessionFactory the factory of the cache DB sessions
+   */
+  public CachePersistenceDAOImpl(final PersistenceMapper<T> persistenceMapper, final Class<? extends PersistenceMapper<T>> mapperInterface,
+                                 final C2monCache<Long, T> cache, final SqlSessionFactory sqlSessionFactory) {
+    this(persistenceMapper, cache);
+    this.batchPersistenceMapper = new SqlSessionTemplate(sqlSessionFactory, ExecutorType.BATCH).getMapper(mapperInterface);
+  }
+
   /**
    * Persists a single cacheable
    * setting).
@@ -85,13 +112,17 @@ public class CachePersistenceDAOImpl<T extends Cacheable> implements CachePersis
   @Transactional(value = "cacheTransactionManager")
   @Override
   public void persistBatch(final List<Long> keyList) {
-    T cacheObject;
     for (Long key : keyList) {
       try {
-        cacheObject = cache.getCopy(key);
-        //do not persist unconfigured tags TODO could remove as unconfigured not used
-        if (cacheObject != null && (!(cacheObject instanceof Tag) || !((Tag) cacheObject).isInUnconfigured())) {
-          persistenceMapper.updateCacheable(cacheObject);
+        if (batchPersistenceMapper != null) {
+          cache.acquireReadLockOnKey(key);
+          try {
+            persist(batchPersistenceMapper, cache.get(key));
+          } finally {
+            cache.releaseReadLockOnKey(key);
+          }
+        } else {
+          persist(persistenceMapper, cache.getCopy(key));
         }
       } catch (CacheElementNotFoundException ex) {
         log.warn("Cache element with id {} could not be persisted as not found in cache " +
@@ -100,5 +131,10 @@ public class CachePersistenceDAOImpl<T extends Cacheable> implements CachePersis
     }
   }
 
-
+  private static <T extends Cacheable> void persist(final PersistenceMapper<T> mapper, final T cacheObject) {
+    //do not persist unconfigured tags TODO could remove as unconfigured not used
+    if (cacheObject != null && (!(cacheObject instanceof Tag) || !((Tag) cacheObject).isInUnconfigured())) {
+      mapper.updateCacheable(cacheObject);
+    }
+  }
 }
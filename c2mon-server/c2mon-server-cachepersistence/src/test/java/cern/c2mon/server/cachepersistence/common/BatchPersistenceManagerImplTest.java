@@ -0,0 +1,81 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.server.cachepersistence.common;
+
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+
+import cern.c2mon.server.cache.C2monCache;
+import cern.c2mon.server.cache.ClusterCache;
+import cern.c2mon.server.cachepersistence.CachePersistenceDAO;
+import cern.c2mon.server.common.datatag.DataTag;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit test of the batch size adaptation of the {@link BatchPersistenceManagerImpl}.
+ */
+public class BatchPersistenceManagerImplTest {
+
+  private BatchPersistenceManagerImpl<DataTag> manager;
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    manager = new BatchPersistenceManagerImpl<>(EasyMock.createMock(CachePersistenceDAO.class), EasyMock.createMock(C2monCache.class),
+        EasyMock.createMock(ClusterCache.class), null);
+    manager.setBatchSizing(100, 1000, 1000);
+  }
+
+  @Test
+  public void testSlowBatchesShrinkBatchSize() {
+    assertEquals(500, manager.getRecordsPerBatch());
+    manager.adaptBatchSize(500, 1500);
+    assertEquals(250, manager.getRecordsPerBatch());
+    manager.adaptBatchSize(250, 3000);
+    manager.adaptBatchSize(125, 3000);
+    assertEquals(100, manager.getRecordsPerBatch());
+  }
+
+  @Test
+  public void testFastBatchesGrowBatchSize() {
+    manager.adaptBatchSize(500, 100);
+    assertEquals(625, manager.getRecordsPerBatch());
+    for (int i = 0; i < 10; i++) {
+      manager.adaptBatchSize(manager.getRecordsPerBatch(), 100);
+    }
+    assertEquals(1000, manager.getRecordsPerBatch());
+    assertEquals(100, manager.getLastBatchDuration());
+  }
+
+  @Test
+  public void testSmallBatchesDoNotGrowBatchSize() {
+    manager.adaptBatchSize(10, 10);
+    assertEquals(500, manager.getRecordsPerBatch());
+    manager.adaptBatchSize(500, 700);
+    assertEquals(500, manager.getRecordsPerBatch());
+  }
+
+  @Test
+  public void testNothingToPersistHasNoLag() {
+    assertEquals(0, manager.getDirtySetSize());
+    assertEquals(0, manager.getPersistenceLag());
+    manager.addElementToPersist(1L);
+    assertEquals(1, manager.getDirtySetSize());
+  }
+}
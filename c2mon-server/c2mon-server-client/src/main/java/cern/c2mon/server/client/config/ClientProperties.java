@@ -17,6 +17,11 @@ public class ClientProperties {
    */
   private Jms jms = new Jms();
 
+  /**
+   * Tag publication properties
+   */
+  private Publication publication = new Publication();
+
   @Data
   public class Jms extends ClientJmsProperties {
 
@@ -32,4 +37,40 @@ public class ClientProperties {
     /** Specify the maximum number of concurrent consumers to receive client requests */
     private int maxConsumers = 10;
   }
+
+  @Data
+  public static class Publication {
+
+    /**
+     * Time window (in ms) during which the tag updates of a topic are
+     * collected into a single message. With 0, every update is sent as its
+     * own message. Batching requires clients able to unpack batches
+     */
+    private int batchWindow = 0;
+
+    /**
+     * Approximate maximum size (in UTF-8 bytes) of the json of a batch. A batch
+     * reaching this size is sent without waiting for the end of the window
+     */
+    private int batchMaxBytes = 256 * 1024;
+
+    /**
+     * Send the batches as compressed binary messages instead of json text
+     * messages
+     */
+    private boolean compressBatches = false;
+
+    /**
+     * Maximum delay (in ms) between two re-publication attempts of the tag
+     * updates that failed to be published. The delay doubles after each
+     * failed attempt, starting from 10s
+     */
+    private int republicationMaxDelay = 60000;
+
+    /**
+     * Maximum number of tags waiting for re-publication. Only the latest
+     * update of a tag is kept; when full, the oldest tags are discarded
+     */
+    private int republicationMaxSize = 100000;
+  }
 }
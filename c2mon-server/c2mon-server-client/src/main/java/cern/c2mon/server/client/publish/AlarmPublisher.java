@@ -95,7 +95,8 @@ public class AlarmPublisher implements C2monCacheListener<Alarm>, SmartLifecycle
     jmsSender = pJmsSender;
     cacheRegistrationService = pCacheRegistrationService;
     tagLocationService = pTagLocationService;
-    republisher = RepublisherFactory.createRepublisher(this, "Alarm");
+    republisher = RepublisherFactory.createRepublisher(this, "Alarm", AlarmValue::getId,
+        alarmValue -> alarmValue.getTimestamp() == null ? 0 : alarmValue.getTimestamp().getTime());
   }
 
   /**
@@ -133,6 +134,7 @@ public class AlarmPublisher implements C2monCacheListener<Alarm>, SmartLifecycle
     }
     try {
       publish(alarmValue);
+      republisher.publicationSucceeded(alarmValue);
     } catch (JmsException e) {
       log.error("Error publishing alarm to clients - submitting for republication. Alarm id is " + alarmValue.getId(), e);
       republisher.publicationFailed(alarmValue);
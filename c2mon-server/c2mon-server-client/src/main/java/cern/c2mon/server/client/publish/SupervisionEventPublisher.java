@@ -83,7 +83,9 @@ public class SupervisionEventPublisher implements SupervisionListener, SmartLife
                                    final SupervisionNotifier pSupervisionNotifier) {
     jmsSender = pJmsSender;
     supervisionNotifier = pSupervisionNotifier;
-    republisher = RepublisherFactory.createRepublisher(this, "Supervision Event");
+    republisher = RepublisherFactory.createRepublisher(this, "Supervision Event",
+        event -> event.getEntity() + ":" + event.getEntityId(),
+        event -> event.getEventTime() == null ? 0 : event.getEventTime().getTime());
   }
 
 
@@ -99,6 +101,7 @@ public class SupervisionEventPublisher implements SupervisionListener, SmartLife
   public void notifySupervisionEvent(@Valid final SupervisionEvent supervisionEvent) {
     try {
       publish(supervisionEvent);
+      republisher.publicationSucceeded(supervisionEvent);
     } catch (JmsException e) {
       LOGGER.error("Error publishing supervision event - submitting for republication", e);
       republisher.publicationFailed(supervisionEvent);
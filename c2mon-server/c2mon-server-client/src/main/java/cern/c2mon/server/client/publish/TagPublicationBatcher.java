@@ -0,0 +1,284 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.server.client.publish;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jms.JmsException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import cern.c2mon.server.common.alarm.TagWithAlarms;
+import cern.c2mon.shared.client.serializer.TransferTagSerializer;
+import cern.c2mon.shared.util.jms.JmsSender;
+
+/**
+ * Collects the serialized tag updates per topic and sends them as a single
+ * json array message, either at the end of the batch window or as soon as
+ * the batch reaches its maximum size. The updates of a topic are sent in
+ * the order they were added.
+ *
+ * <p>A full batch is only taken out of its topic under the topic lock. It
+ * is sent after the lock is released, by whichever thread currently sends
+ * the batches of the topic, so the threads adding updates never wait for
+ * the broker.
+ *
+ * <p>Once a batch is sent, all its live updates are passed to the sent
+ * handler, with a flag telling them from re-publications. If the sending of a batch fails, they are passed to the failure handler
+ * for re-publication.
+ */
+@Slf4j
+class TagPublicationBatcher {
+
+  private final JmsSender jmsSender;
+
+  /** Called for each update of a batch once it is sent, with false for a re-publication */
+  private final BiConsumer<TagWithAlarms, Boolean> sentHandler;
+
+  /** Called for each update of a batch that could not be sent */
+  private final Consumer<TagWithAlarms> failureHandler;
+
+  private final int maxBytes;
+
+  private final boolean compress;
+
+  private final ConcurrentMap<String, TopicBatch> batches = new ConcurrentHashMap<>();
+
+  private final ScheduledExecutorService flusher;
+
+  private final AtomicLong sentMessages = new AtomicLong();
+
+  private final AtomicLong sentUpdates = new AtomicLong();
+
+  /**
+   * @param jmsSender used to send the batches
+   * @param sentHandler called for each update of a batch once it is sent, with false for a re-publication
+   * @param failureHandler called for each update of a batch that could not be sent
+   * @param window the batch window in milliseconds
+   * @param maxBytes the approximate maximum size of a batch, in UTF-8 bytes
+   * @param compress if true, the batches are sent as compressed binary messages
+   */
+  TagPublicationBatcher(final JmsSender jmsSender, final BiConsumer<TagWithAlarms, Boolean> sentHandler,
+                        final Consumer<TagWithAlarms> failureHandler,
+                        final long window, final int maxBytes, final boolean compress) {
+    this.jmsSender = jmsSender;
+    this.sentHandler = sentHandler;
+    this.failureHandler = failureHandler;
+    this.maxBytes = maxBytes;
+    this.compress = compress;
+    this.flusher = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("TagPublicationBatcher-"));
+    this.flusher.scheduleWithFixedDelay(this::flushAll, window, window, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Adds a tag update to the batch of its topic. Sends the batch first if
+   * the update does not fit in it anymore.
+   *
+   * @param topic the topic of the update
+   * @param json the serialized update
+   * @param tagWithAlarms the update, re-published if the batch cannot be sent
+   * @param live false if the update is a re-publication
+   */
+  void add(final String topic, final String json, final TagWithAlarms tagWithAlarms, final boolean live) {
+    TopicBatch batch = batches.computeIfAbsent(topic, t -> new TopicBatch());
+    int jsonBytes = utf8Length(json);
+    boolean full;
+    synchronized (batch) {
+      if (!batch.json.isEmpty() && batch.bytes + jsonBytes > maxBytes) {
+        batch.takeOut();
+      }
+      batch.json.add(json);
+      batch.tags.add(tagWithAlarms);
+      if (!live) {
+        batch.republished.set(batch.tags.size() - 1);
+      }
+      batch.bytes += jsonBytes + 1;
+      if (batch.bytes >= maxBytes) {
+        batch.takeOut();
+      }
+      full = !batch.ready.isEmpty();
+    }
+    if (full) {
+      sendReady(topic, batch);
+    }
+  }
+
+  /**
+   * Sends the pending batches of all topics.
+   */
+  void flushAll() {
+    for (ConcurrentMap.Entry<String, TopicBatch> entry : batches.entrySet()) {
+      TopicBatch batch = entry.getValue();
+      synchronized (batch) {
+        if (!batch.json.isEmpty()) {
+          batch.takeOut();
+        }
+      }
+      sendReady(entry.getKey(), batch);
+    }
+  }
+
+  /**
+   * Stops the batch window timer and sends the pending batches.
+   */
+  void shutdown() {
+    flusher.shutdown();
+    try {
+      flusher.awaitTermination(1, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    flushAll();
+  }
+
+  long getSentMessages() {
+    return sentMessages.get();
+  }
+
+  long getSentUpdates() {
+    return sentUpdates.get();
+  }
+
+  /**
+   * Sends the batches taken out of the topic batch, in the order they were
+   * taken out. If another thread is already sending the batches of the
+   * topic, that thread sends them instead.
+   */
+  private void sendReady(final String topic, final TopicBatch topicBatch) {
+    while (!topicBatch.ready.isEmpty() && topicBatch.sendLock.tryLock()) {
+      try {
+        Batch batch;
+        while ((batch = topicBatch.ready.poll()) != null) {
+          send(topic, batch);
+        }
+      } finally {
+        topicBatch.sendLock.unlock();
+      }
+    }
+  }
+
+  private void send(final String topic, final Batch batch) {
+    try {
+      String jsonArray = TransferTagSerializer.toJsonArray(batch.json);
+      if (compress) {
+        jmsSender.sendToTopic(TransferTagSerializer.compress(jsonArray), topic);
+      } else {
+        jmsSender.sendToTopic(jsonArray, topic);
+      }
+      sentMessages.incrementAndGet();
+      sentUpdates.addAndGet(batch.json.size());
+      for (int i = 0; i < batch.tags.size(); i++) {
+        sentHandler.accept(batch.tags.get(i), !batch.republished.get(i));
+      }
+    } catch (JmsException e) {
+      log.error("Error publishing a batch of " + batch.tags.size() + " tag updates to topic " + topic + " - submitting for republication", e);
+      publicationFailed(batch);
+    } catch (RuntimeException e) {
+      log.error("Unexpected exception while publishing a batch of " + batch.tags.size() + " tag updates to topic " + topic
+          + " - submitting for republication", e);
+      publicationFailed(batch);
+    }
+  }
+
+  private void publicationFailed(final Batch batch) {
+    for (TagWithAlarms tagWithAlarms : batch.tags) {
+      failureHandler.accept(tagWithAlarms);
+    }
+  }
+
+  /**
+   * @return the number of bytes of the string encoded in UTF-8
+   */
+  static int utf8Length(final String s) {
+    int length = s.length();
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c >= 0x800) {
+        // 3 bytes, or 4 bytes for a surrogate pair
+        length += Character.isSurrogate(c) ? 1 : 2;
+      } else if (c >= 0x80) {
+        length++;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * A batch of updates of a topic, taken out to be sent.
+   */
+  private static final class Batch {
+
+    private final List<String> json;
+
+    private final List<TagWithAlarms> tags;
+
+    /** The indexes of the re-published updates in the batch */
+    private final BitSet republished;
+
+    private Batch(final List<String> json, final List<TagWithAlarms> tags, final BitSet republished) {
+      this.json = json;
+      this.tags = tags;
+      this.republished = republished;
+    }
+  }
+
+  /**
+   * The updates of a topic being collected, and the full batches waiting
+   * to be sent. The collected updates are guarded by the object lock.
+   */
+  private static final class TopicBatch {
+
+    private List<String> json = new ArrayList<>();
+
+    private List<TagWithAlarms> tags = new ArrayList<>();
+
+    private BitSet republished = new BitSet();
+
+    private int bytes = 0;
+
+    /** The batches taken out, in the order they have to be sent */
+    private final Queue<Batch> ready = new ConcurrentLinkedQueue<>();
+
+    /** Held by the thread sending the ready batches */
+    private final ReentrantLock sendLock = new ReentrantLock();
+
+    /**
+     * Moves the collected updates to the ready batches.
+     * Must be called holding the lock on this object.
+     */
+    private void takeOut() {
+      ready.add(new Batch(json, tags, republished));
+      json = new ArrayList<>();
+      tags = new ArrayList<>();
+      republished = new BitSet();
+      bytes = 0;
+    }
+  }
+}
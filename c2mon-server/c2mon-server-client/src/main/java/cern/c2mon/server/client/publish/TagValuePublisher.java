@@ -37,12 +37,15 @@ import cern.c2mon.server.alarm.AlarmAggregatorListener;
 import cern.c2mon.server.cache.AliveTimerFacade;
 import cern.c2mon.server.cache.TagFacadeGateway;
 import cern.c2mon.server.cache.TagLocationService;
+import cern.c2mon.server.cache.latency.LatencyRecorder;
+import cern.c2mon.server.cache.latency.LatencyRecorder.Stage;
 import cern.c2mon.server.client.util.TransferObjectFactory;
 import cern.c2mon.server.common.alarm.Alarm;
 import cern.c2mon.server.common.alarm.TagWithAlarms;
 import cern.c2mon.server.common.alarm.TagWithAlarmsImpl;
 import cern.c2mon.server.common.republisher.Publisher;
 import cern.c2mon.server.common.republisher.Republisher;
+import cern.c2mon.server.common.republisher.Republisher.OverflowPolicy;
 import cern.c2mon.server.common.republisher.RepublisherFactory;
 import cern.c2mon.server.common.tag.Tag;
 import cern.c2mon.server.configuration.ConfigurationUpdate;
@@ -56,7 +59,9 @@ import cern.c2mon.shared.util.jms.JmsSender;
  * This class implements the <code>AlarmAggregatorListener</code>
  * interface for sending tag value updates to the tag JMS destination
  * topics. The update information is transmitted as GSON message
- * with the <code>TransferTagValue</code> class.
+ * with the <code>TransferTagValue</code> class. The tag value updates
+ * can optionally be sent in batches per topic (see
+ * {@link ClientProperties.Publication}).
  *
  * This class implements the <code>ConfigurationUpdateListener</code>
  * interface for sending configuration updates to the tag JMS destination
@@ -103,6 +108,11 @@ public class TagValuePublisher implements AlarmAggregatorListener, Configuration
 
   private ClientProperties properties;
 
+  private final LatencyRecorder latencyRecorder;
+
+  /** Collects the updates per topic, null if every update is sent as its own message */
+  private TagPublicationBatcher batcher;
+
   /**
    * Default Constructor
    * @param jmsSender Used for sending JMS messages and waiting for a response
@@ -111,6 +121,7 @@ public class TagValuePublisher implements AlarmAggregatorListener, Configuration
    * @param configurationUpdate Used to register this <code>ConfigurationUpdateListener</code>
    * @param pTagFacadeGateway Reference to the tag facade gateway singleton
    * @param tagLocationService Reference to the tag location service
+   * @param latencyRecorder Records the time from the cache write to the publication
    */
   @Autowired
   public TagValuePublisher(@Qualifier("clientTopicPublisher") final JmsSender jmsSender,
@@ -119,15 +130,18 @@ public class TagValuePublisher implements AlarmAggregatorListener, Configuration
                            final ConfigurationUpdate configurationUpdate,
                            final TagFacadeGateway pTagFacadeGateway,
                            final TagLocationService tagLocationService,
-                           final ClientProperties properties) {
+                           final ClientProperties properties,
+                           final LatencyRecorder latencyRecorder) {
     this.aliveTimerFacade = aliveTimerFacade;
     this.jmsSender = jmsSender;
     this.alarmAggregator = alarmAggregator;
     this.configurationUpdate = configurationUpdate;
     this.tagFacadeGateway = pTagFacadeGateway;
     this.tagLocationService = tagLocationService;
-    this.republisher = RepublisherFactory.createRepublisher(this, "Tag");
+    this.republisher = RepublisherFactory.createRepublisher(this, "Tag", tagWithAlarms -> tagWithAlarms.getTag().getId(),
+        tagWithAlarms -> tagWithAlarms.getTag().getCacheTimestamp() == null ? 0 : tagWithAlarms.getTag().getCacheTimestamp().getTime());
     this.properties = properties;
+    this.latencyRecorder = latencyRecorder;
   }
 
   /**
@@ -144,8 +158,17 @@ public class TagValuePublisher implements AlarmAggregatorListener, Configuration
 
     this.configurationUpdate.registerForConfigurationUpdates(this);
 
+    ClientProperties.Publication publication = properties.getPublication();
+    if (publication.getBatchWindow() > 0) {
+      log.info("init - Publishing tag updates in batches every {}ms (compressed: {}).", publication.getBatchWindow(), publication.isCompressBatches());
+      batcher = new TagPublicationBatcher(jmsSender, this::published, republisher::publicationFailed,
+          publication.getBatchWindow(), publication.getBatchMaxBytes(), publication.isCompressBatches());
+    }
+
     if (republicationDelay != 0)
       republisher.setRepublicationDelay(republicationDelay);
+    republisher.setMaxRepublicationDelay(publication.getRepublicationMaxDelay());
+    republisher.setMaxSize(publication.getRepublicationMaxSize(), OverflowPolicy.DROP_OLDEST);
     republisher.start();
   }
 
@@ -155,6 +178,9 @@ public class TagValuePublisher implements AlarmAggregatorListener, Configuration
   @PreDestroy
   public void shutdown() {
     log.info("shutdown - Stopping tag publisher.");
+    if (batcher != null) {
+      batcher.shutdown();
+    }
     republisher.stop();
   }
 
@@ -170,19 +196,52 @@ public class TagValuePublisher implements AlarmAggregatorListener, Configuration
   public void notifyOnUpdate(final Tag tag, final List<Alarm> alarms) {
     TagWithAlarms tagWithAlarms = new TagWithAlarmsImpl(tag, alarms);
     try {
-      publish(tagWithAlarms);
+      send(tagWithAlarms, true);
     } catch (JmsException e) {
       log.error("notifyOnUpdate - Error publishing tag update to topic for tag " + tagWithAlarms.getTag().getId() + " - submitting for republication", e);
       republisher.publicationFailed(tagWithAlarms);
     }
   }
 
+  /**
+   * Re-publishes a tag update which failed to be sent. The republisher is
+   * not told about its success: it removes the update itself.
+   */
   @Override
   public void publish(final TagWithAlarms tagWithAlarms) {
+    send(tagWithAlarms, false);
+  }
+
+  /**
+   * @param live false for a re-publication
+   */
+  private void send(final TagWithAlarms tagWithAlarms, final boolean live) {
     TransferTagValueImpl tagValue = TransferObjectFactory.createTransferTagValue(tagWithAlarms);
-    log.trace("publish - Publishing tag update to client: " + TransferTagSerializer.toJson(tagValue));
+    String json = TransferTagSerializer.toJson(tagValue);
+    if (log.isTraceEnabled()) {
+      log.trace("publish - Publishing tag update to client: " + json);
+    }
+
+    String topic = TopicProvider.topicFor(tagWithAlarms.getTag(), properties);
+    if (batcher != null) {
+      batcher.add(topic, json, tagWithAlarms, live);
+    } else {
+      jmsSender.sendToTopic(json, topic);
+      published(tagWithAlarms, live);
+    }
+  }
 
-    jmsSender.sendToTopic(TransferTagSerializer.toJson(tagValue), TopicProvider.topicFor(tagWithAlarms.getTag(), properties));
+  /**
+   * Called once the update is sent to the clients, also when sent as part
+   * of a batch.
+   *
+   * @param live false for a re-publication
+   */
+  private void published(final TagWithAlarms tagWithAlarms, final boolean live) {
+    if (live) {
+      republisher.publicationSucceeded(tagWithAlarms);
+    }
+    latencyRecorder.recordSinceCacheWrite(Stage.CACHE_TO_CLIENT, tagWithAlarms.getTag(), System.currentTimeMillis());
   }
 
   @Override
@@ -215,6 +274,22 @@ public class TagValuePublisher implements AlarmAggregatorListener, Configuration
     return republisher.getNumberFailedPublications();
   }
 
+  /**
+   * @return the number of batch messages sent since the publisher start
+   */
+  @ManagedOperation(description = "Returns the number of batch messages sent since the application started (0 if not batching)")
+  public long getNumberPublishedBatches() {
+    return batcher == null ? 0 : batcher.getSentMessages();
+  }
+
+  /**
+   * @return the number of tag updates sent in batches since the publisher start
+   */
+  @ManagedOperation(description = "Returns the number of tag updates sent in batch messages since the application started")
+  public long getNumberBatchedUpdates() {
+    return batcher == null ? 0 : batcher.getSentUpdates();
+  }
+
   /**
    * @return the number of current tag updates awaiting publication to the clients
    */
@@ -222,4 +297,20 @@ public class TagValuePublisher implements AlarmAggregatorListener, Configuration
   public int getSizeUnpublishedList() {
     return republisher.getSizeUnpublishedList();
   }
+
+  /**
+   * @return the time in ms the oldest tag update has been awaiting re-publication
+   */
+  @ManagedOperation(description = "Returns the time in ms the oldest tag update has been awaiting re-publication")
+  public long getOldestUnpublishedAge() {
+    return republisher.getOldestUnpublishedAge();
+  }
+
+  /**
+   * @return the number of tag updates discarded as the re-publication list was full
+   */
+  @ManagedOperation(description = "Returns the number of tag updates discarded since the application started, as the re-publication list was full")
+  public long getNumberDroppedPublications() {
+    return republisher.getNumberDroppedEvents();
+  }
 }
@@ -0,0 +1,173 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.server.client.publish;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.EasyMock;
+import org.junit.Test;
+import org.springframework.jms.UncategorizedJmsException;
+
+import cern.c2mon.server.common.alarm.TagWithAlarms;
+import cern.c2mon.server.common.alarm.TagWithAlarmsImpl;
+import cern.c2mon.server.common.datatag.DataTagCacheObject;
+import cern.c2mon.shared.client.serializer.TransferTagSerializer;
+import cern.c2mon.shared.util.jms.JmsSender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test of the TagPublicationBatcher class.
+ */
+public class TagPublicationBatcherTest {
+
+  private static final String TOPIC = "c2mon.client.tag.1";
+
+  @Test
+  public void testBatchSentWhenFull() throws Exception {
+    JmsSender jmsSender = EasyMock.createStrictMock(JmsSender.class);
+    jmsSender.sendToTopic("[{\"id\":1},{\"id\":2}]", TOPIC);
+    jmsSender.sendToTopic("[{\"id\":3}]", TOPIC);
+    EasyMock.replay(jmsSender);
+
+    // long window: only the size limit and the shutdown send the batches
+    TagPublicationBatcher batcher = new TagPublicationBatcher(jmsSender, (tag, live) -> { }, tag -> { }, 60000, 20, false);
+    batcher.add(TOPIC, "{\"id\":1}", createTag(1L), true);
+    batcher.add(TOPIC, "{\"id\":2}", createTag(2L), true);
+    batcher.add(TOPIC, "{\"id\":3}", createTag(3L), true);
+    batcher.shutdown();
+
+    EasyMock.verify(jmsSender);
+    assertEquals(2, batcher.getSentMessages());
+    assertEquals(3, batcher.getSentUpdates());
+  }
+
+  @Test
+  public void testCompressedBatch() throws Exception {
+    final List<byte[]> sent = new ArrayList<>();
+    JmsSender jmsSender = EasyMock.createMock(JmsSender.class);
+    jmsSender.sendToTopic(EasyMock.anyObject(byte[].class), EasyMock.eq(TOPIC));
+    EasyMock.expectLastCall().andAnswer(() -> sent.add((byte[]) EasyMock.getCurrentArguments()[0]));
+    EasyMock.replay(jmsSender);
+
+    TagPublicationBatcher batcher = new TagPublicationBatcher(jmsSender, (tag, live) -> { }, tag -> { }, 60000, 1024, true);
+    batcher.add(TOPIC, "{\"id\":1}", createTag(1L), true);
+    batcher.add(TOPIC, "{\"id\":2}", createTag(2L), true);
+    batcher.shutdown();
+
+    EasyMock.verify(jmsSender);
+    assertEquals(1, sent.size());
+    assertEquals("[{\"id\":1},{\"id\":2}]", TransferTagSerializer.decompress(sent.get(0)));
+  }
+
+  @Test
+  public void testFailedBatchIsRepublished() {
+    JmsSender jmsSender = EasyMock.createMock(JmsSender.class);
+    jmsSender.sendToTopic(EasyMock.anyString(), EasyMock.eq(TOPIC));
+    EasyMock.expectLastCall().andThrow(new UncategorizedJmsException("test exception"));
+    EasyMock.replay(jmsSender);
+
+    final List<TagWithAlarms> failed = new ArrayList<>();
+    TagPublicationBatcher batcher = new TagPublicationBatcher(jmsSender, (tag, live) -> { }, failed::add, 60000, 1024, false);
+    batcher.add(TOPIC, "{\"id\":1}", createTag(1L), true);
+    batcher.add(TOPIC, "{\"id\":2}", createTag(2L), true);
+    batcher.shutdown();
+
+    EasyMock.verify(jmsSender);
+    assertEquals(2, failed.size());
+    assertEquals(0, batcher.getSentMessages());
+  }
+
+  @Test
+  public void testUnexpectedExceptionSubmitsBatchForRepublication() {
+    JmsSender jmsSender = EasyMock.createMock(JmsSender.class);
+    jmsSender.sendToTopic(EasyMock.anyString(), EasyMock.eq(TOPIC));
+    EasyMock.expectLastCall().andThrow(new IllegalStateException("test exception"));
+    EasyMock.replay(jmsSender);
+
+    final List<TagWithAlarms> failed = new ArrayList<>();
+    TagPublicationBatcher batcher = new TagPublicationBatcher(jmsSender, (tag, live) -> { }, failed::add, 60000, 1024, false);
+    batcher.add(TOPIC, "{\"id\":1}", createTag(1L), true);
+    batcher.shutdown();
+
+    EasyMock.verify(jmsSender);
+    assertEquals(1, failed.size());
+  }
+
+  @Test
+  public void testSentHandlerTellsRepublishedUpdates() {
+    JmsSender jmsSender = EasyMock.createNiceMock(JmsSender.class);
+    EasyMock.replay(jmsSender);
+
+    final List<Boolean> live = new ArrayList<>();
+    TagPublicationBatcher batcher = new TagPublicationBatcher(jmsSender, (tag, isLive) -> live.add(isLive), tag -> { }, 60000, 1024, false);
+    batcher.add(TOPIC, "{\"id\":1}", createTag(1L), true);
+    batcher.add(TOPIC, "{\"id\":2}", createTag(2L), false);
+    batcher.shutdown();
+
+    assertEquals(Arrays.asList(true, false), live);
+  }
+
+  @Test
+  public void testUtf8Length() {
+    assertEquals(3, TagPublicationBatcher.utf8Length("abc"));
+    assertEquals(2, TagPublicationBatcher.utf8Length("\u00e9"));
+    assertEquals(3, TagPublicationBatcher.utf8Length("\u20ac"));
+    assertEquals(4, TagPublicationBatcher.utf8Length("\ud83d\ude00"));
+  }
+
+  @Test
+  public void testAddDoesNotWaitForTheSendingThread() throws Exception {
+    final CountDownLatch sending = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+    JmsSender jmsSender = EasyMock.createMock(JmsSender.class);
+    jmsSender.sendToTopic(EasyMock.anyString(), EasyMock.eq(TOPIC));
+    EasyMock.expectLastCall().andAnswer(() -> {
+      sending.countDown();
+      release.await();
+      sent.add((String) EasyMock.getCurrentArguments()[0]);
+      return null;
+    }).anyTimes();
+    EasyMock.replay(jmsSender);
+
+    // every update fills a batch
+    TagPublicationBatcher batcher = new TagPublicationBatcher(jmsSender, (tag, live) -> { }, tag -> { }, 60000, 1, false);
+    Thread sender = new Thread(() -> batcher.add(TOPIC, "{\"id\":1}", createTag(1L), true));
+    sender.start();
+    assertTrue(sending.await(10, TimeUnit.SECONDS));
+
+    // the first batch is still being sent: these batches are left to the sending thread
+    batcher.add(TOPIC, "{\"id\":2}", createTag(2L), true);
+    batcher.add(TOPIC, "{\"id\":3}", createTag(3L), true);
+    release.countDown();
+    sender.join(10000);
+    batcher.shutdown();
+
+    assertEquals(Arrays.asList("[{\"id\":1}]", "[{\"id\":2}]", "[{\"id\":3}]"), sent);
+  }
+
+  private static TagWithAlarms createTag(final Long id) {
+    return new TagWithAlarmsImpl(new DataTagCacheObject(id), null);
+  }
+}
@@ -139,6 +139,9 @@ public class DataTagCacheObject extends AbstractTagCacheObject implements DataTa
     if (sourceTimestamp != null) {
       dataTagCacheObject.sourceTimestamp = (Timestamp) this.sourceTimestamp.clone();
     }
+    if (daqTimestamp != null) {
+      dataTagCacheObject.daqTimestamp = (Timestamp) this.daqTimestamp.clone();
+    }
     return dataTagCacheObject;
   }
 
@@ -59,4 +59,21 @@ public class Metadata implements Serializable, Cloneable {
   public void removeMetadata(String key) {
     metadata.remove(key);
   }
+
+  /**
+   * The clone gets its own metadata map. The values are not copied, as they
+   * are expected to be simple immutable types (numbers, strings, booleans).
+   */
+  @Override
+  public Metadata clone() {
+    try {
+      Metadata clone = (Metadata) super.clone();
+      if (this.metadata != null) {
+        clone.metadata = new HashMap<>(this.metadata);
+      }
+      return clone;
+    } catch (CloneNotSupportedException e) {
+      throw new RuntimeException("Exception caught in cloning Metadata object - this should not happen!", e);
+    }
+  }
 }
@@ -37,11 +37,59 @@ public interface Republisher<T> extends Lifecycle {
    */
   void publicationFailed(T event);
 
+  /**
+   * Call this method once an event has been published, so that an older
+   * event with the same key still waiting for re-publication is discarded
+   * instead of overwriting the newer one. A waiting event newer than the
+   * published one (by version) is kept. Do not call it for the events
+   * re-published through {@link Publisher#publish(Object)}.
+   * @param event the published event
+   */
+  void publicationSucceeded(T event);
+
+  /**
+   * What to do with a failed event when the re-publication list is full.
+   */
+  enum OverflowPolicy {
+    /** Removes the event waiting the longest to make room for the new one */
+    DROP_OLDEST,
+    /** Discards the new event */
+    DROP_NEWEST
+  }
+
   /**
    * Override republication delay (default is 10s)
    * @param republicationDelay in milliseconds
    */
   void setRepublicationDelay(int republicationDelay);
+
+  /**
+   * Enables an exponential backoff: each re-publication attempt that fails
+   * doubles the delay before the next one, up to this maximum. The delay
+   * is reset once events are published again. By default, the maximum is
+   * the republication delay (no backoff).
+   * @param maxRepublicationDelay in milliseconds
+   */
+  void setMaxRepublicationDelay(int maxRepublicationDelay);
+
+  /**
+   * Bounds the number of events waiting for re-publication (unbounded by default).
+   * @param maxSize the maximum number of events
+   * @param overflowPolicy applied when an event fails while the list is full
+   */
+  void setMaxSize(int maxSize, OverflowPolicy overflowPolicy);
+
+  /**
+   * @return returns the number of failed events discarded since the application
+   * started, because the re-publication list was full
+   */
+  long getNumberDroppedEvents();
+
+  /**
+   * @return returns the time in milliseconds the oldest event has been waiting for
+   * re-publication, 0 if none
+   */
+  long getOldestUnpublishedAge();
   
   /**
    * @return returns the total number of failed publication attempts since the
@@ -16,6 +16,9 @@
  *****************************************************************************/
 package cern.c2mon.server.common.republisher;
 
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
 /**
  * Factory for creating a Republisher.
  * 
@@ -36,6 +39,40 @@ public class RepublisherFactory {
   public static <T extends Object> Republisher<T> createRepublisher(Publisher<T> publisher, String eventName) {
     return new RepublisherImpl<T>(publisher, eventName);
   }
+
+  /**
+   * Creates a Republisher coalescing the failed events by key: if an event
+   * fails while an event with the same key is waiting for re-publication,
+   * only the latest one is re-published.
+   *
+   * <p>Life-cycle needs managing externally using Lifecycle methods.
+   *
+   * @param publisher
+   * @param eventName the name of the event type, used for logging
+   * @param keyFunction returns the key of an event, e.g. the tag id
+   * @return a republisher for this publisher
+   */
+  public static <T extends Object> Republisher<T> createRepublisher(Publisher<T> publisher, String eventName, Function<T, ?> keyFunction) {
+    return new RepublisherImpl<T>(publisher, eventName, keyFunction);
+  }
+
+  /**
+   * Creates a Republisher coalescing the failed events by key, which only
+   * discards a waiting event on a successful publication of an event of the
+   * same key with at least the same version.
+   *
+   * <p>Life-cycle needs managing externally using Lifecycle methods.
+   *
+   * @param publisher
+   * @param eventName the name of the event type, used for logging
+   * @param keyFunction returns the key of an event, e.g. the tag id
+   * @param versionFunction returns the version of an event, e.g. its timestamp
+   * @return a republisher for this publisher
+   */
+  public static <T extends Object> Republisher<T> createRepublisher(Publisher<T> publisher, String eventName, Function<T, ?> keyFunction,
+                                                                    ToLongFunction<T> versionFunction) {
+    return new RepublisherImpl<T>(publisher, eventName, keyFunction, versionFunction);
+  }
   
   
   
@@ -16,11 +16,17 @@
  *****************************************************************************/
 package cern.c2mon.server.common.republisher;
 
-import java.util.Collections;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,6 +42,18 @@ import org.springframework.jmx.export.annotation.ManagedResource;
  * <p>To use this class, implement the associated Publisher interface
  * and instantiate a Republisher in your code.
  *
+ * <p>The failed events are kept by key (the event itself by default), so
+ * that only the latest event of a key is re-published. They are
+ * re-published in the order their key first failed, in batches; a
+ * re-publication round stops at the first JMS failure, since the
+ * following events would most likely fail as well.
+ *
+ * <p>A waiting event is discarded once a live publication of its key
+ * succeeds, unless it is newer than the published event according to the
+ * version function (e.g. the tag timestamp). Each event is checked to be
+ * still the latest of its key just before it is re-published, so that an
+ * event superseded during a round is not sent after the newer one.
+ *
  * @see TagValuePublisher for an example.
  *
  * @author Mark Brightwell
@@ -46,28 +64,54 @@ class RepublisherImpl<T> implements Republisher<T> {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(RepublisherImpl.class);
 
+  /** Number of events taken from the re-publication list at once */
+  private static final int DRAIN_BATCH_SIZE = 1000;
+
   private int republicationDelay = 10000;
 
+  /** Upper bound of the backoff delay, -1 if equal to the republication delay */
+  private int maxRepublicationDelay = -1;
+
+  /** The delay before the next re-publication round */
+  private volatile long currentDelay = -1;
+
+  private int maxSize = Integer.MAX_VALUE;
+
+  private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+
   /** For statistics */
   private AtomicLong totalRepublicationAttempts = new AtomicLong(0);
 
+  /** For statistics */
+  private AtomicLong droppedEvents = new AtomicLong(0);
+
   /** Bean that republishes */
   private Publisher<T> publisher;
 
   /** Used to describe events in log */
   private String eventName;
 
+  /** Returns the key by which the failed events are coalesced */
+  private Function<T, ?> keyFunction;
+
+  /** Returns the version of an event, to tell which of two events of a key is newer */
+  private ToLongFunction<T> versionFunction;
+
   /** For re-publication */
   private Timer timer;
 
-  /** For re-publication */
-  private PublicationTask publicationTask;
+  /**
+   * For re-publication. Not null as long as events are waiting for
+   * re-publication; only set holding the republication lock.
+   */
+  private volatile PublicationTask publicationTask;
 
   /**
-   * Ids of tags that need re-publishing as publication failed (local collection not shared across cluster)
-   * (map used as set, with value set as constant).
+   * Events that need re-publishing as publication failed, by key, in the order
+   * the keys failed (local collection not shared across cluster). Guarded by
+   * the republication lock.
    */
-  private ConcurrentHashMap<T, Long> toBePublished = new ConcurrentHashMap<T, Long>();
+  private LinkedHashMap<Object, FailedEvent<T>> toBePublished = new LinkedHashMap<>();
 
   /** For scheduling re-publication task */
   private Object republicatonLock = new Object();
@@ -79,21 +123,56 @@ class RepublisherImpl<T> implements Republisher<T> {
    * @param eventName used to describe the events in log
    */
   public RepublisherImpl(Publisher<T> publisher, String eventName) {
+    this(publisher, eventName, event -> event);
+  }
+
+  /**
+   * Constructs a Republisher for the provided Publisher, coalescing the
+   * failed events by key.
+   *
+   * @param publisher publisher for which re-publication is needed
+   * @param eventName used to describe the events in log
+   * @param keyFunction returns the key of an event
+   */
+  public RepublisherImpl(Publisher<T> publisher, String eventName, Function<T, ?> keyFunction) {
+    this(publisher, eventName, keyFunction, event -> 0);
+  }
+
+  /**
+   * Constructs a Republisher for the provided Publisher, coalescing the
+   * failed events by key and ordering the events of a key by version.
+   *
+   * @param publisher publisher for which re-publication is needed
+   * @param eventName used to describe the events in log
+   * @param keyFunction returns the key of an event
+   * @param versionFunction returns the version of an event, higher for newer events of the same key
+   */
+  public RepublisherImpl(Publisher<T> publisher, String eventName, Function<T, ?> keyFunction, ToLongFunction<T> versionFunction) {
     super();
     this.publisher = publisher;
     this.eventName = eventName;
+    this.keyFunction = keyFunction;
+    this.versionFunction = versionFunction;
   }
 
   @Override
   public void publicationFailed(T event) {
     if (isRunning()) {
       totalRepublicationAttempts.incrementAndGet();
+      Object key = keyFunction.apply(event);
       synchronized (republicatonLock) { //lock required for if logic, to make sure the added publication is picked up in other thread
-        toBePublished.put(event, Long.valueOf(1));
-        if (publicationTask == null) {
-          LOGGER.debug("Unpublished " + eventName + " detected: scheduling new republication task in " + republicationDelay + " milliseconds");
+        FailedEvent<T> previous = toBePublished.get(key);
+        if (previous != null) {
+          // latest wins, but the event keeps its place in the list
+          toBePublished.put(key, new FailedEvent<>(event, previous.failureTime));
+        } else if (makeRoom()) {
+          toBePublished.put(key, new FailedEvent<>(event, System.currentTimeMillis()));
+        }
+        if (publicationTask == null && !toBePublished.isEmpty()) {
+          currentDelay = republicationDelay;
+          LOGGER.debug("Unpublished " + eventName + " detected: scheduling new republication task in " + currentDelay + " milliseconds");
           publicationTask = new PublicationTask();
-          timer.schedule(publicationTask, republicationDelay);
+          timer.schedule(publicationTask, currentDelay);
         }
       }
     } else {
@@ -102,6 +181,44 @@ class RepublisherImpl<T> implements Republisher<T> {
 
   }
 
+  @Override
+  public void publicationSucceeded(T event) {
+    // no lock on the publication path while no event is waiting
+    if (publicationTask == null) {
+      return;
+    }
+    Object key = keyFunction.apply(event);
+    long version = versionFunction.applyAsLong(event);
+    synchronized (republicatonLock) {
+      FailedEvent<T> waiting = toBePublished.get(key);
+      if (waiting != null && versionFunction.applyAsLong(waiting.event) <= version) {
+        toBePublished.remove(key);
+      }
+    }
+  }
+
+  /**
+   * Applies the overflow policy if the list is full. Must hold the republication lock.
+   * @return false if the new event should be discarded
+   */
+  private boolean makeRoom() {
+    if (toBePublished.size() < maxSize) {
+      return true;
+    }
+    droppedEvents.incrementAndGet();
+    if (droppedEvents.get() % 1000 == 1) {
+      LOGGER.warn("Re-publication list for " + eventName + " events is full (" + maxSize + "): discarding the "
+          + (overflowPolicy == OverflowPolicy.DROP_OLDEST ? "oldest" : "newest") + " events");
+    }
+    if (overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+      return false;
+    }
+    Iterator<FailedEvent<T>> oldest = toBePublished.values().iterator();
+    oldest.next();
+    oldest.remove();
+    return true;
+  }
+
   @Override
   public boolean isRunning() {
     return timer != null;
@@ -130,34 +247,111 @@ class RepublisherImpl<T> implements Republisher<T> {
     @Override
     public void run() {
 
-        LOGGER.debug("Checking for " + eventName + " re-publications");
-        if (!toBePublished.isEmpty()) {
-          LOGGER.info("Detected " + eventName +  " events that failed to be published - will attempt republication of these");
-          for (T event : Collections.list(toBePublished.keys())) {  //take copy as these tasks also add to this map if publication fails again
-            try {
-              publisher.publish(event);
-              toBePublished.remove(event);
-            } catch (JmsException e) {
-              LOGGER.error("JMS exception caught while attempting re-publication. Will retry shortly.");
-              totalRepublicationAttempts.incrementAndGet();
-            } catch (Exception e) {
-              LOGGER.error("Unexpected exception caught while checking for failed " + eventName + " publications: this event will not be re-published", e);
-              totalRepublicationAttempts.incrementAndGet();
-              toBePublished.remove(event);
-            }
+      LOGGER.debug("Checking for " + eventName + " re-publications");
+      boolean failed = false;
+      boolean published = false;
+      // events failing again during the round are left for the next round
+      int remaining = getSizeUnpublishedList();
+      if (remaining > 0) {
+        LOGGER.info("Detected " + eventName +  " events that failed to be published - will attempt republication of these");
+      }
+      while (remaining > 0 && !failed) {
+        List<Map.Entry<Object, FailedEvent<T>>> batch = nextBatch(Math.min(remaining, DRAIN_BATCH_SIZE));
+        if (batch.isEmpty()) {
+          break;
+        }
+        remaining -= batch.size();
+        for (Map.Entry<Object, FailedEvent<T>> entry : batch) {
+          if (!isLatest(entry)) {
+            // superseded by a newer event, or published in the meantime
+            continue;
+          }
+          try {
+            publisher.publish(entry.getValue().event);
+            remove(entry);
+            published = true;
+          } catch (JmsException e) {
+            LOGGER.error("JMS exception caught while attempting re-publication. Will retry shortly.");
+            totalRepublicationAttempts.incrementAndGet();
+            failed = true;
+            break;
+          } catch (Exception e) {
+            LOGGER.error("Unexpected exception caught while checking for failed " + eventName + " publications: this event will not be re-published", e);
+            totalRepublicationAttempts.incrementAndGet();
+            remove(entry);
           }
         }
+      }
+
       synchronized (republicatonLock) {
         if (toBePublished.isEmpty()) {
           publicationTask = null;
         } else {
-          LOGGER.debug("Rescheduling " + eventName + " republication task in " + republicationDelay + " milliseconds");
-          timer.schedule(new PublicationTask(), republicationDelay);
+          if (published || !failed) {
+            currentDelay = republicationDelay;
+          } else {
+            currentDelay = Math.min(currentDelay * 2, Math.max(republicationDelay, maxRepublicationDelay));
+          }
+          LOGGER.debug("Rescheduling " + eventName + " republication task in " + currentDelay + " milliseconds");
+          publicationTask = new PublicationTask();
+          timer.schedule(publicationTask, currentDelay);
+        }
+      }
+    }
+
+    /**
+     * Takes the next events to re-publish from the start of the list. The
+     * events stay in the list until published.
+     */
+    private List<Map.Entry<Object, FailedEvent<T>>> nextBatch(final int size) {
+      List<Map.Entry<Object, FailedEvent<T>>> batch = new ArrayList<>(size);
+      synchronized (republicatonLock) {
+        for (Map.Entry<Object, FailedEvent<T>> entry : toBePublished.entrySet()) {
+          if (batch.size() == size) {
+            break;
+          }
+          batch.add(new SimpleImmutableEntry<>(entry.getKey(), entry.getValue()));
+        }
+      }
+      return batch;
+    }
+
+    /**
+     * @return false if the event was replaced by a newer one of the same key, or removed, since the batch was taken
+     */
+    private boolean isLatest(final Map.Entry<Object, FailedEvent<T>> entry) {
+      synchronized (republicatonLock) {
+        return toBePublished.get(entry.getKey()) == entry.getValue();
+      }
+    }
+
+    /**
+     * Removes the published event, unless a newer event of the same key failed in the meantime.
+     */
+    private void remove(final Map.Entry<Object, FailedEvent<T>> entry) {
+      synchronized (republicatonLock) {
+        if (toBePublished.get(entry.getKey()) == entry.getValue()) {
+          toBePublished.remove(entry.getKey());
         }
       }
     }
   }
 
+  /**
+   * A failed event with the time its key first failed.
+   */
+  private static final class FailedEvent<T> {
+
+    private final T event;
+
+    private final long failureTime;
+
+    private FailedEvent(final T event, final long failureTime) {
+      this.event = event;
+      this.failureTime = failureTime;
+    }
+  }
+
   /**
    * @param republicationDelay the republication_delay to set
    */
@@ -166,6 +360,17 @@ class RepublisherImpl<T> implements Republisher<T> {
     this.republicationDelay = republicationDelay;
   }
 
+  @Override
+  public void setMaxRepublicationDelay(int maxRepublicationDelay) {
+    this.maxRepublicationDelay = maxRepublicationDelay;
+  }
+
+  @Override
+  public void setMaxSize(int maxSize, OverflowPolicy overflowPolicy) {
+    this.maxSize = Math.max(1, maxSize);
+    this.overflowPolicy = overflowPolicy;
+  }
+
   @ManagedOperation(description = "Returns the total number of failed publication attempts since the application started")
   @Override
   public long getNumberFailedPublications() {
@@ -175,7 +380,26 @@ class RepublisherImpl<T> implements Republisher<T> {
   @ManagedOperation(description = "Returns the current number of events awaiting re-publication (should be 0 in normal operation)")
   @Override
   public int getSizeUnpublishedList() {
-    return toBePublished.size();
+    synchronized (republicatonLock) {
+      return toBePublished.size();
+    }
+  }
+
+  @ManagedOperation(description = "Returns the number of failed events discarded as the re-publication list was full")
+  @Override
+  public long getNumberDroppedEvents() {
+    return droppedEvents.get();
+  }
+
+  @ManagedOperation(description = "Returns the time in ms the oldest event has been awaiting re-publication")
+  @Override
+  public long getOldestUnpublishedAge() {
+    synchronized (republicatonLock) {
+      if (toBePublished.isEmpty()) {
+        return 0;
+      }
+      return System.currentTimeMillis() - toBePublished.values().iterator().next().failureTime;
+    }
   }
 
 }
@@ -0,0 +1,155 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.server.common.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import cern.c2mon.server.common.alarm.AlarmCacheObject;
+import cern.c2mon.server.common.alive.AliveTimerCacheObject;
+import cern.c2mon.server.common.commfault.CommFaultTagCacheObject;
+import cern.c2mon.server.common.control.ControlTagCacheObject;
+import cern.c2mon.server.common.datatag.DataTagCacheObject;
+import cern.c2mon.server.common.equipment.EquipmentCacheObject;
+import cern.c2mon.server.common.process.ProcessCacheObject;
+import cern.c2mon.server.common.rule.RuleTagCacheObject;
+import cern.c2mon.server.common.subequipment.SubEquipmentCacheObject;
+import cern.c2mon.shared.common.Cacheable;
+
+/**
+ * Creates deep copies of cache objects, as returned by the
+ * <code>getCopy()</code> methods of the caches.
+ * <p>
+ * The cache objects whose <code>clone()</code> method creates a complete deep
+ * copy are copied by cloning them, which is much cheaper than the Java
+ * serialization round trip used before. Immutable values (as kept in the
+ * cluster cache) are returned as they are. All other objects are still
+ * copied through serialization, reusing a buffer per thread.
+ */
+public final class CacheObjectCopier {
+
+  /**
+   * The classes whose clone is equivalent to a serialization copy. Only
+   * exact class matches are cloned, since a subclass may add fields that
+   * are not cloned deeply.
+   */
+  private static final Set<Class<?>> CLONEABLE_CLASSES = Collections.unmodifiableSet(new HashSet<Class<?>>(Arrays.asList(
+      DataTagCacheObject.class,
+      ControlTagCacheObject.class,
+      RuleTagCacheObject.class,
+      AlarmCacheObject.class,
+      ProcessCacheObject.class,
+      EquipmentCacheObject.class,
+      SubEquipmentCacheObject.class,
+      AliveTimerCacheObject.class,
+      CommFaultTagCacheObject.class)));
+
+  private static final Set<Class<?>> IMMUTABLE_CLASSES = Collections.unmodifiableSet(new HashSet<Class<?>>(Arrays.asList(
+      String.class, Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class,
+      Float.class, Double.class, BigInteger.class, BigDecimal.class)));
+
+  /** Serialization buffers bigger than this are not kept for reuse */
+  private static final int MAX_REUSED_BUFFER_SIZE = 64 * 1024;
+
+  private static final ThreadLocal<ReusableByteArrayOutputStream> BUFFER =
+      ThreadLocal.withInitial(ReusableByteArrayOutputStream::new);
+
+  private CacheObjectCopier() {
+    // static methods only
+  }
+
+  /**
+   * Creates a deep copy of the given object.
+   *
+   * @param object the object to copy, may be null
+   * @return a copy of the object, sharing no mutable state with it
+   * @throws IOException if the object has to be serialized and is not entirely serializable
+   * @throws ClassNotFoundException if the object cannot be deserialized
+   */
+  @SuppressWarnings("unchecked")
+  public static <T extends Serializable> T copy(final T object) throws IOException, ClassNotFoundException {
+    if (object == null || isImmutable(object)) {
+      return object;
+    }
+    if (CLONEABLE_CLASSES.contains(object.getClass())) {
+      try {
+        return (T) ((Cacheable) object).clone();
+      } catch (CloneNotSupportedException e) {
+        // fall back to serialization
+      }
+    }
+    return serializationCopy(object);
+  }
+
+  /**
+   * Creates a deep copy of the object through Java serialization.
+   *
+   * @param object the object to copy
+   * @return the deserialized copy
+   * @throws IOException if the object is not entirely serializable
+   * @throws ClassNotFoundException if the object cannot be deserialized
+   */
+  @SuppressWarnings("unchecked")
+  public static <T extends Serializable> T serializationCopy(final T object) throws IOException, ClassNotFoundException {
+    ReusableByteArrayOutputStream buffer = BUFFER.get();
+    buffer.reset();
+    try {
+      try (ObjectOutputStream oos = new ObjectOutputStream(buffer)) {
+        oos.writeObject(object);
+      }
+      try (ObjectInputStream ois = new ObjectInputStream(buffer.toInputStream())) {
+        return (T) ois.readObject();
+      }
+    } finally {
+      if (buffer.capacity() > MAX_REUSED_BUFFER_SIZE) {
+        BUFFER.remove();
+      }
+    }
+  }
+
+  private static boolean isImmutable(final Object object) {
+    return IMMUTABLE_CLASSES.contains(object.getClass()) || object instanceof Enum;
+  }
+
+  /**
+   * Gives access to the written bytes without copying them.
+   */
+  private static final class ReusableByteArrayOutputStream extends ByteArrayOutputStream {
+
+    ReusableByteArrayOutputStream() {
+      super(1024);
+    }
+
+    ByteArrayInputStream toInputStream() {
+      return new ByteArrayInputStream(buf, 0, count);
+    }
+
+    int capacity() {
+      return buf.length;
+    }
+  }
+}
@@ -30,7 +30,11 @@ import org.springframework.jms.UncategorizedJmsException;
 import cern.c2mon.server.common.republisher.Publisher;
 import cern.c2mon.server.common.republisher.RepublisherImpl;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -46,6 +50,8 @@ public class RepublisherImplTest {
   //mocks
   private Publisher<Object> publisher;
 
+  private Publisher<String> stringPublisher;
+
   //class to test
   private RepublisherImpl<Object> republisher;
 
@@ -171,6 +177,7 @@ public class RepublisherImplTest {
 
     //Thread.sleep(2000);
     latch.await();
+    waitForRemoval();
 
     assertEquals(11, republisher.getNumberFailedPublications());
     assertEquals(0, republisher.getSizeUnpublishedList());
@@ -212,6 +219,7 @@ public class RepublisherImplTest {
 
     // Thread.sleep(2000);
     latch.await();
+    waitForRemoval();
 
     assertEquals(11 + 6 + 1, republisher.getNumberFailedPublications());
     assertEquals(0, republisher.getSizeUnpublishedList());
@@ -312,4 +320,210 @@ public class RepublisherImplTest {
   }
 
 
+  /**
+   * Events with the same key are coalesced: only the latest is re-published.
+   * @throws InterruptedException
+   */
+  @Test
+  public void testLatestEventWins() throws InterruptedException {
+    RepublisherImpl<String> keyedRepublisher = createKeyedRepublisher();
+    keyedRepublisher.start();
+
+    //only the latest event of key "a" is re-published
+    stringPublisher.publish("a2");
+    stringPublisher.publish("b1");
+
+    control.replay();
+
+    keyedRepublisher.publicationFailed("a1");
+    keyedRepublisher.publicationFailed("b1");
+    keyedRepublisher.publicationFailed("a2");
+    assertEquals(2, keyedRepublisher.getSizeUnpublishedList());
+    assertTrue(keyedRepublisher.getOldestUnpublishedAge() >= 0);
+
+    waitForRemoval(keyedRepublisher);
+
+    assertEquals(3, keyedRepublisher.getNumberFailedPublications());
+    assertEquals(0, keyedRepublisher.getSizeUnpublishedList());
+    assertEquals(0, keyedRepublisher.getOldestUnpublishedAge());
+
+    control.verify();
+    keyedRepublisher.stop();
+  }
+
+  /**
+   * When the list is full, the oldest events are discarded.
+   * @throws InterruptedException
+   */
+  @Test
+  public void testBoundedList() throws InterruptedException {
+    RepublisherImpl<String> keyedRepublisher = createKeyedRepublisher();
+    keyedRepublisher.setMaxSize(2, Republisher.OverflowPolicy.DROP_OLDEST);
+    keyedRepublisher.start();
+
+    stringPublisher.publish("b1");
+    stringPublisher.publish("c1");
+
+    control.replay();
+
+    keyedRepublisher.publicationFailed("a1");
+    keyedRepublisher.publicationFailed("b1");
+    keyedRepublisher.publicationFailed("c1");
+    assertEquals(2, keyedRepublisher.getSizeUnpublishedList());
+    assertEquals(1, keyedRepublisher.getNumberDroppedEvents());
+
+    waitForRemoval(keyedRepublisher);
+
+    assertEquals(0, keyedRepublisher.getSizeUnpublishedList());
+    control.verify();
+    keyedRepublisher.stop();
+  }
+
+  /**
+   * The delay doubles after each failed round: with a 100ms delay and 5 failures,
+   * the attempts take at least 100 + 200 + 400 + 800 + 800 ms.
+   * @throws InterruptedException
+   */
+  @Test
+  public void testBackoff() throws InterruptedException {
+    republisher.setMaxRepublicationDelay(800);
+    republisher.start();
+
+    Object publishedObject = new Object();
+    CountDownLatch latch = new CountDownLatch(6);
+
+    publisher.publish(publishedObject);
+    EasyMock.expectLastCall().andAnswer(() -> { latch.countDown(); throw new UncategorizedJmsException(""); }).times(5);
+    publisher.publish(publishedObject);
+    EasyMock.expectLastCall().andAnswer(() -> { latch.countDown(); return null; });
+
+    control.replay();
+
+    long start = System.currentTimeMillis();
+    republisher.publicationFailed(publishedObject);
+    latch.await();
+
+    assertTrue(System.currentTimeMillis() - start >= 2300);
+    control.verify();
+  }
+
+  /**
+   * A successful publication discards the waiting event of the same key.
+   */
+  @Test
+  public void testPublicationSucceeded() {
+    RepublisherImpl<String> keyedRepublisher = createKeyedRepublisher();
+    keyedRepublisher.setRepublicationDelay(60000);
+    keyedRepublisher.start();
+
+    control.replay();
+
+    keyedRepublisher.publicationFailed("a1");
+    keyedRepublisher.publicationFailed("b1");
+    keyedRepublisher.publicationSucceeded("a2");
+    assertEquals(1, keyedRepublisher.getSizeUnpublishedList());
+
+    keyedRepublisher.publicationSucceeded("c1");
+    assertEquals(1, keyedRepublisher.getSizeUnpublishedList());
+
+    keyedRepublisher.publicationSucceeded("b2");
+    assertEquals(0, keyedRepublisher.getSizeUnpublishedList());
+
+    control.verify();
+    keyedRepublisher.stop();
+  }
+
+  /**
+   * A successful publication of an older event keeps the newer waiting event.
+   */
+  @Test
+  public void testOlderPublicationKeepsNewerEvent() {
+    RepublisherImpl<String> keyedRepublisher = createKeyedRepublisher();
+    keyedRepublisher.setRepublicationDelay(60000);
+    keyedRepublisher.start();
+
+    control.replay();
+
+    keyedRepublisher.publicationFailed("a2");
+    keyedRepublisher.publicationSucceeded("a1");
+    assertEquals(1, keyedRepublisher.getSizeUnpublishedList());
+    keyedRepublisher.publicationSucceeded("a2");
+    assertEquals(0, keyedRepublisher.getSizeUnpublishedList());
+
+    control.verify();
+    keyedRepublisher.stop();
+  }
+
+  /**
+   * During a round, a newer failure of a key being re-published replaces the
+   * event for the next round, and a newer successful publication of a key
+   * taken in the batch prevents the re-publication of its stale event.
+   * @throws InterruptedException
+   */
+  @Test
+  public void testRoundInterleavedWithNewerEvents() throws InterruptedException {
+    RepublisherImpl<String> keyedRepublisher = createKeyedRepublisher();
+    keyedRepublisher.start();
+    CountDownLatch done = new CountDownLatch(1);
+    List<String> published = new CopyOnWriteArrayList<>();
+
+    // while a1 is re-published, a2 fails and b2 is published
+    stringPublisher.publish("a1");
+    EasyMock.expectLastCall().andAnswer(() -> {
+      published.add("a1");
+      keyedRepublisher.publicationFailed("a2");
+      keyedRepublisher.publicationSucceeded("b2");
+      return null;
+    });
+    stringPublisher.publish("b1");
+    EasyMock.expectLastCall().andAnswer(() -> {
+      published.add("b1");
+      return null;
+    }).anyTimes();
+    stringPublisher.publish("a2");
+    EasyMock.expectLastCall().andAnswer(() -> {
+      published.add("a2");
+      done.countDown();
+      return null;
+    });
+
+    control.replay();
+
+    keyedRepublisher.publicationFailed("a1");
+    keyedRepublisher.publicationFailed("b1");
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    waitForRemoval(keyedRepublisher);
+    // b1 is stale: only a2 is re-published, in the next round
+    assertEquals(Arrays.asList("a1", "a2"), published);
+    assertEquals(0, keyedRepublisher.getSizeUnpublishedList());
+
+    control.verify();
+    keyedRepublisher.stop();
+  }
+
+  /**
+   * The latch is counted down within the publish call, so the event may not be
+   * removed from the list yet.
+   */
+  private void waitForRemoval() throws InterruptedException {
+    waitForRemoval(republisher);
+  }
+
+  private static void waitForRemoval(final Republisher<?> republisher) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 1000;
+    while (republisher.getSizeUnpublishedList() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private RepublisherImpl<String> createKeyedRepublisher() {
+    stringPublisher = control.createMock(Publisher.class);
+    RepublisherImpl<String> keyedRepublisher = new RepublisherImpl<String>(stringPublisher, "event-name", event -> event.substring(0, 1),
+        event -> Long.parseLong(event.substring(1)));
+    keyedRepublisher.setRepublicationDelay(100);
+    return keyedRepublisher;
+  }
+
 }
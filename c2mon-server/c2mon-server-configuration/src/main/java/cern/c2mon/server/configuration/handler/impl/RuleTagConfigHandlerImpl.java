@@ -75,11 +75,13 @@ public class RuleTagConfigHandlerImpl implements RuleTagConfigHandler {
   public void removeRuleTag(final Long id, final ConfigurationElementReport elementReport) {
     ruleTagConfigTransacted.doRemoveRuleTag(id, elementReport);
     ruleTagCache.remove(id); //will be skipped if rollback exception thrown in do method
+    ruleEvaluator.ruleConfigurationChanged();
   }
 
   @Override
   public void createRuleTag(ConfigurationElement element) throws IllegalAccessException {
     ruleTagConfigTransacted.doCreateRuleTag(element);
+    ruleEvaluator.ruleConfigurationChanged();
     ruleEvaluator.evaluateRule(element.getEntityId());
     if (log.isTraceEnabled()) {
       log.trace("createRuleTag - Notifying Configuration update listeners");
@@ -91,6 +93,7 @@ public class RuleTagConfigHandlerImpl implements RuleTagConfigHandler {
   public void updateRuleTag(Long id, Properties elementProperties) throws IllegalAccessException {
 	  try {
 		  ruleTagConfigTransacted.doUpdateRuleTag(id, elementProperties);
+		  ruleEvaluator.ruleConfigurationChanged();
 		  ruleEvaluator.evaluateRule(id);
 		  if (log.isTraceEnabled()) {
 			  log.trace("updateRuleTag - Notifying Configuration update listeners");
@@ -100,6 +103,7 @@ public class RuleTagConfigHandlerImpl implements RuleTagConfigHandler {
 		  log.error("Rolling back Rule update in cache");
 		  ruleTagCache.remove(id);
 		  ruleTagCache.loadFromDb(id);
+		  ruleEvaluator.ruleConfigurationChanged();
 		  throw e;
 	  }
   }
@@ -75,6 +75,26 @@ public class DaqProperties {
       
       /** Set the TagUpdater's ThreadPoolTaskExecutor keep-alive seconds */
       int keepAliveSeconds = 60;
+
+      /**
+       * Number of worker lanes applying the incoming tag values to the cache.
+       * The values are routed to the lanes by tag id, so the values of a tag
+       * are applied in order. With 0, the values are applied on the JMS threads
+       */
+      int numLanes = 0;
+
+      /**
+       * Number of values each lane can queue. When a lane is full, the JMS
+       * threads wait before consuming further messages
+       */
+      int laneQueueCapacity = 10000;
+
+      /**
+       * Maximum time in milliseconds a JMS thread waits for free space in a
+       * lane and, in transacted mode, for the lanes to apply the values of a
+       * message. The message is redelivered if the time is exceeded
+       */
+      long laneSubmitTimeout = 60000;
     }
 
     /**
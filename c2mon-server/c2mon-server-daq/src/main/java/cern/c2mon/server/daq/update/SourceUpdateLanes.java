@@ -0,0 +1,258 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.server.daq.update;
+
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import cern.c2mon.shared.common.datatag.SourceDataTagValue;
+
+/**
+ * Worker lanes applying the incoming source values to the cache. The values
+ * are routed to the lanes by tag id, so the values of a given tag are
+ * always applied by the same lane, in the order they were received.
+ *
+ * <p>Each lane has a bounded queue. If the queue of a lane is full, the
+ * JMS thread submitting the values waits for free space, which slows down
+ * the consumption of the DAQ update queues (backpressure). The waits are
+ * bounded, and no values are accepted once the shutdown was requested, so
+ * that the JMS threads are never blocked by lanes that no longer run.
+ */
+@Slf4j
+class SourceUpdateLanes {
+
+  /** The number of milliseconds a lane waits between checking for shutdown requests */
+  private static final long POLL_TIMEOUT = 1000;
+
+  /** Applies a single value to the cache */
+  private final Consumer<SourceDataTagValue> handler;
+
+  private final Lane[] lanes;
+
+  private final ExecutorService executor;
+
+  /** Maximum time in milliseconds a submitter waits for free space or for the completion */
+  private final long submitTimeout;
+
+  /** Number of times a JMS thread had to wait for a full lane */
+  private final AtomicLong backpressureCount = new AtomicLong();
+
+  private volatile boolean shutdownRequestMade = false;
+
+  /**
+   * @param handler applies a single value to the cache
+   * @param nbLanes the number of lanes (each running on its own thread)
+   * @param queueCapacity the number of values each lane can queue
+   * @param submitTimeout maximum time in milliseconds a submitter waits for free space or for the completion
+   */
+  SourceUpdateLanes(final Consumer<SourceDataTagValue> handler, final int nbLanes, final int queueCapacity,
+                    final long submitTimeout) {
+    this.handler = handler;
+    this.submitTimeout = submitTimeout;
+    this.lanes = new Lane[Math.max(1, nbLanes)];
+    this.executor = Executors.newFixedThreadPool(lanes.length, new CustomizableThreadFactory("DaqUpdateLane-"));
+    for (int i = 0; i < lanes.length; i++) {
+      lanes[i] = new Lane(Math.max(1, queueCapacity));
+      executor.submit(lanes[i]);
+    }
+  }
+
+  /**
+   * Routes the values to their lanes.
+   *
+   * @param values the values to apply
+   * @param waitForCompletion if true, only returns once all values have been applied
+   * @throws InterruptedException if interrupted while waiting for free space in a lane or for the completion
+   * @throws TimeoutException if a lane has no free space or the values are not applied within the submit timeout
+   * @throws RejectedExecutionException if the shutdown of the lanes has been requested
+   */
+  void submit(final Collection<SourceDataTagValue> values, final boolean waitForCompletion)
+      throws InterruptedException, TimeoutException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(submitTimeout);
+    CountDownLatch done = waitForCompletion ? new CountDownLatch(values.size()) : null;
+    for (SourceDataTagValue value : values) {
+      checkNotShutdown();
+      Lane lane = laneOf(value.getId());
+      LaneTask task = new LaneTask(value, done);
+      if (!lane.queue.offer(task)) {
+        backpressureCount.incrementAndGet();
+        offer(lane, task, deadline);
+      }
+    }
+    if (done == null) {
+      // values queued after the lanes were emptied for the shutdown are never applied
+      checkNotShutdown();
+    } else if (!done.await(remaining(deadline), TimeUnit.NANOSECONDS)) {
+      throw new TimeoutException(done.getCount() + " values not applied by the update lanes within " + submitTimeout + " ms");
+    }
+  }
+
+  /**
+   * Waits for free space in the lane, checking regularly for shutdown requests.
+   */
+  private void offer(final Lane lane, final LaneTask task, final long deadline) throws InterruptedException, TimeoutException {
+    while (!lane.queue.offer(task, Math.min(remaining(deadline), TimeUnit.MILLISECONDS.toNanos(POLL_TIMEOUT)), TimeUnit.NANOSECONDS)) {
+      checkNotShutdown();
+      if (remaining(deadline) <= 0) {
+        throw new TimeoutException("No free space in update lane within " + submitTimeout + " ms");
+      }
+    }
+  }
+
+  private void checkNotShutdown() {
+    if (shutdownRequestMade) {
+      throw new RejectedExecutionException("The update lanes are shut down");
+    }
+  }
+
+  private static long remaining(final long deadline) {
+    return Math.max(0, deadline - System.nanoTime());
+  }
+
+  private Lane laneOf(final Long tagId) {
+    int hash = tagId.hashCode();
+    hash ^= hash >>> 16;
+    return lanes[(hash & Integer.MAX_VALUE) % lanes.length];
+  }
+
+  /**
+   * Applies the queued values, then stops the lanes.
+   */
+  void shutdown() {
+    shutdownRequestMade = true;
+    executor.shutdown();
+    try {
+      executor.awaitTermination(POLL_TIMEOUT * 10, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  int getNumberOfLanes() {
+    return lanes.length;
+  }
+
+  /**
+   * @return the number of values queued in each lane
+   */
+  int[] getQueueSizes() {
+    int[] sizes = new int[lanes.length];
+    for (int i = 0; i < lanes.length; i++) {
+      sizes[i] = lanes[i].queue.size();
+    }
+    return sizes;
+  }
+
+  /**
+   * @return the number of values applied by each lane
+   */
+  long[] getProcessedCounts() {
+    long[] counts = new long[lanes.length];
+    for (int i = 0; i < lanes.length; i++) {
+      counts[i] = lanes[i].processedCount.get();
+    }
+    return counts;
+  }
+
+  /**
+   * @return for each lane, how long (in ms) the oldest queued value has been waiting
+   */
+  long[] getLags() {
+    long now = System.currentTimeMillis();
+    long[] lags = new long[lanes.length];
+    for (int i = 0; i < lanes.length; i++) {
+      LaneTask oldest = lanes[i].queue.peek();
+      lags[i] = oldest == null ? 0 : Math.max(0, now - oldest.enqueueTime);
+    }
+    return lags;
+  }
+
+  long getBackpressureCount() {
+    return backpressureCount.get();
+  }
+
+  private static final class LaneTask {
+
+    private final SourceDataTagValue value;
+
+    /** Counted down once the value is applied, if the submitter waits for it */
+    private final CountDownLatch done;
+
+    private final long enqueueTime = System.currentTimeMillis();
+
+    private LaneTask(final SourceDataTagValue value, final CountDownLatch done) {
+      this.value = value;
+      this.done = done;
+    }
+  }
+
+  private final class Lane implements Runnable {
+
+    private final BlockingQueue<LaneTask> queue;
+
+    private final AtomicLong processedCount = new AtomicLong();
+
+    private Lane(final int queueCapacity) {
+      this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    @Override
+    public void run() {
+      while (!shutdownRequestMade) {
+        try {
+          LaneTask task = queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+          if (task != null) {
+            apply(task);
+          }
+        } catch (InterruptedException e) {
+          log.warn("DAQ update lane interrupted.", e);
+        }
+      }
+
+      // empty the queue before shutting down
+      LaneTask task;
+      while ((task = queue.poll()) != null) {
+        apply(task);
+      }
+    }
+
+    private void apply(final LaneTask task) {
+      try {
+        handler.accept(task.value);
+      } catch (Exception e) {
+        log.error("Exception caught while applying the update of tag #" + task.value.getId(), e);
+      } finally {
+        processedCount.incrementAndGet();
+        if (task.done != null) {
+          task.done.countDown();
+        }
+      }
+    }
+  }
+}
@@ -17,8 +17,13 @@
 package cern.c2mon.server.daq.update;
 
 import java.util.Collection;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.Session;
@@ -40,9 +45,14 @@ import cern.c2mon.server.cache.DataTagFacade;
 import cern.c2mon.server.cache.ProcessCache;
 import cern.c2mon.server.cache.ProcessFacade;
 import cern.c2mon.server.cache.exception.CacheElementNotFoundException;
+import cern.c2mon.server.cache.latency.LatencyRecorder;
+import cern.c2mon.server.cache.latency.LatencyRecorder.Category;
+import cern.c2mon.server.cache.latency.LatencyRecorder.Stage;
 import cern.c2mon.server.common.process.Process;
 import cern.c2mon.server.common.thread.Event;
+import cern.c2mon.server.daq.config.DaqProperties;
 import cern.c2mon.server.supervision.SupervisionManager;
+import cern.c2mon.shared.common.datatag.DataTagAddress;
 import cern.c2mon.shared.common.datatag.DataTagValueUpdate;
 import cern.c2mon.shared.common.datatag.SourceDataTagValue;
 import cern.c2mon.shared.daq.datatag.DataTagValueUpdateConverter;
@@ -102,6 +112,22 @@ public class SourceUpdateManagerImpl implements SourceUpdateManager, SessionAwar
 
   private final ServerProperties properties;
 
+  private final DaqProperties daqProperties;
+
+  /**
+   * Records the time from the DAQ to the reception of the updates.
+   */
+  private final LatencyRecorder latencyRecorder;
+
+  /**
+   * The worker lanes applying the values to the cache, null if
+   * the values are applied on the JMS threads.
+   */
+  private SourceUpdateLanes lanes;
+
+  /** Number of updates accepted without locking the process */
+  private final AtomicLong pikFastPathCount = new AtomicLong();
+
   /**
    * For management only. Number of JMS threads
    * currently active.
@@ -135,7 +161,9 @@ public class SourceUpdateManagerImpl implements SourceUpdateManager, SessionAwar
                                  final DataTagValueUpdateConverter dataTagValueUpdateConverter,
                                  final ProcessFacade processFacade,
                                  final ProcessCache processCache,
-                                 final ServerProperties properties) {
+                                 final ServerProperties properties,
+                                 final DaqProperties daqProperties,
+                                 final LatencyRecorder latencyRecorder) {
     super();
     this.dataTagFacade = dataTagFacade;
     this.controlTagFacade = controlTagFacade;
@@ -144,6 +172,31 @@ public class SourceUpdateManagerImpl implements SourceUpdateManager, SessionAwar
     this.processFacade = processFacade;
     this.processCache = processCache;
     this.properties = properties;
+    this.daqProperties = daqProperties;
+    this.latencyRecorder = latencyRecorder;
+  }
+
+  /**
+   * Starts the worker lanes, if configured.
+   */
+  @PostConstruct
+  public void init() {
+    DaqProperties.Jms.Update config = daqProperties.getJms().getUpdate();
+    if (config.getNumLanes() > 0) {
+      log.info("Applying incoming DAQ updates on {} lanes", config.getNumLanes());
+      lanes = new SourceUpdateLanes(this::processValue, config.getNumLanes(), config.getLaneQueueCapacity(),
+          config.getLaneSubmitTimeout());
+    }
+  }
+
+  /**
+   * Applies the values still queued in the lanes before shutting down.
+   */
+  @PreDestroy
+  public void shutdown() {
+    if (lanes != null) {
+      lanes.shutdown();
+    }
   }
 
   /**
@@ -165,16 +218,7 @@ public class SourceUpdateManagerImpl implements SourceUpdateManager, SessionAwar
       if (values != null ) {
 
         for(SourceDataTagValue sourceDataTagValue : values){
-
-          //if the incoming value is a control tag (i.e. alive or commFault)
-          if (sourceDataTagValue.isControlTag()) {
-            processControl(sourceDataTagValue);
-          } else {
-            //else is a normal DataTag update
-            processDataTag(sourceDataTagValue);
-          }
-          //log in file
-          sourceDataTagValue.log();
+          processValue(sourceDataTagValue);
         }
       }
     } finally {
@@ -197,14 +241,41 @@ public class SourceUpdateManagerImpl implements SourceUpdateManager, SessionAwar
     }
   }
 
+  /**
+   * Applies a single incoming value to the cache.
+   * @param sourceDataTagValue the incoming value
+   */
+  private void processValue(final SourceDataTagValue sourceDataTagValue) {
+    //if the incoming value is a control tag (i.e. alive or commFault)
+    if (sourceDataTagValue.isControlTag()) {
+      processControl(sourceDataTagValue);
+    } else {
+      //else is a normal DataTag update
+      processDataTag(sourceDataTagValue);
+    }
+    //log in file
+    sourceDataTagValue.log();
+  }
+
+  /**
+   * The values are applied on the JMS thread or, if configured, passed to the
+   * worker lanes. In transacted mode, the method only returns once the lanes
+   * have applied all values of the message, so that the message is still only
+   * acknowledged once the cache is updated.
+   */
   @Override
   public void onMessage(final Message message, final Session session) throws JMSException {
     try {
       DataTagValueUpdate update = (DataTagValueUpdate) converter.fromMessage(message);
+      recordReception(update);
 
       // We do the process PIK checking in order to accept or not the update
       if(this.checkProcessPIK(update)) {
-        processUpdates(update);
+        if (lanes != null && update.getValues() != null) {
+          submitToLanes(update);
+        } else {
+          processUpdates(update);
+        }
       }
       else {
         log.warn("Received update(s) for Process #" + update.getProcessId()
@@ -220,6 +291,42 @@ public class SourceUpdateManagerImpl implements SourceUpdateManager, SessionAwar
     }
   }
 
+  private void recordReception(final DataTagValueUpdate update) {
+    if (update.getValues() == null) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    for (SourceDataTagValue value : update.getValues()) {
+      if (value.getDaqTimestamp() != null) {
+        Category category = value.getPriority() == DataTagAddress.PRIORITY_HIGH ? Category.HIGH_PRIORITY : Category.LOW_PRIORITY;
+        latencyRecorder.record(Stage.DAQ_TO_SERVER, category, update.getProcessId(), now - value.getDaqTimestamp().getTime());
+      }
+    }
+  }
+
+  /**
+   * Throws a {@link JMSException}, so that the message is redelivered, if the
+   * lanes are shut down or do not accept or apply the values in time.
+   */
+  private void submitToLanes(final DataTagValueUpdate update) throws JMSException {
+    try {
+      lanes.submit(update.getValues(), daqProperties.getJms().getUpdate().isTransacted());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw toJMSException("Interrupted while passing the updates of process #" + update.getProcessId()
+          + " to the update lanes", e);
+    } catch (TimeoutException | RejectedExecutionException e) {
+      throw toJMSException("Unable to pass the updates of process #" + update.getProcessId()
+          + " to the update lanes: " + e.getMessage(), e);
+    }
+  }
+
+  private static JMSException toJMSException(final String message, final Exception cause) {
+    JMSException jmsException = new JMSException(message);
+    jmsException.initCause(cause);
+    return jmsException;
+  }
+
   /**
    * Performs all operations needed on reception of a control tag. Currently very similar to
    * processDataTag method and uses the {@link DataTagFacade} to update the ControlTagCacheObject as it
@@ -268,14 +375,61 @@ public class SourceUpdateManagerImpl implements SourceUpdateManager, SessionAwar
     return activeUpdateThreads;
   }
 
+  @ManagedAttribute(description = "Number of lanes applying the incoming updates (0 if applied on the JMS threads)")
+  public int getNumberOfLanes() {
+    return lanes == null ? 0 : lanes.getNumberOfLanes();
+  }
+
+  @ManagedAttribute(description = "Number of values queued in each update lane")
+  public int[] getLaneQueueSizes() {
+    return lanes == null ? new int[0] : lanes.getQueueSizes();
+  }
+
+  @ManagedAttribute(description = "Number of values applied by each update lane")
+  public long[] getLaneProcessedCounts() {
+    return lanes == null ? new long[0] : lanes.getProcessedCounts();
+  }
+
+  @ManagedAttribute(description = "Age in ms of the oldest value queued in each update lane")
+  public long[] getLaneLags() {
+    return lanes == null ? new long[0] : lanes.getLags();
+  }
+
+  @ManagedAttribute(description = "Number of times a JMS thread had to wait for space in a full update lane")
+  public long getLaneBackpressureCount() {
+    return lanes == null ? 0 : lanes.getBackpressureCount();
+  }
+
+  @ManagedAttribute(description = "Number of updates whose process PIK was checked without locking the process")
+  public long getPikFastPathCount() {
+    return pikFastPathCount.get();
+  }
+
   /**
    * Function to check all possible process PIK scenarios
    *
+   * <p>Once a DAQ is connected, the PIK registered in the server matches the
+   * one of its updates. This case is checked without locking the process; the
+   * write lock is only needed when the PIK is missing or wrong.
+   *
    * @param dataTagValueUpdate Update with all information
    * @return {@link #IGNORE_UPDATE} if PIK registered in server but no PIK or wrong PIK sent
    *         {@link #ACCEPT_UPDATE} in any other case
    */
   private Boolean checkProcessPIK(final DataTagValueUpdate dataTagValueUpdate) {
+    if (dataTagValueUpdate.getProcessPIK() != null) {
+      try {
+        Long registeredPIK = this.processCache.get(dataTagValueUpdate.getProcessId()).getProcessPIK();
+        if (dataTagValueUpdate.getProcessPIK().equals(registeredPIK)) {
+          pikFastPathCount.incrementAndGet();
+          return ACCEPT_UPDATE;
+        }
+      } catch (CacheElementNotFoundException cacheEx) {
+        log.warn("Receive updates from unrecognized Process #" + dataTagValueUpdate.getProcessId() +  ": Ignoring the updates", cacheEx);
+        return ACCEPT_UPDATE;
+      }
+    }
+
     Process process;
 
     processCache.acquireWriteLockOnKey(dataTagValueUpdate.getProcessId());
@@ -0,0 +1,152 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.server.daq.update;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import cern.c2mon.shared.common.datatag.SourceDataTagValue;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit test of the SourceUpdateLanes class (so no Spring context).
+ */
+public class SourceUpdateLanesTest {
+
+  private static final int NB_TAGS = 20;
+
+  private static final int NB_UPDATES = 200;
+
+  @Test
+  public void testValuesOfATagStayOrdered() throws Exception {
+    final Map<Long, List<Long>> values = new ConcurrentHashMap<>();
+    // small queues, so that the submitting thread also has to wait for free space
+    SourceUpdateLanes lanes = new SourceUpdateLanes(
+        value -> values.computeIfAbsent(value.getId(), id -> Collections.synchronizedList(new ArrayList<>())).add((Long) value.getValue()),
+        4, 8, 10000);
+
+    for (long i = 0; i < NB_UPDATES; i++) {
+      List<SourceDataTagValue> update = new ArrayList<>();
+      for (long id = 0; id < NB_TAGS; id++) {
+        update.add(createValue(id, i));
+      }
+      lanes.submit(update, false);
+    }
+    lanes.shutdown();
+
+    assertEquals(NB_TAGS, values.size());
+    for (List<Long> tagValues : values.values()) {
+      assertEquals(NB_UPDATES, tagValues.size());
+      for (int i = 0; i < NB_UPDATES; i++) {
+        assertEquals(Long.valueOf(i), tagValues.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void testSubmitWaitsForCompletion() throws Exception {
+    final AtomicInteger applied = new AtomicInteger();
+    SourceUpdateLanes lanes = new SourceUpdateLanes(value -> {
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      applied.incrementAndGet();
+    }, 2, 100, 10000);
+
+    List<SourceDataTagValue> update = new ArrayList<>();
+    for (long id = 0; id < NB_TAGS; id++) {
+      update.add(createValue(id, 0L));
+    }
+    lanes.submit(update, true);
+
+    assertEquals(NB_TAGS, applied.get());
+    long processed = 0;
+    for (long count : lanes.getProcessedCounts()) {
+      processed += count;
+    }
+    assertEquals(NB_TAGS, processed);
+    lanes.shutdown();
+  }
+
+  @Test
+  public void testFailingValueDoesNotBlockTheLane() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+    SourceUpdateLanes lanes = new SourceUpdateLanes(value -> {
+      if (value.getId() == 1L) {
+        throw new IllegalStateException("test exception");
+      }
+      latch.countDown();
+    }, 1, 10, 10000);
+
+    List<SourceDataTagValue> update = new ArrayList<>();
+    update.add(createValue(1L, 0L));
+    update.add(createValue(2L, 0L));
+    lanes.submit(update, true);
+
+    assertEquals(0, latch.getCount());
+    lanes.shutdown();
+  }
+
+  @Test(expected = RejectedExecutionException.class)
+  public void testSubmitAfterShutdownIsRejected() throws Exception {
+    SourceUpdateLanes lanes = new SourceUpdateLanes(value -> { }, 1, 10, 10000);
+    lanes.shutdown();
+
+    lanes.submit(Collections.singletonList(createValue(1L, 0L)), true);
+  }
+
+  @Test(expected = TimeoutException.class)
+  public void testSubmitToBlockedLaneTimesOut() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    SourceUpdateLanes lanes = new SourceUpdateLanes(value -> {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }, 1, 1, 200);
+
+    try {
+      List<SourceDataTagValue> update = new ArrayList<>();
+      for (long i = 0; i < 3; i++) {
+        update.add(createValue(1L, i));
+      }
+      lanes.submit(update, false);
+    } finally {
+      release.countDown();
+      lanes.shutdown();
+    }
+  }
+
+  private static SourceDataTagValue createValue(final Long id, final Long value) {
+    SourceDataTagValue sourceValue = new SourceDataTagValue(id, "TEST_TAG_" + id, false);
+    sourceValue.setValue(value);
+    return sourceValue;
+  }
+}
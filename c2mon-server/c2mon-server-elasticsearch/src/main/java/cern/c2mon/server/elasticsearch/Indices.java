@@ -18,16 +18,31 @@ import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.text.SimpleDateFormat;
+import java.util.Calendar;
 import java.util.Date;
-import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * Static utility singleton for working with Elasticsearch indices.
+ * <p>
+ * The indices known to exist are kept in a concurrent registry, so that
+ * resolving an existing index never blocks. Missing indices are created by
+ * a background thread, once per index, and the time series indices of the
+ * upcoming bucket are created ahead of time.
  *
  * @author Justin Lewis Salmon
  */
@@ -35,13 +50,28 @@ import java.util.concurrent.ExecutionException;
 @Component
 public class Indices {
 
+  private static final String TAG_INDEX = "-tag_";
+
+  private static final String ALARM_INDEX = "-alarm_";
+
+  private static final String SUPERVISION_INDEX = "-supervision_";
+
   @Getter
   private ElasticsearchClient client;
 
   @Getter
   private ElasticsearchProperties properties;
 
-  private final List<String> indexCache = new CopyOnWriteArrayList<>();
+  /** The indices known to exist */
+  private final Set<String> indexCache = ConcurrentHashMap.newKeySet();
+
+  /** The ongoing index creations, by index name */
+  private final Map<String, CompletableFuture<Boolean>> creations = new ConcurrentHashMap<>();
+
+  /** The index name of the last day for which a name was requested, by prefix */
+  private final Map<String, DayBucket> lastBuckets = new ConcurrentHashMap<>();
+
+  private ScheduledExecutorService executor;
 
   private static Indices self;
 
@@ -52,6 +82,35 @@ public class Indices {
     self = this;
   }
 
+  @PostConstruct
+  public void init() {
+    executor = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("EsIndexCreation-"));
+    if (properties.isEnabled() && properties.getIndexCreationLookahead() > 0) {
+      executor.scheduleWithFixedDelay(this::createUpcomingIndices, 1, 1, TimeUnit.MINUTES);
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Creates the time series indices which will be needed within the
+   * configured lookahead, so that indexing does not wait for them when the
+   * current bucket rolls over.
+   */
+  private void createUpcomingIndices() {
+    long upcoming = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(properties.getIndexCreationLookahead());
+    try {
+      createAsync(getIndexName(properties.getIndexPrefix() + TAG_INDEX, upcoming), "tag", MappingFactory::createTagMapping);
+      createAsync(getIndexName(properties.getIndexPrefix() + ALARM_INDEX, upcoming), "alarm", MappingFactory::createAlarmMapping);
+      createAsync(getIndexName(properties.getIndexPrefix() + SUPERVISION_INDEX, upcoming), "supervision", MappingFactory::createSupervisionMapping);
+    } catch (Exception e) {
+      log.warn("Error creating the upcoming indices", e);
+    }
+  }
+
   /**
    * Create a new index with an empty mapping.
    *
@@ -60,11 +119,13 @@ public class Indices {
    * @return true if the index was successfully created, false otherwise
    */
   public static boolean create(String indexName) {
-    return create(indexName, null, null);
+    return create(indexName, null, (String) null);
   }
 
   /**
-   * Create a new index with an initial mapping.
+   * Create a new index with an initial mapping, unless it is already known
+   * to exist. Concurrent calls for the same index wait for the same creation
+   * request, without blocking the indexing into other indices.
    *
    * @param indexName the name of the index to create
    * @param type      the mapping type
@@ -73,39 +134,85 @@ public class Indices {
    * @return true if the index was successfully created, false otherwise
    */
   public static boolean create(String indexName, String type, String mapping) {
-    synchronized (Indices.class) {
-      if (exists(indexName)) {
-        return true;
+    return create(indexName, type, () -> mapping);
+  }
+
+  /**
+   * Create a new index with an initial mapping, unless it is already known
+   * to exist. The mapping is only loaded if the index has to be created.
+   *
+   * @param indexName the name of the index to create
+   * @param type      the mapping type
+   * @param mapping   supplies the mapping source
+   *
+   * @return true if the index was successfully created, false otherwise
+   * @throws RuntimeException if the creation request failed
+   */
+  public static boolean create(String indexName, String type, Supplier<String> mapping) {
+    if (self.indexCache.contains(indexName)) {
+      return true;
+    }
+    try {
+      return self.createAsync(indexName, type, mapping).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
       }
+      throw new IllegalStateException("Error while creating index " + indexName, e.getCause());
+    }
+  }
 
-      CreateIndexRequestBuilder builder = self.client.getClient().admin().indices().prepareCreate(indexName);
-      builder.setSettings(Settings.builder()
-          .put("number_of_shards", self.properties.getShardsPerIndex())
-          .put("number_of_replicas", self.properties.getReplicasPerShard())
-          .build());
+  /**
+   * Requests the creation of an index by the background thread, unless it is
+   * already known to exist or being created.
+   *
+   * @return the creation result
+   */
+  private CompletableFuture<Boolean> createAsync(String indexName, String type, Supplier<String> mapping) {
+    if (indexCache.contains(indexName)) {
+      return CompletableFuture.completedFuture(true);
+    }
+    CompletableFuture<Boolean> creation = creations.computeIfAbsent(indexName,
+        name -> CompletableFuture.supplyAsync(() -> doCreate(name, type, mapping.get()), executor));
+    creation.whenComplete((created, e) -> creations.remove(indexName, creation));
+    return creation;
+  }
 
-      if (mapping != null) {
-        builder.addMapping(type, mapping, XContentType.JSON);
-      }
+  private boolean doCreate(String indexName, String type, String mapping) {
+    if (indexCache.contains(indexName)) {
+      return true;
+    }
 
-      log.debug("Creating new index with name {}", indexName);
-      boolean created;
+    CreateIndexRequestBuilder builder = client.getClient().admin().indices().prepareCreate(indexName);
+    builder.setSettings(Settings.builder()
+        .put("number_of_shards", properties.getShardsPerIndex())
+        .put("number_of_replicas", properties.getReplicasPerShard())
+        .build());
 
-      try {
-        CreateIndexResponse response = builder.get();
-        created = response.isAcknowledged();
-      } catch (ResourceAlreadyExistsException ex) {
-        created = true;
-      }
+    if (mapping != null) {
+      builder.addMapping(type, mapping, XContentType.JSON);
+    }
 
-      self.client.waitForYellowStatus();
+    log.debug("Creating new index with name {}", indexName);
+    boolean created;
 
-      if (created) {
-        self.indexCache.add(indexName);
-      }
+    try {
+      CreateIndexResponse response = builder.get();
+      created = response.isAcknowledged();
+    } catch (ResourceAlreadyExistsException ex) {
+      created = true;
+    }
+
+    client.waitForYellowStatus();
 
-      return created;
+    if (created) {
+      indexCache.add(indexName);
     }
+
+    return created;
   }
 
   /**
@@ -119,24 +226,23 @@ public class Indices {
    * @return true if the index exists, false otherwise
    */
   public static boolean exists(String indexName) {
-    synchronized (Indices.class) {
-      boolean exists = self.indexCache.contains(indexName);
-      if (!exists) {
-        self.client.waitForYellowStatus();
-        IndexMetaData indexMetaData = self.client.getClient().admin().cluster()
-            .state(Requests.clusterStateRequest())
-            .actionGet()
-            .getState()
-            .getMetaData()
-            .index(indexName);
-
-        if (indexMetaData != null) {
-          self.indexCache.add(indexName);
-          exists = true;
-        }
-      }
-      return exists;
+    if (self.indexCache.contains(indexName)) {
+      return true;
+    }
+
+    self.client.waitForYellowStatus();
+    IndexMetaData indexMetaData = self.client.getClient().admin().cluster()
+        .state(Requests.clusterStateRequest())
+        .actionGet()
+        .getState()
+        .getMetaData()
+        .index(indexName);
+
+    if (indexMetaData != null) {
+      self.indexCache.add(indexName);
+      return true;
     }
+    return false;
   }
 
   /**
@@ -147,19 +253,17 @@ public class Indices {
    * @return true if the request was acknowledged.
    */
   public static boolean delete(String indexName) {
-    synchronized (Indices.class) {
-      try {
-        DeleteIndexResponse response = self.client.getClient().admin().indices().delete(new DeleteIndexRequest(indexName)).get();
-        if (response.isAcknowledged()) {
-          self.indexCache.remove(indexName);
-          return true;
-        } else {
-          return false;
-        }
-      } catch (InterruptedException|ExecutionException e) {
-        log.error("Error while deleting index", e);
+    try {
+      DeleteIndexResponse response = self.client.getClient().admin().indices().delete(new DeleteIndexRequest(indexName)).get();
+      if (response.isAcknowledged()) {
+        self.indexCache.remove(indexName);
+        return true;
+      } else {
         return false;
       }
+    } catch (InterruptedException|ExecutionException e) {
+      log.error("Error while deleting index", e);
+      return false;
     }
   }
   /**
@@ -171,8 +275,8 @@ public class Indices {
    * @return the generated index name
    */
   public static String indexFor(TagDocument tag) {
-    String prefix = self.properties.getIndexPrefix() + "-tag_";
-    return getIndexName(prefix, (Long) tag.get("timestamp"));
+    String prefix = self.properties.getIndexPrefix() + TAG_INDEX;
+    return self.getIndexName(prefix, (Long) tag.get("timestamp"));
   }
 
   /**
@@ -195,8 +299,8 @@ public class Indices {
    * @return the generated index name
    */
   public static String indexFor(AlarmDocument alarm) {
-    String prefix = self.properties.getIndexPrefix() + "-alarm_";
-    return getIndexName(prefix, (Long) alarm.get("timestamp"));
+    String prefix = self.properties.getIndexPrefix() + ALARM_INDEX;
+    return self.getIndexName(prefix, (Long) alarm.get("timestamp"));
   }
 
   /**
@@ -208,21 +312,34 @@ public class Indices {
    * @return the generated index name
    */
   public static String indexFor(SupervisionEventDocument supervisionEvent) {
-    String prefix = self.properties.getIndexPrefix() + "-supervision_";
-    return getIndexName(prefix, (Long) supervisionEvent.get("timestamp"));
+    String prefix = self.properties.getIndexPrefix() + SUPERVISION_INDEX;
+    return self.getIndexName(prefix, (Long) supervisionEvent.get("timestamp"));
   }
 
   /**
    * Generate an index for the given prefix and timestamp, based on the current
    * time series indexing strategy.
+   * <p>
+   * The name is the same for a whole day with all strategies, so it is only
+   * formatted once per day and prefix.
    *
    * @param prefix    the index prefix
    * @param timestamp the timestamp which will be used to generate the index
    *
    * @return the generated index name
    */
-  private static String getIndexName(String prefix, long timestamp) {
-    String indexType = self.properties.getIndexType();
+  private String getIndexName(String prefix, long timestamp) {
+    String indexType = properties.getIndexType();
+    DayBucket bucket = lastBuckets.get(prefix);
+
+    if (bucket == null || !bucket.contains(indexType, timestamp)) {
+      bucket = new DayBucket(indexType, timestamp, prefix + formatBucket(indexType, timestamp));
+      lastBuckets.put(prefix, bucket);
+    }
+    return bucket.indexName;
+  }
+
+  private static String formatBucket(String indexType, long timestamp) {
     String dateFormat;
 
     switch (indexType.toLowerCase()) {
@@ -238,10 +355,43 @@ public class Indices {
         break;
     }
 
-    return prefix + new SimpleDateFormat(dateFormat).format(new Date(timestamp));
+    return new SimpleDateFormat(dateFormat).format(new Date(timestamp));
   }
 
   static ElasticsearchProperties getProperties() {
     return self.properties;
   }
+
+  /**
+   * The index name of a day (in the default time zone).
+   */
+  private static final class DayBucket {
+
+    private final String indexType;
+
+    private final long start;
+
+    private final long end;
+
+    private final String indexName;
+
+    private DayBucket(String indexType, long timestamp, String indexName) {
+      this.indexType = indexType;
+      this.indexName = indexName;
+
+      Calendar calendar = Calendar.getInstance();
+      calendar.setTimeInMillis(timestamp);
+      calendar.set(Calendar.HOUR_OF_DAY, 0);
+      calendar.set(Calendar.MINUTE, 0);
+      calendar.set(Calendar.SECOND, 0);
+      calendar.set(Calendar.MILLISECOND, 0);
+      this.start = calendar.getTimeInMillis();
+      calendar.add(Calendar.DAY_OF_MONTH, 1);
+      this.end = calendar.getTimeInMillis();
+    }
+
+    private boolean contains(String indexType, long timestamp) {
+      return timestamp >= start && timestamp < end && this.indexType.equals(indexType);
+    }
+  }
 }
@@ -76,8 +76,8 @@ public class AlarmDocumentIndexer implements IDBPersistenceHandler<AlarmDocument
   private String getOrCreateIndex(AlarmDocument alarm) {
     String index = Indices.indexFor(alarm);
 
-    if (!Indices.exists(index)) {
-      Indices.create(index, "alarm", MappingFactory.createAlarmMapping());
+    if (!Indices.create(index, "alarm", MappingFactory::createAlarmMapping)) {
+      throw new IllegalStateException("Index " + index + " could not be created");
     }
 
     return index;
@@ -1,9 +1,23 @@
 package cern.c2mon.server.elasticsearch.bulk;
 
+import java.util.List;
+import java.util.function.Consumer;
+
 import org.elasticsearch.action.index.IndexRequest;
 
 public interface BulkProcessorProxy {
   void add(IndexRequest request);
 
+  /**
+   * Sends the pending requests and waits for the bulk operations in progress.
+   * Only needed on shutdown, the requests are otherwise sent once a bulk is
+   * full or the flush interval has elapsed.
+   */
   void flush();
+
+  /**
+   * @param failureHandler receives the requests which could not be indexed,
+   *                       after all retries
+   */
+  void setFailureHandler(Consumer<List<IndexRequest>> failureHandler);
 }
@@ -1,5 +1,8 @@
 package cern.c2mon.server.elasticsearch.bulk;
 
+import java.util.List;
+import java.util.function.Consumer;
+
 import org.elasticsearch.action.index.IndexRequest;
 
 public class BulkProcessorProxyDummyImpl implements BulkProcessorProxy {
@@ -12,4 +15,9 @@ public class BulkProcessorProxyDummyImpl implements BulkProcessorProxy {
   public void flush() {
 
   }
+
+  @Override
+  public void setFailureHandler(Consumer<List<IndexRequest>> failureHandler) {
+
+  }
 }
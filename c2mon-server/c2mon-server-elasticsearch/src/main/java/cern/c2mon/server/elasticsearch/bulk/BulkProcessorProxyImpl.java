@@ -1,67 +1,438 @@
 package cern.c2mon.server.elasticsearch.bulk;
 
 import lombok.extern.slf4j.Slf4j;
-import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.common.unit.ByteSizeUnit;
-import org.elasticsearch.common.unit.ByteSizeValue;
-import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.stereotype.Component;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.util.Assert;
 
 import cern.c2mon.server.elasticsearch.client.ElasticsearchClient;
 import cern.c2mon.server.elasticsearch.config.ElasticsearchProperties;
 
-import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
- * Wrapper around {@link BulkProcessor}. If a bulk operation fails, this class
- * will throw a {@link RuntimeException}.
+ * Groups the index requests into bulk operations, adapting the bulk size and
+ * the number of concurrent bulk operations to the response times of the
+ * cluster.
+ * <p>
+ * Both are reduced when a bulk takes longer than the latency target or when
+ * the cluster rejects requests, and increased again while full bulks are
+ * fast. Only the items of a bulk rejected by the cluster or failing with a
+ * server error are retried, with an exponential backoff. The items still
+ * failing after the last retry are passed to the failure handler, e.g. to be
+ * written to the fallback file, as are the items failing with any other
+ * error (e.g. a blocked index). Only the documents refused as invalid (400
+ * Bad Request, e.g. a mapping error) are dropped, since they would never be
+ * indexed.
  *
  * @author Justin Lewis Salmon
  */
 @Slf4j
-public class BulkProcessorProxyImpl implements BulkProcessor.Listener, BulkProcessorProxy {
+@ManagedResource(objectName = "cern.c2mon:name=bulkProcessorProxy")
+public class BulkProcessorProxyImpl implements BulkProcessorProxy {
 
-  private final BulkProcessor bulkProcessor;
+  /** Interval in milliseconds at which the flush interval and the retries are checked */
+  private static final long TICK = 100;
+
+  private final ElasticsearchClient client;
+
+  private final int minBulkActions;
+
+  private final int maxBulkActions;
+
+  private final long maxBulkBytes;
+
+  /** Maximum number of concurrent bulk operations (0 to execute them synchronously) */
+  private final int maxConcurrency;
+
+  private final long flushInterval;
+
+  private final long latencyTarget;
+
+  private final int maxRetries;
+
+  private final long retryBackoff;
+
+  /** Guards the pending items and the number of bulk operations in progress */
+  private final Object lock = new Object();
+
+  private List<BulkItem> pending = new ArrayList<>();
+
+  private long pendingBytes;
+
+  private long pendingSince;
+
+  private int inFlight;
+
+  private volatile int bulkActions;
+
+  private volatile int concurrency;
+
+  private volatile long lastBulkDuration;
+
+  /** The failed items waiting for their next attempt */
+  private final Queue<BulkItem> retries = new ConcurrentLinkedQueue<>();
+
+  private final AtomicLong retriedCount = new AtomicLong();
+
+  private final AtomicLong failedCount = new AtomicLong();
+
+  private volatile Consumer<List<IndexRequest>> failureHandler =
+      requests -> log.error("Dropping {} requests which could not be indexed", requests.size());
+
+  private final ScheduledExecutorService scheduler;
+
+  private volatile boolean closed = false;
 
   @Autowired
   public BulkProcessorProxyImpl(final ElasticsearchClient client, final ElasticsearchProperties properties) {
-    this.bulkProcessor = BulkProcessor.builder(client.getClient(), this)
-          .setBulkActions(properties.getBulkActions())
-          .setBulkSize(new ByteSizeValue(properties.getBulkSize(), ByteSizeUnit.MB))
-          .setFlushInterval(TimeValue.timeValueSeconds(properties.getBulkFlushInterval()))
-          .setConcurrentRequests(properties.getConcurrentRequests())
-          .build();
+    this.client = client;
+    this.maxBulkActions = Math.max(1, properties.getBulkActions());
+    this.minBulkActions = Math.max(1, Math.min(properties.getMinBulkActions(), maxBulkActions));
+    this.maxBulkBytes = ByteSizeUnit.MB.toBytes(properties.getBulkSize());
+    this.maxConcurrency = Math.max(0, properties.getConcurrentRequests());
+    this.flushInterval = TimeUnit.SECONDS.toMillis(properties.getBulkFlushInterval());
+    this.latencyTarget = properties.getBulkLatencyTarget();
+    this.maxRetries = properties.getBulkMaxRetries();
+    this.retryBackoff = properties.getBulkRetryBackoff();
+    this.bulkActions = maxBulkActions;
+    this.concurrency = Math.max(1, maxConcurrency);
+
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("EsBulkFlush-"));
+    this.scheduler.scheduleWithFixedDelay(this::tick, TICK, TICK, TimeUnit.MILLISECONDS);
   }
 
   @Override
   public void add(IndexRequest request) {
     Assert.notNull(request, "IndexRequest must not be null!");
-    bulkProcessor.add(request);
+    List<BulkItem> bulk = enqueue(new BulkItem(request));
+    if (bulk != null) {
+      execute(bulk);
+    }
   }
 
   @Override
   public void flush() {
-    bulkProcessor.flush();
+    List<BulkItem> bulk;
+    synchronized (lock) {
+      bulk = takePending();
+    }
+    if (!bulk.isEmpty()) {
+      execute(bulk);
+    }
+    synchronized (lock) {
+      while (inFlight > 0) {
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
   }
 
   @Override
-  public void beforeBulk(long executionId, BulkRequest request) {
+  public void setFailureHandler(Consumer<List<IndexRequest>> failureHandler) {
+    this.failureHandler = failureHandler;
+  }
+
+  /**
+   * Sends the pending requests and passes the items waiting for a retry to
+   * the failure handler.
+   */
+  @PreDestroy
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    scheduler.shutdown();
+    flush();
+
+    List<BulkItem> remaining = new ArrayList<>();
+    BulkItem item;
+    while ((item = retries.poll()) != null) {
+      remaining.add(item);
+    }
+    fail(remaining);
+
+    try {
+      scheduler.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @return the items to send, if the pending items make a full bulk
+   */
+  private List<BulkItem> enqueue(BulkItem item) {
+    synchronized (lock) {
+      if (pending.isEmpty()) {
+        pendingSince = System.currentTimeMillis();
+      }
+      pending.add(item);
+      pendingBytes += item.size();
+      if (pending.size() >= bulkActions || pendingBytes >= maxBulkBytes) {
+        return takePending();
+      }
+      return null;
+    }
+  }
+
+  private List<BulkItem> takePending() {
+    List<BulkItem> bulk = pending;
+    pending = new ArrayList<>();
+    pendingBytes = 0;
+    return bulk;
+  }
+
+  /**
+   * Sends the pending items once the flush interval has elapsed, and puts the
+   * failed items back once their backoff has elapsed.
+   */
+  private void tick() {
+    try {
+      long now = System.currentTimeMillis();
+      Iterator<BulkItem> iterator = retries.iterator();
+      while (iterator.hasNext()) {
+        BulkItem item = iterator.next();
+        if (item.retryTime <= now) {
+          iterator.remove();
+          List<BulkItem> bulk = enqueue(item);
+          if (bulk != null) {
+            execute(bulk);
+          }
+        }
+      }
+
+      List<BulkItem> bulk = null;
+      synchronized (lock) {
+        if (!pending.isEmpty() && now - pendingSince >= flushInterval) {
+          bulk = takePending();
+        }
+      }
+      if (bulk != null) {
+        execute(bulk);
+      }
+    } catch (Exception e) {
+      log.error("Error sending the pending bulk requests", e);
+    }
+  }
+
+  /**
+   * Sends the items as one bulk, once fewer than the allowed number of bulk
+   * operations are in progress.
+   */
+  private void execute(List<BulkItem> items) {
+    BulkRequest request = new BulkRequest();
+    items.forEach(item -> request.add(item.request));
+
+    synchronized (lock) {
+      while (inFlight >= concurrency) {
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          retry(items);
+          return;
+        }
+      }
+      inFlight++;
+    }
+
     log.debug("Going to execute new bulk operation composed of {} actions", request.numberOfActions());
+    long start = System.currentTimeMillis();
+
+    if (maxConcurrency == 0) {
+      try {
+        afterBulk(items, client.getClient().bulk(request).actionGet(), System.currentTimeMillis() - start);
+      } catch (Exception e) {
+        afterBulk(items, e, System.currentTimeMillis() - start);
+      }
+      return;
+    }
+
+    try {
+      client.getClient().bulk(request, new ActionListener<BulkResponse>() {
+        @Override
+        public void onResponse(BulkResponse response) {
+          afterBulk(items, response, System.currentTimeMillis() - start);
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+          afterBulk(items, e, System.currentTimeMillis() - start);
+        }
+      });
+    } catch (Exception e) {
+      afterBulk(items, e, System.currentTimeMillis() - start);
+    }
   }
 
-  @Override
-  public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
-    log.debug("Executed bulk operation composed of {} actions", request.numberOfActions());
+  private void afterBulk(List<BulkItem> items, BulkResponse response, long duration) {
+    List<BulkItem> failed = new ArrayList<>();
+    List<BulkItem> refused = new ArrayList<>();
+    boolean rejected = false;
+
+    if (response.hasFailures()) {
+      for (BulkItemResponse itemResponse : response.getItems()) {
+        if (!itemResponse.isFailed()) {
+          continue;
+        }
+        RestStatus status = itemResponse.getFailure().getStatus();
+        if (status == RestStatus.TOO_MANY_REQUESTS || status.getStatus() >= 500) {
+          rejected |= status == RestStatus.TOO_MANY_REQUESTS;
+          failed.add(items.get(itemResponse.getItemId()));
+        } else if (status == RestStatus.BAD_REQUEST) {
+          // the document itself is refused (e.g. mapper_parsing_exception), it would fail again
+          log.warn("Document #{} was refused: {}", itemResponse.getId(), itemResponse.getFailureMessage());
+        } else {
+          // e.g. cluster_block_exception: retrying soon would not help, but the document is valid
+          log.warn("Document #{} could not be indexed: {}", itemResponse.getId(), itemResponse.getFailureMessage());
+          refused.add(items.get(itemResponse.getItemId()));
+        }
+      }
+    }
+
+    log.debug("Executed bulk operation composed of {} actions in {}ms ({} to retry, {} failed)",
+        items.size(), duration, failed.size(), refused.size());
+    endBulk(items.size(), duration, rejected);
+    retry(failed);
+    fail(refused);
   }
 
-  @Override
-  public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
-    log.warn("Error executing bulk operation", failure);
-    throw new RuntimeException(failure);
+  private void afterBulk(List<BulkItem> items, Exception failure, long duration) {
+    log.warn("Error executing bulk operation composed of {} actions", items.size(), failure);
+    endBulk(items.size(), duration, ExceptionsHelper.unwrapCause(failure) instanceof EsRejectedExecutionException);
+    retry(items);
+  }
+
+  /**
+   * Adapts the bulk size and concurrency to the duration of the last bulk,
+   * similarly to the cache persistence batches.
+   */
+  private void endBulk(int size, long duration, boolean rejected) {
+    synchronized (lock) {
+      inFlight--;
+      lastBulkDuration = duration;
+
+      if (rejected || duration > latencyTarget) {
+        bulkActions = Math.max(minBulkActions, bulkActions / 2);
+        concurrency = Math.max(1, concurrency - 1);
+        log.debug("Reduced bulk size to {} actions and concurrency to {}", bulkActions, concurrency);
+      } else if (size >= bulkActions && duration < latencyTarget / 2) {
+        bulkActions = Math.min(maxBulkActions, bulkActions + Math.max(1, bulkActions / 4));
+        concurrency = Math.min(Math.max(1, maxConcurrency), concurrency + 1);
+      }
+      lock.notifyAll();
+    }
+  }
+
+  private void retry(List<BulkItem> items) {
+    List<BulkItem> exhausted = new ArrayList<>();
+    long now = System.currentTimeMillis();
+
+    for (BulkItem item : items) {
+      if (closed || item.attempts >= maxRetries) {
+        exhausted.add(item);
+      } else {
+        item.retryTime = now + (retryBackoff << item.attempts);
+        item.attempts++;
+        retries.add(item);
+        retriedCount.incrementAndGet();
+      }
+    }
+    fail(exhausted);
+  }
+
+  private void fail(List<BulkItem> items) {
+    if (items.isEmpty()) {
+      return;
+    }
+    failedCount.addAndGet(items.size());
+    List<IndexRequest> requests = items.stream().map(item -> item.request).collect(Collectors.toList());
+    try {
+      failureHandler.accept(requests);
+    } catch (Exception e) {
+      log.error("Error handling {} requests which could not be indexed", requests.size(), e);
+    }
+  }
+
+  @ManagedAttribute(description = "Current maximum number of actions per bulk")
+  public int getBulkActions() {
+    return bulkActions;
+  }
+
+  @ManagedAttribute(description = "Current maximum number of concurrent bulk operations")
+  public int getConcurrency() {
+    return concurrency;
+  }
+
+  @ManagedAttribute(description = "Time in milliseconds the last bulk operation took")
+  public long getLastBulkDuration() {
+    return lastBulkDuration;
+  }
+
+  @ManagedAttribute(description = "Number of requests waiting for the next bulk")
+  public int getPendingRequests() {
+    synchronized (lock) {
+      return pending.size();
+    }
+  }
+
+  @ManagedAttribute(description = "Number of failed requests waiting to be retried")
+  public int getWaitingRetries() {
+    return retries.size();
+  }
+
+  @ManagedAttribute(description = "Total number of request retries")
+  public long getRetriedCount() {
+    return retriedCount.get();
+  }
+
+  @ManagedAttribute(description = "Total number of requests passed to the failure handler after all retries")
+  public long getFailedCount() {
+    return failedCount.get();
+  }
+
+  private static final class BulkItem {
+
+    private final IndexRequest request;
+
+    private int attempts;
+
+    private volatile long retryTime;
+
+    private BulkItem(IndexRequest request) {
+      this.request = request;
+    }
+
+    private long size() {
+      return request.source() == null ? 0 : request.source().length();
+    }
   }
 }
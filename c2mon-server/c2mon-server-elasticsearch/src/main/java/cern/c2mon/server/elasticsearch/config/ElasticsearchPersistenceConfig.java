@@ -10,6 +10,7 @@ import cern.c2mon.pmanager.persistence.impl.PersistenceManager;
 import cern.c2mon.server.elasticsearch.alarm.AlarmDocument;
 import cern.c2mon.server.elasticsearch.supervision.SupervisionEventDocument;
 import cern.c2mon.server.elasticsearch.tag.TagDocument;
+import cern.c2mon.server.elasticsearch.tag.TagDocumentIndexer;
 
 /**
  * Beans needed for fallback-aware persistence.
@@ -23,9 +24,13 @@ public class ElasticsearchPersistenceConfig {
 
   @Bean
   public IPersistenceManager<TagDocument> tagDocumentPersistenceManager(
-      final IDBPersistenceHandler<TagDocument> esTagIndexer, final IAlarmListener fallbackActivationListener) {
+      final TagDocumentIndexer esTagIndexer, final IAlarmListener fallbackActivationListener) {
     String fallbackFile = properties.getTagFallbackFile();
-    return new PersistenceManager<>(esTagIndexer, fallbackFile, fallbackActivationListener, new TagDocument());
+    PersistenceManager<TagDocument> persistenceManager =
+        new PersistenceManager<>(esTagIndexer, fallbackFile, fallbackActivationListener, new TagDocument());
+    // the tag documents which failed asynchronously are written to the fallback by the indexer itself
+    esTagIndexer.setFallbackStore(persistenceManager::storeInFallback);
+    return persistenceManager;
   }
 
   @Bean
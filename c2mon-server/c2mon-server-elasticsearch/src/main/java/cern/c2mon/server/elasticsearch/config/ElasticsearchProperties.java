@@ -78,6 +78,12 @@ public class ElasticsearchProperties {
    */
   private String indexType = "M";
 
+  /**
+   * Number of minutes before a new time series bucket starts at which its
+   * indices are created in the background (0 to disable)
+   */
+  private int indexCreationLookahead = 60;
+
   /**
    * Number of shards per index
    */
@@ -89,23 +95,51 @@ public class ElasticsearchProperties {
   private int replicasPerShard = 1;
 
   /**
-   * Maximum number of actions to accumulate before sending a batch of tags
+   * Maximum number of actions to accumulate before sending a batch of tags.
+   * The batch size is reduced down to minBulkActions when the cluster is
+   * slow or rejects requests.
    */
   private int bulkActions = 5600;
 
+  /**
+   * Minimum number of actions per batch of tags
+   */
+  private int minBulkActions = 100;
+
+  /**
+   * Time in milliseconds a batch of tags should take to be indexed. The
+   * batch size and the number of concurrent requests are reduced when a
+   * batch takes longer, and increased when a full batch takes less than
+   * half of it
+   */
+  private int bulkLatencyTarget = 1000;
+
+  /**
+   * Maximum number of times a tag update rejected by the cluster is
+   * retried before being written to the fallback file
+   */
+  private int bulkMaxRetries = 3;
+
+  /**
+   * Delay in milliseconds before the first retry of a rejected tag update,
+   * doubled for each further retry
+   */
+  private int bulkRetryBackoff = 500;
+
   /**
    * Maximum size for a batch of tags before sending it
    */
   private int bulkSize = 1;
 
   /**
-   * Flush interval in seconds for a batch of tags
+   * Flush interval in seconds for a batch of tags, i.e. the longest time a
+   * tag update waits before being sent
    */
   private int bulkFlushInterval = 5;
 
   /**
    * Maximum number of concurrent requests allowed to be executed at the
-   * same time
+   * same time (0 to execute them synchronously)
    */
   private int concurrentRequests = 1;
 
@@ -80,8 +80,8 @@ public class SupervisionEventDocumentIndexer implements IDBPersistenceHandler<Su
   private String getOrCreateIndex(SupervisionEventDocument supervisionEvent) {
     String index = Indices.indexFor(supervisionEvent);
 
-    if (!Indices.exists(index)) {
-      Indices.create(index, "supervision", MappingFactory.createSupervisionMapping());
+    if (!Indices.create(index, "supervision", MappingFactory::createSupervisionMapping)) {
+      throw new IllegalStateException("Index " + index + " could not be created");
     }
 
     return index;
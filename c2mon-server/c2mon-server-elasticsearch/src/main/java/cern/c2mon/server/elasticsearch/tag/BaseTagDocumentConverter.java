@@ -25,9 +25,9 @@ import java.util.stream.Collectors;
 @Slf4j
 public class BaseTagDocumentConverter<T extends Map<String, Object>> implements Converter<Tag, Optional<T>> {
 
-    private final ProcessCache processCache;
-    private final EquipmentCache equipmentCache;
-    private final SubEquipmentCache subEquipmentCache;
+    protected final ProcessCache processCache;
+    protected final EquipmentCache equipmentCache;
+    protected final SubEquipmentCache subEquipmentCache;
     private final Supplier<T> containerSupplier;
 
     public BaseTagDocumentConverter(final ProcessCache processCache, final EquipmentCache equipmentCache, final SubEquipmentCache subEquipmentCache, final Supplier<T> containerSupplier) {
@@ -17,6 +17,7 @@
 package cern.c2mon.server.elasticsearch.tag;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -30,6 +31,11 @@ import cern.c2mon.server.common.tag.Tag;
  * serialization to JSON objects suitable for indexing as Elasticsearch
  * documents.
  *
+ * <p>Documents created by the {@link TagDocumentConverter} are serialized
+ * when they are created. Their map only holds the fields needed for routing
+ * them ("id" and "timestamp"), the full document is given by
+ * {@link #toBytes()} and {@link #toString()}.
+ *
  * @author Alban Marguet
  * @author Justin Lewis Salmon
  */
@@ -37,6 +43,26 @@ public class TagDocument extends HashMap<String, Object> implements IFallback {
 
   private static final ObjectMapper mapper = new ObjectMapper();
 
+  /** The serialized document, if it was serialized on creation */
+  private final transient byte[] source;
+
+  public TagDocument() {
+    this.source = null;
+  }
+
+  /**
+   * Creates an already serialized document.
+   *
+   * @param id the tag id
+   * @param timestamp the tag timestamp
+   * @param source the JSON document
+   */
+  TagDocument(final Long id, final long timestamp, final byte[] source) {
+    super.put("id", id);
+    super.put("timestamp", timestamp);
+    this.source = source;
+  }
+
   @Override
   public Object put(String key, Object value) {
     if (key.equals("timestamp")) {
@@ -63,8 +89,21 @@ public class TagDocument extends HashMap<String, Object> implements IFallback {
     }
   }
 
+  /**
+   * @return the UTF-8 encoded JSON document
+   */
+  public byte[] toBytes() {
+    if (source != null) {
+      return source;
+    }
+    return toString().getBytes(StandardCharsets.UTF_8);
+  }
+
   @Override
   public String toString() {
+    if (source != null) {
+      return new String(source, StandardCharsets.UTF_8);
+    }
     try {
       return mapper.writeValueAsString(this);
     } catch (JsonProcessingException e) {
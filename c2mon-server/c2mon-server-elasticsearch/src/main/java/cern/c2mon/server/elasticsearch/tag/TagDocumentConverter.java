@@ -16,105 +16,213 @@
  *****************************************************************************/
 package cern.c2mon.server.elasticsearch.tag;
 
+import cern.c2mon.server.cache.C2monCacheListener;
 import cern.c2mon.server.cache.EquipmentCache;
 import cern.c2mon.server.cache.ProcessCache;
 import cern.c2mon.server.cache.SubEquipmentCache;
+import cern.c2mon.server.common.alarm.Alarm;
 import cern.c2mon.server.common.datatag.DataTag;
+import cern.c2mon.server.common.listener.ConfigurationEventListener;
+import cern.c2mon.server.common.supervision.Supervised;
 import cern.c2mon.server.common.tag.Tag;
+import cern.c2mon.shared.client.configuration.ConfigConstants.Action;
 import cern.c2mon.shared.common.datatag.DataTagQuality;
 import cern.c2mon.shared.common.datatag.TagQualityStatus;
 import cern.c2mon.shared.common.type.TypeConverter;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
  * Converts {@link Tag} instances to {@link TagDocument} instances.
  *
+ * <p>The static part of the document of each tag is serialized once and kept
+ * as a {@link TagDocumentTemplate}, until the tag is reconfigured. For each
+ * update, only the value, quality and timestamps are serialized after it.
+ *
  * @author Alban Marguet
  * @author Justin Lewis Salmon
  */
 @Slf4j
 @Component
-public class TagDocumentConverter extends BaseTagDocumentConverter<TagDocument> {
+public class TagDocumentConverter extends BaseTagDocumentConverter<TagDocument> implements ConfigurationEventListener {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    /** Buffers bigger than this (in bytes) are not kept for the next document */
+    private static final int MAX_REUSED_BUFFER_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<ByteArrayOutputStream> buffers = ThreadLocal.withInitial(ByteArrayOutputStream::new);
+
+    /** The document templates, by tag id */
+    private final Map<Long, TagDocumentTemplate> templates = new ConcurrentHashMap<>();
+
+    private final NameListener processNames = new NameListener();
+    private final NameListener equipmentNames = new NameListener();
+    private final NameListener subEquipmentNames = new NameListener();
 
     @Autowired
     public TagDocumentConverter(final ProcessCache processCache, final EquipmentCache equipmentCache, final SubEquipmentCache subEquipmentCache) {
         super(processCache, equipmentCache, subEquipmentCache, TagDocument::new);
     }
 
+    /**
+     * Registers for the process and equipment updates, as their names are
+     * part of the templates.
+     */
+    @PostConstruct
+    public void init() {
+        processCache.registerSynchronousListener(processNames);
+        equipmentCache.registerSynchronousListener(equipmentNames);
+        subEquipmentCache.registerSynchronousListener(subEquipmentNames);
+    }
+
     @Override
     public Optional<TagDocument> convert(final Tag tag) {
         try {
-            return super.convert(tag)
-                    .map(tagDocument -> fillAdditionalData(tagDocument, tag));
+            return Optional.of(write(tag, getTemplate(tag)));
         } catch (Exception e) {
             log.error("Error occurred during conversion of Tag #{} ({}) to Elasticsearch document. Unable to store update to Elasticsearch!", tag.getId(), tag.getName(), e);
         }
         return Optional.empty();
     }
 
-    private TagDocument fillAdditionalData(TagDocument tagDocument, Tag tag) {
-        tagDocument.put("timestamp", tag.getTimestamp().getTime());
-        tagDocument.put("quality", getQuality(tag));
-        tagDocument.put("valueDescription", tag.getValueDescription());
+    @Override
+    public void onConfigurationEvent(final Tag tag, final Action action) {
+        templates.remove(tag.getId());
+    }
+
+    @Override
+    public void onConfigurationEvent(final Alarm alarm, final Action action) {
+        // alarms are not part of the tag documents
+    }
+
+    /**
+     * @return the number of cached document templates
+     */
+    public int getTemplateCount() {
+        return templates.size();
+    }
+
+    private TagDocumentTemplate getTemplate(final Tag tag) throws IOException {
+        TagDocumentTemplate template = templates.get(tag.getId());
+        if (template == null || !template.matches(tag)) {
+            template = createTemplate(tag);
+            templates.put(tag.getId(), template);
+        }
+        return template;
+    }
+
+    private TagDocumentTemplate createTemplate(final Tag tag) throws IOException {
+        TagDocument document = super.convert(tag).orElseThrow(() -> new IllegalStateException("No document for tag #" + tag.getId()));
+        Map<String, Object> c2monMetadata = (Map<String, Object>) document.remove("c2mon");
+
+        processNames.watch(tag.getProcessIds(), c2monMetadata.get("process"));
+        equipmentNames.watch(tag.getEquipmentIds(), c2monMetadata.get("equipment"));
+        subEquipmentNames.watch(tag.getSubEquipmentIds(), c2monMetadata.get("subEquipment"));
+
+        return new TagDocumentTemplate(tag, members(document), members(c2monMetadata));
+    }
+
+    /**
+     * @return the serialized members of the given map, without the enclosing braces
+     */
+    private static String members(final Map<String, Object> map) throws IOException {
+        String json = mapper.writeValueAsString(map);
+        return json.substring(1, json.length() - 1);
+    }
+
+    /**
+     * Appends the per-update fields to the template, in a buffer reused by
+     * the calling thread.
+     */
+    private TagDocument write(final Tag tag, final TagDocumentTemplate template) throws IOException {
+        ByteArrayOutputStream buffer = buffers.get();
+        buffer.reset();
+
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(buffer)) {
+            generator.writeStartObject();
+            generator.writeRaw(template.getFields());
+            // the generator does not know about the raw fields
+            generator.writeRaw(',');
+            generator.writeNumberField("timestamp", tag.getTimestamp().getTime());
+            writeQuality(generator, tag);
+            generator.writeObjectField("valueDescription", tag.getValueDescription());
+            writeValue(generator, tag);
+
+            generator.writeObjectFieldStart("c2mon");
+            generator.writeRaw(template.getC2monFields());
+            generator.writeRaw(',');
+            generator.writeNumberField("serverTimestamp", tag.getCacheTimestamp().getTime());
+            if (tag instanceof DataTag) {
+                DataTag dataTag = (DataTag) tag;
+
+                if (dataTag.getDaqTimestamp() != null) {
+                    generator.writeNumberField("daqTimestamp", dataTag.getDaqTimestamp().getTime());
+                }
+
+                if (dataTag.getSourceTimestamp() != null) {
+                    generator.writeNumberField("sourceTimestamp", dataTag.getSourceTimestamp().getTime());
+                }
+            }
+            generator.writeEndObject();
+
+            generator.writeEndObject();
+        }
+
+        TagDocument document = new TagDocument(tag.getId(), tag.getTimestamp().getTime(), buffer.toByteArray());
+        if (buffer.size() > MAX_REUSED_BUFFER_SIZE) {
+            buffers.remove();
+        }
+        return document;
+    }
+
+    private void writeValue(final JsonGenerator generator, final Tag tag) throws IOException {
         Class<?> clazz = TypeConverter.getType(tag.getDataType());
         if (clazz == null) {
-            tagDocument.put("valueObject", tag.getValue());
+            generator.writeObjectField("valueObject", tag.getValue());
 
         } else if (Number.class.isAssignableFrom(clazz)) {
-            tagDocument.put("value", tag.getValue());
+            generator.writeObjectField("value", tag.getValue());
 
             if (Long.class.isAssignableFrom(clazz)) {
-                tagDocument.put("valueLong", tag.getValue());
+                generator.writeObjectField("valueLong", tag.getValue());
             }
         } else if (Boolean.class.isAssignableFrom(clazz)) {
-            tagDocument.put("valueBoolean", tag.getValue());
+            generator.writeObjectField("valueBoolean", tag.getValue());
 
             if (tag.getValue() != null) {
-                tagDocument.put("value", tag.getValue() != null ? 1 : 0);
+                generator.writeNumberField("value", tag.getValue() != null ? 1 : 0);
             }
         } else if (String.class.isAssignableFrom(clazz)) {
-            tagDocument.put("valueString", tag.getValue());
+            generator.writeObjectField("valueString", tag.getValue());
 
         } else {
-            tagDocument.put("valueObject", tag.getValue());
-        }
-        return tagDocument;
-    }
-
-    @Override
-    protected Map<String, Object> getC2monMetadata(Tag tag) {
-        Map<String, Object> map = super.getC2monMetadata(tag);
-        map.put("serverTimestamp", tag.getCacheTimestamp().getTime());
-
-        if (tag instanceof DataTag) {
-            DataTag dataTag = (DataTag) tag;
-
-            if (dataTag.getDaqTimestamp() != null) {
-                map.put("daqTimestamp", dataTag.getDaqTimestamp().getTime());
-            }
-
-            if (dataTag.getSourceTimestamp() != null) {
-                map.put("sourceTimestamp", dataTag.getSourceTimestamp().getTime());
-            }
+            generator.writeObjectField("valueObject", tag.getValue());
         }
-
-        return map;
     }
 
-    private Map<String, Object> getQuality(Tag tag) {
-        Map<String, Object> map = new HashMap<>();
+    private void writeQuality(final JsonGenerator generator, final Tag tag) throws IOException {
         DataTagQuality quality = tag.getDataTagQuality();
 
-        map.put("valid", quality.isValid());
-        map.put("status", calculateStatus(tag));
-        map.put("statusInfo", collectStatusInfo(quality));
-
-        return map;
+        generator.writeObjectFieldStart("quality");
+        generator.writeBooleanField("valid", quality.isValid());
+        generator.writeNumberField("status", calculateStatus(tag));
+        generator.writeArrayFieldStart("statusInfo");
+        for (String statusInfo : collectStatusInfo(quality)) {
+            generator.writeString(statusInfo);
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
     }
 
     /**
@@ -166,4 +274,34 @@ public class TagDocumentConverter extends BaseTagDocumentConverter<TagDocument>
 
         return invalidQualityInfo;
     }
+
+    /**
+     * Drops all templates when a process or equipment used in them is
+     * renamed.
+     */
+    private final class NameListener implements C2monCacheListener<Supervised> {
+
+        /** The names used in the templates, by process/equipment id */
+        private final Map<Long, String> names = new ConcurrentHashMap<>();
+
+        private void watch(final Collection<Long> ids, final Object name) {
+            if (name != null && !ids.isEmpty()) {
+                names.put(ids.iterator().next(), name.toString());
+            }
+        }
+
+        @Override
+        public void notifyElementUpdated(final Supervised supervised) {
+            String name = names.get(supervised.getId());
+            if (name != null && !name.equals(supervised.getName())) {
+                log.info("{} #{} was renamed to {}, dropping the Elasticsearch tag document templates", supervised.getClass().getSimpleName(), supervised.getId(), supervised.getName());
+                names.clear();
+                templates.clear();
+            }
+        }
+
+        @Override
+        public void confirmStatus(final Supervised supervised) {
+        }
+    }
 }
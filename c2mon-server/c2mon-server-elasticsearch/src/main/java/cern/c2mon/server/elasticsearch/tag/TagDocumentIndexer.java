@@ -21,17 +21,41 @@ import cern.c2mon.pmanager.persistence.exception.IDBPersistenceException;
 import cern.c2mon.server.elasticsearch.Indices;
 import cern.c2mon.server.elasticsearch.MappingFactory;
 import cern.c2mon.server.elasticsearch.bulk.BulkProcessorProxy;
+import cern.c2mon.server.elasticsearch.client.ElasticsearchClient;
 import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * This class manages the fallback-aware indexing of {@link TagDocument}
  * instances to the Elasticsearch cluster.
+ * <p>
+ * The documents are indexed asynchronously by the {@link BulkProcessorProxy}.
+ * The documents it could not index are passed to the fallback store by a
+ * dedicated thread: the failure callbacks of the bulk processor run on the
+ * client threads, which must not wait for the fallback file, as the fallback
+ * recovery holds the fallback file while it indexes documents.
+ * <p>
+ * Once the bulk processor failed to index documents, the following batches
+ * (including the ones recovered from the fallback file) are indexed
+ * synchronously, so that the persistence manager sees the outage. The
+ * asynchronous indexing resumes after the first batch indexed successfully.
  *
  * @author Alban Marguet
  * @author Justin Lewis Salmon
@@ -42,9 +66,18 @@ public class TagDocumentIndexer implements IDBPersistenceHandler<TagDocument> {
 
   private final BulkProcessorProxy bulkProcessor;
 
+  private final ElasticsearchClient client;
+
+  /** Whether the bulk processor failed to index documents since the last successful batch */
+  private volatile boolean outage;
+
+  /** Writes the documents which could not be indexed to the fallback store */
+  private final ExecutorService fallbackWriter = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("EsTagFallbackWriter-"));
+
   @Autowired
-  public TagDocumentIndexer(BulkProcessorProxy bulkProcessor) {
+  public TagDocumentIndexer(BulkProcessorProxy bulkProcessor, ElasticsearchClient client) {
     this.bulkProcessor = bulkProcessor;
+    this.client = client;
   }
 
   @Override
@@ -54,34 +87,106 @@ public class TagDocumentIndexer implements IDBPersistenceHandler<TagDocument> {
 
   @Override
   public void storeData(List<TagDocument> tags) throws IDBPersistenceException {
+    if (outage) {
+      indexSynchronously(tags);
+      return;
+    }
     try {
       log.debug("Trying to send a batch of size {}", tags.size());
-      tags.forEach(this::indexTag);
+      tags.forEach(tag -> bulkProcessor.add(createIndexRequest(tag)));
+    } catch (Exception e) {
+      log.warn("Error indexing batch", e);
+      throw new IDBPersistenceException(e);
+    }
+  }
+
+  /**
+   * @param fallbackStore stores the documents which could not be indexed
+   */
+  public void setFallbackStore(Consumer<List<TagDocument>> fallbackStore) {
+    bulkProcessor.setFailureHandler(requests -> {
+      outage = true;
+      List<TagDocument> tags = requests.stream()
+          .map(request -> (TagDocument) new TagDocument().getObject(request.source().utf8ToString()))
+          .collect(Collectors.toList());
+      try {
+        fallbackWriter.execute(() -> fallbackStore.accept(tags));
+      } catch (RejectedExecutionException e) {
+        // the bulk processor passes its last failed documents on shutdown
+        fallbackStore.accept(tags);
+      }
+    });
+  }
 
-      bulkProcessor.flush();
+  /**
+   * Writes the failed documents still waiting to the fallback store.
+   */
+  @PreDestroy
+  public void close() {
+    fallbackWriter.shutdown();
+    try {
+      if (!fallbackWriter.awaitTermination(30, TimeUnit.SECONDS)) {
+        log.warn("Timeout while writing the failed tag documents to the fallback store");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @return whether the batches are indexed synchronously, because of a
+   *         failure of the bulk processor
+   */
+  public boolean isOutage() {
+    return outage;
+  }
+
+  /**
+   * Indexes the batch with a single bulk request, waiting for its response.
+   *
+   * @throws IDBPersistenceException if a document could not be indexed, with
+   *         the number of documents indexed before the first failure
+   */
+  private void indexSynchronously(List<TagDocument> tags) throws IDBPersistenceException {
+    BulkResponse response;
+    try {
+      log.debug("Indexing a batch of size {} synchronously", tags.size());
+      BulkRequestBuilder bulk = client.getClient().prepareBulk();
+      tags.forEach(tag -> bulk.add(createIndexRequest(tag)));
+      response = bulk.get();
     } catch (Exception e) {
       log.warn("Error indexing batch", e);
       throw new IDBPersistenceException(e);
     }
+
+    if (response.hasFailures()) {
+      int committed = 0;
+      for (BulkItemResponse item : response.getItems()) {
+        if (item.isFailed()) {
+          break;
+        }
+        committed++;
+      }
+      throw new IDBPersistenceException(response.buildFailureMessage(), committed);
+    }
+    outage = false;
   }
 
-  private void indexTag(TagDocument tag) {
+  private IndexRequest createIndexRequest(TagDocument tag) {
     String index = getOrCreateIndex(tag);
 
     log.trace("Indexing tag (#{}, index={}, type={})", tag.getId(), index, "tag");
 
-    IndexRequest indexNewTag = new IndexRequest(index, "tag")
-        .source(tag.toString())
+    return new IndexRequest(index, "tag")
+        .source(tag.toBytes(), XContentType.JSON)
         .routing(tag.getId());
-
-    bulkProcessor.add(indexNewTag);
   }
 
   private String getOrCreateIndex(TagDocument tag) {
     String index = Indices.indexFor(tag);
 
-    if (!Indices.exists(index)) {
-      Indices.create(index, "tag", MappingFactory.createTagMapping());
+    if (!Indices.create(index, "tag", MappingFactory::createTagMapping)) {
+      throw new IllegalStateException("Index " + index + " could not be created");
     }
 
     return index;
@@ -34,6 +34,8 @@ import org.springframework.stereotype.Component;
 import cern.c2mon.pmanager.persistence.IPersistenceManager;
 import cern.c2mon.server.cache.C2monBufferedCacheListener;
 import cern.c2mon.server.cache.CacheRegistrationService;
+import cern.c2mon.server.cache.latency.LatencyRecorder;
+import cern.c2mon.server.cache.latency.LatencyRecorder.Stage;
 import cern.c2mon.server.common.component.Lifecycle;
 import cern.c2mon.server.common.config.ServerConstants;
 import cern.c2mon.server.common.tag.Tag;
@@ -62,6 +64,9 @@ public class TagDocumentListener implements C2monBufferedCacheListener<Tag>, Sma
   @Autowired
   private TagDocumentConverter converter;
 
+  @Autowired
+  private LatencyRecorder latencyRecorder;
+
   private Lifecycle listenerContainer;
 
   private volatile boolean running = false;
@@ -93,6 +98,8 @@ public class TagDocumentListener implements C2monBufferedCacheListener<Tag>, Sma
         .collect(Collectors.toList());
 
     persistenceManager.storeData(tagDocuments);
+    long now = System.currentTimeMillis();
+    loggables.forEach(tag -> latencyRecorder.recordSinceCacheWrite(Stage.CACHE_TO_ELASTICSEARCH, tag, now));
   }
 
   @Override
@@ -0,0 +1,98 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.server.elasticsearch.tag;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import cern.c2mon.server.common.tag.Tag;
+
+/**
+ * The pre-serialized static part of the {@link TagDocument} of a tag, i.e.
+ * the fields which only change on reconfiguration (name, unit, metadata,
+ * process/equipment names...).
+ *
+ * <p>The fragments are JSON object members without the enclosing braces, so
+ * that the per-update fields can be appended to them.
+ *
+ * @see TagDocumentConverter
+ */
+final class TagDocumentTemplate {
+
+  /** The static top level fields */
+  private final String fields;
+
+  /** The static fields of the "c2mon" object */
+  private final String c2monFields;
+
+  private final String name;
+
+  private final String description;
+
+  private final String unit;
+
+  private final short mode;
+
+  private final String dataType;
+
+  private final Map<String, Object> metadata;
+
+  TagDocumentTemplate(final Tag tag, final String fields, final String c2monFields) {
+    this.fields = fields;
+    this.c2monFields = c2monFields;
+    this.name = tag.getName();
+    this.description = tag.getDescription();
+    this.unit = tag.getUnit();
+    this.mode = tag.getMode();
+    this.dataType = tag.getDataType();
+    this.metadata = new HashMap<>(metadataOf(tag));
+  }
+
+  String getFields() {
+    return fields;
+  }
+
+  String getC2monFields() {
+    return c2monFields;
+  }
+
+  /**
+   * Checks that the template was created from the current configuration of
+   * the given tag. The listeners may still pass tag copies taken before a
+   * reconfiguration, after the template was invalidated.
+   *
+   * @param tag the tag to check
+   * @return false if the template has to be created again
+   */
+  boolean matches(final Tag tag) {
+    return mode == tag.getMode()
+        && Objects.equals(name, tag.getName())
+        && Objects.equals(description, tag.getDescription())
+        && Objects.equals(unit, tag.getUnit())
+        && Objects.equals(dataType, tag.getDataType())
+        && metadata.equals(metadataOf(tag));
+  }
+
+  private static Map<String, Object> metadataOf(final Tag tag) {
+    if (tag.getMetadata() == null || tag.getMetadata().getMetadata() == null) {
+      return Collections.emptyMap();
+    }
+    return tag.getMetadata().getMetadata();
+  }
+}
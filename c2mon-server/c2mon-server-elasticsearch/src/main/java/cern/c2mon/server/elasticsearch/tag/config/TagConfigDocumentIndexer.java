@@ -62,8 +62,9 @@ public class TagConfigDocumentIndexer {
   }
 
   void indexTagConfig(final TagConfigDocument tag) {
-    if (!Indices.exists(configIndex)) {
-      Indices.create(configIndex, TYPE, MappingFactory.createTagConfigMapping());
+    if (!createConfigIndex()) {
+      log.error("Could not create the index {} for the config of tag #{}", configIndex, tag.getId());
+      return;
     }
 
     IndexRequest indexRequest = this.getIndexRequest(tag);
@@ -76,6 +77,18 @@ public class TagConfigDocumentIndexer {
     }
   }
 
+  /**
+   * @return whether the config index exists, or could be created
+   */
+  private boolean createConfigIndex() {
+    try {
+      return Indices.exists(configIndex) || Indices.create(configIndex, TYPE, MappingFactory.createTagConfigMapping());
+    } catch (Exception e) {
+      log.error("Error occurred while creating the index {}", configIndex, e);
+      return false;
+    }
+  }
+
   private IndexRequest getIndexRequest(final TagConfigDocument tag) {
     return new IndexRequest(configIndex, TYPE,
         String.valueOf(tag.getId())).source(tag.toString()).routing(tag.getId());
@@ -87,8 +100,9 @@ public class TagConfigDocumentIndexer {
    * @param tag the tag
    */
   void updateTagConfig(final TagConfigDocument tag) {
-    if (!Indices.exists(configIndex)) {
-      Indices.create(configIndex, TYPE, MappingFactory.createTagConfigMapping());
+    if (!createConfigIndex()) {
+      log.error("Could not create the index {} for the config of tag #{}", configIndex, tag.getId());
+      return;
     }
 
     UpdateRequest updateRequest = new UpdateRequest(configIndex, TYPE,
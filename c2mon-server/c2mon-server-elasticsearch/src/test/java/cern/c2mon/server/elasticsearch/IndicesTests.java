@@ -43,4 +43,19 @@ public class IndicesTests extends BaseElasticsearchIntegrationTest {
     String index = Indices.indexFor(document);
     assertEquals("c2mon-tag_2015-12-01", index);
   }
+
+  @Test
+  public void dailyIndexRollsOver() {
+    Indices.getProperties().setIndexType("D");
+
+    TagDocument document = new TagDocument();
+    document.put("timestamp", 1448928000000L);
+    assertEquals("c2mon-tag_2015-12-01", Indices.indexFor(document));
+
+    document.put("timestamp", 1448928000000L + 24 * 3600 * 1000);
+    assertEquals("c2mon-tag_2015-12-02", Indices.indexFor(document));
+
+    Indices.getProperties().setIndexType("M");
+    assertEquals("c2mon-tag_2015-12", Indices.indexFor(document));
+  }
 }
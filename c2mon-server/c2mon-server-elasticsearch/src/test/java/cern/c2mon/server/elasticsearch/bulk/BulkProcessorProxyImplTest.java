@@ -0,0 +1,184 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.server.elasticsearch.bulk;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.elasticsearch.ElasticsearchStatusException;
+
+import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.DocWriteRequest.OpType;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cern.c2mon.server.elasticsearch.client.ElasticsearchClient;
+import cern.c2mon.server.elasticsearch.config.ElasticsearchProperties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test of the BulkProcessorProxyImpl class, with a mocked client
+ * executing the bulk requests synchronously.
+ */
+public class BulkProcessorProxyImplTest {
+
+  private ElasticsearchProperties properties;
+
+  private ElasticsearchClient client;
+
+  /** The number of actions of each executed bulk */
+  private final List<Integer> bulkSizes = new CopyOnWriteArrayList<>();
+
+  private BulkProcessorProxyImpl bulkProcessor;
+
+  @Before
+  public void setUp() {
+    properties = new ElasticsearchProperties();
+    properties.setBulkActions(10);
+    properties.setMinBulkActions(2);
+    properties.setConcurrentRequests(0);
+    properties.setBulkFlushInterval(0);
+    properties.setBulkMaxRetries(2);
+    properties.setBulkRetryBackoff(10);
+    client = mock(ElasticsearchClient.class);
+  }
+
+  @After
+  public void tearDown() {
+    bulkProcessor.close();
+  }
+
+  @Test
+  public void testOnlyRejectedItemsAreRetried() throws InterruptedException {
+    // the first bulk has its first 5 items rejected, the next ones are accepted
+    mockBulkResponses(request -> bulkSizes.isEmpty() ? 5 : 0);
+    bulkProcessor = new BulkProcessorProxyImpl(client, properties);
+
+    addRequests(10);
+    waitForBulks(2);
+
+    assertEquals(Integer.valueOf(10), bulkSizes.get(0));
+    assertEquals(Integer.valueOf(5), bulkSizes.get(1));
+    assertEquals(5, bulkProcessor.getRetriedCount());
+    assertEquals(0, bulkProcessor.getFailedCount());
+    // the rejections reduced the bulk size
+    assertTrue(bulkProcessor.getBulkActions() < 10);
+  }
+
+  @Test
+  public void testItemsAreFailedAfterLastRetry() throws InterruptedException {
+    List<IndexRequest> failedRequests = new CopyOnWriteArrayList<>();
+    mockBulkResponses(BulkRequest::numberOfActions);
+    bulkProcessor = new BulkProcessorProxyImpl(client, properties);
+    bulkProcessor.setFailureHandler(failedRequests::addAll);
+
+    addRequests(3);
+    bulkProcessor.flush();
+    waitForBulks(3);
+    for (int i = 0; i < 100 && failedRequests.size() < 3; i++) {
+      Thread.sleep(20);
+    }
+
+    assertEquals(3, failedRequests.size());
+    assertEquals(3, bulkProcessor.getFailedCount());
+    assertEquals(2, bulkProcessor.getBulkActions());
+  }
+
+  @Test
+  public void testItemsAreHandledAccordingToTheirStatus() throws InterruptedException {
+    List<IndexRequest> failedRequests = new CopyOnWriteArrayList<>();
+    RestStatus[] statuses = {RestStatus.BAD_REQUEST, RestStatus.FORBIDDEN, RestStatus.BAD_GATEWAY};
+    mockBulkFailures((request, item) -> bulkSizes.isEmpty()
+        ? new ElasticsearchStatusException("failed", statuses[item]) : null);
+    bulkProcessor = new BulkProcessorProxyImpl(client, properties);
+    bulkProcessor.setFailureHandler(failedRequests::addAll);
+
+    addRequests(3);
+    bulkProcessor.flush();
+    waitForBulks(2);
+
+    // the invalid document is dropped, the blocked one goes to the fallback and the 502 is retried
+    assertEquals(Integer.valueOf(1), bulkSizes.get(1));
+    assertEquals(1, bulkProcessor.getRetriedCount());
+    assertEquals(1, bulkProcessor.getFailedCount());
+    assertEquals(1, failedRequests.size());
+    assertEquals("{\"id\":1}", failedRequests.get(0).source().utf8ToString());
+  }
+
+  /**
+   * @param rejections gives the number of items (from the first one) to reject for a bulk request
+   */
+  private void mockBulkResponses(Function<BulkRequest, Integer> rejections) {
+    mockBulkFailures((request, item) -> item < rejections.apply(request)
+        ? new EsRejectedExecutionException("queue full") : null);
+  }
+
+  /**
+   * @param failures gives the failure of an item of a bulk request, null if it is indexed
+   */
+  private void mockBulkFailures(BiFunction<BulkRequest, Integer, Exception> failures) {
+    Client esClient = mock(Client.class);
+    when(client.getClient()).thenReturn(esClient);
+    when(esClient.bulk(any(BulkRequest.class))).thenAnswer(invocation -> {
+      BulkRequest request = (BulkRequest) invocation.getArguments()[0];
+      BulkItemResponse[] items = new BulkItemResponse[request.numberOfActions()];
+      for (int i = 0; i < items.length; i++) {
+        Exception failure = failures.apply(request, i);
+        if (failure != null) {
+          items[i] = new BulkItemResponse(i, OpType.INDEX, new BulkItemResponse.Failure("index", "tag", null, failure));
+        } else {
+          items[i] = new BulkItemResponse(i, OpType.INDEX, (DocWriteResponse) null);
+        }
+      }
+      bulkSizes.add(request.numberOfActions());
+
+      ActionFuture<BulkResponse> future = mock(ActionFuture.class);
+      when(future.actionGet()).thenReturn(new BulkResponse(items, 1));
+      return future;
+    });
+  }
+
+  private void addRequests(int number) {
+    for (int i = 0; i < number; i++) {
+      bulkProcessor.add(new IndexRequest("index", "tag").source("{\"id\":" + i + "}", XContentType.JSON));
+    }
+  }
+
+  private void waitForBulks(int number) throws InterruptedException {
+    for (int i = 0; i < 100 && bulkSizes.size() < number; i++) {
+      Thread.sleep(20);
+    }
+    assertEquals(number, bulkSizes.size());
+  }
+}
@@ -17,9 +17,11 @@
 package cern.c2mon.server.elasticsearch.tag;
 
 import cern.c2mon.server.common.datatag.DataTag;
+import cern.c2mon.server.common.datatag.DataTagCacheObject;
 import cern.c2mon.server.common.equipment.EquipmentCacheObject;
 import cern.c2mon.server.common.process.ProcessCacheObject;
 import cern.c2mon.server.elasticsearch.util.EntityUtils;
+import cern.c2mon.shared.client.configuration.ConfigConstants.Action;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -32,6 +34,8 @@ import java.util.Optional;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -98,4 +102,37 @@ public class TagDocumentConverterTests extends BaseTagDocumentConverterTest{
 
     assertTrue("We expect the converter not to fail.", document.isPresent());
   }
+
+  @Test
+  public void templateIsReusedUntilReconfiguration() {
+    DataTagCacheObject tag = (DataTagCacheObject) EntityUtils.createDataTag();
+
+    converter.convert(tag);
+    tag.setValue(2L);
+    TagDocument document = converter.convert(tag).get();
+    assertEquals(1, converter.getTemplateCount());
+    verify(equipmentCache, times(1)).get(any());
+
+    document = (TagDocument) document.getObject(document.toString());
+    assertEquals(2, document.get("value"));
+    assertEquals("E_TEST", ((Map<String, Object>) document.get("c2mon")).get("equipment"));
+
+    converter.onConfigurationEvent(tag, Action.UPDATE);
+    assertEquals(0, converter.getTemplateCount());
+    converter.convert(tag);
+    verify(equipmentCache, times(2)).get(any());
+  }
+
+  @Test
+  public void templateIsRecreatedForChangedTag() {
+    DataTag tag = EntityUtils.createDataTag();
+    converter.convert(tag);
+
+    tag.getMetadata().addMetadata("building", "513");
+    TagDocument document = converter.convert(tag).get();
+
+    document = (TagDocument) document.getObject(document.toString());
+    assertEquals("513", ((Map<String, Object>) document.get("metadata")).get("building"));
+    verify(equipmentCache, times(2)).get(any());
+  }
 }
@@ -19,6 +19,7 @@ package cern.c2mon.server.elasticsearch.tag;
 import cern.c2mon.pmanager.persistence.exception.IDBPersistenceException;
 import cern.c2mon.server.common.datatag.DataTagCacheObject;
 import cern.c2mon.server.elasticsearch.Indices;
+import cern.c2mon.server.elasticsearch.bulk.BulkProcessorProxy;
 import cern.c2mon.server.elasticsearch.config.BaseElasticsearchIntegrationTest;
 import cern.c2mon.server.elasticsearch.junit.CachePopulationRule;
 import cern.c2mon.server.elasticsearch.util.EntityUtils;
@@ -37,8 +38,8 @@ import static org.junit.Assert.assertTrue;
  * @author Justin Lewis Salmon
  */
 @TestPropertySource(properties = {
-    // Setting the number of concurrent requests to 0 causes the flush
-    // operation of the bulk to be executed in a synchronous manner
+    // Setting the number of concurrent requests to 0 causes the bulk
+    // operations to be executed in a synchronous manner
     "c2mon.server.elasticsearch.concurrentRequests=0"
 })
 public class TagDocumentIndexerTests extends BaseElasticsearchIntegrationTest {
@@ -53,12 +54,17 @@ public class TagDocumentIndexerTests extends BaseElasticsearchIntegrationTest {
   @Autowired
   private TagDocumentConverter converter;
 
+  @Autowired
+  private BulkProcessorProxy bulkProcessor;
+
   @Test
   public void indexTags() throws IDBPersistenceException, InterruptedException {
     DataTagCacheObject tag = (DataTagCacheObject) EntityUtils.createDataTag();
 
     TagDocument document = converter.convert(tag).orElseThrow(() -> new IllegalArgumentException("TagDocument conversion failed"));
     indexer.storeData(document);
+    // the indexer does not wait for the bulk operation
+    bulkProcessor.flush();
 
     // Refresh the index to make sure the document is searchable
     String index = Indices.indexFor(document);
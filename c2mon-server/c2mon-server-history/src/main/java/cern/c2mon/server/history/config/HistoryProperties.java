@@ -30,6 +30,23 @@ public class HistoryProperties {
    */
   private String commandFallbackFile = "/tmp/command-fallback.txt";
 
+  /**
+   * Number of records committed at once when storing a collection in the history
+   */
+  private int recordsPerCommit = 500;
+
+  /**
+   * Number of tag records inserted by a single multi-row statement. Set to 1 to
+   * insert the records one by one
+   */
+  private int rowsPerStatement = 100;
+
+  /**
+   * Number of database connections used in parallel to store a large collection of
+   * tag records
+   */
+  private int writerThreads = 1;
+
   private Jdbc jdbc = new Jdbc();
 
   @Data
@@ -16,7 +16,15 @@
  *****************************************************************************/
 package cern.c2mon.server.history.dao;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
 
 import org.apache.ibatis.exceptions.PersistenceException;
 import org.apache.ibatis.session.ExecutorType;
@@ -24,16 +32,24 @@ import org.apache.ibatis.session.SqlSession;
 import org.apache.ibatis.session.SqlSessionFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 import cern.c2mon.pmanager.IDBPersistenceHandler;
 import cern.c2mon.pmanager.IFallback;
 import cern.c2mon.pmanager.persistence.exception.IDBPersistenceException;
+import cern.c2mon.server.history.mapper.BatchLoggerMapper;
 import cern.c2mon.server.history.mapper.LoggerMapper;
 
 /**
  * Common DAO implementation for objects that need storing in a history table using
  * the fallback mechanism.
  *
+ * <p>If the mapper is a {@link BatchLoggerMapper}, collections are inserted with
+ * multi-row statements. Large collections can also be split between several
+ * writer threads, each using its own connection. If one of them fails, only the
+ * records up to the first failed chunk are reported as committed, so records of
+ * later chunks may be stored twice once the fallback is recovered.
+ *
  * @author Mark Brightwell
  *
  * @param <T>
@@ -47,10 +63,28 @@ public class LoggerDAO<T extends IFallback> implements IDBPersistenceHandler<T>
   private static final Logger LOGGER = LoggerFactory.getLogger(LoggerDAO.class);
 
   /**
-   * Maximum number of statements that will be executed in each SQL batch
+   * Default maximum number of records that will be committed in each SQL batch
    **/
   private static final int RECORDS_PER_BATCH = 500;
 
+  /**
+   * Maximum number of records that will be committed in each SQL batch
+   */
+  private final int recordsPerCommit;
+
+  /**
+   * Number of records inserted by a single statement (if the mapper supports it)
+   */
+  private final int rowsPerStatement;
+
+  /**
+   * Threads storing the chunks of large collections in parallel, null if
+   * collections are stored on the calling thread only.
+   */
+  private final ExecutorService writers;
+
+  private final int writerThreads;
+
   /**
    * The iBatis factory used to acquire database sessions.
    */
@@ -82,7 +116,38 @@ public class LoggerDAO<T extends IFallback> implements IDBPersistenceHandler<T>
    * @throws ClassNotFoundException
    */
   public LoggerDAO(SqlSessionFactory sqlSessionFactory, String mapperInterface, String dbUrl) throws ClassNotFoundException {
+    this(sqlSessionFactory, mapperInterface, dbUrl, RECORDS_PER_BATCH, 1, 1);
+  }
+
+  /**
+   *
+   * @param sqlSessionFactory
+   * @param mapperInterface
+   *          the mapper used for the inserts
+   * @param dbUrl
+   *          only used for logging error messages
+   * @param recordsPerCommit
+   *          the number of records committed at once
+   * @param rowsPerStatement
+   *          the number of records inserted by one statement, if the mapper is a
+   *          {@link BatchLoggerMapper}
+   * @param writerThreads
+   *          the number of connections used in parallel to store large collections
+   * @throws ClassNotFoundException
+   */
+  public LoggerDAO(SqlSessionFactory sqlSessionFactory, String mapperInterface, String dbUrl,
+                   int recordsPerCommit, int rowsPerStatement, int writerThreads) throws ClassNotFoundException {
     super();
+    this.recordsPerCommit = Math.max(1, recordsPerCommit);
+    this.rowsPerStatement = Math.max(1, Math.min(rowsPerStatement, this.recordsPerCommit));
+    this.writerThreads = Math.max(1, writerThreads);
+    if (this.writerThreads > 1) {
+      CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("HistoryWriter-");
+      threadFactory.setDaemon(true);
+      this.writers = Executors.newFixedThreadPool(this.writerThreads, threadFactory);
+    } else {
+      this.writers = null;
+    }
     this.sqlSessionFactory = sqlSessionFactory;
     Class<?> tmpInterface = Class.forName(mapperInterface);
     if (LoggerMapper.class.isAssignableFrom(tmpInterface)) {
@@ -110,23 +175,84 @@ public class LoggerDAO<T extends IFallback> implements IDBPersistenceHandler<T>
   @SuppressWarnings("unchecked")
   // add generics to persistence manager
   public final void storeData(final List data) throws IDBPersistenceException {
+    int size = data.size();
+    if (writers == null || size < 2 * recordsPerCommit) {
+      storeChunk(data);
+      return;
+    }
+
+    // split into contiguous chunks, so that the committed records can still be counted from the start
+    int chunkSize = (size + writerThreads - 1) / writerThreads;
+    List<Future<?>> results = new ArrayList<>(writerThreads);
+    List<Integer> chunkSizes = new ArrayList<>(writerThreads);
+    for (int from = 0; from < size; from += chunkSize) {
+      final List chunk = data.subList(from, Math.min(size, from + chunkSize));
+      chunkSizes.add(chunk.size());
+      results.add(writers.submit(() -> {
+        storeChunk(chunk);
+        return null;
+      }));
+    }
+
+    int commited = 0;
+    IDBPersistenceException failure = null;
+    for (int i = 0; i < results.size(); i++) {
+      try {
+        results.get(i).get();
+        if (failure == null) {
+          commited += chunkSizes.get(i);
+        }
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          if (e.getCause() instanceof IDBPersistenceException) {
+            failure = (IDBPersistenceException) e.getCause();
+            commited += failure.getCommited();
+          } else {
+            failure = new IDBPersistenceException(String.valueOf(e.getCause()), 0);
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        if (failure == null) {
+          failure = new IDBPersistenceException("Interrupted while storing " + size + " records", 0);
+        }
+      }
+    }
+    if (failure != null) {
+      throw new IDBPersistenceException(failure.getMessage(), commited);
+    }
+  }
+
+  /**
+   * Stores the records with one session, committing every {@link #recordsPerCommit} records.
+   *
+   * @param data the records to store (null elements are skipped)
+   * @throws IDBPersistenceException if the insertion fails, with the number of
+   *           already committed records of the list
+   */
+  @SuppressWarnings("unchecked")
+  private void storeChunk(final List data) throws IDBPersistenceException {
     SqlSession session = null;
     int size = data.size();
     int commited = 0;
     T tag;
 
     try {
-      // We use batch set of statements to improve performance
-      session = sqlSessionFactory.openSession(ExecutorType.BATCH, false);
+      // We use batch set of statements to improve performance; multi-row statements are
+      // already batched and only reuse the prepared statements
+      boolean multiRow = rowsPerStatement > 1 && BatchLoggerMapper.class.isAssignableFrom(mapperInterface);
+      session = sqlSessionFactory.openSession(multiRow ? ExecutorType.REUSE : ExecutorType.BATCH, false);
       if (LOGGER.isDebugEnabled()) {
         LOGGER.debug("Obtained batch transacted SQL session (session: " + session.toString() + ")");
       }
       LoggerMapper<T> persistenceMapper = session.getMapper(mapperInterface);
+      List<T> rows = new ArrayList<>(rowsPerStatement);
 
       // Iterate through the list of DataTagCacheObjects to insert
-      // them one by one
+      // them one by one, or rowsPerStatement at a time
       for (int i = 0; i != size; i++) {
-        if ((0 == i % RECORDS_PER_BATCH) && i > 0) {
+        if ((0 == i % recordsPerCommit) && i > 0) {
+          insertRows(persistenceMapper, rows);
           if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("storeData([Collection]) : Commiting rows for i=" + i);
           }
@@ -139,9 +265,17 @@ public class LoggerDAO<T extends IFallback> implements IDBPersistenceHandler<T>
           if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Logging object with ID: " + tag.getId());
           }
-          persistenceMapper.insertLog(tag);
+          if (multiRow) {
+            rows.add(tag);
+            if (rows.size() == rowsPerStatement) {
+              insertRows(persistenceMapper, rows);
+            }
+          } else {
+            persistenceMapper.insertLog(tag);
+          }
         }
       }
+      insertRows(persistenceMapper, rows);
       // Commit the transaction
       session.commit();
       commited = size;
@@ -166,6 +300,41 @@ public class LoggerDAO<T extends IFallback> implements IDBPersistenceHandler<T>
     }
   }
 
+  /**
+   * Inserts the buffered rows with a single statement and clears the buffer.
+   */
+  private void insertRows(final LoggerMapper<T> persistenceMapper, final List<T> rows) {
+    if (rows.isEmpty()) {
+      return;
+    }
+    if (rows.size() == 1) {
+      persistenceMapper.insertLog(rows.get(0));
+    } else {
+      ((BatchLoggerMapper<T>) persistenceMapper).insertLogs(rows);
+    }
+    rows.clear();
+  }
+
+  /**
+   * Stops the writer threads, once the running insertions are done.
+   */
+  @PreDestroy
+  public void close() {
+    if (writers == null) {
+      return;
+    }
+    writers.shutdown();
+    try {
+      if (!writers.awaitTermination(30, TimeUnit.SECONDS)) {
+        LOGGER.warn("close() : History writer threads still running after 30s, interrupting them");
+        writers.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      writers.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+
   @Override
   public String getDBInfo() {
     return "C2MON history account on DB with URL: " + dbUrl;
@@ -30,6 +30,8 @@ import org.springframework.stereotype.Service;
 
 import cern.c2mon.server.cache.C2monBufferedCacheListener;
 import cern.c2mon.server.cache.CacheRegistrationService;
+import cern.c2mon.server.cache.latency.LatencyRecorder;
+import cern.c2mon.server.cache.latency.LatencyRecorder.Stage;
 import cern.c2mon.server.common.component.Lifecycle;
 import cern.c2mon.server.common.config.ServerConstants;
 import cern.c2mon.server.common.tag.Tag;
@@ -60,6 +62,11 @@ public class TagRecordListener implements C2monBufferedCacheListener<Tag>, Smart
    */
   private BatchLogger<Tag> tagLogger;
 
+  /**
+   * Records the time from the cache write to the history database write.
+   */
+  private final LatencyRecorder latencyRecorder;
+
   /**
    * Listener container lifecycle hook.
    */
@@ -75,12 +82,15 @@ public class TagRecordListener implements C2monBufferedCacheListener<Tag>, Smart
    *
    * @param cacheRegistrationService for registering cache listeners
    * @param tagLogger for logging cache objects to the STL
+   * @param latencyRecorder for recording the history write latencies
    */
   @Autowired
-  public TagRecordListener(final CacheRegistrationService cacheRegistrationService, @Qualifier("tagLogger") final BatchLogger<Tag> tagLogger) {
+  public TagRecordListener(final CacheRegistrationService cacheRegistrationService, @Qualifier("tagLogger") final BatchLogger<Tag> tagLogger,
+                           final LatencyRecorder latencyRecorder) {
     super();
     this.cacheRegistrationService = cacheRegistrationService;
     this.tagLogger = tagLogger;
+    this.latencyRecorder = latencyRecorder;
   }
 
   /**
@@ -109,6 +119,10 @@ public class TagRecordListener implements C2monBufferedCacheListener<Tag>, Smart
         tagsToLog.add(tag);
     }
     tagLogger.log(tagsToLog);
+    long now = System.currentTimeMillis();
+    for (Tag tag : tagsToLog) {
+      latencyRecorder.recordSinceCacheWrite(Stage.CACHE_TO_HISTORY, tag, now);
+    }
   }
 
   @Override
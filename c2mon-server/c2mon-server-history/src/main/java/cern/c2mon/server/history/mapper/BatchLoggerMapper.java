@@ -0,0 +1,37 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.server.history.mapper;
+
+import java.util.List;
+
+import cern.c2mon.pmanager.IFallback;
+
+/**
+ * Mapper able to insert several records with a single (multi-row)
+ * statement, used by the LoggerDAO when storing large collections.
+ *
+ * @param <T> the object that is being logged in the history table
+ */
+public interface BatchLoggerMapper<T extends IFallback> extends LoggerMapper<T> {
+
+  /**
+   * Inserts all records with one statement.
+   * @param loggables the records to insert, not empty
+   */
+  void insertLogs(List<T> loggables);
+
+}
@@ -24,7 +24,7 @@ import cern.c2mon.server.history.structure.TagRecord;
  *
  * @author Mark Brightwell
  */
-public interface TagRecordMapper extends LoggerMapper<TagRecord> {
+public interface TagRecordMapper extends BatchLoggerMapper<TagRecord> {
 
   /**
    * Removes all rows for a given tag from the table.
@@ -0,0 +1,150 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.server.history.dao;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import cern.c2mon.server.cache.config.CacheModule;
+import cern.c2mon.server.cache.dbaccess.config.CacheDbAccessModule;
+import cern.c2mon.server.cache.loading.config.CacheLoadingModule;
+import cern.c2mon.server.command.config.CommandModule;
+import cern.c2mon.server.common.config.CommonModule;
+import cern.c2mon.server.daq.config.DaqModule;
+import cern.c2mon.server.history.config.HistoryModule;
+import cern.c2mon.server.history.mapper.TagRecordMapper;
+import cern.c2mon.server.history.structure.TagRecord;
+import cern.c2mon.server.supervision.config.SupervisionModule;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the single-row and multi-row write paths of the LoggerDAO against the
+ * embedded history database, and logs their throughput.
+ */
+@Slf4j
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = {
+    CommonModule.class,
+    CacheModule.class,
+    CacheDbAccessModule.class,
+    CacheLoadingModule.class,
+    SupervisionModule.class,
+    CommandModule.class,
+    DaqModule.class,
+    HistoryModule.class
+})
+public class LoggerDAOTest {
+
+  private static final Long ID = 20L;
+
+  private static final int NB_RECORDS = 5000;
+
+  @Autowired
+  @Qualifier("historySqlSessionFactory")
+  private SqlSessionFactory sqlSessionFactory;
+
+  @Autowired
+  private TagRecordMapper tagRecordMapper;
+
+  @Autowired
+  private DataSource historyDataSource;
+
+  @Before
+  public void beforeTest() {
+    tagRecordMapper.deleteDataTagLog(ID);
+  }
+
+  @After
+  public void afterTest() {
+    tagRecordMapper.deleteDataTagLog(ID);
+  }
+
+  @Test
+  public void testSingleRowInserts() throws Exception {
+    store(new LoggerDAO<TagRecord>(sqlSessionFactory, TagRecordMapper.class.getName(), "test"), "single-row");
+  }
+
+  @Test
+  public void testMultiRowInserts() throws Exception {
+    store(new LoggerDAO<TagRecord>(sqlSessionFactory, TagRecordMapper.class.getName(), "test", 500, 100, 1), "multi-row");
+  }
+
+  @Test
+  public void testParallelMultiRowInserts() throws Exception {
+    store(new LoggerDAO<TagRecord>(sqlSessionFactory, TagRecordMapper.class.getName(), "test", 500, 100, 4), "parallel multi-row");
+  }
+
+  /**
+   * Includes records read back from the fallback file (log date set) and a
+   * null element, which is skipped.
+   */
+  private void store(final LoggerDAO<TagRecord> loggerDAO, final String description) throws Exception {
+    List<TagRecord> records = new ArrayList<>();
+    for (int i = 0; i < NB_RECORDS; i++) {
+      records.add(createRecord(i));
+    }
+    records.add(null);
+
+    long start = System.nanoTime();
+    try {
+      loggerDAO.storeData(records);
+    } finally {
+      loggerDAO.close();
+    }
+    long duration = System.nanoTime() - start;
+    log.info("Stored {} tag records ({}) in {} ms", NB_RECORDS, description, duration / 1000000);
+
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(historyDataSource);
+    assertEquals(Integer.valueOf(NB_RECORDS),
+        jdbcTemplate.queryForObject("SELECT COUNT(*) FROM SHORTTERMLOG WHERE TAGID = ?", Integer.class, ID));
+    assertEquals(Integer.valueOf(NB_RECORDS / 10),
+        jdbcTemplate.queryForObject("SELECT COUNT(*) FROM SHORTTERMLOG WHERE TAGID = ? AND TAGVALUE = '0'", Integer.class, ID));
+  }
+
+  private static TagRecord createRecord(final int i) {
+    Timestamp time = new Timestamp(System.currentTimeMillis());
+    TagRecord record = new TagRecord();
+    record.setTagId(ID);
+    record.setTagName("test tag");
+    record.setTagDataType("Integer");
+    record.setTagValue(String.valueOf(i % 10));
+    record.setTagValueDesc("Tag value description");
+    record.setSourceTimestamp(time);
+    record.setDaqTimestamp(time);
+    record.setServerTimestamp(time);
+    if (i % 2 == 0) {
+      record.setLogDate(time);
+    }
+    return record;
+  }
+}
@@ -33,4 +33,10 @@ public interface RuleEvaluator {
    * @param ruleId id of the rule
    */
   void evaluateRule(Long ruleId);
+
+  /**
+   * To be called whenever a rule is created, updated or removed, so that
+   * the dependencies between the rules are computed again.
+   */
+  void ruleConfigurationChanged();
 }
@@ -1,6 +1,8 @@
 package cern.c2mon.server.rule.config;
 
+import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
 /**
@@ -14,4 +16,64 @@ public class RuleProperties {
    * Number of threads that the rule evaluation engine will use
    */
   private int numEvaluationThreads = 1;
+
+  /**
+   * Time window in milliseconds during which the updates of the input tags
+   * of a rule are collected, before the rule is evaluated once. With 0, only
+   * the triggers arriving while the previous batch is evaluated are coalesced
+   */
+  private int evaluationWindow = 10;
+
+  /**
+   * Rule update buffer properties
+   */
+  private final UpdateBuffer updateBuffer = new UpdateBuffer();
+
+  @Data
+  public static class UpdateBuffer {
+
+    /**
+     * Number of independently locked stripes the buffer is split into
+     */
+    private int stripes = 16;
+
+    /**
+     * Number of threads writing the buffered rule results to the cache
+     */
+    private int flushThreads = 2;
+
+    /**
+     * Interval in milliseconds at which the buffer stripes are checked
+     * for results to write to the cache
+     */
+    private int flushInterval = 25;
+
+    /**
+     * Timing of rules without alarms
+     */
+    private final BufferTiming lowPriority = new BufferTiming(75, 450);
+
+    /**
+     * Timing of rules with alarms attached
+     */
+    private final BufferTiming highPriority = new BufferTiming(75, 450);
+  }
+
+  @Data
+  @NoArgsConstructor
+  @AllArgsConstructor
+  public static class BufferTiming {
+
+    /**
+     * Time in milliseconds without new result after which a rule result
+     * is written to the cache
+     */
+    private int window;
+
+    /**
+     * Maximum time in milliseconds a rule result is kept in the buffer
+     * while the rule keeps on being updated
+     */
+    private int maxDelay;
+  }
 }
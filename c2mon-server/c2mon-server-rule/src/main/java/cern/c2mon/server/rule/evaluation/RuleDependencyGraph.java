@@ -0,0 +1,186 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.server.rule.evaluation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import cern.c2mon.server.cache.RuleTagCache;
+import cern.c2mon.server.cache.exception.CacheElementNotFoundException;
+import cern.c2mon.server.common.rule.RuleTag;
+
+/**
+ * Dependency graph of the rules, where a rule depends on all rules it
+ * uses as input tags. The graph is used to order the rule evaluations
+ * topologically: a rule has the depth 0 if it only depends on data and
+ * control tags, otherwise its depth is one more than the deepest rule
+ * it depends on. It also gives all rules depending on a rule, directly or
+ * through other rules, so that a batch can evaluate a whole cascade.
+ * <p>
+ * The depths and dependent rules are computed lazily from the rule cache
+ * and kept until the next call to {@link #invalidate()}, which has to be
+ * done whenever a rule is (re)configured.
+ */
+@Slf4j
+@Component
+public class RuleDependencyGraph {
+
+  private final RuleTagCache ruleTagCache;
+
+  /** Rule id -> depth of the rule in the graph */
+  private final Map<Long, Integer> depths = new ConcurrentHashMap<>();
+
+  /** Rule id -> the rule and all rules depending on it, directly or not */
+  private final Map<Long, Set<Long>> dependentRules = new ConcurrentHashMap<>();
+
+  @Autowired
+  public RuleDependencyGraph(final RuleTagCache ruleTagCache) {
+    this.ruleTagCache = ruleTagCache;
+  }
+
+  /**
+   * @param ruleId id of a rule
+   * @return the depth of the rule in the dependency graph
+   */
+  public int getDepth(final Long ruleId) {
+    Integer depth = depths.get(ruleId);
+    if (depth == null) {
+      depth = computeDepth(ruleId, new HashSet<Long>());
+    }
+    return depth;
+  }
+
+  /**
+   * Sorts the given rules by their depth, so that evaluating them level
+   * by level respects the dependencies between them. Rules on the same
+   * level do not depend on each other.
+   *
+   * @param ruleIds ids of the rules to sort
+   * @return the rule ids, grouped by depth in ascending order
+   */
+  public SortedMap<Integer, List<Long>> sortByDepth(final Collection<Long> ruleIds) {
+    SortedMap<Integer, List<Long>> levels = new TreeMap<>();
+    for (Long ruleId : ruleIds) {
+      Integer depth = getDepth(ruleId);
+      List<Long> level = levels.get(depth);
+      if (level == null) {
+        level = new ArrayList<>();
+        levels.put(depth, level);
+      }
+      level.add(ruleId);
+    }
+    return levels;
+  }
+
+  /**
+   * @param ruleIds ids of rules to evaluate
+   * @return the given rules together with all rules depending on them,
+   *         directly or through other rules
+   */
+  public Set<Long> withDependentRules(final Collection<Long> ruleIds) {
+    Set<Long> rules = new HashSet<>();
+    for (Long ruleId : ruleIds) {
+      Set<Long> dependents = dependentRules.get(ruleId);
+      if (dependents == null) {
+        dependents = computeDependentRules(ruleId, new HashSet<Long>());
+      }
+      rules.addAll(dependents);
+    }
+    return rules;
+  }
+
+  /**
+   * Forgets all computed depths and dependent rules. To be called after a
+   * rule configuration change.
+   */
+  public void invalidate() {
+    depths.clear();
+    dependentRules.clear();
+  }
+
+  /**
+   * @param ruleId the rule to compute the depth for
+   * @param path the rules currently being visited, to detect dependency cycles
+   */
+  private int computeDepth(final Long ruleId, final Set<Long> path) {
+    Integer known = depths.get(ruleId);
+    if (known != null) {
+      return known;
+    }
+    if (!path.add(ruleId)) {
+      log.warn("Rule #{} is part of a dependency cycle - rule evaluation order cannot be respected", ruleId);
+      return 0;
+    }
+
+    int depth = 0;
+    try {
+      RuleTag rule = ruleTagCache.get(ruleId);
+      for (Long inputTagId : rule.getRuleInputTagIds()) {
+        if (ruleTagCache.hasKey(inputTagId)) {
+          depth = Math.max(depth, computeDepth(inputTagId, path) + 1);
+        }
+      }
+    } catch (CacheElementNotFoundException e) {
+      log.debug("Rule #{} not found in cache - assuming it has no rule inputs", ruleId);
+    }
+
+    path.remove(ruleId);
+    depths.put(ruleId, depth);
+    return depth;
+  }
+
+  /**
+   * @param ruleId the rule to collect the dependent rules for
+   * @param path the rules currently being visited, to detect dependency cycles
+   */
+  private Set<Long> computeDependentRules(final Long ruleId, final Set<Long> path) {
+    Set<Long> known = dependentRules.get(ruleId);
+    if (known != null) {
+      return known;
+    }
+    Set<Long> dependents = new HashSet<>();
+    dependents.add(ruleId);
+    if (!path.add(ruleId)) {
+      // the cycle is already reported by the depth computation
+      return dependents;
+    }
+
+    try {
+      RuleTag rule = ruleTagCache.get(ruleId);
+      for (Long dependentRuleId : rule.getRuleIds()) {
+        dependents.addAll(computeDependentRules(dependentRuleId, path));
+      }
+    } catch (CacheElementNotFoundException e) {
+      log.debug("Rule #{} not found in cache - assuming no rule depends on it", ruleId);
+    }
+
+    path.remove(ruleId);
+    dependentRules.put(ruleId, dependents);
+    return dependents;
+  }
+}
@@ -0,0 +1,371 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.server.rule.evaluation;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import cern.c2mon.shared.common.rule.RuleInputValue;
+
+/**
+ * Collects the rules that need to be re-evaluated during a short time window
+ * and evaluates each of them only once at the end of the window. A burst of
+ * updates to the input tags of a rule does therefore result in a single
+ * evaluation.
+ * <p>
+ * A batch contains the triggered rules together with all rules depending
+ * on them, directly or through other rules. The collected rules are
+ * evaluated in the order given by the {@link RuleDependencyGraph}, level
+ * by level. The rules of one level are independent of each other and are
+ * spread over the evaluation threads.
+ * As the results only reach the cache through the {@link RuleUpdateBuffer},
+ * the results of a level are kept in memory for the batch and passed to the
+ * evaluations of the next levels, instead of the cached rule values.
+ * When these results are later written to the cache, the rules depending
+ * on them have already been evaluated: {@link #clearEvaluated(Long, Timestamp)}
+ * tells the cache listener not to trigger them again. The check is done on the
+ * timestamp of the result, so a result which never reaches the cache (e.g.
+ * filtered as unchanged or dropped by the buffer) does not swallow a later
+ * update of the rule.
+ * <p>
+ * Batches are processed one after the other by a single scheduler thread,
+ * so a rule is never evaluated concurrently by two batches.
+ */
+@Slf4j
+class RuleEvaluationScheduler {
+
+  private final RuleDependencyGraph dependencyGraph;
+
+  /** Evaluates a single rule */
+  private final BatchEvaluation evaluation;
+
+  /** Time window in milliseconds during which rule triggers are collected */
+  private final long windowMillis;
+
+  private final int numEvaluationThreads;
+
+  /** The rules waiting for evaluation */
+  private final Set<Long> pendingRules = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Rules evaluated in a batch, with the timestamp of the result whose cache
+   * update has not been notified yet. Holds at most one entry per rule.
+   */
+  private final Map<Long, Timestamp> evaluatedRules = new ConcurrentHashMap<>();
+
+  /** True while a batch is scheduled but has not yet started */
+  private final AtomicBoolean batchScheduled = new AtomicBoolean(false);
+
+  private final ScheduledExecutorService scheduler;
+
+  /** Only used if more than one evaluation thread is configured */
+  private final ExecutorService evaluationExecutor;
+
+  /** Number of requested rule evaluations */
+  private final AtomicLong triggerCount = new AtomicLong();
+
+  /** Number of rule evaluations actually done */
+  private final AtomicLong evaluationCount = new AtomicLong();
+
+  private final AtomicLong batchCount = new AtomicLong();
+
+  /** Number of dependency levels of the last batch */
+  private volatile int lastCascadeDepth;
+
+  /** Highest number of dependency levels in one batch */
+  private final AtomicInteger maxCascadeDepth = new AtomicInteger();
+
+  /**
+   * @param dependencyGraph used to order the evaluations of a batch
+   * @param evaluation called for every rule to evaluate
+   * @param windowMillis time window in milliseconds during which rule triggers are collected
+   * @param numEvaluationThreads number of threads evaluating the rules of one level
+   */
+  RuleEvaluationScheduler(final RuleDependencyGraph dependencyGraph, final BatchEvaluation evaluation,
+                          final long windowMillis, final int numEvaluationThreads) {
+    this.dependencyGraph = dependencyGraph;
+    this.evaluation = evaluation;
+    this.windowMillis = Math.max(0, windowMillis);
+    this.numEvaluationThreads = Math.max(1, numEvaluationThreads);
+    ScheduledThreadPoolExecutor batchScheduler = new ScheduledThreadPoolExecutor(1, new CustomizableThreadFactory("RuleBatchScheduler-"));
+    // on shutdown the scheduled batch is dropped together with the pending rules
+    batchScheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    this.scheduler = batchScheduler;
+    this.evaluationExecutor = this.numEvaluationThreads > 1
+        ? Executors.newFixedThreadPool(this.numEvaluationThreads, new CustomizableThreadFactory("RuleEvaluator-"))
+        : null;
+  }
+
+  /**
+   * Marks the rules and all rules depending on them for evaluation at the
+   * end of the current time window.
+   *
+   * @param ruleIds ids of the rules to evaluate
+   */
+  void schedule(final Collection<Long> ruleIds) {
+    Set<Long> rules = dependencyGraph.withDependentRules(ruleIds);
+    triggerCount.addAndGet(rules.size());
+    pendingRules.addAll(rules);
+    if (batchScheduled.compareAndSet(false, true)) {
+      try {
+        scheduler.schedule(this::evaluateBatch, windowMillis, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        batchScheduled.set(false);
+        log.debug("Scheduler shut down - rules {} are not evaluated", ruleIds);
+      } catch (Exception e) {
+        batchScheduled.set(false);
+        log.error("Unable to schedule the evaluation of rules {}", ruleIds, e);
+      }
+    }
+  }
+
+  /**
+   * Evaluates all pending rules. Rules triggered in the meantime
+   * are left for the next batch.
+   */
+  void evaluateBatch() {
+    batchScheduled.set(false);
+    try {
+      List<Long> batch = new ArrayList<>(pendingRules.size());
+      for (Iterator<Long> it = pendingRules.iterator(); it.hasNext();) {
+        batch.add(it.next());
+        it.remove();
+      }
+      if (batch.isEmpty()) {
+        return;
+      }
+
+      SortedMap<Integer, List<Long>> levels = dependencyGraph.sortByDepth(batch);
+      Map<Long, RuleInputValue> results = new ConcurrentHashMap<>(batch.size());
+      for (List<Long> level : levels.values()) {
+        evaluateLevel(level, results);
+      }
+
+      batchCount.incrementAndGet();
+      evaluationCount.addAndGet(batch.size());
+      lastCascadeDepth = levels.size();
+      maxCascadeDepth.accumulateAndGet(levels.size(), Math::max);
+      log.trace("Evaluated {} rules on {} dependency levels", batch.size(), levels.size());
+    } catch (Exception e) {
+      log.error("Exception caught during rule batch evaluation", e);
+    }
+  }
+
+  /**
+   * Evaluates independent rules, spread over the evaluation threads.
+   * Returns once all rules are evaluated.
+   *
+   * @param results the results of the batch so far, completed with the results of this level
+   */
+  private void evaluateLevel(final List<Long> ruleIds, final Map<Long, RuleInputValue> results) throws InterruptedException {
+    if (evaluationExecutor == null || ruleIds.size() == 1) {
+      for (Long ruleId : ruleIds) {
+        evaluate(ruleId, results);
+      }
+      return;
+    }
+
+    int chunkSize = (ruleIds.size() + numEvaluationThreads - 1) / numEvaluationThreads;
+    List<Callable<Void>> tasks = new ArrayList<>(numEvaluationThreads);
+    for (int start = 0; start < ruleIds.size(); start += chunkSize) {
+      final List<Long> chunk = ruleIds.subList(start, Math.min(start + chunkSize, ruleIds.size()));
+      tasks.add(() -> {
+        for (Long ruleId : chunk) {
+          evaluate(ruleId, results);
+        }
+        return null;
+      });
+    }
+    for (Future<Void> future : evaluationExecutor.invokeAll(tasks)) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        log.error("Exception caught during rule evaluation", e.getCause());
+      }
+    }
+  }
+
+  private void evaluate(final Long ruleId, final Map<Long, RuleInputValue> results) {
+    try {
+      BatchResult result = evaluation.evaluate(ruleId, results);
+      if (result != null) {
+        results.put(ruleId, result);
+        if (result.getTimestamp() != null) {
+          evaluatedRules.put(ruleId, result.getTimestamp());
+        }
+      }
+    } catch (Exception e) {
+      log.error("Exception caught when evaluating rule #{}", ruleId, e);
+    }
+  }
+
+  /**
+   * Forgets that the rule was evaluated in a batch. To be called when the
+   * rule is updated in the cache.
+   *
+   * @param ruleId id of a rule
+   * @param timestamp the cache timestamp of the updated rule
+   * @return true if the update carries the result of the rule evaluated in
+   *         a batch, together with the rules depending on it
+   */
+  boolean clearEvaluated(final Long ruleId, final Timestamp timestamp) {
+    return timestamp != null && evaluatedRules.remove(ruleId, timestamp);
+  }
+
+  /**
+   * Forgets that the rule was evaluated in a batch, whatever the result.
+   * To be called when the rule is evaluated outside of the batches.
+   *
+   * @param ruleId id of a rule
+   */
+  void forgetEvaluated(final Long ruleId) {
+    evaluatedRules.remove(ruleId);
+  }
+
+  /**
+   * Stops the threads. The rules still waiting for their batch are dropped,
+   * as the {@link RuleUpdateBuffer} does not write their results to the
+   * cache anymore during the shutdown.
+   */
+  void shutdown() {
+    scheduler.shutdown();
+    try {
+      scheduler.awaitTermination(1000, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (!pendingRules.isEmpty()) {
+      log.info("Shutting down - {} rules waiting for evaluation are dropped", pendingRules.size());
+      pendingRules.clear();
+    }
+    if (evaluationExecutor != null) {
+      evaluationExecutor.shutdown();
+    }
+  }
+
+  /**
+   * @return the number of rules waiting for evaluation
+   */
+  int getPendingRuleCount() {
+    return pendingRules.size();
+  }
+
+  long getTriggerCount() {
+    return triggerCount.get();
+  }
+
+  long getEvaluationCount() {
+    return evaluationCount.get();
+  }
+
+  /**
+   * @return the number of rule evaluations saved by coalescing multiple triggers of the same rule
+   */
+  long getSavedEvaluationCount() {
+    return Math.max(0, triggerCount.get() - evaluationCount.get() - pendingRules.size());
+  }
+
+  long getBatchCount() {
+    return batchCount.get();
+  }
+
+  int getLastCascadeDepth() {
+    return lastCascadeDepth;
+  }
+
+  int getMaxCascadeDepth() {
+    return maxCascadeDepth.get();
+  }
+
+  /**
+   * Evaluation of a single rule of a batch.
+   */
+  @FunctionalInterface
+  interface BatchEvaluation {
+
+    /**
+     * @param ruleId the rule to evaluate
+     * @param results the results of the rules evaluated before in the same batch,
+     *                to use instead of the cached values of these rules
+     * @return the new result of the rule, or null if the rule could not be evaluated
+     */
+    BatchResult evaluate(Long ruleId, Map<Long, RuleInputValue> results);
+  }
+
+  /**
+   * Result of a rule evaluation, not yet written to the cache.
+   */
+  static final class BatchResult implements RuleInputValue {
+
+    private final Long id;
+
+    private final Object value;
+
+    private final boolean valid;
+
+    /** Timestamp of the result passed to the {@link RuleUpdateBuffer} */
+    private final Timestamp timestamp;
+
+    BatchResult(final Long id, final Object value, final boolean valid, final Timestamp timestamp) {
+      this.id = id;
+      this.value = value;
+      this.valid = valid;
+      this.timestamp = timestamp;
+    }
+
+    @Override
+    public Long getId() {
+      return id;
+    }
+
+    @Override
+    public Object getValue() {
+      return value;
+    }
+
+    @Override
+    public boolean isValid() {
+      return valid;
+    }
+
+    Timestamp getTimestamp() {
+      return timestamp;
+    }
+  }
+}
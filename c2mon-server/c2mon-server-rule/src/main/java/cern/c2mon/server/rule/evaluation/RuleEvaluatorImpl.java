@@ -18,14 +18,19 @@ package cern.c2mon.server.rule.evaluation;
 
 import java.sql.Timestamp;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.SmartLifecycle;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.stereotype.Service;
 
 import cern.c2mon.server.cache.C2monCacheListener;
@@ -33,13 +38,18 @@ import cern.c2mon.server.cache.CacheRegistrationService;
 import cern.c2mon.server.cache.RuleTagCache;
 import cern.c2mon.server.cache.TagLocationService;
 import cern.c2mon.server.cache.exception.CacheElementNotFoundException;
+import cern.c2mon.server.cache.latency.LatencyRecorder;
+import cern.c2mon.server.cache.latency.LatencyRecorder.Category;
+import cern.c2mon.server.cache.latency.LatencyRecorder.Stage;
 import cern.c2mon.server.common.component.Lifecycle;
 import cern.c2mon.server.common.config.ServerConstants;
 import cern.c2mon.server.common.rule.RuleTag;
 import cern.c2mon.server.common.tag.Tag;
 import cern.c2mon.server.rule.RuleEvaluator;
 import cern.c2mon.server.rule.config.RuleProperties;
+import cern.c2mon.server.rule.evaluation.RuleEvaluationScheduler.BatchResult;
 import cern.c2mon.shared.common.datatag.TagQualityStatus;
+import cern.c2mon.shared.common.rule.RuleInputValue;
 import cern.c2mon.shared.rule.RuleEvaluationException;
 
 import static cern.c2mon.shared.common.type.TypeConverter.getType;
@@ -51,11 +61,20 @@ import static cern.c2mon.shared.common.type.TypeConverter.getType;
  * to the RuleUpdateBuffer where rapid successive updates are
  * clustered into a single update.
  *
+ * <p>Tag updates do not trigger the evaluation of the dependent rules
+ * directly: the rules are collected by a {@link RuleEvaluationScheduler}
+ * and evaluated once per time window, together with the rules depending
+ * on them, in the order of the {@link RuleDependencyGraph}. A rule depending
+ * on rules of the same batch uses their new results, before these are
+ * written to the cache. The cache updates of the rules evaluated in a batch
+ * do therefore not trigger their dependent rules again.
+ *
  * @author mbrightw
  *
  */
 @Slf4j
 @Service
+@ManagedResource(objectName = "cern.c2mon:name=ruleEvaluator")
 public class RuleEvaluatorImpl implements C2monCacheListener<Tag>, SmartLifecycle, RuleEvaluator {
 
   private final RuleTagCache ruleTagCache;
@@ -69,6 +88,17 @@ public class RuleEvaluatorImpl implements C2monCacheListener<Tag>, SmartLifecycl
 
   private final RuleProperties properties;
 
+  private final RuleDependencyGraph dependencyGraph;
+
+  /** Records the duration of the rule evaluations */
+  private final LatencyRecorder latencyRecorder;
+
+  /** Coalesces the rule triggers and evaluates the rules in batches */
+  private RuleEvaluationScheduler evaluationScheduler;
+
+  /** Number of rule evaluations using the not yet cached result of another rule of the batch */
+  private final AtomicLong cascadedEvaluationCount = new AtomicLong();
+
   /**
    * Listener container lifecycle hook.
    */
@@ -84,25 +114,45 @@ public class RuleEvaluatorImpl implements C2monCacheListener<Tag>, SmartLifecycl
                            RuleUpdateBuffer ruleUpdateBuffer,
                            TagLocationService tagLocationService,
                            CacheRegistrationService cacheRegistrationService,
-                           RuleProperties properties) {
+                           RuleProperties properties,
+                           RuleDependencyGraph dependencyGraph,
+                           LatencyRecorder latencyRecorder) {
     super();
     this.ruleTagCache = ruleTagCache;
     this.ruleUpdateBuffer = ruleUpdateBuffer;
     this.tagLocationService = tagLocationService;
     this.cacheRegistrationService = cacheRegistrationService;
     this.properties = properties;
+    this.dependencyGraph = dependencyGraph;
+    this.latencyRecorder = latencyRecorder;
   }
 
   /**
-   * Registers to tag caches.
+   * Registers to tag caches. As a tag update only triggers the evaluation
+   * of the dependent rules, which read the current input values from the
+   * cache, the waiting updates of a tag are coalesced.
    */
   @PostConstruct
   public void init() {
-    listenerContainer = cacheRegistrationService.registerToAllTags(this, properties.getNumEvaluationThreads());
+    evaluationScheduler = new RuleEvaluationScheduler(dependencyGraph, this::doEvaluateRule,
+        properties.getEvaluationWindow(), properties.getNumEvaluationThreads());
+    listenerContainer = cacheRegistrationService.registerPartitionedToAllTags(this, properties.getNumEvaluationThreads(), true);
+  }
+
+  /**
+   * Stops the threads of the scheduler. The rules still waiting for their batch are dropped.
+   */
+  @PreDestroy
+  public void shutdown() {
+    evaluationScheduler.shutdown();
   }
 
   @Override
   public void notifyElementUpdated(Tag tag) {
+    if (evaluationScheduler.clearEvaluated(tag.getId(), tag.getCacheTimestamp())) {
+      log.trace("Rules depending on #{} already evaluated in the batch of the rule", tag.getId());
+      return;
+    }
     try {
       evaluateRules(tag);
     } catch (Exception e) {
@@ -121,30 +171,48 @@ public class RuleEvaluatorImpl implements C2monCacheListener<Tag>, SmartLifecycl
    * to be ensured by the DataTagCacheObject
    * </UL>
    *
-   * evaluates rules that depend on tag
+   * schedules the evaluation of the rules that depend on tag
    */
   public void evaluateRules(final Tag tag) {
     // For each rule id related to the tag
     if (!tag.getRuleIds().isEmpty()) {
       log.trace("For rule #{} triggering re-evaluation of {} rules : {}", tag.getId(), tag.getRuleIds().size(), tag.getRuleIds());
-      for (Long ruleId : tag.getRuleIds()) {
-         evaluateRule(ruleId);
-      }
+      evaluationScheduler.schedule(tag.getRuleIds());
     }
   }
 
+  /**
+   * Evaluates the rule immediately, outside of the batches of the
+   * {@link RuleEvaluationScheduler}. The rules depending on it are triggered
+   * once the result is written to the cache.
+   * @param pRuleId The id of a rule.
+   */
+  @Override
+  public final void evaluateRule(final Long pRuleId) {
+    evaluationScheduler.forgetEvaluated(pRuleId);
+    doEvaluateRule(pRuleId, Collections.emptyMap());
+  }
+
+  @Override
+  public void ruleConfigurationChanged() {
+    dependencyGraph.invalidate();
+  }
+
   /**
    * Performs the rule evaluation for a given tag id. In case that
    * the id does not belong to a rule a warning message is logged to
    * log4j. Please note, that the rule will always use the time stamp
    * of the latest incoming data tag update.
    * @param pRuleId The id of a rule.
+   * @param batchResults the results of the rules evaluated before in the same
+   *                     batch, which replace the cached values of these rules
+   * @return the result passed to the {@link RuleUpdateBuffer}, or null if none
    */
-  @Override
-  public final void evaluateRule(final Long pRuleId) {
+  private BatchResult doEvaluateRule(final Long pRuleId, final Map<Long, RuleInputValue> batchResults) {
     log.trace("evaluateRule() called for #{}", pRuleId);
 
-    final Timestamp ruleResultTimestamp = new Timestamp(System.currentTimeMillis());
+    final long start = System.currentTimeMillis();
+    final Timestamp ruleResultTimestamp = new Timestamp(start);
 
     // We synchronize on the rule reference object from the cache
     // in order to avoid simultaneous evaluations for the same rule
@@ -155,62 +223,95 @@ public class RuleEvaluatorImpl implements C2monCacheListener<Tag>, SmartLifecycl
 
     ruleTagCache.acquireWriteLockOnKey(pRuleId);
 
+    // rules with alarms are buffered with the high priority timing
+    boolean highPriority = false;
+    RuleTag rule = null;
     try {
-      RuleTag rule = ruleTagCache.get(pRuleId);
+      rule = ruleTagCache.get(pRuleId);
+      highPriority = !rule.getAlarmIds().isEmpty();
 
       if (rule.getRuleExpression() != null) {
         final Collection<Long> ruleInputTagIds = rule.getRuleExpression().getInputTagIds();
 
-        // Retrieve all input tags for the rule
-        final Map<Long, Object> tags = new HashMap<>(ruleInputTagIds.size());
-
-        Tag tag = null;
-        Long actualTag = null;
         try {
-          for (Long inputTagId : ruleInputTagIds) {
-            actualTag = inputTagId;
-            // We don't use a read lock here, because a tag change would anyway
-            // result in another rule evaluation
-            // look for tag in datatag, rule and control caches
-            tag = tagLocationService.get(inputTagId);
-
-            // put reference to cache object in map
-            tags.put(inputTagId, tag);
+          // Retrieve references to all input tags for the rule in one go.
+          // We don't use a read lock here, because a tag change would anyway
+          // result in another rule evaluation
+          final Map<Long, Tag> inputTags = tagLocationService.get(ruleInputTagIds);
+          if (inputTags.size() < ruleInputTagIds.size()) {
+            for (Long inputTagId : ruleInputTagIds) {
+              if (!inputTags.containsKey(inputTagId)) {
+                throw new CacheElementNotFoundException("TagLocationService failed to locate tag with id " + inputTagId
+                    + " in any of the rule, control or datatag caches.");
+              }
+            }
           }
+          final Map<Long, Object> tags = Collections.unmodifiableMap(withBatchResults(inputTags, batchResults));
 
           // Retrieve class type of resulting value, in order to cast correctly
           // the evaluation result
           Class<?> ruleResultClass = getType(rule.getDataType());
 
           Object value = rule.getRuleExpression().evaluate(tags, ruleResultClass);
-          ruleUpdateBuffer.update(pRuleId, value, "Rule result", ruleResultTimestamp);
+          ruleUpdateBuffer.update(pRuleId, value, "Rule result", ruleResultTimestamp, highPriority);
+          return new BatchResult(pRuleId, value, true, ruleResultTimestamp);
         } catch (CacheElementNotFoundException cacheEx) {
-          log.warn("evaluateRule #{} - Failed to locate tag with id {} in any tag cache (during rule evaluation) - unable to evaluate rule.", pRuleId, actualTag, cacheEx);
+          log.warn("evaluateRule #{} - Failed to locate an input tag in any tag cache (during rule evaluation) - unable to evaluate rule.", pRuleId, cacheEx);
           ruleUpdateBuffer.invalidate(pRuleId, TagQualityStatus.UNKNOWN_REASON,
-              "Unable to evaluate rule as cannot find required Tag in cache: " + cacheEx.getMessage(), ruleResultTimestamp);
+              "Unable to evaluate rule as cannot find required Tag in cache: " + cacheEx.getMessage(), ruleResultTimestamp, highPriority);
         } catch (RuleEvaluationException re) {
           // TODO change in rule engine: this should NOT be done using an
           // exception since it is normal behavior switched to trace
           log.trace("Problem evaluating expresion for rule #{} - invalidating rule with quality UNKNOWN_REASON ({})", pRuleId, re.getMessage());
           // switched from INACCESSIBLE in old code
-          ruleUpdateBuffer.invalidate(pRuleId, TagQualityStatus.UNKNOWN_REASON, re.getMessage(), ruleResultTimestamp);
+          ruleUpdateBuffer.invalidate(pRuleId, TagQualityStatus.UNKNOWN_REASON, re.getMessage(), ruleResultTimestamp, highPriority);
         } catch (Exception e) {
           log.error("Unexpected Error evaluating expresion of rule #{} - invalidating rule with quality UNKNOWN_REASON", pRuleId, e);
           // switched from INACCESSIBLE in old code
-          ruleUpdateBuffer.invalidate(pRuleId, TagQualityStatus.UNKNOWN_REASON, e.getMessage(), ruleResultTimestamp);
+          ruleUpdateBuffer.invalidate(pRuleId, TagQualityStatus.UNKNOWN_REASON, e.getMessage(), ruleResultTimestamp, highPriority);
         }
+        // the rule keeps its last value, but is invalid
+        return new BatchResult(pRuleId, rule.getValue(), false, ruleResultTimestamp);
       } else {
         log.error("Unable to evaluate rule #{} as RuleExpression is null", pRuleId);
+        return null;
       }
     } catch (CacheElementNotFoundException cacheEx) {
       log.error("Rule #{} not found in cache - unable to evaluate it.", pRuleId, cacheEx);
     } catch (Exception e) {
       log.error("Unexpected Error caught while retrieving #{} from rule cache.", pRuleId, e);
       // switched from INACCESSIBLE in old code
-      ruleUpdateBuffer.invalidate(pRuleId, TagQualityStatus.UNKNOWN_REASON, e.getMessage(), ruleResultTimestamp);
+      ruleUpdateBuffer.invalidate(pRuleId, TagQualityStatus.UNKNOWN_REASON, e.getMessage(), ruleResultTimestamp, highPriority);
     } finally {
       ruleTagCache.releaseWriteLockOnKey(pRuleId);
+      latencyRecorder.record(Stage.RULE_EVALUATION, Category.RULE, null, System.currentTimeMillis() - start);
+    }
+    return rule == null ? null : new BatchResult(pRuleId, rule.getValue(), false, ruleResultTimestamp);
+  }
+
+  /**
+   * @return the input tags, where the rules evaluated before in the same batch
+   *         are replaced by their new results
+   */
+  private Map<Long, ?> withBatchResults(final Map<Long, Tag> inputTags, final Map<Long, RuleInputValue> batchResults) {
+    if (batchResults.isEmpty()) {
+      return inputTags;
     }
+    Map<Long, Object> tags = null;
+    for (Long inputTagId : inputTags.keySet()) {
+      RuleInputValue result = batchResults.get(inputTagId);
+      if (result != null) {
+        if (tags == null) {
+          tags = new HashMap<>(inputTags);
+        }
+        tags.put(inputTagId, result);
+      }
+    }
+    if (tags == null) {
+      return inputTags;
+    }
+    cascadedEvaluationCount.incrementAndGet();
+    return tags;
   }
 
   /**
@@ -218,7 +319,11 @@ public class RuleEvaluatorImpl implements C2monCacheListener<Tag>, SmartLifecycl
    */
   @Override
   public void confirmStatus(Tag tag) {
-    notifyElementUpdated(tag);
+    try {
+      evaluateRules(tag);
+    } catch (Exception e) {
+      log.error("Error caught when evaluating dependend rules ({}) of #{}", tag.getRuleIds(), tag.getId(), e);
+    }
   }
 
   @Override
@@ -255,4 +360,44 @@ public class RuleEvaluatorImpl implements C2monCacheListener<Tag>, SmartLifecycl
   public int getPhase() {
     return ServerConstants.PHASE_INTERMEDIATE;
   }
+
+  @ManagedAttribute(description = "Number of rules waiting for the next evaluation batch")
+  public int getPendingRuleCount() {
+    return evaluationScheduler.getPendingRuleCount();
+  }
+
+  @ManagedAttribute(description = "Number of rule evaluations triggered by tag updates")
+  public long getTriggeredEvaluationCount() {
+    return evaluationScheduler.getTriggerCount();
+  }
+
+  @ManagedAttribute(description = "Number of rule evaluations done in batches")
+  public long getBatchedEvaluationCount() {
+    return evaluationScheduler.getEvaluationCount();
+  }
+
+  @ManagedAttribute(description = "Number of rule evaluations saved by coalescing triggers of the same rule")
+  public long getSavedEvaluationCount() {
+    return evaluationScheduler.getSavedEvaluationCount();
+  }
+
+  @ManagedAttribute(description = "Number of evaluation batches")
+  public long getBatchCount() {
+    return evaluationScheduler.getBatchCount();
+  }
+
+  @ManagedAttribute(description = "Number of rule dependency levels evaluated in the last batch")
+  public int getLastCascadeDepth() {
+    return evaluationScheduler.getLastCascadeDepth();
+  }
+
+  @ManagedAttribute(description = "Highest number of rule dependency levels evaluated in one batch")
+  public int getMaxCascadeDepth() {
+    return evaluationScheduler.getMaxCascadeDepth();
+  }
+
+  @ManagedAttribute(description = "Number of rule evaluations using the new result of a rule of the same batch")
+  public long getCascadedEvaluationCount() {
+    return cascadedEvaluationCount.get();
+  }
 }
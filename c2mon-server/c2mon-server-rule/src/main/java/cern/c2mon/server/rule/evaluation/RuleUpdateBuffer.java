@@ -18,13 +18,27 @@ package cern.c2mon.server.rule.evaluation;
 
 import java.sql.Timestamp;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+import javax.annotation.PreDestroy;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
 import cern.c2mon.server.cache.RuleTagFacade;
 import cern.c2mon.server.cache.exception.CacheElementNotFoundException;
+import cern.c2mon.server.rule.config.RuleProperties;
 import cern.c2mon.shared.common.datatag.TagQualityStatus;
 
 /**
@@ -32,7 +46,16 @@ import cern.c2mon.shared.common.datatag.TagQualityStatus;
  * This can happen, if the same rule got updates of different data tags at the same
  * time or within a very short time interval. The <code>RuleUpdateBuffer</code> acts
  * in this cases like a time-deadband which sends only the latest value after it did
- * not receive any further evaluations after the last cacheUpdate intervals.
+ * not receive any further evaluations during the buffer window. A result is never
+ * delayed longer than the maximum delay, even if the rule keeps on being updated.
+ * Window and maximum delay can be configured separately for high priority rules,
+ * i.e. rules with alarms attached.
+ *
+ * <p>The buffer is split into stripes by rule id. Each stripe has its own lock and
+ * its own flush task, which only runs while the stripe holds results. The flushes
+ * of a stripe are serialized, so that the results of a rule are written to the
+ * cache in the order they were buffered, even if a new flush task is started while
+ * the previous one is still writing.
  *
  * In C2MON, instantiated as a Spring singleton using annotations.
  *
@@ -40,58 +63,48 @@ import cern.c2mon.shared.common.datatag.TagQualityStatus;
  */
 @Slf4j
 @Service
+@ManagedResource(objectName = "cern.c2mon:name=ruleUpdateBuffer")
 public final class RuleUpdateBuffer {
-  
-  /** The initial buffer size */
-  private static final int INITIAL_BUFFER_SIZE = 1000;
-  
-  /** The schedule interval for the <code>CacheUpdaterTask</code> */
-  private static final int BUFFER_TIMER_MILLIS = 75; // we chose this value due to the JMS message delivering delay
-  
-  /** 
-   * The maximum amount of check cycles that the cache updater shall 
-   * wait before forcing a cache update for a particular rule.
-   */
-  private static final int MAX_CYCLES_WAIT = 6; // 6 * 75 = 450 ms <== max delay
-  
-  /** thread synchronization object */
-  private static final Object BUFFER_LOCK = new Object();
-  
-  /**
-   * Reference to the local home interface of the
-   * <code>DataTagFacade</code> session bean.
-   */
-  private static RuleTagFacade ruleTagFacade;
-  
-  /** The internal buffer used for the */
-  private static final Map<Long, RuleBufferObject> RULE_OBJECT_BUF = new Hashtable<Long, RuleBufferObject>(INITIAL_BUFFER_SIZE);
-  
-  /** 
-   * Map containing the flags which indicates that an update was received
-   * within the last cache updater cycle.
-   */
-  private static final Map<Long, Boolean> UPDATE_RECEIVED_FLAGS  = new Hashtable<Long, Boolean>(INITIAL_BUFFER_SIZE);
-  
-  /**
-   * The counters for checking the cycles that a specific rule is already been buffered.
-   * When the counter exceeds the MAX_CYCLES_WAIT the <code>CacheUpdaterTask</code> forces
-   * a cache update.
-   */
-  private static final Map<Long, Integer> CYCLE_COUNTERS = new Hashtable<Long, Integer>(INITIAL_BUFFER_SIZE);
-  
-  /** Timer instance that schedules the <code>CacheUpdaterTask</code> */
-  private final Timer timer;
-  
-  /** will be set to true, once the timer is running */ 
-  private static boolean isCacheUpdaterRunning = false;
-  
+
+  /** Reference to the rule tag facade, used to write the results to the cache */
+  private final RuleTagFacade ruleTagFacade;
+
+  private final RuleProperties.UpdateBuffer properties;
+
+  /** The stripes of the buffer */
+  private final Stripe[] stripes;
+
+  /** Runs the flush tasks of the stripes */
+  private final ScheduledExecutorService flushScheduler;
+
+  /** Number of rule results currently buffered */
+  private final AtomicInteger queueDepth = new AtomicInteger();
+
+  /** Number of results received through {@link #update} and {@link #invalidate} */
+  private final AtomicLong receivedCount = new AtomicLong();
+
+  /** Number of results written to the cache */
+  private final AtomicLong flushedCount = new AtomicLong();
+
+  /** Sum of the times the flushed results spent in the buffer */
+  private final AtomicLong totalFlushLatency = new AtomicLong();
+
+  /** Longest time a flushed result spent in the buffer */
+  private final LongAccumulator maxFlushLatency = new LongAccumulator(Math::max, 0);
+
   /**
-   * Constructor 
+   * Constructor
    */
   @Autowired
-  private RuleUpdateBuffer(RuleTagFacade ruleTagFacade) {
-    this.timer = new Timer("RuleUpdater");
-    RuleUpdateBuffer.ruleTagFacade = ruleTagFacade;
+  public RuleUpdateBuffer(final RuleTagFacade ruleTagFacade, final RuleProperties ruleProperties) {
+    this.ruleTagFacade = ruleTagFacade;
+    this.properties = ruleProperties.getUpdateBuffer();
+    this.stripes = new Stripe[Math.max(1, properties.getStripes())];
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new Stripe();
+    }
+    this.flushScheduler = Executors.newScheduledThreadPool(Math.max(1, properties.getFlushThreads()),
+        new CustomizableThreadFactory("RuleUpdater-"));
   }
 
   /**
@@ -102,20 +115,32 @@ public final class RuleUpdateBuffer {
    * @param pTimestamp the timestamp of the rule evaluation.
    */
   public void update(final Long pId, final Object pValue, final String pValueDesc, final Timestamp pTimestamp) {
-    final RuleBufferObject bufferObj;
-    
+    update(pId, pValue, pValueDesc, pTimestamp, false);
+  }
+
+  /**
+   * Updates the internal rule buffer
+   * @param pId data tag id
+   * @param pValue the object value
+   * @param pValueDesc the Value description
+   * @param pTimestamp the timestamp of the rule evaluation.
+   * @param highPriority whether the timing of high priority rules applies
+   */
+  public void update(final Long pId, final Object pValue, final String pValueDesc, final Timestamp pTimestamp,
+                     final boolean highPriority) {
     log.trace(pId + " entering update()");
-    synchronized (BUFFER_LOCK) {
-      if (!RULE_OBJECT_BUF.containsKey(pId)) {
-        bufferObj = new RuleBufferObject(pId, pValue, pValueDesc, pTimestamp);
-        RULE_OBJECT_BUF.put(pId, bufferObj);
+    final Stripe stripe = stripeOf(pId);
+    synchronized (stripe) {
+      RuleBufferObject bufferObj = stripe.buffer.get(pId);
+      if (bufferObj == null) {
+        bufferObj = new RuleBufferObject(pId, pValue, pValueDesc, pTimestamp, highPriority);
+        addToStripe(stripe, bufferObj);
       }
       else {
-        bufferObj = (RuleBufferObject) RULE_OBJECT_BUF.get(pId);
-        bufferObj.update(pValue, pValueDesc, pTimestamp);
+        bufferObj.update(pValue, pValueDesc, pTimestamp, highPriority);
       }
-      scheduleCacheUpdaterTask(pId);
     }
+    receivedCount.incrementAndGet();
     log.trace(pId + " leaving update()");
   }
 
@@ -127,42 +152,199 @@ public final class RuleUpdateBuffer {
    * @param pTimestamp the timestamp of the rule evaluation
    */
   public void invalidate(final Long pId, final TagQualityStatus pReason, final String pDescription, final Timestamp pTimestamp) {
-    final RuleBufferObject bufferObj;
-    
+    invalidate(pId, pReason, pDescription, pTimestamp, false);
+  }
+
+  /**
+   * Updates the internal rule buffer with an invalidation message
+   * @param pId rule data tag id
+   * @param pReason quality flag
+   * @param pDescription error description
+   * @param pTimestamp the timestamp of the rule evaluation
+   * @param highPriority whether the timing of high priority rules applies
+   */
+  public void invalidate(final Long pId, final TagQualityStatus pReason, final String pDescription, final Timestamp pTimestamp,
+                         final boolean highPriority) {
     log.trace(pId + " entering invalidate()");
-    synchronized (BUFFER_LOCK) {
-      if (!RULE_OBJECT_BUF.containsKey(pId)) {
-        bufferObj = new RuleBufferObject(pId, null, pReason, pDescription, null, pTimestamp);
-        RULE_OBJECT_BUF.put(pId, bufferObj);
+    final Stripe stripe = stripeOf(pId);
+    synchronized (stripe) {
+      RuleBufferObject bufferObj = stripe.buffer.get(pId);
+      if (bufferObj == null) {
+        bufferObj = new RuleBufferObject(pId, null, pReason, pDescription, null, pTimestamp, highPriority);
+        addToStripe(stripe, bufferObj);
       }
       else {
-        bufferObj = (RuleBufferObject) RULE_OBJECT_BUF.get(pId);
-        bufferObj.invalidate(pReason, pDescription, pTimestamp);
+        bufferObj.invalidate(pReason, pDescription, pTimestamp, highPriority);
       }
-      scheduleCacheUpdaterTask(pId);
     }
+    receivedCount.incrementAndGet();
     log.trace(pId + " leaving invalidate()");
   }
 
+  private Stripe stripeOf(final Long pId) {
+    int h = pId.hashCode();
+    h ^= (h >>> 16);
+    return stripes[(h & 0x7fffffff) % stripes.length];
+  }
+
+  /**
+   * Adds a new buffer object to the stripe and starts the flush task
+   * of the stripe, if not yet done. Must be called with the stripe lock held.
+   */
+  private void addToStripe(final Stripe stripe, final RuleBufferObject bufferObj) {
+    stripe.buffer.put(bufferObj.id, bufferObj);
+    queueDepth.incrementAndGet();
+    if (stripe.flushTask == null) {
+      try {
+        log.trace(bufferObj.id + " addToStripe() - Initialize new cache updater task");
+        long interval = Math.max(1, properties.getFlushInterval());
+        stripe.flushTask = flushScheduler.scheduleWithFixedDelay(() -> flush(stripe), interval, interval, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException ree) {
+        log.error(bufferObj.id + " addToStripe() - Cache updater has been shut down", ree);
+      }
+    }
+  }
+
   /**
-   * Registers an update for the given rule id and triggers
-   * the start of the <code>CacheUpdaterTask</code>, if not
-   * yet done.
-   * @param pId the rule process id that has been updated. 
+   * Writes all rule results of the stripe to the cache which have not been
+   * updated during the buffer window, or have been delayed longer than the
+   * maximum delay. The write guard of the stripe is held from the collection
+   * of the results until they are written, the buffer itself is only locked
+   * during the collection.
    */
-  private void scheduleCacheUpdaterTask(final Long pId) {
-    UPDATE_RECEIVED_FLAGS.put(pId, Boolean.TRUE);
-    if (!isCacheUpdaterRunning) {
+  private void flush(final Stripe stripe) {
+    //keep logic in try clause as exception will kill the scheduled task here
+    try {
+      synchronized (stripe.writeGuard) {
+        flushGuarded(stripe);
+      }
+    } catch (Exception ex) {
+      log.error("Exception caught during rule update - should not be ignored!", ex);
+    }
+  }
+
+  private void flushGuarded(final Stripe stripe) {
+    final List<RuleBufferObject> rulesToUpdate = new ArrayList<>();
+    final long now = System.currentTimeMillis();
+
+    synchronized (stripe) {
+      for (Iterator<RuleBufferObject> it = stripe.buffer.values().iterator(); it.hasNext();) {
+        RuleBufferObject rbo = it.next();
+        RuleProperties.BufferTiming timing = rbo.highPriority ? properties.getHighPriority() : properties.getLowPriority();
+        boolean forceCacheUpdate = now - rbo.firstUpdateTime >= timing.getMaxDelay();
+
+        if (now - rbo.lastUpdateTime >= timing.getWindow() || forceCacheUpdate) {
+          // we update the cache since there was no recent update of that rule
+          // OR the buffer was updated during more than the maximum delay ==> force update
+          rulesToUpdate.add(rbo);
+          it.remove();
+          if (forceCacheUpdate) {
+            log.debug("flush() - Forcing a cache update for rule " + rbo.id + " since it was already delayed by "
+                + (now - rbo.firstUpdateTime) + " ms.");
+          }
+        }
+      }
+
+      if (stripe.buffer.isEmpty() && stripe.flushTask != null) {
+        log.trace("flush() - Canceling next cache updater check, because there are no more updates registered.");
+        stripe.flushTask.cancel(false);
+        stripe.flushTask = null;
+      }
+    }
+
+    queueDepth.addAndGet(-rulesToUpdate.size());
+    for (RuleBufferObject rbo : rulesToUpdate) {
+      writeToCache(rbo);
+      recordFlush(now - rbo.firstUpdateTime);
+    }
+  }
+
+  private void writeToCache(final RuleBufferObject rbo) {
+    if (rbo.qualityCollection.isEmpty()) {
+      log.trace("flush() - updating cache for rule id " + rbo.id
+          + ": value=" + rbo.value
+          + ", description=" + rbo.valueDesc
+          + ", timestamp=" + rbo.timestamp);
+      try {
+        ruleTagFacade.updateAndValidate(rbo.id, rbo.value, rbo.valueDesc, rbo.timestamp);
+      } catch (CacheElementNotFoundException cacheEx) {
+        log.warn("Unable to update rule (can happen during rule reconfiguration)", cacheEx);
+      } catch (Exception exception) {
+        log.warn("Unexpected error during rule evaluation", exception);
+      }
+    } else {
+      log.trace("flush() - invalidating cache for rule id " + rbo.id
+          + ": reasons=" + rbo.qualityCollection
+          + ", descriptions=" + rbo.qualityDescriptions
+          + ", timestamp=" + rbo.timestamp);
       try {
-        log.trace(pId + " scheduleCacheUpdaterTask() - Initialize new cache updater task");
-        timer.schedule(new CacheUpdaterTask(), BUFFER_TIMER_MILLIS, BUFFER_TIMER_MILLIS);
-        isCacheUpdaterRunning = true;
-      } catch (IllegalStateException ise) {
-        log.error(pId + "scheduleCacheUpdaterTask() - Catched illegal state exception", ise);
-      }      
+        ruleTagFacade.setQuality(rbo.id, rbo.qualityCollection, null, rbo.qualityDescriptions, rbo.timestamp);
+      } catch (CacheElementNotFoundException cacheEx) {
+        log.warn("Unable to update rule as could not be located in cache (normal during rule reconfiguration)", cacheEx);
+      }
     }
   }
-  
+
+  private void recordFlush(final long latency) {
+    flushedCount.incrementAndGet();
+    totalFlushLatency.addAndGet(latency);
+    maxFlushLatency.accumulate(latency);
+  }
+
+  /**
+   * Stops the flush tasks. Buffered results are not written to the cache anymore.
+   */
+  @PreDestroy
+  public void shutdown() {
+    flushScheduler.shutdownNow();
+  }
+
+  @ManagedAttribute(description = "Number of rule results waiting in the buffer")
+  public int getQueueDepth() {
+    return queueDepth.get();
+  }
+
+  @ManagedAttribute(description = "Number of rule results received by the buffer")
+  public long getReceivedCount() {
+    return receivedCount.get();
+  }
+
+  @ManagedAttribute(description = "Number of rule results written to the cache")
+  public long getFlushedCount() {
+    return flushedCount.get();
+  }
+
+  @ManagedAttribute(description = "Received rule results per result written to the cache")
+  public double getCoalescingRatio() {
+    long flushed = flushedCount.get();
+    return flushed == 0 ? 0 : (double) (receivedCount.get() - queueDepth.get()) / flushed;
+  }
+
+  @ManagedAttribute(description = "Average time in ms a rule result spent in the buffer")
+  public double getAverageFlushLatency() {
+    long flushed = flushedCount.get();
+    return flushed == 0 ? 0 : (double) totalFlushLatency.get() / flushed;
+  }
+
+  @ManagedAttribute(description = "Longest time in ms a rule result spent in the buffer")
+  public long getMaxFlushLatency() {
+    return maxFlushLatency.get();
+  }
+
+  /**
+   * One stripe of the buffer. All fields are guarded by the stripe itself.
+   */
+  private static final class Stripe {
+    /** The buffered rule results, by rule id */
+    private final Map<Long, RuleBufferObject> buffer = new HashMap<>();
+
+    /** The running flush task, or null if the stripe is empty */
+    private ScheduledFuture<?> flushTask;
+
+    /** Held by the flush task writing the results of the stripe to the cache */
+    private final Object writeGuard = new Object();
+  }
+
   /**
    * Inner class which is used to store the rule update
    * information for the cache of the given rule data tag.
@@ -182,20 +364,12 @@ public final class RuleUpdateBuffer {
     private String valueDesc = null; 
     /** rule evaluation timestamp */
     private Timestamp timestamp = null;
-
-    /**
-     * Copy Constructor
-     * @param rbo The object to be copied
-     */
-    @SuppressWarnings("unchecked")
-    private RuleBufferObject(final RuleBufferObject rbo) {
-      this.id = rbo.id;
-      this.value = rbo.value;
-      this.qualityCollection = (HashSet<TagQualityStatus>) rbo.qualityCollection.clone();
-      this.qualityDescriptions = (HashMap<TagQualityStatus, String>) rbo.qualityDescriptions.clone();
-      this.valueDesc = rbo.valueDesc;     
-      this.timestamp = new Timestamp(rbo.timestamp.getTime());
-    }
+    /** whether the timing of high priority rules applies */
+    private boolean highPriority;
+    /** time when the object was put into the buffer */
+    private final long firstUpdateTime = System.currentTimeMillis();
+    /** time of the last update of the object */
+    private long lastUpdateTime = firstUpdateTime;
 
     /**
      * Constructor
@@ -203,9 +377,10 @@ public final class RuleUpdateBuffer {
      * @param pValue rule result
      * @param pValueDesc description
      * @param pTimestamp rule evaluation timestamp
+     * @param pHighPriority whether the timing of high priority rules applies
      */
-    private RuleBufferObject(final Long pId, final Object pValue, final String pValueDesc, final Timestamp pTimestamp) {
-      this(pId, pValue, null, null, pValueDesc, pTimestamp);
+    private RuleBufferObject(final Long pId, final Object pValue, final String pValueDesc, final Timestamp pTimestamp, final boolean pHighPriority) {
+      this(pId, pValue, null, null, pValueDesc, pTimestamp, pHighPriority);
     }
 
     /**
@@ -215,8 +390,10 @@ public final class RuleUpdateBuffer {
      * @param pQuality error quality flag
      * @param pValueDesc description
      * @param pTimestamp rule evaluation timestamp
+     * @param pHighPriority whether the timing of high priority rules applies
      */
-    private RuleBufferObject(final Long pId, final Object pValue, final TagQualityStatus pStatus, final String pQualityDesc, final String pValueDesc, final Timestamp pTimestamp) {
+    private RuleBufferObject(final Long pId, final Object pValue, final TagQualityStatus pStatus, final String pQualityDesc, final String pValueDesc, final Timestamp pTimestamp,
+                             final boolean pHighPriority) {
         this.id = pId;
         this.value = pValue;
         if (pStatus != null) {
@@ -227,6 +404,7 @@ public final class RuleUpdateBuffer {
         }        
         this.valueDesc = pValueDesc;
         this.timestamp = pTimestamp;
+        this.highPriority = pHighPriority;
     }
 
     /**
@@ -234,20 +412,20 @@ public final class RuleUpdateBuffer {
      * @param pValue rule result
      * @param pValueDesc description
      * @param pTimestamp rule evaluation timestamp
+     * @param pHighPriority whether the timing of high priority rules applies
      * @return <code>true</code>, if object was updated, else <code>false</code>
      */
-    private boolean update(final Object pValue, final String pValueDesc, final Timestamp pTimestamp) {
+    private boolean update(final Object pValue, final String pValueDesc, final Timestamp pTimestamp, final boolean pHighPriority) {
       boolean retval = false;
-      synchronized (BUFFER_LOCK) {
-        if (this.timestamp.before(pTimestamp) || this.timestamp.equals(pTimestamp)) {
-          this.value = pValue;
-          this.qualityCollection.clear();
-          this.qualityDescriptions.clear();
-          this.valueDesc = pValueDesc;
-          this.timestamp = pTimestamp;
-          retval = true;
-        }
-      }      
+      if (this.timestamp.before(pTimestamp) || this.timestamp.equals(pTimestamp)) {
+        this.value = pValue;
+        this.qualityCollection.clear();
+        this.qualityDescriptions.clear();
+        this.valueDesc = pValueDesc;
+        this.timestamp = pTimestamp;
+        retval = true;
+      }
+      touch(pHighPriority);
       return retval;
     }
 
@@ -256,9 +434,10 @@ public final class RuleUpdateBuffer {
      * @param pQuality the error quality code
      * @param pDescription error description
      * @param pTimestamp rule evaluation timestamp
+     * @param pHighPriority whether the timing of high priority rules applies
      * @return <code>true</code>, if object was updated, else <code>false</code>
      */
-    private boolean invalidate(final TagQualityStatus pQuality, final String pDescription, final Timestamp pTimestamp) {
+    private boolean invalidate(final TagQualityStatus pQuality, final String pDescription, final Timestamp pTimestamp, final boolean pHighPriority) {
       if (pQuality == null) {
         throw new IllegalArgumentException("invalidate(..) method called with null TagQualityStatus argument.");
       }
@@ -268,110 +447,17 @@ public final class RuleUpdateBuffer {
         this.qualityDescriptions.put(pQuality, pDescription);        
         this.timestamp = pTimestamp;
         retval = true;
-      }      
+      }
+      touch(pHighPriority);
       return retval;
     }
-  } // end of RuleBufferObject class
 
-  /**
-   * This class extends the Java <code>TimerTask</code> and
-   * takes care of updating the oc4j cache via the <code>DataTagFacadeBean</code>.
-   *
-   * @author Matthias Braeger
-   */
-  private static class CacheUpdaterTask extends TimerTask {
     /**
-     * This method is executed when it gets triggered
-     * by its <code>Timer</code> instance. It then takes
-     * care of the cache update for all rules that haven't 
-     * been updated since the last check.
+     * Registers the reception of a new result, which restarts the buffer window.
      */
-    public void run() {
-      //keep logic in try clause as exception will kill the timer thread here
-      try {        
-        Collection<RuleBufferObject> rulesToUpdate = null;
-  
-        // create first a copy of all rule objects that needs to be updated
-        synchronized (BUFFER_LOCK) {
-          rulesToUpdate = new ArrayList<RuleBufferObject>(); // List of rules where the cache shall be updated
-          Integer actCounter = null; // actual cycle counter
-          boolean hasJustBeenUpdated = false; // flag indicating, if the actual rule was updated since the last check
-          boolean forceCacheUpdate = false; // true, if a cache update shall be forced due to an exceed of the MAX_CYCLE_WAIT
-          for (Long actTagId : UPDATE_RECEIVED_FLAGS.keySet()) {
-            hasJustBeenUpdated = ((Boolean) UPDATE_RECEIVED_FLAGS.get(actTagId)).booleanValue();
-            actCounter = (Integer) CYCLE_COUNTERS.get(actTagId);
-            forceCacheUpdate = (actCounter != null && actCounter.intValue() >= MAX_CYCLES_WAIT);
-              
-            if (!hasJustBeenUpdated || forceCacheUpdate) {
-              // False ==> then we update the cache since there was no recent update of that rule
-              // OR we the buffer was updated more than MAX_CYCLES_WAIT cycle in a row ==> force update 
-              RuleBufferObject rbo = new RuleBufferObject((RuleBufferObject) RULE_OBJECT_BUF.get(actTagId));
-              rulesToUpdate.add(rbo);
-              if (forceCacheUpdate) {
-                log.debug("CacheUpdaterTask() - Forcing a cache update for rule "
-                    + actTagId + " since it was already delayed by "
-                    + MAX_CYCLES_WAIT * BUFFER_TIMER_MILLIS + " ms.");
-              }
-            }
-            else {
-              // Set the flag to FALSE in order indicate a cache update at the next check
-              UPDATE_RECEIVED_FLAGS.put(actTagId, Boolean.FALSE);
-              if (actCounter == null) {
-                CYCLE_COUNTERS.put(actTagId, new Integer(1));
-              }
-              else { // Increasing the counter
-                CYCLE_COUNTERS.put(actTagId, new Integer(actCounter.intValue() + 1));
-              }
-            }
-          }
-          
-          // Cleaning the buffer from all objects that are going to be put into the cache.
-          Long actTagId;
-          for (RuleBufferObject rbo : rulesToUpdate) {
-            actTagId = rbo.id;
-            UPDATE_RECEIVED_FLAGS.remove(actTagId);
-            RULE_OBJECT_BUF.remove(actTagId);
-            CYCLE_COUNTERS.remove(actTagId);
-          }
-          
-          if (UPDATE_RECEIVED_FLAGS.size() == 0) {
-            log.trace("CacheUpdaterTask() - Canceling next cache updater check, because there are no more updates registered.");
-            this.cancel();
-            isCacheUpdaterRunning = false;
-          }
-        } // end of synchronization
-        
-        if (rulesToUpdate.size() > 0) {
-          // Updating the cache
-          for (RuleBufferObject rbo : rulesToUpdate) {
-            if (rbo.qualityCollection.isEmpty()) {
-              log.trace("CacheUpdaterTask() - updating cache for rule id " + rbo.id
-                  + ": value=" + rbo.value
-                  + ", description=" + rbo.valueDesc
-                  + ", timestamp=" + rbo.timestamp);
-              try {
-                ruleTagFacade.updateAndValidate(rbo.id, rbo.value, rbo.valueDesc, rbo.timestamp);            
-              } catch (CacheElementNotFoundException cacheEx) {
-                log.warn("Unable to update rule (can happen during rule reconfiguration)", cacheEx);
-              } catch (Exception exception) {
-                log.warn("Unexpected error during rule evaluation", exception);
-              }
-            } else {
-              log.trace("CacheUpdaterTask() - invalidating cache for rule id " + rbo.id
-                  + ": reasons=" + rbo.qualityCollection
-                  + ", descriptions=" + rbo.qualityDescriptions
-                  + ", timestamp=" + rbo.timestamp);
-              try {                
-                ruleTagFacade.setQuality(rbo.id, rbo.qualityCollection, null, rbo.qualityDescriptions, rbo.timestamp);
-              } catch (CacheElementNotFoundException cacheEx) {
-                log.warn("Unable to update rule as could not be located in cache (normal during rule reconfiguration)", cacheEx);
-              }                          
-            }
-          } // end for                    
-        }      
-      } catch (Exception ex) {
-        log.error("Exception caught during rule update - should not be ignored!", ex);
-      }
+    private void touch(final boolean pHighPriority) {
+      this.lastUpdateTime = System.currentTimeMillis();
+      this.highPriority |= pHighPriority;
     }
-  } // end of CacheUpdaterTask class
+  } // end of RuleBufferObject class
 }
@@ -0,0 +1,263 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.server.rule.evaluation;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cern.c2mon.server.cache.RuleTagCache;
+import cern.c2mon.server.common.rule.RuleTag;
+import cern.c2mon.server.rule.evaluation.RuleEvaluationScheduler.BatchEvaluation;
+import cern.c2mon.server.rule.evaluation.RuleEvaluationScheduler.BatchResult;
+import cern.c2mon.shared.common.rule.RuleInputValue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RuleEvaluationSchedulerTest {
+
+  private RuleTagCache ruleTagCache;
+
+  private RuleEvaluationScheduler scheduler;
+
+  private static final Timestamp RESULT_TIMESTAMP = new Timestamp(1000L);
+
+  private final List<Long> evaluatedRules = Collections.synchronizedList(new ArrayList<Long>());
+
+  /**
+   * Rules 10 and 11 depend on data tags only, rule 20 depends on rule 10
+   * and rule 30 on rule 20.
+   */
+  @Before
+  public void setUp() {
+    ruleTagCache = EasyMock.createNiceMock(RuleTagCache.class);
+    mockRule(10L, Arrays.asList(20L), 1L, 2L);
+    mockRule(11L, Collections.<Long>emptyList(), 1L);
+    mockRule(20L, Arrays.asList(30L), 10L, 3L);
+    mockRule(30L, Collections.<Long>emptyList(), 20L);
+    EasyMock.replay(ruleTagCache);
+
+    scheduler = new RuleEvaluationScheduler(new RuleDependencyGraph(ruleTagCache), recording(), 60000, 1);
+  }
+
+  @After
+  public void tearDown() {
+    scheduler.shutdown();
+  }
+
+  @Test
+  public void testDependencyDepth() {
+    RuleDependencyGraph graph = new RuleDependencyGraph(ruleTagCache);
+
+    assertEquals(0, graph.getDepth(10L));
+    assertEquals(0, graph.getDepth(11L));
+    assertEquals(1, graph.getDepth(20L));
+    assertEquals(2, graph.getDepth(30L));
+  }
+
+  @Test
+  public void testDependentRules() {
+    RuleDependencyGraph graph = new RuleDependencyGraph(ruleTagCache);
+
+    assertEquals(new HashSet<>(Arrays.asList(10L, 20L, 30L)), graph.withDependentRules(Arrays.asList(10L)));
+    assertEquals(new HashSet<>(Arrays.asList(11L, 30L)), graph.withDependentRules(Arrays.asList(11L, 30L)));
+  }
+
+  @Test
+  public void testTriggersAreCoalesced() {
+    for (int i = 0; i < 100; i++) {
+      scheduler.schedule(Arrays.asList(11L, 30L));
+    }
+    assertEquals(2, scheduler.getPendingRuleCount());
+
+    scheduler.evaluateBatch();
+
+    assertEquals(2, evaluatedRules.size());
+    assertEquals(200, scheduler.getTriggerCount());
+    assertEquals(2, scheduler.getEvaluationCount());
+    assertEquals(198, scheduler.getSavedEvaluationCount());
+    assertEquals(0, scheduler.getPendingRuleCount());
+  }
+
+  @Test
+  public void testTopologicalOrder() {
+    scheduler.schedule(Arrays.asList(30L, 20L));
+    scheduler.schedule(Arrays.asList(11L, 10L));
+
+    scheduler.evaluateBatch();
+
+    assertEquals(4, evaluatedRules.size());
+    assertTrue(evaluatedRules.indexOf(10L) < evaluatedRules.indexOf(20L));
+    assertTrue(evaluatedRules.indexOf(11L) < evaluatedRules.indexOf(20L));
+    assertEquals(Long.valueOf(30L), evaluatedRules.get(3));
+    assertEquals(3, scheduler.getLastCascadeDepth());
+    assertEquals(3, scheduler.getMaxCascadeDepth());
+  }
+
+  @Test
+  public void testDependentRulesAreAddedToTheBatch() {
+    RuleEvaluationScheduler cascadingScheduler = new RuleEvaluationScheduler(new RuleDependencyGraph(ruleTagCache),
+        (ruleId, results) -> {
+          evaluatedRules.add(ruleId);
+          return new BatchResult(ruleId, ruleId * 2, true, RESULT_TIMESTAMP);
+        }, 60000, 1);
+    try {
+      cascadingScheduler.schedule(Arrays.asList(10L));
+      cascadingScheduler.evaluateBatch();
+
+      assertEquals(Arrays.asList(10L, 20L, 30L), evaluatedRules);
+
+      // the cache updates of the evaluated rules must not trigger them again
+      assertTrue(cascadingScheduler.clearEvaluated(20L, new Timestamp(RESULT_TIMESTAMP.getTime())));
+      assertFalse(cascadingScheduler.clearEvaluated(20L, RESULT_TIMESTAMP));
+      assertFalse(cascadingScheduler.clearEvaluated(11L, RESULT_TIMESTAMP));
+    } finally {
+      cascadingScheduler.shutdown();
+    }
+  }
+
+  @Test
+  public void testResultNotReachingTheCacheDoesNotSwallowLaterUpdates() {
+    RuleEvaluationScheduler cascadingScheduler = new RuleEvaluationScheduler(new RuleDependencyGraph(ruleTagCache),
+        (ruleId, results) -> new BatchResult(ruleId, ruleId * 2, true, RESULT_TIMESTAMP), 60000, 1);
+    try {
+      cascadingScheduler.schedule(Arrays.asList(20L));
+      cascadingScheduler.evaluateBatch();
+
+      // the result of rule 20 is filtered out by the buffer, the next cache update
+      // comes from a later evaluation and must trigger the dependent rules
+      assertFalse(cascadingScheduler.clearEvaluated(20L, new Timestamp(RESULT_TIMESTAMP.getTime() + 1)));
+      assertFalse(cascadingScheduler.clearEvaluated(20L, null));
+    } finally {
+      cascadingScheduler.shutdown();
+    }
+  }
+
+  @Test
+  public void testScheduleAfterShutdownIsIgnored() {
+    scheduler.shutdown();
+
+    scheduler.schedule(Arrays.asList(11L));
+
+    assertTrue(evaluatedRules.isEmpty());
+  }
+
+  @Test
+  public void testPendingRulesAreDroppedOnShutdown() {
+    scheduler.schedule(Arrays.asList(10L));
+
+    scheduler.shutdown();
+
+    assertTrue(evaluatedRules.isEmpty());
+    assertEquals(0, scheduler.getPendingRuleCount());
+  }
+
+  @Test
+  public void testResultsArePassedToTheNextLevels() {
+    final Map<Long, Map<Long, RuleInputValue>> seenResults = new HashMap<>();
+    RuleEvaluationScheduler cascadingScheduler = new RuleEvaluationScheduler(new RuleDependencyGraph(ruleTagCache),
+        (ruleId, results) -> {
+          seenResults.put(ruleId, new HashMap<>(results));
+          return new BatchResult(ruleId, ruleId * 2, true, RESULT_TIMESTAMP);
+        }, 60000, 1);
+    try {
+      cascadingScheduler.schedule(Arrays.asList(30L, 20L, 10L));
+      cascadingScheduler.evaluateBatch();
+
+      assertTrue(seenResults.get(10L).isEmpty());
+      assertEquals(20L, seenResults.get(20L).get(10L).getValue());
+      assertEquals(40L, seenResults.get(30L).get(20L).getValue());
+    } finally {
+      cascadingScheduler.shutdown();
+    }
+  }
+
+  @Test
+  public void testRulesTriggeredDuringBatchAreLeftForNextBatch() {
+    final AtomicReference<RuleEvaluationScheduler> self = new AtomicReference<>();
+    RuleEvaluationScheduler cascadingScheduler = new RuleEvaluationScheduler(new RuleDependencyGraph(ruleTagCache),
+        (ruleId, results) -> {
+          evaluatedRules.add(ruleId);
+          if (ruleId == 11L) {
+            self.get().schedule(Arrays.asList(30L));
+          }
+          return null;
+        }, 60000, 1);
+    self.set(cascadingScheduler);
+    try {
+      cascadingScheduler.schedule(Arrays.asList(11L));
+      cascadingScheduler.evaluateBatch();
+
+      assertEquals(Arrays.asList(11L), evaluatedRules);
+      assertEquals(1, cascadingScheduler.getPendingRuleCount());
+
+      cascadingScheduler.evaluateBatch();
+      assertEquals(Arrays.asList(11L, 30L), evaluatedRules);
+    } finally {
+      cascadingScheduler.shutdown();
+    }
+  }
+
+  @Test
+  public void testParallelEvaluation() {
+    RuleEvaluationScheduler parallelScheduler =
+        new RuleEvaluationScheduler(new RuleDependencyGraph(ruleTagCache), recording(), 60000, 4);
+    try {
+      parallelScheduler.schedule(Arrays.asList(30L, 20L, 11L, 10L));
+      parallelScheduler.evaluateBatch();
+
+      assertEquals(4, evaluatedRules.size());
+      assertEquals(Long.valueOf(20L), evaluatedRules.get(2));
+      assertEquals(Long.valueOf(30L), evaluatedRules.get(3));
+      assertEquals(1, parallelScheduler.getBatchCount());
+    } finally {
+      parallelScheduler.shutdown();
+    }
+  }
+
+  /**
+   * @return an evaluation recording the evaluated rules, without result
+   */
+  private BatchEvaluation recording() {
+    return (ruleId, results) -> {
+      evaluatedRules.add(ruleId);
+      return null;
+    };
+  }
+
+  private void mockRule(final Long ruleId, final List<Long> dependentRuleIds, final Long... inputTagIds) {
+    RuleTag rule = EasyMock.createMock(RuleTag.class);
+    EasyMock.expect(rule.getRuleInputTagIds()).andReturn(Arrays.asList(inputTagIds)).anyTimes();
+    EasyMock.expect(rule.getRuleIds()).andReturn(dependentRuleIds).anyTimes();
+    EasyMock.replay(rule);
+    EasyMock.expect(ruleTagCache.get(ruleId)).andReturn(rule).anyTimes();
+    EasyMock.expect(ruleTagCache.hasKey(ruleId)).andReturn(true).anyTimes();
+  }
+}
@@ -17,60 +17,169 @@
 package cern.c2mon.server.rule.evaluation;
 
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import org.easymock.EasyMock;
+import org.junit.After;
 import org.junit.Before;
+import org.junit.Test;
 
+import cern.c2mon.server.cache.RuleTagFacade;
+import cern.c2mon.server.rule.config.RuleProperties;
 import cern.c2mon.shared.common.datatag.TagQualityStatus;
 
 import static org.junit.Assert.*;
 
 
 /**
- * It is difficult to test the full <code>RuleUpdateBuffer</code> logic,
- * since it uses JNDI and needs a J2EE container. However, you can comment
- * out the call to the <code>DataTagFacadeBean</code> and test the basic
- * behavior.
- * 
- * TODO need to adapt this to C2MON code ... only started so far
+ * Tests the <code>RuleUpdateBuffer</code> logic with a mocked
+ * <code>RuleTagFacade</code>.
  *
  * @author Matthias Braeger
  */
 public class RuleUpdateBufferTest {
-  
-  /** Singleton instance */
+
+  /** Buffer instance under test */
   private RuleUpdateBuffer rub = null;
-  
-  
+
+  private RuleTagFacade ruleTagFacade;
+
+  private RuleProperties properties;
+
   /**
    * It is called before running any of the tests defined on this class
    */
   @Before
-  protected final void setUp() {
-    //rub = RuleUpdateBuffer.getInstance();
+  public final void setUp() {
+    ruleTagFacade = EasyMock.createStrictMock(RuleTagFacade.class);
+    properties = new RuleProperties();
+    properties.getUpdateBuffer().setStripes(4);
+    properties.getUpdateBuffer().setFlushInterval(10);
+    properties.getUpdateBuffer().getLowPriority().setWindow(100);
+    properties.getUpdateBuffer().getLowPriority().setMaxDelay(5000);
+    properties.getUpdateBuffer().getHighPriority().setWindow(20);
+    properties.getUpdateBuffer().getHighPriority().setMaxDelay(5000);
+    rub = new RuleUpdateBuffer(ruleTagFacade, properties);
+  }
+
+  @After
+  public final void tearDown() {
+    rub.shutdown();
   }
-  
-  
-  public final void testUpdate() {
+
+  @Test
+  public final void testUpdatesAreCoalesced() throws InterruptedException {
+    Timestamp timestamp = new Timestamp(System.currentTimeMillis());
+    ruleTagFacade.updateAndValidate(1234L, "test 99", "testUpdate 99", timestamp);
+    EasyMock.replay(ruleTagFacade);
+
     for (int i = 0; i < 100; i++) {
-      rub.update(new Long(1234L), (Object) ("test " + i), "testUpdate " + i, new Timestamp(System.currentTimeMillis()));
-//      try {Thread.sleep(40);} catch (InterruptedException e) {}
-      rub.update(new Long(1235L), (Object) ("test " + i), "testUpdate " + i, new Timestamp(System.currentTimeMillis()));
-      try {Thread.sleep(65);} catch (InterruptedException e) {}
-      System.out.println(i);
+      rub.update(1234L, "test " + i, "testUpdate " + i, timestamp);
     }
-    
-    try {Thread.sleep(1000);} catch (InterruptedException e) {}
-    assertTrue(true);
+    assertEquals(1, rub.getQueueDepth());
+    waitUntilFlushed(1);
+
+    EasyMock.verify(ruleTagFacade);
+    assertEquals(0, rub.getQueueDepth());
+    assertEquals(100, rub.getReceivedCount());
+    assertEquals(100.0, rub.getCoalescingRatio(), 0.001);
+    assertTrue(rub.getMaxFlushLatency() >= 100);
   }
-  
-  public final void testInvalidate() {
-    for (int i = 0; i < 100; i++) {
-      rub.invalidate(new Long(12345L), TagQualityStatus.INACCESSIBLE, "testUpdate " + i, new Timestamp(System.currentTimeMillis()));
-      try {Thread.sleep(60);} catch (InterruptedException e) {}
-      System.out.println(i);
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public final void testInvalidate() throws InterruptedException {
+    Timestamp timestamp = new Timestamp(System.currentTimeMillis());
+    ruleTagFacade.setQuality(EasyMock.eq(12345L), (Collection<TagQualityStatus>) EasyMock.anyObject(),
+        (Collection<TagQualityStatus>) EasyMock.isNull(), (Map<TagQualityStatus, String>) EasyMock.anyObject(), EasyMock.eq(timestamp));
+    EasyMock.replay(ruleTagFacade);
+
+    rub.update(12345L, "value", "test", new Timestamp(timestamp.getTime() - 1));
+    rub.invalidate(12345L, TagQualityStatus.INACCESSIBLE, "testInvalidate", timestamp);
+    waitUntilFlushed(1);
+
+    EasyMock.verify(ruleTagFacade);
+  }
+
+  @Test
+  public final void testMaxDelay() throws InterruptedException {
+    properties.getUpdateBuffer().getLowPriority().setMaxDelay(200);
+    ruleTagFacade.updateAndValidate(EasyMock.eq(1L), EasyMock.anyObject(), EasyMock.anyObject(String.class),
+        EasyMock.anyObject(Timestamp.class));
+    EasyMock.replay(ruleTagFacade);
+
+    long start = System.currentTimeMillis();
+    while (rub.getFlushedCount() == 0 && System.currentTimeMillis() - start < 2000) {
+      rub.update(1L, Boolean.TRUE, "test", new Timestamp(System.currentTimeMillis()));
+      Thread.sleep(10);
+    }
+
+    assertEquals(1, rub.getFlushedCount());
+    EasyMock.verify(ruleTagFacade);
+  }
+
+  @Test
+  public final void testHighPriorityWindow() throws InterruptedException {
+    Timestamp timestamp = new Timestamp(System.currentTimeMillis());
+    ruleTagFacade.updateAndValidate(2L, "alarm", "test", timestamp);
+    EasyMock.replay(ruleTagFacade);
+
+    rub.update(2L, "alarm", "test", timestamp, true);
+    waitUntilFlushed(1);
+
+    assertTrue(rub.getMaxFlushLatency() < 100);
+    EasyMock.verify(ruleTagFacade);
+  }
+
+  @Test
+  public final void testWritesOfARuleAreNotOverlapping() throws InterruptedException {
+    final CountDownLatch firstWriteStarted = new CountDownLatch(1);
+    final CountDownLatch releaseFirstWrite = new CountDownLatch(1);
+    final List<Object> writtenValues = Collections.synchronizedList(new ArrayList<>());
+    ruleTagFacade = EasyMock.createMock(RuleTagFacade.class);
+    ruleTagFacade.updateAndValidate(EasyMock.eq(3L), EasyMock.anyObject(), EasyMock.anyObject(String.class),
+        EasyMock.anyObject(Timestamp.class));
+    EasyMock.expectLastCall().andAnswer(() -> {
+      Object value = EasyMock.getCurrentArguments()[1];
+      if ("first".equals(value)) {
+        firstWriteStarted.countDown();
+        releaseFirstWrite.await(5, TimeUnit.SECONDS);
+      }
+      writtenValues.add(value);
+      return null;
+    }).times(2);
+    // EasyMock serializes the calls of thread safe mocks, which would hide overlapping writes
+    EasyMock.makeThreadSafe(ruleTagFacade, false);
+    EasyMock.replay(ruleTagFacade);
+    properties.getUpdateBuffer().setFlushThreads(2);
+    rub.shutdown();
+    rub = new RuleUpdateBuffer(ruleTagFacade, properties);
+
+    rub.update(3L, "first", "test", new Timestamp(System.currentTimeMillis()), true);
+    assertTrue(firstWriteStarted.await(5, TimeUnit.SECONDS));
+    // the stripe is empty again: this update starts a new flush task
+    rub.update(3L, "second", "test", new Timestamp(System.currentTimeMillis()), true);
+    Thread.sleep(200);
+    assertTrue(writtenValues.isEmpty());
+
+    releaseFirstWrite.countDown();
+    waitUntilFlushed(2);
+
+    assertEquals(Arrays.asList("first", "second"), writtenValues);
+    EasyMock.verify(ruleTagFacade);
+  }
+
+  private void waitUntilFlushed(final long count) throws InterruptedException {
+    long start = System.currentTimeMillis();
+    while (rub.getFlushedCount() < count && System.currentTimeMillis() - start < 5000) {
+      Thread.sleep(10);
     }
-    
-    try {Thread.sleep(1000);} catch (InterruptedException e) {}
-    assertTrue(true);
   }
 }
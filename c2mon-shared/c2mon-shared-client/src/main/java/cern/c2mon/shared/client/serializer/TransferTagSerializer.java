@@ -26,9 +26,17 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 import static cern.c2mon.shared.common.type.TypeConverter.cast;
 import static cern.c2mon.shared.common.type.TypeConverter.getType;
@@ -93,6 +101,95 @@ public class TransferTagSerializer {
     return tag;
   }
 
+  /**
+   * Joins already serialized tag updates into a single json array, as sent by
+   * the server when the tag publication is batched.
+   * @param tagUpdatesJson The json Strings of the single tag updates.
+   * @return The json array String
+   */
+  public static String toJsonArray(Collection<String> tagUpdatesJson) {
+    StringBuilder builder = new StringBuilder();
+    builder.append('[');
+    for (String tagUpdateJson : tagUpdatesJson) {
+      if (builder.length() > 1) {
+        builder.append(',');
+      }
+      builder.append(tagUpdateJson);
+    }
+    return builder.append(']').toString();
+  }
+
+  /**
+   * @param json A json String received from a tag topic.
+   * @return True if the String holds a batch of tag updates (json array) rather than a single update
+   */
+  public static boolean isJsonArray(String json) {
+    for (int i = 0; i < json.length(); i++) {
+      char c = json.charAt(i);
+      if (!Character.isWhitespace(c)) {
+        return c == '[';
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Converts a json array of tag updates back into TagValueUpdate instances. The embedded Tag values
+   * are casted into the class type of the tags, as done by {@link #fromJson(String, Class)}.
+   * @param tagUpdatesJson The json array String.
+   * @param dataType The data type of the tags.
+   * @param <T>
+   * @return The tag updates, in the order of the array. Null if the String cannot be deserialized.
+   */
+  public static <T extends TagValueUpdate> List<T> fromJsonArray(String tagUpdatesJson, Class<T> dataType) {
+    List<T> result = null;
+
+    try {
+      result = mapper.readValue(tagUpdatesJson, mapper.getTypeFactory().constructCollectionType(List.class, dataType));
+      for (T resultElement : result) {
+        resultElement.setValue(convertTagValue(resultElement));
+      }
+    } catch (IOException e) {
+      log.warn("Error occurred while converting the json array back to objects: " + e.getMessage());
+    }
+
+    return result;
+  }
+
+  /**
+   * Compresses a json String (deflate on the UTF-8 bytes), used for the binary tag update messages.
+   * @param json The json String.
+   * @return The compressed bytes
+   */
+  public static byte[] compress(String json) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(json.length() / 4 + 16);
+    try (OutputStream out = new DeflaterOutputStream(bytes)) {
+      out.write(json.getBytes(StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      // cannot happen when writing to memory
+      throw new IllegalStateException("Compression of json failed", e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Reverts {@link #compress(String)}.
+   * @param compressedJson The compressed bytes.
+   * @return The json String
+   * @throws IOException if the bytes are not a valid compressed payload
+   */
+  public static String decompress(byte[] compressedJson) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(compressedJson.length * 4);
+    try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(compressedJson))) {
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        bytes.write(buffer, 0, read);
+      }
+    }
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+
   /**
    *
    * @param tagUpdateJson Converts the json String into a collection of TagValueUpdate instances. By doing this the embedded TagValue of the tags
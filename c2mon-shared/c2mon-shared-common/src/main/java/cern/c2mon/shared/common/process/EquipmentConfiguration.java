@@ -118,6 +118,13 @@ public class EquipmentConfiguration implements IEquipmentConfiguration, Cloneabl
    */
   private Map<Long, SourceDataTag> sourceDataTags = new ConcurrentHashMap<>();
 
+  /**
+   * The ids of the source data tags by tag name. Kept up to date by the DAQ
+   * core on reconfiguration, and rebuilt from the source data tags if found
+   * outdated (the live map of tags can be changed directly).
+   */
+  private final Map<String, Long> sourceDataTagIdsByName = new ConcurrentHashMap<>();
+
   /**
    * Only used internally to deserialise from XML! Please use {@link #sourceDataTags} instead
    * The list of SourceDataTags that will be deserialised and converted to the
@@ -463,12 +470,66 @@ public class EquipmentConfiguration implements IEquipmentConfiguration, Cloneabl
 
   @Override
   public Long getSourceDataTagIdByName(String name) {
-   SourceDataTag tag = sourceDataTags.values().stream()
-        .filter(t -> t.getName().equals(name))
-        .findFirst()
-        .orElseThrow(() -> new IllegalArgumentException("No SourceDataTag with the name " + name + " attached to the equipment."));
+    Long id = name == null ? null : sourceDataTagIdsByName.get(name);
+    if (id != null && isNameOf(name, id)) {
+      return id;
+    }
+    // a plain miss only rebuilds the index if tags were added to the live map without being indexed
+    if (id != null || sourceDataTagIdsByName.size() != sourceDataTags.size()) {
+      rebuildSourceDataTagNameIndex();
+      id = name == null ? null : sourceDataTagIdsByName.get(name);
+    }
+    if (id == null) {
+      throw new IllegalArgumentException("No SourceDataTag with the name " + name + " attached to the equipment.");
+    }
+    return id;
+  }
+
+  /**
+   * Adds a configured source data tag to the name index, replacing the entry
+   * of its previous name if given.
+   *
+   * @param sourceDataTag the added or updated data tag
+   * @param oldName the name of the tag before the update, or null
+   */
+  public void indexSourceDataTagName(final SourceDataTag sourceDataTag, final String oldName) {
+    if (oldName != null && !oldName.equals(sourceDataTag.getName())) {
+      sourceDataTagIdsByName.remove(oldName, sourceDataTag.getId());
+    }
+    if (sourceDataTag.getName() != null) {
+      sourceDataTagIdsByName.put(sourceDataTag.getName(), sourceDataTag.getId());
+    }
+  }
+
+  /**
+   * @param sourceDataTag the data tag to remove from the name index
+   */
+  public void removeSourceDataTagName(final SourceDataTag sourceDataTag) {
+    if (sourceDataTag.getName() != null) {
+      sourceDataTagIdsByName.remove(sourceDataTag.getName(), sourceDataTag.getId());
+    }
+  }
 
-    return tag.getId();
+  private boolean isNameOf(final String name, final Long id) {
+    SourceDataTag tag = sourceDataTags.get(id);
+    return tag != null && name.equals(tag.getName());
+  }
+
+  /**
+   * Updates the index in place, so that the names indexed concurrently by
+   * the reconfiguration are not lost.
+   */
+  private void rebuildSourceDataTagNameIndex() {
+    for (SourceDataTag tag : sourceDataTags.values()) {
+      if (tag.getName() != null) {
+        sourceDataTagIdsByName.put(tag.getName(), tag.getId());
+      }
+    }
+    for (Map.Entry<String, Long> entry : sourceDataTagIdsByName.entrySet()) {
+      if (!isNameOf(entry.getKey(), entry.getValue())) {
+        sourceDataTagIdsByName.remove(entry.getKey(), entry.getValue());
+      }
+    }
   }
 
   /**
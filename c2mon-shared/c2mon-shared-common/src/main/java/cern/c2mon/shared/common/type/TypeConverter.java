@@ -20,6 +20,8 @@ import java.awt.Color;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.text.DateFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -35,6 +37,12 @@ public final class TypeConverter  {
 
   private static final String JAVA_LANG_PREFIX = "java.lang.";
 
+  /**
+   * The classes already looked up by {@link #getType(String)}, by type name.
+   * Unknown type names are mapped to {@link UnknownType}.
+   */
+  private static final Map<String, Class<?>> TYPES = new ConcurrentHashMap<>();
+
   /**
    * Hidden default constructor
    */
@@ -598,12 +606,17 @@ public final class TypeConverter  {
       return null;
     }
 
+    Class<?> type = TYPES.computeIfAbsent(typeName, TypeConverter::loadType);
+    return type == UnknownType.class ? null : type;
+  }
+
+  private static Class<?> loadType(String typeName) {
     String fullPath = typeName.contains(".") ? typeName : JAVA_LANG_PREFIX + typeName;
 
     try {
       return Class.forName(fullPath);
     } catch (ClassNotFoundException e) {
-      return null;
+      return UnknownType.class;
     }
   }
 
@@ -619,4 +632,10 @@ public final class TypeConverter  {
 	  String fullPath = !typeName.contains(".") ? JAVA_LANG_PREFIX + typeName : typeName;
 	  return fullPath.startsWith(JAVA_LANG_PREFIX) && !fullPath.equals("java.lang.Object");
   }
+
+  /**
+   * Marks the type names without class in the {@link #TYPES} cache.
+   */
+  private static final class UnknownType {
+  }
 }
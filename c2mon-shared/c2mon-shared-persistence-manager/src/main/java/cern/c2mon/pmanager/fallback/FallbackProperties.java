@@ -44,6 +44,21 @@ public final class FallbackProperties {
     /** It indicates the number of lines that can be read from the fallback file at each time*/
     public static final String NUMBER_LINES_FROM_FILE = "2000";
 
+    /** It indicates whether the binary segmented log is used instead of the text fallback file*/
+    private static final String BINARY_LOG = "false";
+
+    /** It indicates the size in megabytes of the binary log segment files*/
+    private static final String SEGMENT_SIZE = "64";
+
+    /** It indicates the number of fallback batches committed in parallel by the recovery*/
+    private static final String RECOVERY_THREADS = "1";
+
+    /** It indicates the share of the DB time left to the live writes while recovering*/
+    private static final String LIVE_WRITE_SHARE = "0.5";
+
+    /** It indicates the factor of the normal live write latency above which the recovery pauses*/
+    private static final String PAUSE_LATENCY_FACTOR = "3";
+
     /** It indicates with which frequency (each number of lines) the check for the disc size should be done*/
     private int freeSpaceCheckFrequency = Integer.parseInt(FREE_SPACE_CHECK_FREQUENCY);
 
@@ -53,6 +68,21 @@ public final class FallbackProperties {
     /** Number of lines that will be read in each go from the fallback file */
     private int numberLinesToReadFromFile = Integer.parseInt(NUMBER_LINES_FROM_FILE);
 
+    /** Whether the fallback data is stored in a {@link SegmentedFallbackLog} */
+    private boolean binaryLog = Boolean.parseBoolean(BINARY_LOG);
+
+    /** Size in megabytes of the segment files of the binary log */
+    private int segmentSize = Integer.parseInt(SEGMENT_SIZE);
+
+    /** Number of fallback batches committed in parallel by the recovery */
+    private int recoveryThreads = Integer.parseInt(RECOVERY_THREADS);
+
+    /** Share of the DB time (between 0 and 1) left to the live writes while recovering */
+    private double liveWriteShare = Double.parseDouble(LIVE_WRITE_SHARE);
+
+    /** Factor of the normal live write latency above which the recovery pauses (0 to never pause) */
+    private double pauseLatencyFactor = Double.parseDouble(PAUSE_LATENCY_FACTOR);
+
     /** It indicates that an error while getting the free space in the system's disc has occurred*/
     public static final int CMD_FREE_SPACE_ERROR = -1;
 
@@ -89,6 +119,11 @@ public final class FallbackProperties {
             this.minimunDiscFreeSpace = Integer.parseInt(fallbackProperties.getProperty("fallback.minimum.freespace", FREE_SPACE_CHECK_FREQUENCY));
             this.freeSpaceCheckFrequency = Integer.parseInt(fallbackProperties.getProperty("fallback.discsize.check", DISC_SIZE_CHECK));
             this.numberLinesToReadFromFile = Integer.parseInt(fallbackProperties.getProperty("fallback.read.lines.per.iteration", NUMBER_LINES_FROM_FILE));
+            this.binaryLog = Boolean.parseBoolean(fallbackProperties.getProperty("fallback.binary.log", BINARY_LOG));
+            this.segmentSize = Integer.parseInt(fallbackProperties.getProperty("fallback.binary.segment.size", SEGMENT_SIZE));
+            this.recoveryThreads = Integer.parseInt(fallbackProperties.getProperty("fallback.recovery.threads", RECOVERY_THREADS));
+            this.liveWriteShare = Double.parseDouble(fallbackProperties.getProperty("fallback.recovery.live.share", LIVE_WRITE_SHARE));
+            this.pauseLatencyFactor = Double.parseDouble(fallbackProperties.getProperty("fallback.recovery.pause.latency.factor", PAUSE_LATENCY_FACTOR));
           } else {
               LOG.warn(new StringBuffer("init() : Unable to find/read properties file ").append(PROPERTY_FILE_NAME).toString());
               LOG.info("init() : Using default values for the fallback parameters");
@@ -131,4 +166,39 @@ public final class FallbackProperties {
     public int getNumberLinesToReadFromFile() {
         return numberLinesToReadFromFile;
     }
+
+    /**
+     * @return whether the binary segmented log is used instead of the text fallback file
+     */
+    public boolean isBinaryLog() {
+        return binaryLog;
+    }
+
+    /**
+     * @return the size in megabytes of the binary log segment files
+     */
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * @return the number of fallback batches committed in parallel by the recovery
+     */
+    public int getRecoveryThreads() {
+        return recoveryThreads;
+    }
+
+    /**
+     * @return the share of the DB time (between 0 and 1) left to the live writes while recovering
+     */
+    public double getLiveWriteShare() {
+        return liveWriteShare;
+    }
+
+    /**
+     * @return the factor of the normal live write latency above which the recovery pauses
+     */
+    public double getPauseLatencyFactor() {
+        return pauseLatencyFactor;
+    }
 }
@@ -0,0 +1,469 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.pmanager.fallback;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cern.c2mon.pmanager.IFallback;
+import cern.c2mon.pmanager.fallback.exception.DataFallbackException;
+import cern.c2mon.pmanager.fallback.manager.FallbackObjectContainer;
+
+/**
+ * Binary alternative to the text fallback file. The records are appended to
+ * memory-mapped segment files, each record being stored as its length, a
+ * CRC32 checksum and the UTF-8 bytes of its string representation. The
+ * position of the first record not yet committed to the DB is kept in a
+ * separate offset file, which is forced to disk on each acknowledgement.
+ *
+ * <p>The records are read back in batches, without having to parse the file
+ * line by line, and a segment file is deleted as soon as all its records have
+ * been acknowledged. Torn or corrupted records found when opening the log are
+ * logged and skipped.
+ *
+ * <p>This class is not thread-safe: like the {@link FallbackFileController},
+ * the callers synchronize on the controller.
+ *
+ * <p>Files used for a fallback path <code>/dir/file.log</code>:
+ * <code>/dir/file.log-0000000000.seg</code>, ... and
+ * <code>/dir/file.log.offset</code>.
+ */
+public class SegmentedFallbackLog {
+
+    /** Log4j logger for the fallback related debug and error messages */
+    private static final Logger LOG = LoggerFactory.getLogger("HistoryFallbackLogger");
+
+    /** Suffix of the segment files */
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    /** Suffix of the file storing the acknowledged position */
+    private static final String OFFSET_SUFFIX = ".offset";
+
+    /** Size of the record header: payload length and checksum */
+    private static final int HEADER_SIZE = 8;
+
+    /** Size of the offset file: segment id and position in the segment */
+    private static final int OFFSET_FILE_SIZE = 12;
+
+    /** Directory of the segment files */
+    private final File directory;
+
+    /** Name of the fallback file, used as prefix of the segment files */
+    private final String prefix;
+
+    /** Size in bytes of new segments */
+    private final int segmentSize;
+
+    /** The segments, by id */
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+    /** Channel and mapped buffer of the offset file */
+    private final FileChannel offsetChannel;
+
+    private final MappedByteBuffer offsetBuffer;
+
+    /** Position of the first record not acknowledged yet (persisted in the offset file) */
+    private Position acknowledged;
+
+    /** Position of the next record to read */
+    private Position readPosition;
+
+    /** Number of records appended to the log since it was last emptied */
+    private int numberOfRecords;
+
+    /** Number of these records that have been acknowledged */
+    private int acknowledgedRecords;
+
+    /**
+     * Opens the log stored next to the given fallback file, creating it if
+     * needed.
+     *
+     * @param fallbackPath the path of the fallback file
+     * @param segmentSize the size in bytes of the segment files
+     * @throws DataFallbackException if the log files cannot be opened
+     */
+    public SegmentedFallbackLog(final String fallbackPath, final int segmentSize) throws DataFallbackException {
+        File fallbackFile = new File(fallbackPath).getAbsoluteFile();
+        this.directory = fallbackFile.getParentFile();
+        this.prefix = fallbackFile.getName() + "-";
+        this.segmentSize = segmentSize;
+        try {
+            openSegments();
+            offsetChannel = new RandomAccessFile(fallbackFile.getPath() + OFFSET_SUFFIX, "rw").getChannel();
+            offsetBuffer = offsetChannel.map(FileChannel.MapMode.READ_WRITE, 0, OFFSET_FILE_SIZE);
+        } catch (IOException e) {
+            throw new DataFallbackException("The fallback log " + fallbackPath + " could not be opened: " + e.getMessage());
+        }
+
+        // a new offset file is zero-filled, pointing to the start of the first segment
+        long ackSegment = offsetBuffer.getLong(0);
+        Segment segment = segments.get(ackSegment);
+        if (segment != null) {
+            acknowledged = new Position(ackSegment, Math.min(offsetBuffer.getInt(8), segment.end));
+        } else {
+            acknowledged = new Position(segments.firstKey(), 0);
+        }
+        deleteSegmentsBefore(acknowledged.segment);
+        readPosition = acknowledged;
+        for (Segment remaining : segments.values()) {
+            numberOfRecords += remaining.records;
+        }
+        Position start = new Position(segments.firstKey(), 0);
+        while (comesBefore(start, acknowledged)) {
+            start = skip(start, 1);
+            acknowledgedRecords++;
+        }
+        LOG.info("SegmentedFallbackLog() - Opened the fallback log " + fallbackPath + " with " + segments.size()
+                + " segment(s) and " + numberOfRecords + " record(s)");
+    }
+
+    /**
+     * Maps the existing segments, finding the end of the valid records in
+     * each of them, or creates the first segment.
+     */
+    private void openSegments() throws IOException {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(prefix) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        long id = Long.parseLong(name.substring(prefix.length(), name.length() - SEGMENT_SUFFIX.length()));
+                        segments.put(id, new Segment(id, file, (int) file.length()));
+                    } catch (NumberFormatException e) {
+                        LOG.warn("openSegments() - Ignoring the file " + file.getPath());
+                    }
+                }
+            }
+        }
+        for (Segment segment : segments.values()) {
+            segment.recover();
+        }
+        if (segments.isEmpty()) {
+            createSegment(0, segmentSize);
+        }
+    }
+
+    /**
+     * Appends the string representations of the objects to the log.
+     *
+     * @param objects the objects to append
+     * @throws DataFallbackException if the records cannot be written
+     */
+    public final void append(final List<? extends IFallback> objects) throws DataFallbackException {
+        CRC32 crc = new CRC32();
+        try {
+            for (IFallback object : objects) {
+                byte[] payload = object.toString().getBytes(StandardCharsets.UTF_8);
+                Segment segment = segments.lastEntry().getValue();
+                if (segment.end + HEADER_SIZE + payload.length > segment.capacity()) {
+                    segment = createSegment(segment.id + 1, Math.max(segmentSize, HEADER_SIZE + payload.length));
+                }
+                crc.reset();
+                crc.update(payload);
+                ByteBuffer buffer = segment.buffer.duplicate();
+                buffer.position(segment.end + HEADER_SIZE);
+                buffer.put(payload);
+                segment.buffer.putInt(segment.end + 4, (int) crc.getValue());
+                // the length is written last: a record is only visible once complete
+                segment.buffer.putInt(segment.end, payload.length);
+                segment.end += HEADER_SIZE + payload.length;
+                segment.records++;
+                numberOfRecords++;
+            }
+        } catch (IOException e) {
+            throw new DataFallbackException("append() - A new fallback segment could not be created: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the next records of the log. They are read again after a
+     * {@link #rewind(int)}, until they are acknowledged.
+     *
+     * @param maxRecords the maximum number of records to read
+     * @param fallbackObj the IFallback object used to parse the records
+     * @return the parsed objects and the number of records read (including the ones that could not be parsed)
+     */
+    public final FallbackObjectContainer read(final int maxRecords, final IFallback fallbackObj) {
+        List<IFallback> objects = new ArrayList<>();
+        int readRecords = 0;
+        Position position = normalize(readPosition);
+        while (readRecords < maxRecords && hasRecord(position)) {
+            Segment segment = segments.get(position.segment);
+            String record = segment.readRecord(position.offset);
+            if (record != null) {
+                try {
+                    objects.add(fallbackObj.getObject(record));
+                } catch (DataFallbackException e) {
+                    LOG.error("read() - " + e.getMessage() + "" + record);
+                }
+            }
+            readRecords++;
+            position = normalize(new Position(position.segment, position.offset + HEADER_SIZE + segment.buffer.getInt(position.offset)));
+        }
+        readPosition = position;
+        return new FallbackObjectContainer(objects, readRecords);
+    }
+
+    /**
+     * Marks the given number of records, from the last acknowledged one, as
+     * committed. The segments whose records are all acknowledged are deleted.
+     *
+     * @param numberOfRecords the number of records to acknowledge
+     * @throws DataFallbackException if the acknowledged position cannot be stored
+     */
+    public final void acknowledge(final int numberOfRecords) throws DataFallbackException {
+        Position position = acknowledged;
+        for (int i = 0; i < numberOfRecords && hasRecord(normalize(position)); i++) {
+            position = skip(position, 1);
+            acknowledgedRecords++;
+        }
+        acknowledged = normalize(position);
+        if (comesBefore(readPosition, acknowledged)) {
+            readPosition = acknowledged;
+        }
+        deleteSegmentsBefore(acknowledged.segment);
+        try {
+            if (isEmpty() && acknowledged.offset > 0) {
+                // start again with an empty segment, releasing the disk space
+                Segment last = segments.lastEntry().getValue();
+                createSegment(last.id + 1, segmentSize);
+                acknowledged = new Position(last.id + 1, 0);
+                readPosition = acknowledged;
+                deleteSegmentsBefore(acknowledged.segment);
+                this.numberOfRecords = 0;
+                acknowledgedRecords = 0;
+            }
+            offsetBuffer.putLong(0, acknowledged.segment);
+            offsetBuffer.putInt(8, acknowledged.offset);
+            offsetBuffer.force();
+        } catch (IOException e) {
+            throw new DataFallbackException("acknowledge() - The fallback log offset could not be stored: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Moves the read position back to the last acknowledged record, skipping
+     * the given number of records.
+     *
+     * @param skippedRecords the number of records after the last acknowledged one to skip
+     */
+    public final void rewind(final int skippedRecords) {
+        readPosition = skip(acknowledged, skippedRecords);
+    }
+
+    /**
+     * @return true if all records of the log have been acknowledged
+     */
+    public final boolean isEmpty() {
+        return !hasRecord(normalize(acknowledged));
+    }
+
+    /**
+     * @return the number of records appended since the log was last emptied
+     */
+    public final int getNumberOfRecords() {
+        return numberOfRecords;
+    }
+
+    /**
+     * @return the number of records not acknowledged yet
+     */
+    public final int getNumberOfPendingRecords() {
+        return numberOfRecords - acknowledgedRecords;
+    }
+
+    /**
+     * Forces the segments to disk and closes the log files.
+     */
+    public final void close() {
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+        try {
+            offsetChannel.close();
+        } catch (IOException e) {
+            LOG.error("close() - The fallback log offset file could not be closed", e);
+        }
+    }
+
+    private Position skip(final Position from, final int numberOfRecords) {
+        Position position = from;
+        for (int i = 0; i < numberOfRecords; i++) {
+            position = normalize(position);
+            if (!hasRecord(position)) {
+                break;
+            }
+            int length = segments.get(position.segment).buffer.getInt(position.offset);
+            position = new Position(position.segment, position.offset + HEADER_SIZE + length);
+        }
+        return position;
+    }
+
+    /**
+     * @return the position of the next record: the given one, or the start of
+     *         the next segment if the given one is at the end of its segment
+     */
+    private Position normalize(final Position position) {
+        Position normalized = position;
+        Map.Entry<Long, Segment> next = segments.higherEntry(normalized.segment);
+        while (next != null && normalized.offset >= segments.get(normalized.segment).end) {
+            normalized = new Position(next.getKey(), 0);
+            next = segments.higherEntry(normalized.segment);
+        }
+        return normalized;
+    }
+
+    private boolean hasRecord(final Position position) {
+        Segment segment = segments.get(position.segment);
+        return segment != null && position.offset < segment.end;
+    }
+
+    private static boolean comesBefore(final Position position, final Position other) {
+        return position.segment < other.segment || (position.segment == other.segment && position.offset < other.offset);
+    }
+
+    private Segment createSegment(final long id, final int capacity) throws IOException {
+        Segment segment = new Segment(id, new File(directory, String.format("%s%010d%s", prefix, id, SEGMENT_SUFFIX)), capacity);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private void deleteSegmentsBefore(final long id) {
+        while (segments.firstKey() < id) {
+            Segment segment = segments.pollFirstEntry().getValue();
+            segment.close();
+            if (segment.file.delete()) {
+                LOG.debug("deleteSegmentsBefore() - Deleted the acknowledged fallback segment " + segment.file.getName());
+            } else {
+                LOG.warn("deleteSegmentsBefore() - The fallback segment " + segment.file.getPath() + " could not be deleted");
+            }
+        }
+    }
+
+    /**
+     * Position of a record in the log.
+     */
+    private static final class Position {
+
+        private final long segment;
+
+        private final int offset;
+
+        private Position(final long segment, final int offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * A memory-mapped segment file.
+     */
+    private static final class Segment {
+
+        private final long id;
+
+        private final File file;
+
+        private final FileChannel channel;
+
+        private final MappedByteBuffer buffer;
+
+        /** Position following the last valid record */
+        private int end;
+
+        /** Number of valid records */
+        private int records;
+
+        private Segment(final long id, final File file, final int capacity) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.channel = new RandomAccessFile(file, "rw").getChannel();
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+
+        private int capacity() {
+            return buffer.capacity();
+        }
+
+        /**
+         * Finds the end of the valid records, clearing what follows if a torn
+         * or corrupted record is found.
+         */
+        private void recover() {
+            int position = 0;
+            while (position + HEADER_SIZE <= capacity()) {
+                int length = buffer.getInt(position);
+                if (length == 0) {
+                    break;
+                }
+                if (length < 0 || position + HEADER_SIZE + length > capacity() || readRecord(position) == null) {
+                    LOG.error("recover() - Corrupted record found at position " + position + " of the fallback segment "
+                            + file.getPath() + ": the following records of the segment are lost");
+                    for (int i = position; i < capacity(); i++) {
+                        buffer.put(i, (byte) 0);
+                    }
+                    break;
+                }
+                position += HEADER_SIZE + length;
+                records++;
+            }
+            end = position;
+        }
+
+        /**
+         * @return the record at the given position, or null if its checksum is wrong
+         */
+        private String readRecord(final int position) {
+            int length = buffer.getInt(position);
+            byte[] payload = new byte[length];
+            ByteBuffer source = buffer.duplicate();
+            source.position(position + HEADER_SIZE);
+            source.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                LOG.error("readRecord() - Wrong checksum for the record at position " + position + " of the fallback segment "
+                        + file.getPath());
+                return null;
+            }
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+
+        private void close() {
+            try {
+                buffer.force();
+                channel.close();
+            } catch (IOException e) {
+                LOG.error("close() - The fallback segment " + file.getPath() + " could not be closed", e);
+            }
+        }
+    }
+}
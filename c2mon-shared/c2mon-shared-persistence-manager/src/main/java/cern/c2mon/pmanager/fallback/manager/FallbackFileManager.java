@@ -16,6 +16,7 @@
  *****************************************************************************/
 package cern.c2mon.pmanager.fallback.manager;
 
+import java.util.Collections;
 import java.util.List;
 
 import org.slf4j.Logger;
@@ -24,6 +25,7 @@ import org.slf4j.LoggerFactory;
 import cern.c2mon.pmanager.IFallback;
 import cern.c2mon.pmanager.fallback.FallbackFileController;
 import cern.c2mon.pmanager.fallback.FallbackProperties;
+import cern.c2mon.pmanager.fallback.SegmentedFallbackLog;
 import cern.c2mon.pmanager.fallback.exception.DataFallbackException;
 import cern.c2mon.pmanager.fallback.exception.SystemDiskSpaceException;
 import cern.c2mon.pmanager.fallback.util.SystemResourcesParameters;
@@ -34,6 +36,11 @@ import cern.c2mon.pmanager.fallback.util.SystemResourcesParameters;
  * totally independent the application logic from the final log system that is
  * used.
  *
+ * <p>If the binary log is enabled (<code>fallback.binary.log</code>), the data
+ * is stored in a {@link SegmentedFallbackLog} instead of the text file. The
+ * FallbackFileController is then only used as lock and to name the fallback
+ * file in the alarms.
+ *
  * @author mruizgar
  *
  */
@@ -51,6 +58,9 @@ public class FallbackFileManager {
      */
     private final IFallback fallbackObj;
 
+    /** The binary log, or null if the text fallback file is used */
+    private SegmentedFallbackLog binaryLog;
+
     /**
      * It indicates the number of lines in the fallback file for which, when
      * reached, the free disk space in the system will be checked
@@ -84,8 +94,59 @@ public class FallbackFileManager {
      *
      */
     public FallbackFileManager(final String fallbackFile, final IFallback fallbackObj) {
+        this(fallbackFile, fallbackObj, FallbackProperties.getInstance().isBinaryLog());
+    }
+
+    /**
+     * Constructor choosing the fallback mechanism. If the binary log cannot be
+     * opened, the text fallback file is used.
+     *
+     * @param fallbackFile
+     *            The absolute path for the fallback file
+     * @param fallbackObj
+     *            IFallback object used for knowing with which concrete
+     *            implementation of the interface deals each instance of this
+     *            class
+     * @param useBinaryLog
+     *            whether the data is stored in a {@link SegmentedFallbackLog}
+     */
+    public FallbackFileManager(final String fallbackFile, final IFallback fallbackObj, final boolean useBinaryLog) {
         this.fFileController = new FallbackFileController(fallbackFile);
         this.fallbackObj = fallbackObj;
+        if (useBinaryLog) {
+            try {
+                binaryLog = new SegmentedFallbackLog(fallbackFile,
+                        FallbackProperties.getInstance().getSegmentSize() * 1024 * 1024);
+                moveTextFileToBinaryLog();
+            } catch (DataFallbackException e) {
+                LOG.error("FallbackFileManager() - The binary fallback log could not be opened, using the text file instead", e);
+                binaryLog = null;
+            }
+        }
+    }
+
+    /**
+     * Moves the data left in the text fallback file (written before the binary
+     * log was enabled) to the binary log.
+     */
+    private void moveTextFileToBinaryLog() throws DataFallbackException {
+        if (fFileController.getNumberOfLines() <= fFileController.getReadBackLines()) {
+            return;
+        }
+        final int linesPerRead = FallbackProperties.getInstance().getNumberLinesToReadFromFile();
+        int moved = 0;
+        FallbackObjectContainer data;
+        do {
+            data = fFileController.readLines(linesPerRead, fallbackObj);
+            binaryLog.append(data.getObjects());
+            moved += data.getObjects().size();
+        } while (data.getReadLines() > 0);
+        fFileController.closeFallbackInputStream();
+        fFileController.clearFileContents();
+        fFileController.setReadBackLines(0);
+        fFileController.setNumberOfLines(0);
+        LOG.info("moveTextFileToBinaryLog() - Moved " + moved + " objects from the fallback file "
+                + fFileController.getDataFile().getName() + " to the binary log");
     }
 
     /**
@@ -98,6 +159,10 @@ public class FallbackFileManager {
      *             writing in the file
      */
     public final void fallback(final List data) throws DataFallbackException {
+        if (binaryLog != null) {
+            binaryLog.append(data);
+            return;
+        }
 
         // If the file is empty we close the reading descriptor since it means
         // that a new file is going to be created
@@ -125,6 +190,10 @@ public class FallbackFileManager {
      */
     public final void fallback(final IFallback fallbackObj) throws DataFallbackException {
 
+        if (binaryLog != null) {
+            binaryLog.append(Collections.singletonList(fallbackObj));
+            return;
+        }
         try {
             // If the file is empty we close the reading descriptor since it
             // means that
@@ -158,12 +227,12 @@ public class FallbackFileManager {
         final FallbackProperties fProperties = FallbackProperties.getInstance();
         boolean checkDone = false;
 
-        if (fFileController.getNumberOfLines() > nextCheckFallbackData) {
+        if (getNumberOfRecords() > nextCheckFallbackData) {
             checkDone = true;
             if (LOG.isDebugEnabled())
                 LOG
                         .debug("isDiskSpaceCheckDone() : Doing the check since the number of lines are "
-                                + fFileController.getNumberOfLines()
+                                + getNumberOfRecords()
                                 + " and the current value for nextcheck is "
                                 + nextCheckFallbackData);
             long freeSpace = SystemResourcesParameters.getFreeSpace();
@@ -172,7 +241,7 @@ public class FallbackFileManager {
                 throw new SystemDiskSpaceException("Reached the limit of free space of "
                         + minimumFreeSpace + ", current free space is " + freeSpace);
             } else {
-                nextCheckFallbackData = fFileController.getNumberOfLines()
+                nextCheckFallbackData = getNumberOfRecords()
                         + fProperties.getFreeSpaceCheckFrequency();
                 if (LOG.isDebugEnabled())
                     LOG.debug("isDiskSpaceCheckDone() : New value of nextCheckDataTags is "
@@ -203,6 +272,9 @@ public class FallbackFileManager {
      *             reading the file
      */
     public final FallbackObjectContainer readDataBack(final int numberOfLines) throws DataFallbackException {
+        if (binaryLog != null) {
+            return binaryLog.read(numberOfLines, fallbackObj);
+        }
         // close the outputstream if it was still opened
         fFileController.closeFallbackOutputStream();
         fFileController.openFallbackInputStream();
@@ -230,6 +302,18 @@ public class FallbackFileManager {
 
         boolean removed = true;
 
+        if (binaryLog != null) {
+            try {
+                binaryLog.acknowledge(numberOfLines);
+                if (binaryLog.isEmpty()) {
+                    resetNextDiscSpaceCheck();
+                }
+            } catch (DataFallbackException e) {
+                removed = false;
+                LOG.error("Exception caught while attempting to remove records from the binary fallback log", e);
+            }
+            return removed;
+        }
         // Update the number of already committed datatags
         fFileController.setReadBackLines(numberOfLines + fFileController.getReadBackLines());
         // Virtually remove those datatags from the file
@@ -264,6 +348,25 @@ public class FallbackFileManager {
         return removed;
     }
 
+    /**
+     * @return the number of objects written to the fallback mechanism since
+     *         it was last emptied
+     */
+    private int getNumberOfRecords() {
+        return binaryLog != null ? binaryLog.getNumberOfRecords() : fFileController.getNumberOfLines();
+    }
+
+    /**
+     * @return the number of objects stored in the fallback mechanism and not
+     *         committed back to the DB yet
+     */
+    public final int getNumberOfPendingRecords() {
+        if (binaryLog != null) {
+            return binaryLog.getNumberOfPendingRecords();
+        }
+        return Math.max(0, fFileController.getNumberOfLines() - fFileController.getReadBackLines());
+    }
+
     /**
      * Set to zero lines the next check of the disc free space
      */
@@ -282,6 +385,10 @@ public class FallbackFileManager {
      */
     public final void goToLastProcessedLine(final int lastCommited)
             throws DataFallbackException {
+        if (binaryLog != null) {
+            binaryLog.rewind(lastCommited);
+            return;
+        }
         fFileController.closeFallbackInputStream();
         int readLines = fFileController.getReadBackLines();
         fFileController.goToLine(readLines + lastCommited);
@@ -293,6 +400,9 @@ public class FallbackFileManager {
      * @return The value indicating the status of the log
      */
     public final boolean isFallbackFileEmpty() {
+        if (binaryLog != null) {
+            return binaryLog.isEmpty();
+        }
         return !((fFileController.getNumberOfLines()) > 0);
     }
 
@@ -300,6 +410,9 @@ public class FallbackFileManager {
      * It releases the object memory
      */
     public final void finalize() {
+        if (binaryLog != null) {
+            binaryLog.close();
+        }
         this.fFileController.finalize();
     }
 }
@@ -18,9 +18,13 @@ package cern.c2mon.pmanager.persistence.impl;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
 
 import cern.c2mon.pmanager.IAlarmListener;
 import cern.c2mon.pmanager.IDBPersistenceHandler;
@@ -45,8 +49,16 @@ import cern.c2mon.pmanager.persistence.util.DataRecoveryThread;
  * detected that the DB issues have been sorted out. At that same time the data
  * stored in the file will be committed back to the DB.
  *
+ * <p>The recovery of the fallback data is throttled so that it does not
+ * compete with the live writes: after each round it sleeps long enough to
+ * leave the configured share of the DB time to the live writes, and it
+ * pauses while the live write latency (per object) is higher than the
+ * configured factor of the latency observed without recovery. The recovery
+ * progress is exposed through JMX.
+ *
  * @author mruizgar
  */
+@ManagedResource
 public class PersistenceManager<T extends IFallback> implements IPersistenceManager<T>, FallbackAlarmsInterface {
 
   /**
@@ -100,6 +112,56 @@ public class PersistenceManager<T extends IFallback> implements IPersistenceMana
    */
   private static final Logger FALLBACK_LOG = LoggerFactory.getLogger("HistoryFallbackLogger");
 
+  /**
+   * Weight of a new live write in the latency averages
+   */
+  private static final double LATENCY_WEIGHT = 0.2;
+
+  /**
+   * The live latency is not considered high anymore if no live write happened
+   * for this number of milliseconds
+   */
+  private static final long LIVE_LATENCY_VALIDITY = 10000;
+
+  /**
+   * Number of batches of fallback data committed in parallel by the recovery
+   */
+  private int recoveryThreads = FallbackProperties.getInstance().getRecoveryThreads();
+
+  /**
+   * Share of the DB time (between 0 and 1) left to the live writes while
+   * recovering the fallback data
+   */
+  private double liveWriteShare = FallbackProperties.getInstance().getLiveWriteShare();
+
+  /**
+   * The recovery pauses while the live write latency is higher than this
+   * factor of the baseline latency (0 to never pause)
+   */
+  private double pauseLatencyFactor = FallbackProperties.getInstance().getPauseLatencyFactor();
+
+  /**
+   * Executor committing the fallback batches in parallel, null if the
+   * recovery is sequential
+   */
+  private ExecutorService recoveryExecutor;
+
+  /**
+   * Average live write latency in microseconds per object
+   */
+  private volatile double liveLatency = 0;
+
+  /**
+   * Average live write latency in microseconds per object, measured while
+   * no recovery is running
+   */
+  private volatile double baselineLatency = 0;
+
+  /**
+   * Time of the last successful live write
+   */
+  private volatile long lastLiveWriteTime = 0;
+
   /**
    * @return the dbHandler
    */
@@ -135,6 +197,39 @@ public class PersistenceManager<T extends IFallback> implements IPersistenceMana
     this.sleepTime = sleepTime;
   }
 
+  /**
+   * @return the number of batches of fallback data committed in parallel
+   */
+  public final int getRecoveryThreads() {
+    return recoveryThreads;
+  }
+
+  /**
+   * @param recoveryThreads the number of batches of fallback data committed in parallel
+   */
+  public final synchronized void setRecoveryThreads(final int recoveryThreads) {
+    this.recoveryThreads = Math.max(1, recoveryThreads);
+    if (recoveryExecutor != null) {
+      recoveryExecutor.shutdown();
+      recoveryExecutor = null;
+    }
+  }
+
+  /**
+   * @param liveWriteShare the share of the DB time (between 0 and 1) left to the live writes while recovering
+   */
+  public final void setLiveWriteShare(final double liveWriteShare) {
+    this.liveWriteShare = Math.max(0, Math.min(0.95, liveWriteShare));
+  }
+
+  /**
+   * @param pauseLatencyFactor the factor of the baseline live write latency above which the recovery pauses
+   *                           (0 to never pause)
+   */
+  public final void setPauseLatencyFactor(final double pauseLatencyFactor) {
+    this.pauseLatencyFactor = pauseLatencyFactor;
+  }
+
   /**
    * @param minFreeDiscSpace the minFreeDiscSpace to set
    */
@@ -177,10 +272,7 @@ public class PersistenceManager<T extends IFallback> implements IPersistenceMana
   @Override
   public final void storeData(final List<T> data) {
     if (log(data) && !fallbackManager.isFallbackFileEmpty()) {
-      if (!this.dataRecovery.isRunning()) {
-        dataRecovery.setPersistenceManager(this);
-        new Thread(dataRecovery).start();
-      }
+      startRecovery();
     }
   }
 
@@ -196,13 +288,144 @@ public class PersistenceManager<T extends IFallback> implements IPersistenceMana
   @Override
   public final void storeData(final T object) {
     if (log(object) && !fallbackManager.isFallbackFileEmpty()) {
-      if (!this.dataRecovery.isRunning()) {
-        dataRecovery.setPersistenceManager(this);
-        new Thread(dataRecovery).start();
+      startRecovery();
+    }
+  }
+
+  /**
+   * Writes data directly to the fallback file, e.g. when the DB handler
+   * accepted it but failed to store it asynchronously. The data is committed
+   * back to the DB by the recovery, as for a failed {@link #storeData(List)}.
+   *
+   * @param data List of IFallback objects to be written to the fallback file
+   */
+  public final void storeInFallback(final List<T> data) {
+    if (data == null || data.isEmpty()) {
+      return;
+    }
+    synchronized (fallbackManager.getFallbackFileController()) {
+      if (!writeToFallback(data)) {
+        for (T object : data) {
+          FALLBACK_LOG.info(object.toString());
+        }
       }
     }
   }
 
+  /**
+   * Starts the recovery of the fallback data, unless it is already running.
+   */
+  private synchronized void startRecovery() {
+    if (dataRecovery != null && !dataRecovery.isRunning()) {
+      dataRecovery.setPersistenceManager(this);
+      dataRecovery.markRunning();
+      Thread recoveryThread = new Thread(dataRecovery, "FallbackRecovery");
+      recoveryThread.setDaemon(true);
+      recoveryThread.start();
+    }
+  }
+
+  /**
+   * @return the executor committing the fallback batches in parallel, or null
+   *         if the recovery is sequential
+   */
+  public final synchronized ExecutorService getRecoveryExecutor() {
+    if (recoveryThreads <= 1) {
+      return null;
+    }
+    if (recoveryExecutor == null) {
+      recoveryExecutor = Executors.newFixedThreadPool(recoveryThreads, runnable -> {
+        Thread thread = new Thread(runnable, "FallbackRecoveryWorker");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return recoveryExecutor;
+  }
+
+  /**
+   * Records the latency of a successful live write.
+   *
+   * @param duration the duration of the write in nanoseconds
+   * @param size the number of objects written
+   */
+  private void recordLiveWrite(final long duration, final int size) {
+    double latency = duration / 1000.0 / size;
+    liveLatency = liveLatency == 0 ? latency : liveLatency + LATENCY_WEIGHT * (latency - liveLatency);
+    if (dataRecovery == null || !dataRecovery.isRunning()) {
+      baselineLatency = baselineLatency == 0 ? latency : baselineLatency + LATENCY_WEIGHT * (latency - baselineLatency);
+    }
+    lastLiveWriteTime = System.currentTimeMillis();
+  }
+
+  /**
+   * @return true if the recovery should pause, because the recent live writes
+   *         are slower than the configured factor of the baseline latency
+   */
+  public final boolean isLiveLatencyHigh() {
+    return pauseLatencyFactor > 0 && baselineLatency > 0
+        && System.currentTimeMillis() - lastLiveWriteTime < LIVE_LATENCY_VALIDITY
+        && liveLatency > pauseLatencyFactor * baselineLatency;
+  }
+
+  /**
+   * @param roundDuration the time in milliseconds the last recovery round took
+   * @return the time in milliseconds the recovery has to sleep to leave the
+   *         configured share of the DB time to the live writes
+   */
+  public final long getRecoveryPause(final long roundDuration) {
+    return (long) (roundDuration * liveWriteShare / (1 - liveWriteShare));
+  }
+
+  @ManagedAttribute(description = "Whether fallback data is being committed back to the DB")
+  public boolean isRecoveryRunning() {
+    return dataRecovery != null && dataRecovery.isRunning();
+  }
+
+  @ManagedAttribute(description = "Whether the recovery is paused because of a high live write latency")
+  public boolean isRecoveryPaused() {
+    return dataRecovery != null && dataRecovery.isPaused();
+  }
+
+  @ManagedAttribute(description = "Number of objects in the fallback file not committed to the DB yet")
+  public int getPendingRecords() {
+    return fallbackManager.getNumberOfPendingRecords();
+  }
+
+  @ManagedAttribute(description = "Number of objects committed back to the DB by the current (or last) recovery")
+  public long getRecoveredRecords() {
+    return dataRecovery == null ? 0 : dataRecovery.getRecoveredRecords();
+  }
+
+  @ManagedAttribute(description = "Objects committed back to the DB per second by the current (or last) recovery")
+  public double getRecoveryThroughput() {
+    if (dataRecovery == null || dataRecovery.getRecoveryStartTime() == 0) {
+      return 0;
+    }
+    long elapsed = System.currentTimeMillis() - dataRecovery.getRecoveryStartTime();
+    return elapsed > 0 ? dataRecovery.getRecoveredRecords() * 1000.0 / elapsed : 0;
+  }
+
+  @ManagedAttribute(description = "Estimated number of seconds until the fallback file is recovered (-1 if unknown)")
+  public long getRecoveryEta() {
+    int pending = getPendingRecords();
+    if (pending == 0) {
+      return 0;
+    }
+    double throughput = getRecoveryThroughput();
+    return isRecoveryRunning() && throughput > 0 ? (long) (pending / throughput) : -1;
+  }
+
+  @ManagedAttribute(description = "Average live write latency in microseconds per object")
+  public double getLiveWriteLatency() {
+    return liveLatency;
+  }
+
+  @ManagedAttribute(description = "Average live write latency in microseconds per object, while not recovering")
+  public double getBaselineWriteLatency() {
+    return baselineLatency;
+  }
+
   /**
    * Writes a list of IFallback objects to the shortermlog database table. If
    * the DB becomes unavailable during the logging process the IFallback
@@ -244,7 +467,9 @@ public class PersistenceManager<T extends IFallback> implements IPersistenceMana
     }
 
     try {
+      long start = System.nanoTime();
       dbHandler.storeData(data);
+      recordLiveWrite(System.nanoTime() - start, size);
       LOG.info(+size + " tags have been successfully logged into the DB");
       alarmSender.dbUnavailable(DOWN, null, dbHandler.getDBInfo());
     } catch (IDBPersistenceException e) {
@@ -289,7 +514,9 @@ public class PersistenceManager<T extends IFallback> implements IPersistenceMana
     }
 
     try {
+      long start = System.nanoTime();
       dbHandler.storeData(object);
+      recordLiveWrite(System.nanoTime() - start, 1);
       alarmSender.dbUnavailable(DOWN, null, dbHandler.getDBInfo());
     } catch (IDBPersistenceException e) {
       dbConnectionUp = false;
@@ -388,6 +615,11 @@ public class PersistenceManager<T extends IFallback> implements IPersistenceMana
     // so its memory can be released by the garbage collector
     dataRecovery.stop();
     dataRecovery = null;
+    synchronized (this) {
+      if (recoveryExecutor != null) {
+        recoveryExecutor.shutdown();
+      }
+    }
     fallbackManager.finalize();
   }
 }
@@ -16,6 +16,12 @@
  *****************************************************************************/
 package cern.c2mon.pmanager.persistence.util;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
 import cern.c2mon.pmanager.fallback.manager.FallbackObjectContainer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,6 +37,11 @@ import cern.c2mon.pmanager.persistence.impl.PersistenceManager;
  * that takes care of committing back to the DB that data stored in a fallback
  * file
  *
+ * <p>The data is read back in batches. If the PersistenceManager provides an
+ * executor, several batches are committed in parallel. After each round, the
+ * thread sleeps long enough to leave the configured share of the DB capacity
+ * to the live writes, and it pauses while the live write latency is too high.
+ *
  * @author mruizgar
  *
  */
@@ -40,7 +51,16 @@ public class DataRecoveryThread implements Runnable, FallbackAlarmsInterface {
      * It indicates whether a thread of this class has been already started and
      * it is running
      */
-    private boolean stopped = true;
+    private volatile boolean stopped = true;
+
+    /** Whether the recovery is paused because of a high live write latency */
+    private volatile boolean paused = false;
+
+    /** Time at which the current (or last) recovery started */
+    private volatile long recoveryStartTime;
+
+    /** Number of objects committed back to the DB by the current (or last) recovery */
+    private volatile long recoveredRecords;
 
     /** Log4j Logger for this class (debug and error messages) */
     private static final Logger LOG = LoggerFactory.getLogger(DataRecoveryThread.class);
@@ -92,6 +112,35 @@ public class DataRecoveryThread implements Runnable, FallbackAlarmsInterface {
         return !stopped;
     }
 
+    /**
+     * Marks the thread as running, before it is started, so that it is not
+     * started twice.
+     */
+    public final void markRunning() {
+        stopped = false;
+    }
+
+    /**
+     * @return whether the recovery is paused because of a high live write latency
+     */
+    public final boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * @return the time at which the current (or last) recovery started
+     */
+    public final long getRecoveryStartTime() {
+        return recoveryStartTime;
+    }
+
+    /**
+     * @return the number of objects committed back to the DB by the current (or last) recovery
+     */
+    public final long getRecoveredRecords() {
+        return recoveredRecords;
+    }
+
     /**
      * It stops the thread and removes the reference to the
      * PersistenceManager object so its memory can be released by the garbage
@@ -118,13 +167,28 @@ public class DataRecoveryThread implements Runnable, FallbackAlarmsInterface {
      */
     public final void run() {
         boolean committed = true;
+        final PersistenceManager manager = persistenceManager;
 
         stopped = false;
+        recoveryStartTime = System.currentTimeMillis();
+        recoveredRecords = 0;
         if (FALLBACK_LOG.isDebugEnabled())
             FALLBACK_LOG.debug("Thread of instance " + this.hashCode() + " beginning");
-        synchronized (persistenceManager.getFallbackManager().getFallbackFileController()) {
-            while (!persistenceManager.getFallbackManager().isFallbackFileEmpty() && committed
-                    && isRunning()) {
+        while (committed && isRunning() && !manager.getFallbackManager().isFallbackFileEmpty()) {
+            if (manager.isLiveLatencyHigh()) {
+                // leave the DB to the live writes until their latency is back to normal
+                paused = true;
+                sleep(manager.getSleepTime());
+                continue;
+            }
+            paused = false;
+            final long roundStart = System.currentTimeMillis();
+            // The lock is only held for one round, so that the live writes can
+            // still reach the fallback file in between
+            synchronized (manager.getFallbackManager().getFallbackFileController()) {
+                if (manager.getFallbackManager().isFallbackFileEmpty()) {
+                    break;
+                }
                 int numberOfTags;
                 // The data from the log file will be read from the file and
                 // committed in the database in bunches of a defined size
@@ -133,17 +197,15 @@ public class DataRecoveryThread implements Runnable, FallbackAlarmsInterface {
                     // Remove the dataTags that have been committed back from
                     // the fallback file
                     removeReadData(numberOfTags);
+                    recoveredRecords += numberOfTags;
                 }
                 if (numberOfTags == 0) {
                     committed = false;
                 }
-                try {
-                    Thread.sleep(persistenceManager.getSleepTime());
-                } catch (InterruptedException e) {
-                    FALLBACK_LOG.error("An error occurred while trying to make the thread to sleep");
-                }
             }
+            sleep(Math.max(manager.getSleepTime(), manager.getRecoveryPause(System.currentTimeMillis() - roundStart)));
         }
+        paused = false;
         /*
          * if (!isRunning()) { // The thread was externally stopped by
          * persistenceManager who needs to be destroyed and therefore // we need
@@ -160,6 +222,14 @@ public class DataRecoveryThread implements Runnable, FallbackAlarmsInterface {
             FALLBACK_LOG.debug("Thread of instance " + this.hashCode() + " terminated");
     }
 
+    private void sleep(final long time) {
+        try {
+            Thread.sleep(time);
+        } catch (InterruptedException e) {
+            FALLBACK_LOG.error("An error occurred while trying to make the thread to sleep");
+        }
+    }
+
     /**
      * Reads back data from a fallback file and commits it to the DB.
      *
@@ -177,6 +247,10 @@ public class DataRecoveryThread implements Runnable, FallbackAlarmsInterface {
             FALLBACK_LOG
                     .debug("commitFallbackData() : Committing the tags stored in the logfile back into the database");
         try {
+            ExecutorService executor = persistenceManager.getRecoveryExecutor();
+            if (executor != null) {
+                return commitFallbackDataInParallel(executor);
+            }
             // Get all the datatags stored in the log file
             data = persistenceManager.getFallbackManager().readDataBack(
                     FallbackProperties.getInstance().getNumberLinesToReadFromFile());
@@ -218,6 +292,56 @@ public class DataRecoveryThread implements Runnable, FallbackAlarmsInterface {
         return committed;
     }
 
+    /**
+     * Reads back one batch per recovery thread and commits them in parallel.
+     * Only the batches preceding the first failed one count as committed; the
+     * following ones will be committed again.
+     *
+     * @return the number of fallback lines committed to the DB
+     */
+    private int commitFallbackDataInParallel(final ExecutorService executor) throws DataFallbackException {
+        final int batchSize = FallbackProperties.getInstance().getNumberLinesToReadFromFile();
+        final List<FallbackObjectContainer> batches = new ArrayList<>();
+        final List<Future<?>> results = new ArrayList<>();
+        FallbackObjectContainer batch;
+        do {
+            batch = persistenceManager.getFallbackManager().readDataBack(batchSize);
+            if (batch.getReadLines() > 0) {
+                final List objects = batch.getObjects();
+                batches.add(batch);
+                results.add(executor.submit(() -> {
+                    persistenceManager.getDbHandler().storeData(objects);
+                    return null;
+                }));
+            }
+        } while (batch.getReadLines() == batchSize && batches.size() < persistenceManager.getRecoveryThreads());
+
+        int committed = 0;
+        boolean failed = false;
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                results.get(i).get();
+                if (!failed) {
+                    committed += batches.get(i).getReadLines();
+                }
+            } catch (ExecutionException e) {
+                FALLBACK_LOG.error("CommitFallBackData : Error committing a fallback batch.", e.getCause());
+                if (!failed && e.getCause() instanceof IDBPersistenceException) {
+                    committed += ((IDBPersistenceException) e.getCause()).getCommited();
+                }
+                failed = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed = true;
+            }
+        }
+        if (failed) {
+            // Place the cursor after the last committed line
+            persistenceManager.getFallbackManager().goToLastProcessedLine(committed);
+        }
+        return committed;
+    }
+
     /**
      * Marks the indicated number of lines as removed in the fallback file
      *
@@ -0,0 +1,187 @@
+/******************************************************************************
+ * Copyright (C) 2010-2018 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.pmanager.fallback;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import cern.c2mon.pmanager.IFallback;
+import cern.c2mon.pmanager.fallback.exception.DataFallbackException;
+import cern.c2mon.pmanager.fallback.manager.FallbackFileManager;
+import cern.c2mon.pmanager.fallback.manager.FallbackObjectContainer;
+import cern.c2mon.pmanager.mock.FallbackImpl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JUnit test for the SegmentedFallbackLog class
+ */
+public class SegmentedFallbackLogTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private String fallbackPath;
+
+  @Before
+  public void setUp() {
+    fallbackPath = new File(folder.getRoot(), "DataTagFallback.log").getAbsolutePath();
+  }
+
+  @Test
+  public void testReadBackAcknowledgedRecords() throws DataFallbackException {
+    SegmentedFallbackLog log = new SegmentedFallbackLog(fallbackPath, 1024);
+    assertTrue(log.isEmpty());
+    log.append(createObjects(0, 10));
+    assertFalse(log.isEmpty());
+
+    FallbackObjectContainer data = log.read(4, new FallbackImpl());
+    assertEquals(4, data.getReadLines());
+    assertRecords(0, data.getObjects());
+    log.acknowledge(4);
+
+    data = log.read(100, new FallbackImpl());
+    assertEquals(6, data.getReadLines());
+    assertRecords(4, data.getObjects());
+    log.acknowledge(6);
+    assertTrue(log.isEmpty());
+    log.close();
+  }
+
+  @Test
+  public void testRewindAfterPartialCommit() throws DataFallbackException {
+    SegmentedFallbackLog log = new SegmentedFallbackLog(fallbackPath, 1024);
+    log.append(createObjects(0, 10));
+
+    log.read(10, new FallbackImpl());
+    // only 3 records committed, the read position goes back to the 4th
+    log.rewind(3);
+    log.acknowledge(3);
+
+    FallbackObjectContainer data = log.read(10, new FallbackImpl());
+    assertEquals(7, data.getReadLines());
+    assertRecords(3, data.getObjects());
+    log.close();
+  }
+
+  @Test
+  public void testOffsetSurvivesReopening() throws DataFallbackException {
+    SegmentedFallbackLog log = new SegmentedFallbackLog(fallbackPath, 1024);
+    log.append(createObjects(0, 10));
+    log.read(5, new FallbackImpl());
+    log.acknowledge(5);
+    log.close();
+
+    log = new SegmentedFallbackLog(fallbackPath, 1024);
+    FallbackObjectContainer data = log.read(100, new FallbackImpl());
+    assertEquals(5, data.getReadLines());
+    assertRecords(5, data.getObjects());
+    log.close();
+  }
+
+  @Test
+  public void testAcknowledgedSegmentsAreDeleted() throws DataFallbackException {
+    // small segments, holding 2 records each
+    SegmentedFallbackLog log = new SegmentedFallbackLog(fallbackPath, 40);
+    log.append(createObjects(0, 20));
+    assertEquals(10, countSegments());
+
+    FallbackObjectContainer data = log.read(100, new FallbackImpl());
+    assertEquals(20, data.getReadLines());
+    assertRecords(0, data.getObjects());
+    log.acknowledge(10);
+    assertEquals(5, countSegments());
+    log.acknowledge(10);
+    assertEquals(1, countSegments());
+    assertTrue(log.isEmpty());
+
+    log.append(createObjects(20, 1));
+    assertRecords(20, log.read(100, new FallbackImpl()).getObjects());
+    log.close();
+  }
+
+  @Test
+  public void testTornRecordIsDropped() throws DataFallbackException, IOException {
+    SegmentedFallbackLog log = new SegmentedFallbackLog(fallbackPath, 1024);
+    log.append(createObjects(0, 3));
+    log.close();
+
+    // corrupt the payload of the last record
+    File segment = new File(fallbackPath + "-0000000000.seg");
+    try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+      int recordSize = 8 + "record 0".length();
+      file.seek(2 * recordSize + 8);
+      file.write('X');
+    }
+
+    log = new SegmentedFallbackLog(fallbackPath, 1024);
+    FallbackObjectContainer data = log.read(100, new FallbackImpl());
+    assertEquals(2, data.getReadLines());
+    assertRecords(0, data.getObjects());
+
+    // new records are appended after the last valid one
+    log.append(createObjects(3, 1));
+    assertEquals("record 3", log.read(100, new FallbackImpl()).getObjects().get(0).toString());
+    log.close();
+  }
+
+  @Test
+  public void testTextFileIsMovedToBinaryLog() throws DataFallbackException {
+    FallbackFileManager textManager = new FallbackFileManager(fallbackPath, new FallbackImpl(), false);
+    textManager.fallback(createObjects(0, 5));
+    textManager.finalize();
+
+    FallbackFileManager binaryManager = new FallbackFileManager(fallbackPath, new FallbackImpl(), true);
+    assertTrue(new File(fallbackPath).length() == 0);
+    FallbackObjectContainer data = binaryManager.readDataBack(100);
+    assertEquals(5, data.getReadLines());
+    assertRecords(0, data.getObjects());
+    assertTrue(binaryManager.removeReadData(5));
+    assertTrue(binaryManager.isFallbackFileEmpty());
+    binaryManager.finalize();
+  }
+
+  private int countSegments() {
+    return folder.getRoot().listFiles((dir, name) -> name.endsWith(".seg")).length;
+  }
+
+  private static List<IFallback> createObjects(final int first, final int number) {
+    List<IFallback> objects = new ArrayList<>();
+    for (int i = first; i < first + number; i++) {
+      FallbackImpl object = new FallbackImpl();
+      object.setObjectData("record " + i);
+      objects.add(object);
+    }
+    return objects;
+  }
+
+  private static void assertRecords(final int first, final List<IFallback> objects) {
+    for (int i = 0; i < objects.size(); i++) {
+      assertEquals("record " + (first + i), objects.get(i).toString());
+    }
+  }
+}
@@ -16,19 +16,28 @@
  *****************************************************************************/
 package cern.c2mon.pmanager.persistence.impl;
 
+import cern.c2mon.pmanager.IDBPersistenceHandler;
 import cern.c2mon.pmanager.IFallback;
 import cern.c2mon.pmanager.mock.AlarmListenerImpl;
 import cern.c2mon.pmanager.mock.DBHandlerImpl;
 import cern.c2mon.pmanager.mock.FallbackImpl;
+import cern.c2mon.pmanager.persistence.exception.IDBPersistenceException;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * JUnit test for the PersistenceManager class
@@ -107,4 +116,144 @@ public class PersistenceManagerTest {
     persistenceManager.storeData(data);
     assertEquals(5, persistenceManager.getFallbackManager().getFallbackFileController().getNumberOfLines() - lines);
   }
+
+  /**
+   * Tests that the fallback data is committed back in parallel batches once
+   * the DB is available again
+   */
+  @Test
+  public final void testParallelRecovery() throws Exception {
+    ControllableDBHandler dbHandler = new ControllableDBHandler();
+    PersistenceManager<IFallback> manager = createManager(dbHandler);
+    manager.setRecoveryThreads(4);
+    manager.setSleepTime(10);
+
+    dbHandler.available = false;
+    manager.storeData(createObjects(0, 9000));
+    assertEquals(9000, manager.getPendingRecords());
+
+    dbHandler.available = true;
+    manager.storeData(createObjects(9000, 1));
+    long deadline = System.currentTimeMillis() + 10000;
+    while ((manager.getPendingRecords() > 0 || manager.isRecoveryRunning()) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+
+    assertEquals(0, manager.getPendingRecords());
+    assertEquals(9000, manager.getRecoveredRecords());
+    assertEquals(9001, dbHandler.stored.size());
+    assertTrue(dbHandler.maxConcurrentWrites > 1);
+    assertEquals(0, manager.getRecoveryEta());
+    manager.finalize();
+  }
+
+  /**
+   * Tests that slow live writes during the recovery are detected
+   */
+  @Test
+  public final void testHighLiveLatencyDuringRecovery() throws Exception {
+    ControllableDBHandler dbHandler = new ControllableDBHandler();
+    PersistenceManager<IFallback> manager = createManager(dbHandler);
+    manager.setPauseLatencyFactor(3);
+    for (int i = 0; i < 5; i++) {
+      manager.storeData(createObjects(i, 1));
+    }
+    assertFalse(manager.isLiveLatencyHigh());
+
+    dbHandler.available = false;
+    manager.storeData(createObjects(0, 100));
+    // the recovery batch blocks, so that the recovery stays running
+    dbHandler.available = true;
+    dbHandler.recoveryBlocked = new CountDownLatch(1);
+    manager.storeData(createObjects(100, 1));
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!manager.isRecoveryRunning() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(manager.isRecoveryRunning());
+
+    dbHandler.liveDelay = 20;
+    for (int i = 0; i < 5; i++) {
+      manager.storeData(createObjects(i, 1));
+    }
+    assertTrue(manager.isLiveLatencyHigh());
+    dbHandler.recoveryBlocked.countDown();
+    manager.finalize();
+  }
+
+  private static PersistenceManager<IFallback> createManager(final IDBPersistenceHandler<IFallback> dbHandler) throws IOException {
+    final File fallbackFile = File.createTempFile("DataTagFallback", ".log");
+    fallbackFile.deleteOnExit();
+    new File(fallbackFile.getParentFile(), ".Counter" + fallbackFile.getName()).deleteOnExit();
+    return new PersistenceManager<>(dbHandler, fallbackFile.getAbsolutePath(), new AlarmListenerImpl(), new FallbackImpl());
+  }
+
+  private static List<IFallback> createObjects(final int first, final int number) {
+    List<IFallback> objects = new ArrayList<>();
+    for (int i = first; i < first + number; i++) {
+      FallbackImpl object = new FallbackImpl();
+      object.setObjectData("object " + i);
+      objects.add(object);
+    }
+    return objects;
+  }
+
+  /**
+   * DB handler that can be made unavailable or slow
+   */
+  private static final class ControllableDBHandler implements IDBPersistenceHandler<IFallback> {
+
+    private final Set<String> stored = Collections.synchronizedSet(new HashSet<>());
+
+    private volatile boolean available = true;
+
+    /** Delay in milliseconds of the writes of a single object */
+    private volatile long liveDelay = 0;
+
+    /** If set, the writes of more than one object wait for it */
+    private volatile CountDownLatch recoveryBlocked;
+
+    private int concurrentWrites;
+
+    private int maxConcurrentWrites;
+
+    @Override
+    public String getDBInfo() {
+      return "test";
+    }
+
+    @Override
+    public void storeData(final IFallback object) throws IDBPersistenceException {
+      storeData(Collections.singletonList(object));
+    }
+
+    @Override
+    public void storeData(final List<IFallback> data) throws IDBPersistenceException {
+      if (!available) {
+        throw new IDBPersistenceException("Connection to the DB has been lost", 0);
+      }
+      try {
+        if (data.size() == 1 && liveDelay > 0) {
+          Thread.sleep(liveDelay);
+        } else if (data.size() > 1 && recoveryBlocked != null) {
+          recoveryBlocked.await(5, TimeUnit.SECONDS);
+        }
+        synchronized (this) {
+          concurrentWrites++;
+          maxConcurrentWrites = Math.max(maxConcurrentWrites, concurrentWrites);
+        }
+        // simulates the DB time, so that the recovery batches overlap
+        Thread.sleep(data.size() > 1 ? 20 : 0);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        synchronized (this) {
+          concurrentWrites = Math.max(0, concurrentWrites - 1);
+        }
+      }
+      for (IFallback object : data) {
+        stored.add(object.toString());
+      }
+    }
+  }
 }
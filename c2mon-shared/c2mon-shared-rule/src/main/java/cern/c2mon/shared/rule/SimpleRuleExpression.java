@@ -23,6 +23,7 @@ import java.util.Map;
 import java.util.Set;
 
 import cern.c2mon.shared.common.rule.RuleInputValue;
+import cern.c2mon.shared.rule.parser.CompiledExpression;
 import cern.c2mon.shared.rule.parser.InvalidExpressionParser;
 import cern.c2mon.shared.rule.parser.Parser;
 import cern.c2mon.shared.rule.parser.RuleConstant;
@@ -36,6 +37,17 @@ public class SimpleRuleExpression extends RuleExpression implements Cloneable {
      */
     private Object[] tokens = null;
 
+    /**
+     * Evaluator tree of the tokens, built on first evaluation. It is not serialized,
+     * but built again by the receiver of the rule.
+     */
+    private transient volatile CompiledExpression compiledExpression;
+
+    /**
+     * True once the tokens have been compiled, also if the compilation failed.
+     */
+    private transient volatile boolean compiled;
+
     public SimpleRuleExpression(final String pExpression) throws RuleFormatException {
         super(pExpression, RuleType.Simple);
         this.tokens = tokenize(pExpression);
@@ -520,9 +532,28 @@ public class SimpleRuleExpression extends RuleExpression implements Cloneable {
       return result;
     }
     
+    /**
+     * @return The compiled form of this expression, or null if it cannot be compiled
+     */
+    private CompiledExpression getCompiledExpression() {
+      if (!compiled) {
+        compiledExpression = CompiledExpression.compile(tokens);
+        compiled = true;
+      }
+      return compiledExpression;
+    }
+
     @Override
     public final Object evaluate(final Map<Long, Object> pInputParams) throws RuleEvaluationException {
 
+      final CompiledExpression compiledTree = getCompiledExpression();
+      if (compiledTree != null) {
+        final Object result = compiledTree.evaluate(pInputParams);
+        if (result != null) {
+          return result;
+        }
+      }
+      // not compilable, or input values the compiled expression cannot handle =>
       if (hasInvalidTags(pInputParams) || usesTheInvalidKeyword()) {
         // invalid tags found!  =>
         return handleRuleWithInvalidTags(pInputParams);
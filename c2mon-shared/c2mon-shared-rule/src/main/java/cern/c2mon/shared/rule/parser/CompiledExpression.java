@@ -0,0 +1,593 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.shared.rule.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import cern.c2mon.shared.common.rule.RuleInputValue;
+import cern.c2mon.shared.rule.RuleEvaluationException;
+import cern.c2mon.shared.rule.RuleInputTagId;
+
+/**
+ * Evaluator tree of a rule in token format, built once by {@link #compile(Object[])}
+ * and reused for every evaluation.
+ * <p>
+ * The tree is built by splitting the tokens exactly as {@link AbstractParser#eval(Object[])}
+ * does, so that the compiled expression gives the same results as the interpreter.
+ * The input values are read straight from the map passed to {@link #evaluate(Map)},
+ * without copying the tokens into a new array on each call. Numeric and boolean
+ * operators are first evaluated on primitive values; as soon as an operand turns
+ * out to have another type the operator falls back to
+ * {@link Parser#calculateExpr(Object, Object, Operator)}.
+ * <p>
+ * String values that would change the way the interpreter splits the tokens (such as
+ * a tag value "(") cannot be handled by the tree. In that case {@link #evaluate(Map)}
+ * returns <code>null</code> and the caller has to interpret the expression.
+ *
+ * @see cern.c2mon.shared.rule.SimpleRuleExpression
+ */
+public final class CompiledExpression {
+
+  private static final String INTERNAL_INVALID = RuleConstant.INTERNAL_INVALID.toString();
+
+  /** The root node of the evaluator tree */
+  private final Node root;
+
+  /** The input tag ids in the order they appear in the expression */
+  private final Long[] inputIds;
+
+  /** Whether the expression contains the {@link RuleConstant#INVALID_KEYWORD} */
+  private final boolean usesInvalidKeyword;
+
+  private CompiledExpression(final Node root, final Long[] inputIds, final boolean usesInvalidKeyword) {
+    this.root = root;
+    this.inputIds = inputIds;
+    this.usesInvalidKeyword = usesInvalidKeyword;
+  }
+
+  /**
+   * Builds the evaluator tree of the given rule.
+   *
+   * @param tokens rule in tokens format, with {@link RuleInputTagId} tokens for the input tags
+   * @return the compiled expression, or <code>null</code> if the expression is not
+   *         well formed and must be left to the interpreter (which reports the error)
+   */
+  public static CompiledExpression compile(final Object[] tokens) {
+    List<Long> inputIds = new ArrayList<>();
+    boolean usesInvalidKeyword = false;
+    for (Object token : tokens) {
+      if (token instanceof RuleInputTagId) {
+        inputIds.add(((RuleInputTagId) token).getId());
+      } else if (RuleConstant.INVALID_KEYWORD.toString().equals(token)) {
+        usesInvalidKeyword = true;
+      }
+    }
+
+    try {
+      return new CompiledExpression(compileNode(tokens), inputIds.toArray(new Long[inputIds.size()]), usesInvalidKeyword);
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * Evaluates the expression with the same rules as
+   * {@link cern.c2mon.shared.rule.SimpleRuleExpression#evaluate(Map)}: if one of the input
+   * tags is invalid or the expression uses the INVALID keyword, the expression is
+   * evaluated with the semantics of the {@link InvalidExpressionParser}.
+   *
+   * @param inputs Map of value objects related to the input tag ids
+   * @return the result of the expression, or <code>null</code> if the input values
+   *         cannot be handled by the compiled expression
+   * @throws RuleEvaluationException if an input tag is missing or null, or if the
+   *         result is invalid
+   */
+  public Object evaluate(final Map<Long, Object> inputs) throws RuleEvaluationException {
+    boolean invalidMode = usesInvalidKeyword;
+    for (int i = 0; i < inputIds.length && !invalidMode; i++) {
+      Object value = inputs.get(inputIds[i]);
+      invalidMode = value instanceof RuleInputValue && !((RuleInputValue) value).isValid();
+    }
+
+    for (Long id : inputIds) {
+      Object value = inputs.get(id);
+      if (value instanceof RuleInputValue) {
+        RuleInputValue tag = (RuleInputValue) value;
+        if (invalidMode && !tag.isValid()) {
+          continue;
+        }
+        value = tag.getValue();
+        if (value == null) {
+          throw new RuleEvaluationException("Cannot evaluate rule: tag " + tag.getId() + " is null.");
+        }
+      } else if (value == null) {
+        throw new RuleEvaluationException("Cannot evaluate rule: input tag missing " + id);
+      }
+      if (!isPlainValue(value)) {
+        return null;
+      }
+    }
+
+    Parser parser = invalidMode ? InvalidExpressionParser.getInstance() : Parser.getInstance();
+    Object result;
+    if (root instanceof LeafNode) {
+      result = root.evaluate(inputs, parser);
+    } else {
+      try {
+        result = root.evaluate(inputs, parser);
+      } catch (ClassCastException cce) {
+        throw cce;
+      } catch (Exception e) {
+        throw new RuntimeException("Unexpected error during rule evaluation.", e);
+      }
+    }
+
+    if (invalidMode && INTERNAL_INVALID.equals(result)) {
+      throw new RuleEvaluationException("Cannot evaluate rule: Invalid tags found!");
+    }
+    return result;
+  }
+
+  /**
+   * @return false if the value would be taken for a parenthesis or an unary operator
+   *         when splitting the tokens, and so change the structure of the expression
+   */
+  private static boolean isPlainValue(final Object value) {
+    if (value instanceof String) {
+      String str = (String) value;
+      return !str.isEmpty() && str.charAt(0) != '(' && str.charAt(0) != ')' && !str.equals("!") && !str.equals("-");
+    }
+    return !(value instanceof Character);
+  }
+
+  /**
+   * Mirrors the recursion of {@link AbstractParser#eval(Object[])}, but builds a node
+   * instead of evaluating the tokens.
+   */
+  private static Node compileNode(final Object[] token) {
+    Parser parser = Parser.getInstance();
+    if (!parser.isParenthesisBalanced(token)) {
+      throw new IllegalArgumentException("Parenthesis not balanced!");
+    }
+
+    if (token.length == 1) {
+      if (token[0] instanceof RuleInputTagId) {
+        return new InputNode(((RuleInputTagId) token[0]).getId());
+      }
+      return new ConstantNode(token[0]);
+    }
+
+    Object[] x = parser.extractExpressionFromTheLeft(token);
+
+    if (token[0] instanceof String
+        && token[token.length - 1] instanceof String
+        && x.length == token.length - 2
+        && token[0].equals("(")
+        && token[token.length - 1].equals(")")) {
+      return compileNode(x);
+    }
+
+    if (x.length == token.length) {
+      Node operand = compileNode(Arrays.copyOfRange(x, 1, x.length));
+      if ("!".equals(x[0])) {
+        return new NotNode(operand);
+      } else if ("-".equals(x[0])) {
+        return new NegationNode(operand);
+      }
+      throw new IllegalArgumentException("Cannot handle unary operator " + x[0]);
+    }
+
+    int operatorIndex = "(".equals(token[0]) ? x.length + 2 : x.length;
+    Operator op = Operator.fromString((String) token[operatorIndex]);
+    if (op == null) {
+      throw new IllegalArgumentException("Invalid operator " + token[operatorIndex]);
+    }
+    Node left = compileNode(x);
+    Node right = compileNode(Arrays.copyOfRange(token, operatorIndex + 1, token.length));
+
+    switch (op) {
+      case ADDITION:
+      case SUBTRACTION:
+      case MULTIPLICATION:
+      case DIVISION:
+      case RAISE_TO_POWER:
+        if (left.isNumeric() && right.isNumeric()) {
+          return new ArithmeticNode(op, left, right);
+        }
+        break;
+      case GREATER_THAN_COMPARISON:
+      case LESS_THAN_COMPARISON:
+      case GREATER_THAN_OR_EQUALS_COMPARISON:
+      case LESS_THAN_OR_EQUALS_COMPARISON:
+      case EQUALS_COMPARISON:
+      case NOT_EQUALS_COMPARISON:
+        if (left.isNumeric() && right.isNumeric()) {
+          return new ComparisonNode(op, left, right);
+        }
+        break;
+      case LOGICAL_AND:
+      case LOGICAL_OR:
+        if (left.isBoolean() && right.isBoolean()) {
+          return new LogicalNode(op, left, right);
+        }
+        break;
+      default:
+        break;
+    }
+    return new BinaryNode(op, left, right);
+  }
+
+  /**
+   * Thrown by the typed evaluation methods when an operand does not have the
+   * expected type. Never leaves the evaluator tree.
+   */
+  private static final class TypeMismatch extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final TypeMismatch INSTANCE = new TypeMismatch();
+
+    private TypeMismatch() {
+      super(null, null, false, false);
+    }
+  }
+
+  private abstract static class Node {
+
+    /**
+     * @return the result as the interpreter would compute it
+     */
+    abstract Object evaluate(Map<Long, Object> inputs, Parser parser) throws RuleEvaluationException;
+
+    /**
+     * @return the result as primitive; throws {@link TypeMismatch} if it is not a number
+     */
+    double evaluateDouble(final Map<Long, Object> inputs, final Parser parser) throws RuleEvaluationException {
+      Object value = evaluate(inputs, parser);
+      if (value instanceof Number) {
+        return ((Number) value).doubleValue();
+      }
+      throw TypeMismatch.INSTANCE;
+    }
+
+    /**
+     * @return the result as primitive; throws {@link TypeMismatch} if it is not a boolean
+     */
+    boolean evaluateBoolean(final Map<Long, Object> inputs, final Parser parser) throws RuleEvaluationException {
+      Object value = evaluate(inputs, parser);
+      if (value instanceof Boolean) {
+        return ((Boolean) value).booleanValue();
+      }
+      throw TypeMismatch.INSTANCE;
+    }
+
+    /**
+     * @return false if the node can never evaluate to a number
+     */
+    boolean isNumeric() {
+      return true;
+    }
+
+    /**
+     * @return false if the node can never evaluate to a boolean
+     */
+    boolean isBoolean() {
+      return true;
+    }
+  }
+
+  private abstract static class LeafNode extends Node {
+  }
+
+  private static final class ConstantNode extends LeafNode {
+
+    private final Object value;
+
+    ConstantNode(final Object value) {
+      this.value = value;
+    }
+
+    @Override
+    Object evaluate(final Map<Long, Object> inputs, final Parser parser) {
+      return value;
+    }
+
+    @Override
+    boolean isNumeric() {
+      return value instanceof Number;
+    }
+
+    @Override
+    boolean isBoolean() {
+      return value instanceof Boolean;
+    }
+  }
+
+  private static final class InputNode extends LeafNode {
+
+    private final Long id;
+
+    InputNode(final Long id) {
+      this.id = id;
+    }
+
+    @Override
+    Object evaluate(final Map<Long, Object> inputs, final Parser parser) {
+      Object value = inputs.get(id);
+      if (value instanceof RuleInputValue) {
+        RuleInputValue tag = (RuleInputValue) value;
+        if (parser instanceof InvalidExpressionParser && !tag.isValid()) {
+          return INTERNAL_INVALID;
+        }
+        return tag.getValue();
+      }
+      return value;
+    }
+  }
+
+  /**
+   * Unary "!": everything that is not TRUE evaluates to TRUE.
+   */
+  private static final class NotNode extends Node {
+
+    private final Node operand;
+
+    NotNode(final Node operand) {
+      this.operand = operand;
+    }
+
+    @Override
+    Object evaluate(final Map<Long, Object> inputs, final Parser parser) throws RuleEvaluationException {
+      return evaluateBoolean(inputs, parser) ? Boolean.TRUE : Boolean.FALSE;
+    }
+
+    @Override
+    boolean evaluateBoolean(final Map<Long, Object> inputs, final Parser parser) throws RuleEvaluationException {
+      return !operand.evaluate(inputs, parser).equals(Boolean.TRUE);
+    }
+
+    @Override
+    boolean isNumeric() {
+      return false;
+    }
+  }
+
+  /**
+   * Node with a typed evaluation path, which is abandoned for good once an operand
+   * of another type has been met. Rules with invalid tags are always evaluated
+   * through the generic path, as their operands may be invalid markers.
+   */
+  private abstract static class TypedNode extends Node {
+
+    /** Set to false after a {@link TypeMismatch}; races are harmless */
+    private boolean typed = true;
+
+    @Override
+    final Object evaluate(final Map<Long, Object> inputs, final Parser parser) throws RuleEvaluationException {
+      if (isTyped(parser)) {
+        try {
+          return evaluateTyped(inputs, parser);
+        } catch (TypeMismatch e) {
+          typed = false;
+        }
+      }
+      return evaluateGeneric(inputs, parser);
+    }
+
+    final boolean isTyped(final Parser parser) {
+      return typed && !(parser instanceof InvalidExpressionParser);
+    }
+
+    abstract Object evaluateTyped(Map<Long, Object> inputs, Parser parser) throws RuleEvaluationException;
+
+    abstract Object evaluateGeneric(Map<Long, Object> inputs, Parser parser) throws RuleEvaluationException;
+  }
+
+  /**
+   * Unary "-"
+   */
+  private static final class NegationNode extends TypedNode {
+
+    private final Node operand;
+
+    NegationNode(final Node operand) {
+      this.operand = operand;
+    }
+
+    @Override
+    Object evaluateTyped(final Map<Long, Object> inputs, final Parser parser) throws RuleEvaluationException {
+      return Double.valueOf(-operand.evaluateDouble(inputs, parser));
+    }
+
+    @Override
+    Object evaluateGeneric(final Map<Long, Object> inputs, final Parser parser) throws RuleEvaluationException {
+      return Double.valueOf(-((Number) operand.evaluate(inputs, parser)).doubleValue());
+    }
+
+    @Override
+    double evaluateDouble(final Map<Long, Object> inputs, final Parser parser) throws RuleEvaluationException {
+      if (isTyped(parser)) {
+        return -operand.evaluateDouble(inputs, parser);
+      }
+      return super.evaluateDouble(inputs, parser);
+    }
+
+    @Override
+    boolean isBoolean() {
+      return false;
+    }
+  }
+
+  /**
+   * Binary operator evaluated by the parser, used for all operators without a typed path.
+   */
+  private static class BinaryNode extends TypedNode {
+
+    final Operator op;
+
+    final Node left;
+
+    final Node right;
+
+    BinaryNode(final Operator op, final Node left, final Node right) {
+      this.op = op;
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    Object evaluateTyped(final Map<Long, Object> inputs, final Parser parser) throws RuleEvaluationException {
+      return evaluateGeneric(inputs, parser);
+    }
+
+    @Override
+    final Object evaluateGeneric(final Map<Long, Object> inputs, final Parser parser) throws RuleEvaluationException {
+      Object x = left.evaluate(inputs, parser);
+      Object y = right.evaluate(inputs, parser);
+      return parser.calculateExpr(x, y, op);
+    }
+  }
+
+  /**
+   * "+", "-", "*", "/" and "^" on numbers
+   */
+  private static final class ArithmeticNode extends BinaryNode {
+
+    ArithmeticNode(final Operator op, final Node left, final Node right) {
+      super(op, left, right);
+    }
+
+    @Override
+    Object evaluateTyped(final Map<Long, Object> inputs, final Parser parser) throws RuleEvaluationException {
+      return Double.valueOf(calculate(inputs, parser));
+    }
+
+    @Override
+    double evaluateDouble(final Map<Long, Object> inputs, final Parser parser) throws RuleEvaluationException {
+      if (isTyped(parser)) {
+        return calculate(inputs, parser);
+      }
+      return super.evaluateDouble(inputs, parser);
+    }
+
+    private double calculate(final Map<Long, Object> inputs, final Parser parser) throws RuleEvaluationException {
+      double x = left.evaluateDouble(inputs, parser);
+      double y = right.evaluateDouble(inputs, parser);
+      switch (op) {
+        case ADDITION:
+          return x + y;
+        case SUBTRACTION:
+          return x - y;
+        case MULTIPLICATION:
+          return x * y;
+        case DIVISION:
+          return x / y;
+        default:
+          return Math.pow(x, y);
+      }
+    }
+
+    @Override
+    boolean isBoolean() {
+      return false;
+    }
+  }
+
+  /**
+   * Comparison of two numbers
+   */
+  private static final class ComparisonNode extends BinaryNode {
+
+    ComparisonNode(final Operator op, final Node left, final Node right) {
+      super(op, left, right);
+    }
+
+    @Override
+    Object evaluateTyped(final Map<Long, Object> inputs, final Parser parser) throws RuleEvaluationException {
+      return compare(inputs, parser) ? Boolean.TRUE : Boolean.FALSE;
+    }
+
+    @Override
+    boolean evaluateBoolean(final Map<Long, Object> inputs, final Parser parser) throws RuleEvaluationException {
+      if (isTyped(parser)) {
+        return compare(inputs, parser);
+      }
+      return super.evaluateBoolean(inputs, parser);
+    }
+
+    private boolean compare(final Map<Long, Object> inputs, final Parser parser) throws RuleEvaluationException {
+      double x = left.evaluateDouble(inputs, parser);
+      double y = right.evaluateDouble(inputs, parser);
+      switch (op) {
+        case GREATER_THAN_COMPARISON:
+          return x > y;
+        case LESS_THAN_COMPARISON:
+          return x < y;
+        case GREATER_THAN_OR_EQUALS_COMPARISON:
+          return x >= y;
+        case LESS_THAN_OR_EQUALS_COMPARISON:
+          return x <= y;
+        case EQUALS_COMPARISON:
+          return x == y;
+        default:
+          return x != y;
+      }
+    }
+
+    @Override
+    boolean isNumeric() {
+      return false;
+    }
+  }
+
+  /**
+   * "&" and "|" on booleans. Both operands are always evaluated, as done by the interpreter.
+   */
+  private static final class LogicalNode extends BinaryNode {
+
+    LogicalNode(final Operator op, final Node left, final Node right) {
+      super(op, left, right);
+    }
+
+    @Override
+    Object evaluateTyped(final Map<Long, Object> inputs, final Parser parser) throws RuleEvaluationException {
+      return calculate(inputs, parser) ? Boolean.TRUE : Boolean.FALSE;
+    }
+
+    @Override
+    boolean evaluateBoolean(final Map<Long, Object> inputs, final Parser parser) throws RuleEvaluationException {
+      if (isTyped(parser)) {
+        return calculate(inputs, parser);
+      }
+      return super.evaluateBoolean(inputs, parser);
+    }
+
+    private boolean calculate(final Map<Long, Object> inputs, final Parser parser) throws RuleEvaluationException {
+      boolean x = left.evaluateBoolean(inputs, parser);
+      boolean y = right.evaluateBoolean(inputs, parser);
+      return op == Operator.LOGICAL_AND ? x && y : x || y;
+    }
+
+    @Override
+    boolean isNumeric() {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,242 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.shared.rule;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import cern.c2mon.shared.common.rule.RuleInputValue;
+import cern.c2mon.shared.rule.parser.CompiledExpression;
+import cern.c2mon.shared.rule.parser.InvalidExpressionParser;
+import cern.c2mon.shared.rule.parser.Parser;
+import cern.c2mon.shared.rule.parser.RuleConstant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Compares the results of the {@link CompiledExpression} with the ones of the
+ * token interpreter, for the same expressions and input values.
+ */
+public class CompiledExpressionTest {
+
+  private static final String[] EXPRESSIONS = {
+      "#1 + #2",
+      "#1 - #2 * 3",
+      "(#1 - #2) * 3",
+      "#1 / #2",
+      "#1 ^ 2",
+      "#1 > #2",
+      "#1 < #2",
+      "#1 >= #2",
+      "#1 <= #2",
+      "#1 = #2",
+      "#1 != #2",
+      "(#1 > 2) & (#2 < 5)",
+      "(#1 > 2) | (#2 < 5)",
+      "!(#1 > #2)",
+      "!#3",
+      "-(#1 + #2)",
+      "-#1",
+      "#1 && #2",
+      "#1 || 8",
+      "#3 & #4",
+      "#3 | (#1 = 2)",
+      "(((#1 + #2) / 2) > 1) & !(#3 | false)",
+      "#5 = \"ON\"",
+      "#5 > \"OFF\"",
+      "#5 < \"A\"",
+      "#1",
+      "#5",
+      "#1 = $INVALID",
+      "#1 != $INVALID",
+      "(#1 = $INVALID) | (#2 > 3)",
+      "(#1 * 2) > 0",
+      "#1 + #3",
+      "#3 + #1",
+      "#1 > \"ON\"",
+      "- 3 + 2",
+      "#1 #2",
+      "(#1 + 2",
+      "3 + #1) * 2",
+  };
+
+  private static final Object[] VALUES = {
+      Double.valueOf(2), Integer.valueOf(3), Long.valueOf(-4), Float.valueOf(2.5f), Double.NaN,
+      Boolean.TRUE, Boolean.FALSE, "ON", "OFF", "(", ")", "!", "-", "", Character.valueOf('('), null,
+  };
+
+  @Test
+  public void testSameResultsAsInterpreter() throws Exception {
+    for (String expression : EXPRESSIONS) {
+      Object[] tokens = SimpleRuleExpression.tokenize(expression);
+      CompiledExpression compiled = CompiledExpression.compile(tokens);
+
+      for (Object value1 : VALUES) {
+        for (Object value2 : VALUES) {
+          for (boolean valid : new boolean[] {true, false}) {
+            Map<Long, Object> inputs = new HashMap<>();
+            inputs.put(1L, new Input(1L, value1, valid));
+            inputs.put(2L, value2);
+            inputs.put(3L, new Input(3L, value2 instanceof Boolean ? value2 : Boolean.TRUE, true));
+            inputs.put(4L, Boolean.FALSE);
+            inputs.put(5L, new Input(5L, value2, true));
+            if (value2 == null) {
+              inputs.remove(2L);
+            }
+
+            String description = expression + " with #1=" + value1 + (valid ? "" : " (invalid)") + ", #2=" + value2;
+            Object expected = outcome(tokens, inputs, null);
+            Object actual = outcome(tokens, inputs, compiled);
+            assertEquals(description, expected, actual);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testMalformedExpressionsAreNotCompiled() throws Exception {
+    assertNull(CompiledExpression.compile(SimpleRuleExpression.tokenize("(#1 + 2")));
+    assertNull(CompiledExpression.compile(SimpleRuleExpression.tokenize("#1 #2")));
+    assertNull(CompiledExpression.compile(SimpleRuleExpression.tokenize("- 3 + 2")));
+    assertNotNull(CompiledExpression.compile(SimpleRuleExpression.tokenize("-(3 + 2)")));
+  }
+
+  @Test
+  public void testStructuralStringValueIsLeftToInterpreter() throws Exception {
+    CompiledExpression compiled = CompiledExpression.compile(SimpleRuleExpression.tokenize("#1 = \"ON\""));
+    Map<Long, Object> inputs = new HashMap<>();
+    inputs.put(1L, "(");
+
+    assertNull(compiled.evaluate(inputs));
+  }
+
+  @Test
+  public void testRuleExpressionUsesCompiledForm() throws Exception {
+    RuleExpression rule = RuleExpression.createExpression("(#1 + #2) > 4");
+    Map<Long, Object> inputs = new HashMap<>();
+    inputs.put(1L, new Input(1L, 2, true));
+    inputs.put(2L, 3.5f);
+
+    assertEquals(Boolean.TRUE, rule.evaluate(inputs));
+    inputs.put(2L, "text");
+    try {
+      rule.evaluate(inputs);
+      fail("String operand must not be added");
+    } catch (RuntimeException e) {
+      assertEquals(RuleEvaluationException.class, e.getCause().getClass());
+    }
+    inputs.put(2L, 1);
+    assertEquals(Boolean.FALSE, rule.evaluate(inputs));
+  }
+
+  /**
+   * @return the result, or the class and message of the exception thrown
+   */
+  private static Object outcome(final Object[] tokens, final Map<Long, Object> inputs, final CompiledExpression compiled) {
+    try {
+      if (compiled != null) {
+        Object result = compiled.evaluate(inputs);
+        if (result != null) {
+          return result;
+        }
+      }
+      return interpret(tokens, inputs);
+    } catch (Exception e) {
+      return e.getClass().getName() + ": " + e.getMessage();
+    }
+  }
+
+  /**
+   * The evaluation as done by {@link SimpleRuleExpression} before the rules were compiled.
+   */
+  private static Object interpret(final Object[] tokens, final Map<Long, Object> inputs) throws RuleEvaluationException {
+    boolean invalidMode = false;
+    for (Object token : tokens) {
+      Object value = token instanceof RuleInputTagId ? inputs.get(((RuleInputTagId) token).getId()) : null;
+      invalidMode |= RuleConstant.INVALID_KEYWORD.toString().equals(token)
+          || (value instanceof RuleInputValue && !((RuleInputValue) value).isValid());
+    }
+
+    Object[] valueTokens = new Object[tokens.length];
+    for (int i = 0; i < tokens.length; i++) {
+      valueTokens[i] = tokens[i];
+      if (tokens[i] instanceof RuleInputTagId) {
+        Long id = ((RuleInputTagId) tokens[i]).getId();
+        Object value = inputs.get(id);
+        if (value instanceof RuleInputValue) {
+          RuleInputValue tag = (RuleInputValue) value;
+          if (invalidMode && !tag.isValid()) {
+            valueTokens[i] = RuleConstant.INTERNAL_INVALID.toString();
+            continue;
+          }
+          value = tag.getValue();
+          if (value == null) {
+            throw new RuleEvaluationException("Cannot evaluate rule: tag " + id + " is null.");
+          }
+        } else if (value == null) {
+          throw new RuleEvaluationException("Cannot evaluate rule: input tag missing " + id);
+        }
+        valueTokens[i] = value;
+      }
+    }
+
+    if (!invalidMode) {
+      return Parser.getInstance().eval(valueTokens);
+    }
+    Object result = InvalidExpressionParser.getInstance().eval(valueTokens);
+    if (RuleConstant.INTERNAL_INVALID.toString().equals(result)) {
+      throw new RuleEvaluationException("Cannot evaluate rule: Invalid tags found!");
+    }
+    return result;
+  }
+
+  private static final class Input implements RuleInputValue {
+
+    private final Long id;
+
+    private final Object value;
+
+    private final boolean valid;
+
+    Input(final Long id, final Object value, final boolean valid) {
+      this.id = id;
+      this.value = value;
+      this.valid = valid;
+    }
+
+    @Override
+    public Long getId() {
+      return id;
+    }
+
+    @Override
+    public Object getValue() {
+      return value;
+    }
+
+    @Override
+    public boolean isValid() {
+      return valid;
+    }
+  }
+}
@@ -0,0 +1,203 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.shared.rule;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.springframework.core.io.ClassPathResource;
+
+import cern.c2mon.shared.common.rule.RuleInputValue;
+import cern.c2mon.shared.rule.parser.Parser;
+import cern.c2mon.shared.util.BenchmarkRunner;
+
+/**
+ * Compares the evaluation of the compiled rule expressions with the token
+ * interpreter they replace, on the rules of <code>rules.xml</code>. The
+ * conditions of the conditioned rules are measured as separate expressions.
+ * All input tags are valid. Not run as part of the unit tests, start it with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=cern.c2mon.shared.rule.RuleEvaluationBenchmark
+ * </pre>
+ */
+public final class RuleEvaluationBenchmark {
+
+  private RuleEvaluationBenchmark() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    List<Case> cases = new ArrayList<>();
+    List<String> mismatches = new ArrayList<>();
+    int skipped = 0;
+    for (RuleExpression rule : RuleExpression.createExpressionFromDatabaseXML(new ClassPathResource("rules.xml").getFile().getAbsolutePath())) {
+      List<String> expressions = new ArrayList<>();
+      if (rule instanceof ConditionedRuleExpression) {
+        for (IRuleCondition condition : ((ConditionedRuleExpression) rule).getConditions()) {
+          if (condition instanceof DefaultRuleCondition) {
+            expressions.add(((DefaultRuleCondition) condition).getExpression());
+          }
+        }
+      } else if (rule instanceof SimpleRuleExpression) {
+        expressions.add(rule.getExpression());
+      }
+      for (String expression : expressions) {
+        Case c = new Case(expression);
+        switch (c.compare()) {
+          case SAME:
+            cases.add(c);
+            break;
+          case DIFFERENT:
+            mismatches.add(expression);
+            break;
+          default:
+            skipped++;
+        }
+      }
+    }
+    System.out.printf("%d expressions, %d skipped (INVALID keyword or evaluation error)%n", cases.size(), skipped);
+    if (!mismatches.isEmpty()) {
+      System.out.printf("%d expressions evaluate differently when compiled:%n", mismatches.size());
+      for (String expression : mismatches) {
+        System.out.println("  " + expression);
+      }
+      System.exit(1);
+    }
+
+    run("Token interpreter", cases, false);
+    run("Compiled expression", cases, true);
+    System.exit(0);
+  }
+
+  /**
+   * Evaluates the expressions one after the other, one per operation.
+   */
+  private static void run(String name, List<Case> cases, boolean compiled) throws Exception {
+    int[] next = {0};
+    BenchmarkRunner.run(name, () -> {
+      Case c = cases.get(next[0]);
+      next[0] = (next[0] + 1) % cases.size();
+      if (compiled) {
+        c.expression.evaluate(c.inputs);
+      } else {
+        c.interpret();
+      }
+    });
+  }
+
+  /**
+   * An expression of the corpus with its input values: booleans for the tags
+   * compared with true or false, floats for the others.
+   */
+  private static final class Case {
+
+    private final SimpleRuleExpression expression;
+
+    private final Object[] tokens;
+
+    private final Map<Long, Object> inputs = new HashMap<>();
+
+    private Case(String text) throws RuleFormatException {
+      expression = new SimpleRuleExpression(text);
+      tokens = SimpleRuleExpression.tokenize(text);
+      int i = 0;
+      for (Long id : expression.getInputTagIds()) {
+        Pattern booleanInput = Pattern.compile("#" + id + "\\s*!?=\\s*(true|false)", Pattern.CASE_INSENSITIVE);
+        Object value = booleanInput.matcher(text).find() ? Boolean.valueOf(i % 2 == 0) : Float.valueOf(i * 3.5f);
+        inputs.put(id, new Input(id, value));
+        i++;
+      }
+    }
+
+    /**
+     * @return {@link Comparison#SKIPPED} if the expression uses the INVALID
+     *         keyword or fails in both evaluations, otherwise whether both
+     *         evaluations give the same result
+     */
+    private Comparison compare() {
+      if (expression.usesTheInvalidKeyword()) {
+        return Comparison.SKIPPED;
+      }
+      Object interpreted;
+      Object compiled;
+      try {
+        interpreted = interpret();
+      } catch (Exception e) {
+        interpreted = null;
+      }
+      try {
+        compiled = expression.evaluate(inputs);
+      } catch (Exception e) {
+        compiled = null;
+      }
+      if (interpreted == null && compiled == null) {
+        return Comparison.SKIPPED;
+      }
+      return interpreted != null && interpreted.equals(compiled) ? Comparison.SAME : Comparison.DIFFERENT;
+    }
+
+    /**
+     * The evaluation of valid inputs as done by {@link SimpleRuleExpression}
+     * before the rules were compiled.
+     */
+    private Object interpret() throws RuleEvaluationException {
+      Object[] valueTokens = new Object[tokens.length];
+      for (int i = 0; i < tokens.length; i++) {
+        valueTokens[i] = tokens[i];
+        if (tokens[i] instanceof RuleInputTagId) {
+          valueTokens[i] = ((RuleInputValue) inputs.get(((RuleInputTagId) tokens[i]).getId())).getValue();
+        }
+      }
+      return Parser.getInstance().eval(valueTokens);
+    }
+  }
+
+  private enum Comparison {
+    SAME, DIFFERENT, SKIPPED
+  }
+
+  private static final class Input implements RuleInputValue {
+
+    private final Long id;
+
+    private final Object value;
+
+    private Input(Long id, Object value) {
+      this.id = id;
+      this.value = value;
+    }
+
+    @Override
+    public Long getId() {
+      return id;
+    }
+
+    @Override
+    public Object getValue() {
+      return value;
+    }
+
+    @Override
+    public boolean isValid() {
+      return true;
+    }
+  }
+}
@@ -0,0 +1,389 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.shared.util.buffer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A SynchroBuffer with the same listener contract, where the producers never
+ * lock: the pushed objects go to a lock-free multi-producer queue, drained
+ * by a single firing thread. The buffer size is a striped counter, so that
+ * the producers only contend on the queue itself.
+ * <p>
+ * Instead of sleeping for a window and polling the buffer, the firing thread
+ * is woken up by the first object pushed to an empty buffer, and fires once
+ * the window (computed as in SynchroBuffer) is over, or as soon as
+ * <code>flushSize</code> objects are buffered. At most <code>flushSize</code>
+ * objects are pulled at once. The firing thread parks while the buffer is
+ * empty or disabled: the producers only wake it up if it is parked, and only
+ * read the buffer size while it waits for the flush size.
+ * <p>
+ * With the DUPLICATE_REPLACE and DUPLICATE_DISCARD policies, the buffered
+ * objects are indexed in a concurrent map, so that duplicates are resolved
+ * without a global lock. The maximum capacity is only applied with
+ * DUPLICATE_OK, as in SynchroBuffer.
+ * <p>
+ * Use {@link SynchroBuffer#create} to select the implementation with
+ * {@link SynchroBufferConfig}.
+ */
+public class QueueSynchroBuffer extends SynchroBuffer {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(QueueSynchroBuffer.class);
+
+  /**
+   * The frequency of the warnings if the buffer capacity is reached.
+   */
+  private static final int WARNING_FREQUENCY = 500;
+
+  /**
+   * The maximum time (in ms) between two checks of {@link #close()}.
+   */
+  private static final long CLOSE_CHECK_INTERVAL = 50;
+
+  /**
+   * Marks a duplicate slot already taken by the firing thread.
+   */
+  private static final Object TAKEN = new Object();
+
+  /**
+   * The buffered objects with DUPLICATE_OK, their slots otherwise.
+   */
+  private final Queue<Object> queue = new ConcurrentLinkedQueue<>();
+
+  /**
+   * The slots of the buffered objects, by object (DUPLICATE_REPLACE and
+   * DUPLICATE_DISCARD only).
+   */
+  private final ConcurrentMap<Object, Slot> slots = new ConcurrentHashMap<>();
+
+  /**
+   * The number of objects (or slots) in the queue.
+   */
+  private final LongAdder size = new LongAdder();
+
+  /**
+   * True while the firing thread is parked on an empty (or disabled) buffer.
+   */
+  private final AtomicBoolean idle = new AtomicBoolean(false);
+
+  /**
+   * True while the firing thread waits for the end of the window or the
+   * flush size.
+   */
+  private volatile boolean awaitingFlush = false;
+
+  private final AtomicInteger droppedCounter = new AtomicInteger();
+
+  /**
+   * Number of buffered objects firing the buffer before the end of the window,
+   * and maximum number of objects pulled at once.
+   */
+  private final int flushSize;
+
+  private final Thread firingThread;
+
+  private volatile SynchroBufferListener listener = null;
+
+  private volatile boolean closed = false;
+  private volatile boolean firing = false;
+  private volatile boolean enabled = false;
+
+  /**
+   * Constructor.
+   * @param name the name/description of the usage of the buffer (may be empty)
+   * @param minWindowSize the buffer window min size (msec)
+   * @param maxWindowSize the buffer window max size (msec)
+   * @param windowGrowthFactor the buffer window growth factor (size = minWindowSize + msg/sec x windowGrowthFactor)
+   * @param duplicatePolicy the buffer object duplication policy
+   * @param capacity the maximum size of the buffer with DUPLICATE_OK (FIFO once this size is reached), or INFINITE_CAPACITY
+   * @param daemon set as true if the firing thread should be a daemon thread
+   * @param flushSize the number of buffered objects firing the buffer before the end of the window
+   */
+  public QueueSynchroBuffer(String name, long minWindowSize, long maxWindowSize, int windowGrowthFactor, int duplicatePolicy,
+                            int capacity, boolean daemon, int flushSize) {
+    super(name, minWindowSize, maxWindowSize, windowGrowthFactor, duplicatePolicy, capacity);
+    if (flushSize <= 0) {
+      throw new IllegalArgumentException("flush size must be greater than zero");
+    }
+    this.flushSize = flushSize;
+    LOGGER.debug("QueueSynchroBuffer[minWindowSize=" + minWindowSize + ",maxWindowSize=" + maxWindowSize
+        + ",windowGrowthFactor=" + windowGrowthFactor + ",duplicatePolicy=" + duplicatePolicy + ",capacity=" + capacity
+        + ",flushSize=" + flushSize + ",daemon thread=" + daemon + "]");
+    firingThread = new Thread(this::runFiringThread, name == null || name.isEmpty() ? "QueueSynchroBuffer" : name);
+    firingThread.setDaemon(daemon);
+    firingThread.start();
+  }
+
+  @Override
+  public void push(Object object) {
+    if (closed) {
+      throw new IllegalArgumentException("buffer closed");
+    }
+    switch (duplicatePolicy) {
+      case SynchroBuffer.DUPLICATE_REPLACE:
+      case SynchroBuffer.DUPLICATE_DISCARD:
+        pushSlot(object);
+        break;
+      default:
+        queue.offer(object);
+        size.increment();
+        if (capacity != INFINITE_CAPACITY && size.sum() > capacity) {
+          dropOldest();
+        }
+        signal();
+    }
+  }
+
+  @Override
+  public void push(Collection collection) {
+    if (closed) {
+      throw new IllegalArgumentException("buffer closed");
+    }
+    if (collection != null) {
+      for (Object object : collection) {
+        push(object);
+      }
+    }
+  }
+
+  /**
+   * Replaces or discards the object if it is already buffered, otherwise
+   * buffers it in a new slot.
+   */
+  private void pushSlot(final Object object) {
+    while (true) {
+      Slot slot = slots.get(object);
+      if (slot != null) {
+        if (duplicatePolicy == SynchroBuffer.DUPLICATE_DISCARD ? !slot.isTaken() : slot.replace(object)) {
+          return;
+        }
+        // taken by the firing thread in the meantime
+        slots.remove(object, slot);
+      } else {
+        slot = new Slot(object);
+        if (slots.putIfAbsent(object, slot) == null) {
+          queue.offer(slot);
+          size.increment();
+          signal();
+          return;
+        }
+      }
+    }
+  }
+
+  private void dropOldest() {
+    if (queue.poll() != null) {
+      size.decrement();
+      if (droppedCounter.getAndIncrement() % WARNING_FREQUENCY == 0) {
+        LOGGER.warn("The maximum capacity of the SynchroBuffer was reached (current size is " + size.sum()
+            + ") - FIFO was applied to the buffer.");
+      }
+    }
+  }
+
+  /**
+   * Wakes up the firing thread if it is parked on an empty buffer, or if it
+   * waits for the flush size and the flush size is reached.
+   */
+  private void signal() {
+    if (idle.get()) {
+      if (idle.compareAndSet(true, false)) {
+        LockSupport.unpark(firingThread);
+      }
+    } else if (awaitingFlush && size.sum() >= flushSize) {
+      awaitingFlush = false;
+      LockSupport.unpark(firingThread);
+    }
+  }
+
+  @Override
+  public void setSynchroBufferListener(SynchroBufferListener listener) {
+    this.listener = listener;
+  }
+
+  @Override
+  public void enable() {
+    enabled = true;
+    LockSupport.unpark(firingThread);
+  }
+
+  @Override
+  public void disable() {
+    enabled = false;
+  }
+
+  @Override
+  public int getSize() {
+    return (int) size.sum();
+  }
+
+  @Override
+  public void empty() {
+    drain(null, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Close the buffer and deallocate resources. Waits for the buffer to empty
+   * in all cases. If the thread is a daemon thread, this method does not wait
+   * for the last firing to finish.
+   */
+  @Override
+  public void close() {
+    LOGGER.debug("synchro close");
+    closed = true;
+    LockSupport.unpark(firingThread);
+    while (!queue.isEmpty() || firing && !firingThread.isDaemon()) {
+      try {
+        Thread.sleep(Math.min(minWindowSize, CLOSE_CHECK_INTERVAL));
+      } catch (InterruptedException e) {
+        LOGGER.debug("InterruptedException");
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  private void runFiringThread() {
+    long windowSize = minWindowSize;
+    while (!closed || (!queue.isEmpty() && enabled)) {
+      if (!enabled || queue.isEmpty()) {
+        // checked again once marked idle, so that a push in between is not missed
+        idle.set(true);
+        if (!closed && (!enabled || queue.isEmpty())) {
+          LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(maxWindowSize));
+        }
+        idle.set(false);
+        continue;
+      }
+      // the window starts with the first buffered object
+      long windowStart = System.nanoTime();
+      long deadline = windowStart + TimeUnit.MILLISECONDS.toNanos(windowSize);
+      long remaining;
+      awaitingFlush = true;
+      while (!closed && enabled && size.sum() < flushSize && (remaining = deadline - System.nanoTime()) > 0) {
+        LockSupport.parkNanos(this, remaining);
+        awaitingFlush = true;
+      }
+      awaitingFlush = false;
+      if (!enabled) {
+        continue;
+      }
+      int fired = fire();
+      long elapsed = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - windowStart));
+      long objectsPerSec = 1000L * fired / elapsed;
+      windowSize = Math.min(minWindowSize + windowGrowthFactor * objectsPerSec, maxWindowSize);
+    }
+  }
+
+  /**
+   * @return the number of objects passed to the listener
+   */
+  private int fire() {
+    firing = true;
+    try {
+      List<Object> pulled = new ArrayList<>((int) Math.min(size.sum(), flushSize));
+      drain(pulled, flushSize);
+      SynchroBufferListener currentListener = listener;
+      if (currentListener != null && !pulled.isEmpty()) {
+        try {
+          currentListener.pull(new PullEvent(this, pulled));
+        } catch (Exception ex) {
+          LOGGER.error("Exception caught when calling registered SynchroBuffer listener", ex);
+        }
+      }
+      return pulled.size();
+    } finally {
+      firing = false;
+    }
+  }
+
+  /**
+   * Removes the buffered objects, oldest first.
+   * @param pulled the list to add them to, or null to discard them
+   * @param max the maximum number of objects to remove
+   */
+  private void drain(final List<Object> pulled, final int max) {
+    Object element;
+    int count = 0;
+    for (; count < max && (element = queue.poll()) != null; count++) {
+      Object object = element;
+      if (element instanceof Slot) {
+        Slot slot = (Slot) element;
+        slots.remove(slot.key, slot);
+        object = slot.take();
+      }
+      if (pulled != null) {
+        pulled.add(object);
+      }
+    }
+    size.add(-count);
+  }
+
+  /**
+   * The buffered position of an object with DUPLICATE_REPLACE and
+   * DUPLICATE_DISCARD, holding its latest duplicate until the firing thread
+   * takes it.
+   */
+  private static final class Slot {
+
+    private final Object key;
+
+    private final AtomicReference<Object> value;
+
+    private Slot(final Object object) {
+      this.key = object;
+      this.value = new AtomicReference<>(object);
+    }
+
+    private boolean isTaken() {
+      return value.get() == TAKEN;
+    }
+
+    /**
+     * @return false if the slot was already taken
+     */
+    private boolean replace(final Object object) {
+      Object current;
+      do {
+        current = value.get();
+        if (current == TAKEN) {
+          return false;
+        }
+      } while (!value.compareAndSet(current, object));
+      return true;
+    }
+
+    private Object take() {
+      return value.getAndSet(TAKEN);
+    }
+  }
+}
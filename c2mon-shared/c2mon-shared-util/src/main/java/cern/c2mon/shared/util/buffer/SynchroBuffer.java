@@ -35,23 +35,23 @@ public class SynchroBuffer {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(SynchroBuffer.class.getName());
   
-  private long minWindowSize;
-  private long maxWindowSize;
-  private int windowGrowthFactor;
-  private int duplicatePolicy;
+  protected long minWindowSize;
+  protected long maxWindowSize;
+  protected int windowGrowthFactor;
+  protected int duplicatePolicy;
   
   /**
    * The maximum number of objects that the synchrobuffer will accept.
    * Once this threshold is reached, FIFO will be applied.
    * (must be set greater than 0)
    */
-  private int capacity;
+  protected int capacity;
 
   /**
    * constant indicating infinite capacity of the buffer
    * (can lead to out of memory crashes).
    */
-  private static final int INFINITE_CAPACITY = 0;
+  public static final int INFINITE_CAPACITY = 0;
   
   /**
    * The counter for warning if the capacity is reached.
@@ -166,6 +166,71 @@ public class SynchroBuffer {
     int duplicate_policy = Integer.parseInt(properties.getProperty(SynchroBufferConfig.DUPLICATE_POLICY_PROPERTY));
     init("", min_window_size, max_window_size, window_growth_factor, duplicate_policy, SynchroBuffer.INFINITE_CAPACITY, false);
   }
+
+  /**
+   * Constructor for the subclasses doing their own buffering and firing: the
+   * arguments are checked and kept, but no checking thread is started.
+   * @param name the name/description of the usage of the buffer
+   * @param minWindowSize the buffer window min size (msec)
+   * @param maxWindowSize the buffer window max size (msec)
+   * @param windowGrowthFactor the buffer window growth factor (size = minWindowSize + msg/sec x windowGrowthFactor)
+   * @param duplicatePolicy the buffer object duplication policy
+   * @param capacity the maximum size of the buffer (FIFO once this size is reached), or INFINITE_CAPACITY
+   */
+  protected SynchroBuffer(String name, long minWindowSize, long maxWindowSize, int windowGrowthFactor, int duplicatePolicy, int capacity) {
+    LOGGER.debug("SynchroBuffer subclass " + name + " created");
+    checkArguments(minWindowSize, maxWindowSize, windowGrowthFactor);
+    this.minWindowSize = minWindowSize;
+    this.maxWindowSize = maxWindowSize;
+    this.windowGrowthFactor = windowGrowthFactor;
+    this.duplicatePolicy = duplicatePolicy;
+    this.capacity = capacity;
+  }
+
+  private SynchroBuffer(String name, long minWindowSize, long maxWindowSize, int windowGrowthFactor, int duplicatePolicy, int capacity, boolean daemon) {
+    init(name, minWindowSize, maxWindowSize, windowGrowthFactor, duplicatePolicy, capacity, daemon);
+  }
+
+  /**
+   * Creates a buffer of the implementation selected by the
+   * <code>synchrobuffer.implementation</code> property of {@link SynchroBufferConfig}:
+   * <UL>
+   * <LI>window (default): this class, firing after each window</LI>
+   * <LI>queue: {@link QueueSynchroBuffer}, firing when the window is over or <code>synchrobuffer.flushsize</code>
+   * objects are buffered</LI>
+   * </UL>
+   * As with the constructors, the maximum capacity is only supported with the duplicate policy DUPLICATE_OK.
+   * @param name the name/description of the usage of the buffer (may be empty)
+   * @param minWindowSize the buffer window min size (msec)
+   * @param maxWindowSize the buffer window max size (msec)
+   * @param windowGrowthFactor the buffer window growth factor (size = minWindowSize + msg/sec x windowGrowthFactor)
+   * @param duplicatePolicy the buffer object duplication policy
+   * @param capacity the maximum size of the buffer (FIFO once this size is reached), or INFINITE_CAPACITY
+   * @param daemon set as true if the firing thread should be a daemon thread
+   * @return the new buffer
+   */
+  public static SynchroBuffer create(String name, long minWindowSize, long maxWindowSize, int windowGrowthFactor, int duplicatePolicy,
+                                     int capacity, boolean daemon) {
+    if (capacity != SynchroBuffer.INFINITE_CAPACITY && duplicatePolicy != SynchroBuffer.DUPLICATE_OK) {
+      LOGGER.warn("The maximum capacity of the SynchroBuffer is only supported with the duplicatePolicy set to DUPLICATE_OK...");
+      LOGGER.warn("...switching duplicate policy to DUPLICATE_OK");
+      duplicatePolicy = SynchroBuffer.DUPLICATE_OK;
+    }
+    Properties properties = SynchroBufferConfig.getProperties(SynchroBuffer.class.getClassLoader());
+    if (SynchroBufferConfig.QUEUE_IMPLEMENTATION.equalsIgnoreCase(properties.getProperty(SynchroBufferConfig.IMPLEMENTATION_PROPERTY))) {
+      int flushSize = Integer.parseInt(properties.getProperty(SynchroBufferConfig.FLUSH_SIZE_PROPERTY));
+      return new QueueSynchroBuffer(name, minWindowSize, maxWindowSize, windowGrowthFactor, duplicatePolicy, capacity, daemon, flushSize);
+    }
+    return new SynchroBuffer(name, minWindowSize, maxWindowSize, windowGrowthFactor, duplicatePolicy, capacity, daemon);
+  }
+
+  private static void checkArguments(long minSize, long maxSize, int growthFactor) {
+    if ( (minSize <= 0) || (maxSize <= 0) || (growthFactor <= 0) ) {
+      throw(new IllegalArgumentException("arguments must be greater than zero"));
+    } else if ( maxSize <= minSize ) {
+      throw(new IllegalArgumentException("maximum window size must be greater than minimum window size"));
+    }
+  }
     
   /**
    * Initializes the SynchroBuffer.
@@ -181,22 +246,17 @@ public class SynchroBuffer {
                 + ",duplicatePolicy=" + (policy == SynchroBuffer.DUPLICATE_DISCARD ? "DUPLICATE_DISCARD" : (policy == SynchroBuffer.DUPLICATE_REPLACE ? "DUPLICATE_REPLACE" : "DUPLICATE_OK"))
                 + ", capacity=" + (capacity == SynchroBuffer.INFINITE_CAPACITY ? "INFINITE_CAPACITY" : Integer.toString(capacity))
                 + ", daemon thread=" + daemon + "]");
-    if ( (minSize <= 0) || (maxSize <= 0) || (growthFactor <= 0) ) {
-      throw(new IllegalArgumentException("arguments must be greater than zero"));
-    } else if ( maxSize <= minSize ) {
-      throw(new IllegalArgumentException("maximum window size must be greater than minimum window size"));
-    } else {
-      this.minWindowSize = minSize;
-      this.maxWindowSize = maxSize;
-      this.windowGrowthFactor = growthFactor;
-      this.duplicatePolicy = policy;
-      this.capacity = capacity;
-      buffer = new ArrayList();
-      bufferMap = new LinkedHashMap();
-      checkingThread = "".equalsIgnoreCase(name) ? new CheckingThread() : new CheckingThread(name);
-      checkingThread.setDaemon(daemon);
-      checkingThread.start();
-    }
+    checkArguments(minSize, maxSize, growthFactor);
+    this.minWindowSize = minSize;
+    this.maxWindowSize = maxSize;
+    this.windowGrowthFactor = growthFactor;
+    this.duplicatePolicy = policy;
+    this.capacity = capacity;
+    buffer = new ArrayList();
+    bufferMap = new LinkedHashMap();
+    checkingThread = "".equalsIgnoreCase(name) ? new CheckingThread() : new CheckingThread(name);
+    checkingThread.setDaemon(daemon);
+    checkingThread.start();
   }
   
   private long fire() {
@@ -381,7 +441,7 @@ public class SynchroBuffer {
    * Return the number of objects in the buffer.
    * @return the current size of the buffer
    */
-  public final int getSize() {
+  public int getSize() {
       synchronized (buffer) {
           return buffer.size();
       }
@@ -390,7 +450,7 @@ public class SynchroBuffer {
   /**
    * Empties the SynchroBuffer of all it's current content.
    */
-  public final void empty() {
+  public void empty() {
       synchronized (buffer) {
           buffer.clear();
           bufferMap.clear();
@@ -434,7 +494,7 @@ public class SynchroBuffer {
       LOGGER.debug("synchro checkingThread");
       while ( (!isClosed()) || (!isEmpty() && isEnabled()) ) {
         if (isEnabled()) {
-            objects_per_sec = (1000 * buffer.size()) / (wait_time + firing_time);
+            objects_per_sec = (1000L * buffer.size()) / (wait_time + firing_time);
           calculated_window_size = minWindowSize + ((long)(windowGrowthFactor * objects_per_sec));
           wait_time = ( (calculated_window_size < maxWindowSize) ? calculated_window_size : maxWindowSize );
           firing_time = fire();
@@ -48,11 +48,21 @@ public final class SynchroBufferConfig {
     public static final String  WINDOW_GROWTH_FACTOR_PROPERTY = "synchrobuffer.windowgrowthfactor";
     /** Field DUPLCATE_POLICY_PROPERTY           */
     public static final String  DUPLICATE_POLICY_PROPERTY = "synchrobuffer.duplicatepolicy";
+    /** Field IMPLEMENTATION_PROPERTY (used by SynchroBuffer.create) */
+    public static final String  IMPLEMENTATION_PROPERTY = "synchrobuffer.implementation";
+    /** Field FLUSH_SIZE_PROPERTY (used by the queue implementation) */
+    public static final String  FLUSH_SIZE_PROPERTY = "synchrobuffer.flushsize";
+    /** Value of IMPLEMENTATION_PROPERTY for the SynchroBuffer class */
+    public static final String  WINDOW_IMPLEMENTATION = "window";
+    /** Value of IMPLEMENTATION_PROPERTY for the QueueSynchroBuffer class */
+    public static final String  QUEUE_IMPLEMENTATION = "queue";
     
     private static final String DEFAULT_MIN_WINDOW_SIZE  = "500";
     private static final String DEFAULT_MAX_WINDOW_SIZE  = "5000";
     private static final String DEFAULT_WINDOW_GROWTH_FACTOR = "100";
     private static final String DEFAULT_DUPLICATE_POLICY = String.valueOf(SynchroBuffer.DUPLICATE_OK);
+    private static final String DEFAULT_IMPLEMENTATION = WINDOW_IMPLEMENTATION;
+    private static final String DEFAULT_FLUSH_SIZE = "10000";
     
     /**
      * Returns properties loaded from the SynchroBuffer configuration file.
@@ -107,6 +117,8 @@ public final class SynchroBufferConfig {
         sbProperties.setProperty(MAX_WINDOW_SIZE_PROPERTY, System.getProperty(MAX_WINDOW_SIZE_PROPERTY, sbProperties.getProperty(MAX_WINDOW_SIZE_PROPERTY, DEFAULT_MAX_WINDOW_SIZE)));
         sbProperties.setProperty(WINDOW_GROWTH_FACTOR_PROPERTY, System.getProperty(WINDOW_GROWTH_FACTOR_PROPERTY, sbProperties.getProperty(WINDOW_GROWTH_FACTOR_PROPERTY, DEFAULT_WINDOW_GROWTH_FACTOR)));
         sbProperties.setProperty(DUPLICATE_POLICY_PROPERTY, System.getProperty(DUPLICATE_POLICY_PROPERTY, sbProperties.getProperty(DUPLICATE_POLICY_PROPERTY, DEFAULT_DUPLICATE_POLICY)));
+        sbProperties.setProperty(IMPLEMENTATION_PROPERTY, System.getProperty(IMPLEMENTATION_PROPERTY, sbProperties.getProperty(IMPLEMENTATION_PROPERTY, DEFAULT_IMPLEMENTATION)));
+        sbProperties.setProperty(FLUSH_SIZE_PROPERTY, System.getProperty(FLUSH_SIZE_PROPERTY, sbProperties.getProperty(FLUSH_SIZE_PROPERTY, DEFAULT_FLUSH_SIZE)));
         StringWriter s_writer = new StringWriter();
         sbProperties.list(new PrintWriter(s_writer));
     }
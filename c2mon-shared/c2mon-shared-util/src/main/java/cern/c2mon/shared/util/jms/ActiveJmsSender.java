@@ -16,6 +16,7 @@
  *****************************************************************************/
 package cern.c2mon.shared.util.jms;
 
+import javax.jms.BytesMessage;
 import javax.jms.Destination;
 import javax.jms.JMSException;
 import javax.jms.Message;
@@ -117,6 +118,19 @@ public class ActiveJmsSender implements JmsSender {
     });
   }
   
+  @Override
+  public void sendToTopic(final byte[] bytes, final String jmsTopicName) {
+    if (bytes == null) {
+      throw new NullPointerException("Attempting to send a null binary message.");
+    }
+    Destination topic = new ActiveMQTopic(jmsTopicName);
+    jmsTemplate.send(topic, session -> {
+      BytesMessage message = session.createBytesMessage();
+      message.writeBytes(bytes);
+      return message;
+    });
+  }
+
   @Override
   public void sendToQueue(final String text, final String jmsQueueName) {
     if (text == null) {
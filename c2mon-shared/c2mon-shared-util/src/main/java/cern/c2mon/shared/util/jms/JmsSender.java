@@ -52,6 +52,15 @@ public interface JmsSender {
    * @throws JmsException if problem encountered with JMS
    */
   void sendToTopic(String text, String jmsTopic);
+
+  /**
+   * Sends a binary message to the specified topic. Does not expect any response.
+   * @param bytes the message body
+   * @param jmsTopic the topic name
+   * @throws NullPointerException if either argument is null
+   * @throws JmsException if problem encountered with JMS
+   */
+  void sendToTopic(byte[] bytes, String jmsTopic);
   
   /**
    * Sends a text message to a default destination (the implementation must provide
@@ -0,0 +1,143 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.shared.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Timing loop of the benchmarks found in the test sources of the C2MON
+ * modules, which only supply their workload. A measurement runs
+ * {@link #WARMUP_ITERATIONS} ignored iterations, followed by
+ * {@link #MEASURED_ITERATIONS} iterations whose rates are averaged.
+ * <p>
+ * Shared with the other modules through the test jar of
+ * <code>c2mon-shared-util</code>.
+ */
+public final class BenchmarkRunner {
+
+  public static final int WARMUP_ITERATIONS = 3;
+
+  public static final int MEASURED_ITERATIONS = 5;
+
+  /** Duration of an iteration of {@link #measure(Operation)} */
+  public static final long ITERATION_MILLIS = 1000;
+
+  private static final ThreadMXBean THREAD_BEAN = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  private BenchmarkRunner() {
+  }
+
+  /**
+   * Measures the operation with {@link #measure(Operation)} and prints the
+   * result under the given name.
+   */
+  public static Result run(String name, Operation operation) throws Exception {
+    Result result = measure(operation);
+    System.out.printf("%-36s %12.0f ops/s %10.0f bytes/op%n", name, result.getOpsPerSecond(), result.getBytesPerOperation());
+    return result;
+  }
+
+  /**
+   * Calls the operation repeatedly in the current thread during
+   * {@link #ITERATION_MILLIS} per iteration.
+   *
+   * @return the mean number of operations per second and the mean number of
+   *         bytes allocated by the current thread per operation
+   */
+  public static Result measure(Operation operation) throws Exception {
+    long threadId = Thread.currentThread().getId();
+    double total = 0;
+    double bytes = 0;
+    for (int i = 0; i < WARMUP_ITERATIONS + MEASURED_ITERATIONS; i++) {
+      long count = 0;
+      long allocatedBefore = THREAD_BEAN.getThreadAllocatedBytes(threadId);
+      long start = System.nanoTime();
+      long end = start + TimeUnit.MILLISECONDS.toNanos(ITERATION_MILLIS);
+      long now;
+      do {
+        operation.run();
+        count++;
+      } while ((now = System.nanoTime()) < end);
+      long allocated = THREAD_BEAN.getThreadAllocatedBytes(threadId) - allocatedBefore;
+      if (i >= WARMUP_ITERATIONS) {
+        total += count * 1e9 / (now - start);
+        bytes += (double) allocated / count;
+      }
+    }
+    return new Result(total / MEASURED_ITERATIONS, bytes / MEASURED_ITERATIONS);
+  }
+
+  /**
+   * For the benchmarks timing their iterations themselves, e.g. to spread
+   * the workload over several threads.
+   *
+   * @return the mean of the rates returned by the measured iterations
+   */
+  public static double averageRate(Iteration iteration) throws Exception {
+    double total = 0;
+    for (int i = 0; i < WARMUP_ITERATIONS + MEASURED_ITERATIONS; i++) {
+      double rate = iteration.run();
+      if (i >= WARMUP_ITERATIONS) {
+        total += rate;
+      }
+    }
+    return total / MEASURED_ITERATIONS;
+  }
+
+  /**
+   * The workload of a benchmark, called repeatedly by {@link #measure(Operation)}.
+   */
+  @FunctionalInterface
+  public interface Operation {
+    void run() throws Exception;
+  }
+
+  /**
+   * A complete iteration of a benchmark, called by {@link #averageRate(Iteration)}.
+   */
+  @FunctionalInterface
+  public interface Iteration {
+
+    /**
+     * @return the number of operations per second during the iteration
+     */
+    double run() throws Exception;
+  }
+
+  public static final class Result {
+
+    private final double opsPerSecond;
+
+    private final double bytesPerOperation;
+
+    private Result(double opsPerSecond, double bytesPerOperation) {
+      this.opsPerSecond = opsPerSecond;
+      this.bytesPerOperation = bytesPerOperation;
+    }
+
+    public double getOpsPerSecond() {
+      return opsPerSecond;
+    }
+
+    public double getBytesPerOperation() {
+      return bytesPerOperation;
+    }
+  }
+}
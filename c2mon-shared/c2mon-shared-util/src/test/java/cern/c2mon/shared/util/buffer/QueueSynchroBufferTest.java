@@ -0,0 +1,188 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.shared.util.buffer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QueueSynchroBufferTest {
+
+  private QueueSynchroBuffer buffer;
+
+  private final List<Object> pulled = new CopyOnWriteArrayList<>();
+
+  private final List<Integer> pullSizes = new CopyOnWriteArrayList<>();
+
+  @After
+  public void tearDown() {
+    buffer.enable();
+    buffer.close();
+  }
+
+  @Test
+  public void testFlushSizeFiresBeforeTheWindow() throws InterruptedException {
+    // a window much longer than the test
+    createBuffer(SynchroBuffer.DUPLICATE_OK, SynchroBuffer.INFINITE_CAPACITY, 60000, 10);
+    for (int i = 0; i < 25; i++) {
+      buffer.push(i);
+    }
+    waitForPulled(20);
+
+    assertEquals(20, pulled.size());
+    assertEquals(5, buffer.getSize());
+    buffer.close();
+    assertEquals(25, pulled.size());
+    assertEquals(Arrays.<Object>asList(0, 1, 2), pulled.subList(0, 3));
+  }
+
+  @Test
+  public void testWindowFiresBelowTheFlushSize() throws InterruptedException {
+    createBuffer(SynchroBuffer.DUPLICATE_OK, SynchroBuffer.INFINITE_CAPACITY, 50, 1000);
+    buffer.push(Arrays.asList("a", "b", "c"));
+    waitForPulled(3);
+
+    assertEquals(Arrays.<Object>asList("a", "b", "c"), pulled);
+    assertEquals(Arrays.asList(3), pullSizes);
+  }
+
+  @Test
+  public void testDisabledBufferKeepsTheObjects() throws InterruptedException {
+    createBuffer(SynchroBuffer.DUPLICATE_OK, SynchroBuffer.INFINITE_CAPACITY, 50, 1);
+    buffer.disable();
+    buffer.push("a");
+    Thread.sleep(200);
+    assertTrue(pulled.isEmpty());
+
+    buffer.enable();
+    waitForPulled(1);
+    assertEquals(1, pulled.size());
+  }
+
+  @Test
+  public void testDuplicateReplace() {
+    createBuffer(SynchroBuffer.DUPLICATE_REPLACE, SynchroBuffer.INFINITE_CAPACITY, 60000, 1000);
+    for (int i = 0; i < 10; i++) {
+      buffer.push(new Update(1, i));
+      buffer.push(new Update(2, i));
+    }
+    assertEquals(2, buffer.getSize());
+
+    buffer.close();
+    assertEquals(2, pulled.size());
+    assertEquals(9, ((Update) pulled.get(0)).value);
+    assertEquals(1, ((Update) pulled.get(0)).key);
+    assertEquals(9, ((Update) pulled.get(1)).value);
+  }
+
+  @Test
+  public void testDuplicateDiscard() {
+    createBuffer(SynchroBuffer.DUPLICATE_DISCARD, SynchroBuffer.INFINITE_CAPACITY, 60000, 1000);
+    for (int i = 0; i < 10; i++) {
+      buffer.push(new Update(1, i));
+    }
+
+    buffer.close();
+    assertEquals(1, pulled.size());
+    assertEquals(0, ((Update) pulled.get(0)).value);
+  }
+
+  @Test
+  public void testCapacityDropsTheOldestObjects() {
+    createBuffer(SynchroBuffer.DUPLICATE_OK, 5, 60000, 1000);
+    for (int i = 0; i < 8; i++) {
+      buffer.push(i);
+    }
+    assertEquals(5, buffer.getSize());
+
+    buffer.close();
+    assertEquals(Arrays.<Object>asList(3, 4, 5, 6, 7), pulled);
+  }
+
+  @Test
+  public void testConcurrentProducers() throws InterruptedException {
+    createBuffer(SynchroBuffer.DUPLICATE_OK, SynchroBuffer.INFINITE_CAPACITY, 10, 100);
+    List<Thread> producers = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      Thread producer = new Thread(() -> {
+        for (int i = 0; i < 10000; i++) {
+          buffer.push(i);
+        }
+      });
+      producers.add(producer);
+      producer.start();
+    }
+    for (Thread producer : producers) {
+      producer.join();
+    }
+
+    buffer.close();
+    assertEquals(40000, pulled.size());
+    assertEquals(0, buffer.getSize());
+  }
+
+  /**
+   * Creates a buffer with a non-daemon firing thread, so that close() returns
+   * after the last objects are passed to the listener.
+   */
+  private void createBuffer(int duplicatePolicy, int capacity, long windowSize, int flushSize) {
+    buffer = new QueueSynchroBuffer("QueueSynchroBufferTest", windowSize, windowSize * 2, 1, duplicatePolicy, capacity, false, flushSize);
+    buffer.setSynchroBufferListener(event -> {
+      pullSizes.add(event.getPulled().size());
+      pulled.addAll(event.getPulled());
+    });
+    buffer.enable();
+  }
+
+  private void waitForPulled(int expected) throws InterruptedException {
+    for (int i = 0; i < 100 && pulled.size() < expected; i++) {
+      Thread.sleep(20);
+    }
+  }
+
+  /**
+   * Duplicates are updates of the same key
+   */
+  private static final class Update {
+
+    private final int key;
+
+    private final int value;
+
+    private Update(int key, int value) {
+      this.key = key;
+      this.value = value;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Update && ((Update) other).key == key;
+    }
+
+    @Override
+    public int hashCode() {
+      return key;
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/******************************************************************************
+ * Copyright (C) 2010-2016 CERN. All rights not expressly granted are reserved.
+ *
+ * This file is part of the CERN Control and Monitoring Platform 'C2MON'.
+ * C2MON is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the license.
+ *
+ * C2MON is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with C2MON. If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+package cern.c2mon.shared.util.buffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import cern.c2mon.shared.util.BenchmarkRunner;
+
+/**
+ * Multi-producer push throughput of {@link SynchroBuffer} and
+ * {@link QueueSynchroBuffer}, with a listener only counting the pulled
+ * objects. Not run as part of the unit tests, start it with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=cern.c2mon.shared.util.buffer.SynchroBufferBenchmark [-Dexec.args="threads"]
+ * </pre>
+ */
+public final class SynchroBufferBenchmark {
+
+  /** Objects pushed by each producer per iteration */
+  private static final int PUSHES_PER_PRODUCER = 200000;
+
+  private SynchroBufferBenchmark() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+    for (int policy : new int[] {SynchroBuffer.DUPLICATE_OK, SynchroBuffer.DUPLICATE_REPLACE}) {
+      run("SynchroBuffer", new SynchroBuffer("Benchmark", 200, 1000, 100, policy), threads, policy);
+      run("QueueSynchroBuffer", new QueueSynchroBuffer("Benchmark", 200, 1000, 100, policy, SynchroBuffer.INFINITE_CAPACITY, true, 10000),
+          threads, policy);
+    }
+    System.exit(0);
+  }
+
+  private static void run(String name, SynchroBuffer buffer, int threads, int policy) throws Exception {
+    LongAdder pulled = new LongAdder();
+    buffer.setSynchroBufferListener(event -> pulled.add(event.getPulled().size()));
+    buffer.enable();
+
+    double rate = BenchmarkRunner.averageRate(() -> {
+      List<Thread> producers = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        final long firstKey = t * 1000L;
+        // with DUPLICATE_REPLACE, each producer updates its own 1000 keys
+        producers.add(new Thread(() -> {
+          for (int j = 0; j < PUSHES_PER_PRODUCER; j++) {
+            buffer.push(Long.valueOf(firstKey + j % 1000));
+          }
+        }, "Producer-" + t));
+      }
+      long start = System.nanoTime();
+      for (Thread producer : producers) {
+        producer.start();
+      }
+      for (Thread producer : producers) {
+        producer.join();
+      }
+      long elapsed = System.nanoTime() - start;
+      // let the buffer be emptied between the iterations
+      while (buffer.getSize() > 0) {
+        Thread.sleep(10);
+      }
+      return (double) threads * PUSHES_PER_PRODUCER * TimeUnit.SECONDS.toNanos(1) / elapsed;
+    });
+    buffer.close();
+    System.out.printf("%s, policy %d, %d producer(s): %.0f pushes/s on average, %d objects pulled%n",
+        name, policy, threads, rate, pulled.sum());
+  }
+}